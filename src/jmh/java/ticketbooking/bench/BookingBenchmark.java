@@ -0,0 +1,80 @@
+package ticketbooking.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import ticketbooking.entities.Train;
+import ticketbooking.services.TrainService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Seat booking through TrainService: book a random seat on a random leg, then give it back,
+ * so the seat maps stay at their fixture occupancy for the whole run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BookingBenchmark {
+
+    @Param({"100", "5000"})
+    public int trains;
+
+    private Path dataDir;
+    private TrainService trainService;
+    private List<Train> trainList;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("booking-bench");
+        FixtureGenerator.generate(dataDir, 0, trains, 42L);
+        trainService = new TrainService(dataDir);
+        trainList = FixtureGenerator.trains(trains, 42L).stream()
+                .map(train -> trainService.getTrainById(train.getTrainId()).orElseThrow())
+                .toList();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        trainService.close();
+        BenchFiles.deleteRecursively(dataDir);
+    }
+
+    private boolean bookAndRelease() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Train train = trainList.get(random.nextInt(trainList.size()));
+        List<String> stations = train.getStations();
+        int from = random.nextInt(stations.size() - 1);
+        int to = from + 1 + random.nextInt(stations.size() - 1 - from);
+        int row = random.nextInt(train.getSeats().rows());
+        int seat = random.nextInt(train.getSeats().seatsInRow(row));
+        if (trainService.bookTicket(train, row, seat, stations.get(from), stations.get(to))) {
+            return trainService.releaseSeat(train, row, seat, stations.get(from), stations.get(to));
+        }
+        return false;
+    }
+
+    @Benchmark
+    public boolean singleThread() {
+        return bookAndRelease();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public boolean eightThreads() {
+        return bookAndRelease();
+    }
+}
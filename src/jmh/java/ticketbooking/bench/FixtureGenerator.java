@@ -0,0 +1,186 @@
+package ticketbooking.bench;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Train;
+import ticketbooking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Writes synthetic user.json and trains.json files in the same layout the services read, for
+ * benchmarks and load tests. Output is deterministic for a given seed.
+ *
+ * Usage: {@code FixtureGenerator <dir> <users> <trains> [seed]}
+ */
+public class FixtureGenerator {
+
+    public static final String PASSWORD = "password";
+
+    static final String[] STATIONS = {
+            "delhi", "mumbai", "kolkata", "chennai", "bangalore", "hyderabad", "ahmedabad", "pune", "jaipur",
+            "lucknow", "kanpur", "nagpur", "indore", "bhopal", "patna", "vadodara", "ludhiana", "agra",
+            "nashik", "varanasi", "surat", "amritsar", "allahabad", "ranchi", "coimbatore", "jodhpur",
+            "madurai", "raipur", "kota", "guwahati", "chandigarh", "mysore", "bhubaneswar", "jabalpur",
+            "gwalior", "vijayawada", "dehradun", "jammu", "udaipur", "ajmer", "bikaner", "jhansi", "haridwar",
+            "trivandrum", "kochi", "mangalore", "hubli", "belgaum", "goa", "solapur", "aurangabad", "rajkot",
+            "bhavnagar", "siliguri", "asansol", "dhanbad", "gaya", "gorakhpur", "bareilly", "moradabad"
+    };
+
+    private static final int ROWS = 8;
+    private static final int SEATS_PER_ROW = 72;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.out.println("Usage: FixtureGenerator <dir> <users> <trains> [seed]");
+            return;
+        }
+        Path dir = Paths.get(args[0]);
+        int users = Integer.parseInt(args[1]);
+        int trains = Integer.parseInt(args[2]);
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 42L;
+        generate(dir, users, trains, seed);
+        System.out.println("Wrote " + users + " users and " + trains + " trains to " + dir.toAbsolutePath());
+    }
+
+    /**
+     * Writes both files into {@code dir}. Every user's password is {@link #PASSWORD}.
+     */
+    public static void generate(Path dir, int users, int trains, long seed) throws IOException {
+        Files.createDirectories(dir);
+        List<Train> trainList = trains(trains, seed);
+        writeTrains(dir.resolve("trains.json"), trainList);
+        writeUsers(dir.resolve("user.json"), users, trainList, seed);
+    }
+
+    /**
+     * Trains running 6-20 stops between randomly chosen cities, with eight 72-seat coaches
+     * about a third of which is already sold.
+     */
+    public static List<Train> trains(int count, long seed) {
+        Random random = new Random(seed);
+        List<Train> trains = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int stops = 6 + random.nextInt(15);
+            List<String> stations = new ArrayList<>(stops);
+            while (stations.size() < stops) {
+                String station = STATIONS[random.nextInt(STATIONS.length)];
+                if (!stations.contains(station)) stations.add(station);
+            }
+            Map<String, String> times = new LinkedHashMap<>();
+            LocalTime time = LocalTime.of(random.nextInt(24), random.nextInt(4) * 15);
+            for (String station : stations) {
+                times.put(station, time.toString() + ":00");
+                time = time.plusMinutes(30 + random.nextInt(150));
+            }
+            int[] widths = new int[ROWS];
+            java.util.Arrays.fill(widths, SEATS_PER_ROW);
+            SeatInventory seats = new SeatInventory(widths, stops - 1);
+            for (int row = 0; row < ROWS; row++) {
+                for (int seat = 0; seat < SEATS_PER_ROW; seat++) {
+                    if (random.nextInt(3) == 0) {
+                        int from = random.nextInt(stops - 1);
+                        seats.book(row, seat, from, from + 1 + random.nextInt(stops - 1 - from));
+                    }
+                }
+            }
+            trains.add(new Train("T" + (10000 + i), String.valueOf(10000 + i), seats, times, stations));
+        }
+        return trains;
+    }
+
+    private static void writeTrains(Path path, List<Train> trains) throws IOException {
+        try (JsonGenerator gen = new JsonFactory().createGenerator(path.toFile(), JsonEncoding.UTF8)) {
+            gen.writeStartArray();
+            for (Train train : trains) {
+                gen.writeStartObject();
+                gen.writeStringField("train_id", train.getTrainId());
+                gen.writeStringField("train_no", train.getTrainNo());
+                gen.writeFieldName("seats");
+                gen.writeStartArray();
+                SeatInventory seats = train.getSeats();
+                for (int row = 0; row < seats.rows(); row++) {
+                    gen.writeStartArray();
+                    for (int seat = 0; seat < seats.seatsInRow(row); seat++) {
+                        gen.writeNumber(seats.isBooked(row, seat) ? 1 : 0);
+                    }
+                    gen.writeEndArray();
+                }
+                gen.writeEndArray();
+                gen.writeFieldName("seat_segments");
+                gen.writeStartObject();
+                for (Map.Entry<String, List<Integer>> entry : seats.partialSegments().entrySet()) {
+                    gen.writeFieldName(entry.getKey());
+                    gen.writeStartArray();
+                    for (int segment : entry.getValue()) gen.writeNumber(segment);
+                    gen.writeEndArray();
+                }
+                gen.writeEndObject();
+                gen.writeFieldName("station_times");
+                gen.writeStartObject();
+                for (Map.Entry<String, String> entry : train.getStationTimes().entrySet()) {
+                    gen.writeStringField(entry.getKey(), entry.getValue());
+                }
+                gen.writeEndObject();
+                gen.writeFieldName("stations");
+                gen.writeStartArray();
+                for (String station : train.getStations()) gen.writeString(station);
+                gen.writeEndArray();
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    /**
+     * Users named user0, user1, ... each holding 0-3 tickets on the given trains. All share one
+     * bcrypt hash, since hashing a million passwords would take hours.
+     */
+    private static void writeUsers(Path path, int count, List<Train> trains, long seed) throws IOException {
+        Random random = new Random(seed + 1);
+        String hash = UserServiceUtil.hashPassword(PASSWORD);
+        try (JsonGenerator gen = new JsonFactory().createGenerator(path.toFile(), JsonEncoding.UTF8)) {
+            gen.writeStartArray();
+            for (int i = 0; i < count; i++) {
+                String userId = "u-" + i;
+                gen.writeStartObject();
+                gen.writeStringField("name", "user" + i);
+                gen.writeStringField("hashed_password", hash);
+                gen.writeFieldName("tickets_booked");
+                gen.writeStartArray();
+                int tickets = trains.isEmpty() ? 0 : random.nextInt(4);
+                for (int t = 0; t < tickets; t++) {
+                    Train train = trains.get(random.nextInt(trains.size()));
+                    List<String> stations = train.getStations();
+                    int from = random.nextInt(stations.size() - 1);
+                    int to = from + 1 + random.nextInt(stations.size() - 1 - from);
+                    gen.writeStartObject();
+                    gen.writeStringField("ticket_id", userId + "-t" + t);
+                    gen.writeStringField("user_id", userId);
+                    gen.writeStringField("source", stations.get(from));
+                    gen.writeStringField("destination", stations.get(to));
+                    gen.writeStringField("date_of_travel", "2025-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10) + "T"
+                            + train.getStationTimes().get(stations.get(from)) + "Z");
+                    gen.writeStringField("train_id", train.getTrainId());
+                    gen.writeStringField("seat_number", random.nextInt(ROWS) + "-" + random.nextInt(SEATS_PER_ROW));
+                    gen.writeEndObject();
+                }
+                gen.writeEndArray();
+                gen.writeStringField("user_id", userId);
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,408 @@
+package ticketbooking.bench;
+
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.services.BookingService;
+import ticketbooking.services.TrainService;
+import ticketbooking.services.UserBookingService;
+import ticketbooking.util.LatencyHistogram;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+
+/**
+ * Opening-minute rush against the service layer: many threads released at the same instant,
+ * each booking, searching and cancelling as fast as it can for a fixed time. Trains are picked
+ * from a Zipf distribution, so a handful of hot trains take most of the bookings and sell out
+ * under contention, the way Tatkal quotas do.
+ *
+ * Bookings go through {@link BookingService#allocate}, for a party of one up to
+ * {@code party} passengers. Searches are {@link TrainService#getTrains} between two stations
+ * of a train picked the same way. Cancels give back one of the thread's own earlier bookings.
+ *
+ * Afterwards every ticket booked during the run is checked against the seat maps and the user
+ * store: no two live tickets may share a seat on the same leg, every live ticket's seat must
+ * be taken, every cancelled ticket's seat free again unless rebooked, and the store must hold
+ * exactly the live ones. Throughput, latency percentiles per operation and heap and GC figures
+ * are printed along with the number of violations.
+ *
+ * Usage: {@code LoadGenerator [name=value ...]}, see {@link #DEFAULTS} for the names. Without
+ * {@code dir} fixtures are generated into a temporary directory that is deleted afterwards.
+ */
+public class LoadGenerator {
+
+    static final Map<String, String> DEFAULTS = new LinkedHashMap<>();
+
+    static {
+        DEFAULTS.put("threads", "256");
+        DEFAULTS.put("seconds", "30");
+        DEFAULTS.put("users", "20000");
+        DEFAULTS.put("trains", "1000");
+        // Zipf exponent; 0 spreads load evenly, above 1 piles it onto the first few trains
+        DEFAULTS.put("zipf", "1.1");
+        // relative weights of the three operations
+        DEFAULTS.put("book", "70");
+        DEFAULTS.put("search", "25");
+        DEFAULTS.put("cancel", "5");
+        DEFAULTS.put("party", "4");
+        DEFAULTS.put("seed", "42");
+        DEFAULTS.put("dir", "");
+    }
+
+    private enum Op { BOOK, SEARCH, CANCEL }
+
+    private record Booked(User user, Ticket ticket) {}
+
+    private final TrainService trainService;
+    private final UserBookingService userBookingService;
+    private final BookingService bookingService;
+    private final List<User> users;
+    private final List<Train> trains;
+    private final double[] zipf;
+    private final int bookWeight;
+    private final int searchWeight;
+    private final int cancelWeight;
+    private final int party;
+
+    private final Map<Op, LatencyHistogram> latency = new HashMap<>();
+    private final AtomicLong seatsSold = new AtomicLong();
+    private final AtomicLong soldOut = new AtomicLong();
+    private final AtomicLong failedCancels = new AtomicLong();
+    private final Map<String, Ticket> live = new ConcurrentHashMap<>();
+    private final Map<String, Ticket> cancelled = new ConcurrentHashMap<>();
+    private volatile boolean stopped;
+
+    LoadGenerator(TrainService trainService, UserBookingService userBookingService, BookingService bookingService,
+                  List<User> users, List<Train> trains, Map<String, String> options) {
+        this.trainService = trainService;
+        this.userBookingService = userBookingService;
+        this.bookingService = bookingService;
+        this.users = users;
+        this.trains = trains;
+        this.zipf = zipfCdf(trains.size(), Double.parseDouble(options.get("zipf")));
+        this.bookWeight = Integer.parseInt(options.get("book"));
+        this.searchWeight = Integer.parseInt(options.get("search"));
+        this.cancelWeight = Integer.parseInt(options.get("cancel"));
+        this.party = Math.max(1, Integer.parseInt(options.get("party")));
+        for (Op op : Op.values()) latency.put(op, new LatencyHistogram());
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>(DEFAULTS);
+        for (String arg : args) {
+            int eq = arg.indexOf('=');
+            if (eq < 0 || !DEFAULTS.containsKey(arg.substring(0, eq))) {
+                System.out.println("Usage: LoadGenerator [name=value ...], names and defaults: " + DEFAULTS);
+                return;
+            }
+            options.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int userCount = Integer.parseInt(options.get("users"));
+        int trainCount = Integer.parseInt(options.get("trains"));
+        long seed = Long.parseLong(options.get("seed"));
+        boolean temporary = options.get("dir").isBlank();
+        Path dataDir = temporary ? Files.createTempDirectory("load-test") : Paths.get(options.get("dir"));
+        if (temporary || !Files.exists(dataDir.resolve("trains.json"))) {
+            FixtureGenerator.generate(dataDir, userCount, trainCount, seed);
+        }
+        System.out.println("Options: " + options);
+
+        UserBookingService userBookingService = new UserBookingService(dataDir);
+        TrainService trainService = new TrainService(dataDir);
+        BookingService bookingService = new BookingService(trainService, userBookingService);
+        try {
+            List<User> users = new ArrayList<>(userCount);
+            for (int i = 0; i < userCount; i++) {
+                userBookingService.getUserByName("user" + i).ifPresent(users::add);
+            }
+            // the generator's order, so the hottest train is the same one from run to run
+            List<Train> trains = new ArrayList<>();
+            for (Train train : FixtureGenerator.trains(trainCount, seed)) {
+                trainService.getTrainById(train.getTrainId()).ifPresent(trains::add);
+            }
+            if (users.isEmpty() || trains.isEmpty()) {
+                System.out.println("No users or trains in " + dataDir + "; it must hold fixtures from FixtureGenerator");
+                return;
+            }
+            LoadGenerator generator = new LoadGenerator(trainService, userBookingService, bookingService,
+                    users, trains, options);
+            generator.run(Integer.parseInt(options.get("threads")), Integer.parseInt(options.get("seconds")), seed);
+        } finally {
+            bookingService.close();
+            userBookingService.close();
+            trainService.close();
+            if (temporary) BenchFiles.deleteRecursively(dataDir);
+        }
+    }
+
+    void run(int threadCount, int seconds, long seed) throws InterruptedException {
+        System.gc();
+        Map<String, long[]> gcBefore = gcTotals();
+        List<MemoryPoolMXBean> heapPools = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+        heapPools.forEach(MemoryPoolMXBean::resetPeakUsage);
+        LongAccumulator peakHeap = new LongAccumulator(Math::max, 0);
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>(threadCount);
+        SplittableRandom seeds = new SplittableRandom(seed);
+        for (int i = 0; i < threadCount; i++) {
+            SplittableRandom random = seeds.split();
+            Thread thread = new Thread(() -> work(start, random), "load-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+
+        long began = System.nanoTime();
+        start.countDown();
+        long lastOps = 0;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(Math.max(0, began + second * 1_000_000_000L - System.nanoTime()) / 1_000_000);
+            long heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+            peakHeap.accumulate(heap);
+            long ops = totalOps();
+            System.out.printf("%3ds %9d ops/s %9d seats sold %7d MB heap%n",
+                    second, ops - lastOps, seatsSold.get(), heap >> 20);
+            lastOps = ops;
+        }
+        stopped = true;
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        double elapsed = (System.nanoTime() - began) / 1e9;
+
+        System.out.println();
+        System.out.printf("%d threads, %.1fs, %d ops, %.0f ops/s%n", threadCount, elapsed, totalOps(), totalOps() / elapsed);
+        System.out.printf("%-7s %10s %10s %10s %10s %10s%n", "op", "count", "p50 ms", "p99 ms", "p999 ms", "max ms");
+        for (Op op : Op.values()) {
+            LatencyHistogram histogram = latency.get(op);
+            System.out.printf("%-7s %10d %10.3f %10.3f %10.3f %10.3f%n", op.name().toLowerCase(), histogram.count(),
+                    millis(histogram.percentile(0.5)), millis(histogram.percentile(0.99)),
+                    millis(histogram.percentile(0.999)), millis(histogram.maxNanos()));
+        }
+        System.out.printf("Seats sold %d, bookings turned away %d, tickets cancelled %d, cancels failed %d%n",
+                seatsSold.get(), soldOut.get(), cancelled.size(), failedCancels.get());
+        Train hottest = trains.get(0);
+        List<String> stations = hottest.getStations();
+        System.out.printf("Hottest train %s has %d of %d seats left end to end%n", hottest.getTrainId(),
+                trainService.seatsLeft(hottest, stations.get(0), stations.get(stations.size() - 1)),
+                seatCount(hottest.getSeats()));
+
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        long poolPeaks = heapPools.stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+        System.out.printf("Heap: %d MB used, %d MB committed, %d MB max, peak sampled %d MB, pool peaks %d MB%n",
+                heap.getUsed() >> 20, heap.getCommitted() >> 20, heap.getMax() >> 20, peakHeap.get() >> 20, poolPeaks >> 20);
+        for (Map.Entry<String, long[]> entry : gcTotals().entrySet()) {
+            long[] before = gcBefore.getOrDefault(entry.getKey(), new long[2]);
+            System.out.printf("GC %s: %d collections, %d ms%n", entry.getKey(),
+                    entry.getValue()[0] - before[0], entry.getValue()[1] - before[1]);
+        }
+
+        int violations = verify();
+        System.out.println(violations == 0 ? "Consistency: OK" : "Consistency: " + violations + " violations");
+    }
+
+    private void work(CountDownLatch start, SplittableRandom random) {
+        List<Booked> mine = new ArrayList<>();
+        try {
+            start.await();
+        } catch (InterruptedException e) {
+            return;
+        }
+        int total = bookWeight + searchWeight + cancelWeight;
+        while (!stopped) {
+            int pick = random.nextInt(total);
+            Op op = pick < bookWeight ? Op.BOOK : pick < bookWeight + searchWeight ? Op.SEARCH : Op.CANCEL;
+            if (op == Op.CANCEL && mine.isEmpty()) op = Op.BOOK;
+            long started = System.nanoTime();
+            switch (op) {
+                case BOOK -> book(random, mine);
+                case SEARCH -> search(random);
+                case CANCEL -> cancel(random, mine);
+            }
+            latency.get(op).recordSince(started);
+        }
+    }
+
+    private void book(SplittableRandom random, List<Booked> mine) {
+        User user = users.get(random.nextInt(users.size()));
+        Train train = trains.get(nextTrain(random));
+        List<String> stations = train.getStations();
+        int from = random.nextInt(stations.size() - 1);
+        int to = from + 1 + random.nextInt(stations.size() - 1 - from);
+        Optional<List<Ticket>> tickets = bookingService.allocate(user, train.getTrainId(), stations.get(from),
+                stations.get(to), 1 + random.nextInt(party), true);
+        if (tickets.isEmpty()) {
+            soldOut.incrementAndGet();
+            return;
+        }
+        for (Ticket ticket : tickets.get()) {
+            live.put(ticket.getTicketId(), ticket);
+            mine.add(new Booked(user, ticket));
+        }
+        seatsSold.addAndGet(tickets.get().size());
+    }
+
+    private void search(SplittableRandom random) {
+        List<String> stations = trains.get(nextTrain(random)).getStations();
+        int from = random.nextInt(stations.size() - 1);
+        int to = from + 1 + random.nextInt(stations.size() - 1 - from);
+        trainService.getTrains(stations.get(from), stations.get(to));
+    }
+
+    private void cancel(SplittableRandom random, List<Booked> mine) {
+        int index = random.nextInt(mine.size());
+        Booked booked = mine.get(index);
+        mine.set(index, mine.get(mine.size() - 1));
+        mine.remove(mine.size() - 1);
+        String ticketId = booked.ticket().getTicketId();
+        if (bookingService.cancel(booked.user(), ticketId)) {
+            cancelled.put(ticketId, booked.ticket());
+            live.remove(ticketId);
+        } else {
+            failedCancels.incrementAndGet();
+        }
+    }
+
+    private int nextTrain(SplittableRandom random) {
+        int index = Arrays.binarySearch(zipf, random.nextDouble());
+        return Math.min(index < 0 ? -index - 1 : index, zipf.length - 1);
+    }
+
+    /**
+     * Cumulative probabilities of ranks 1..n under Zipf's law with the given exponent.
+     */
+    static double[] zipfCdf(int n, double exponent) {
+        double[] cdf = new double[n];
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += 1 / Math.pow(i + 1, exponent);
+            cdf[i] = sum;
+        }
+        for (int i = 0; i < n; i++) {
+            cdf[i] /= sum;
+        }
+        return cdf;
+    }
+
+    private record Leg(Ticket ticket, int from, int to) {}
+
+    /**
+     * Checks the run's tickets against the seat maps and the user store, printing the first few
+     * problems. Returns how many there were.
+     */
+    int verify() {
+        Map<String, Train> byId = new HashMap<>();
+        trains.forEach(train -> byId.put(train.getTrainId(), train));
+        Map<String, List<Leg>> bySeat = new HashMap<>();
+        List<String> problems = new ArrayList<>();
+
+        for (Ticket ticket : live.values()) {
+            Leg leg = legOf(byId.get(ticket.getTrainId()), ticket);
+            if (leg == null) {
+                problems.add("ticket " + ticket.getTicketId() + " has no readable seat or stations");
+                continue;
+            }
+            bySeat.computeIfAbsent(ticket.getTrainId() + "/" + ticket.getSeatNumber(), key -> new ArrayList<>()).add(leg);
+            Train train = byId.get(ticket.getTrainId());
+            SeatInventory.Seat seat = SeatInventory.Seat.parse(ticket.getSeatNumber()).orElseThrow();
+            if (trainService.isSeatFree(train, seat.row(), seat.seat(), ticket.getSource(), ticket.getDestination())) {
+                problems.add("ticket " + ticket.getTicketId() + " holds seat " + seat + " on " + train.getTrainId() + " but it is free");
+            }
+            if (userBookingService.findTicket(ticket.getTicketId()).isEmpty()) {
+                problems.add("ticket " + ticket.getTicketId() + " is missing from the user store");
+            }
+        }
+
+        for (Map.Entry<String, List<Leg>> entry : bySeat.entrySet()) {
+            List<Leg> legs = entry.getValue();
+            legs.sort(Comparator.comparingInt(Leg::from));
+            int reachedTo = -1;
+            for (Leg leg : legs) {
+                if (leg.from() < reachedTo) {
+                    problems.add("oversold " + entry.getKey() + ": ticket " + leg.ticket().getTicketId() + " overlaps another");
+                }
+                reachedTo = Math.max(reachedTo, leg.to());
+            }
+        }
+
+        for (Ticket ticket : cancelled.values()) {
+            if (userBookingService.findTicket(ticket.getTicketId()).isPresent()) {
+                problems.add("cancelled ticket " + ticket.getTicketId() + " is still in the user store");
+            }
+            // its legs must be free again unless a live ticket has them now
+            Train train = byId.get(ticket.getTrainId());
+            Leg leg = legOf(train, ticket);
+            if (leg == null) continue;
+            List<Leg> holders = bySeat.getOrDefault(ticket.getTrainId() + "/" + ticket.getSeatNumber(), List.of());
+            SeatInventory.Seat seat = SeatInventory.Seat.parse(ticket.getSeatNumber()).orElseThrow();
+            List<String> stations = train.getStations();
+            for (int segment = leg.from(); segment < leg.to(); segment++) {
+                int s = segment;
+                boolean rebooked = holders.stream().anyMatch(holder -> holder.from() <= s && s < holder.to());
+                if (!rebooked && !trainService.isSeatFree(train, seat.row(), seat.seat(), stations.get(s), stations.get(s + 1))) {
+                    problems.add("cancelled ticket " + ticket.getTicketId() + " left seat " + seat + " on "
+                            + train.getTrainId() + " taken between " + stations.get(s) + " and " + stations.get(s + 1));
+                }
+            }
+        }
+
+        problems.stream().limit(20).forEach(problem -> System.out.println("  " + problem));
+        return problems.size();
+    }
+
+    private static Leg legOf(Train train, Ticket ticket) {
+        if (train == null || SeatInventory.Seat.parse(ticket.getSeatNumber()).isEmpty()) return null;
+        int from = train.getStations().indexOf(ticket.getSource());
+        int to = train.getStations().indexOf(ticket.getDestination());
+        return from < 0 || to <= from ? null : new Leg(ticket, from, to);
+    }
+
+    private long totalOps() {
+        long ops = 0;
+        for (LatencyHistogram histogram : latency.values()) ops += histogram.count();
+        return ops;
+    }
+
+    private static int seatCount(SeatInventory seats) {
+        int count = 0;
+        for (int row = 0; row < seats.rows(); row++) count += seats.seatsInRow(row);
+        return count;
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1e6;
+    }
+
+    private static Map<String, long[]> gcTotals() {
+        Map<String, long[]> totals = new LinkedHashMap<>();
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals.put(gc.getName(), new long[]{gc.getCollectionCount(), gc.getCollectionTime()});
+        }
+        return totals;
+    }
+}
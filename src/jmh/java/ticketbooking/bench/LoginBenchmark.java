@@ -0,0 +1,62 @@
+package ticketbooking.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ticketbooking.entities.User;
+import ticketbooking.services.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Login by name and password. The bcrypt check dominates; this shows the user lookup staying
+ * flat as the user count grows. Run with -Dticketbooking.bcrypt.cost=4 in the fixture to see
+ * the lookup on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class LoginBenchmark {
+
+    @Param({"1000", "100000", "1000000"})
+    public int users;
+
+    private Path dataDir;
+    private UserBookingService userBookingService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("login-bench");
+        FixtureGenerator.generate(dataDir, users, 50, 42L);
+        userBookingService = new UserBookingService(dataDir);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        userBookingService.close();
+        BenchFiles.deleteRecursively(dataDir);
+    }
+
+    @Benchmark
+    public Optional<User> knownUser() {
+        int i = ThreadLocalRandom.current().nextInt(users);
+        return userBookingService.login("user" + i, FixtureGenerator.PASSWORD);
+    }
+
+    @Benchmark
+    public Optional<User> unknownUser() {
+        return userBookingService.login("nobody" + ThreadLocalRandom.current().nextInt(users), FixtureGenerator.PASSWORD);
+    }
+}
@@ -0,0 +1,75 @@
+package ticketbooking.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.services.TrainService;
+import ticketbooking.services.UserBookingService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of making a booking durable: one journal append versus rewriting the whole user
+ * snapshot, which is what every booking used to cost.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PersistenceBenchmark {
+
+    @Param({"1000", "100000"})
+    public int users;
+
+    private Path dataDir;
+    private UserBookingService userBookingService;
+    private TrainService trainService;
+    private List<Train> trainList;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dataDir = Files.createTempDirectory("persistence-bench");
+        FixtureGenerator.generate(dataDir, users, 50, 42L);
+        userBookingService = new UserBookingService(dataDir);
+        trainService = new TrainService(dataDir);
+        trainList = trainService.getTrains("delhi", "mumbai");
+        if (trainList.isEmpty()) {
+            trainList = List.of(trainService.getTrainById("T10000").orElseThrow());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        userBookingService.close();
+        trainService.close();
+        BenchFiles.deleteRecursively(dataDir);
+    }
+
+    @Benchmark
+    public Boolean journaledBooking() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        User user = userBookingService.getUserById("u-" + random.nextInt(users)).orElseThrow();
+        Train train = trainList.get(random.nextInt(trainList.size()));
+        List<String> stations = train.getStations();
+        return userBookingService.addBooking(user, train, random.nextInt(8), random.nextInt(72),
+                stations.get(0), stations.get(stations.size() - 1));
+    }
+
+    @Benchmark
+    public void fullSnapshot() throws IOException {
+        userBookingService.checkpoint();
+    }
+}
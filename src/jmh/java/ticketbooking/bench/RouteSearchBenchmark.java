@@ -0,0 +1,80 @@
+package ticketbooking.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import ticketbooking.entities.Train;
+import ticketbooking.services.RouteIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Source/destination search: the route index against the linear indexOf scan it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RouteSearchBenchmark {
+
+    @Param({"100", "1000", "10000", "50000"})
+    public int trains;
+
+    private List<Train> trainList;
+    private RouteIndex routeIndex;
+    private String[][] queries;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        trainList = FixtureGenerator.trains(trains, 42L);
+        routeIndex = new RouteIndex();
+        for (int i = 0; i < trainList.size(); i++) {
+            routeIndex.add(i, trainList.get(i).getStations());
+        }
+        Random random = new Random(7);
+        queries = new String[1024][];
+        for (int i = 0; i < queries.length; i++) {
+            queries[i] = new String[]{
+                    FixtureGenerator.STATIONS[random.nextInt(FixtureGenerator.STATIONS.length)],
+                    FixtureGenerator.STATIONS[random.nextInt(FixtureGenerator.STATIONS.length)]};
+        }
+    }
+
+    private String[] nextQuery() {
+        return queries[next++ & (queries.length - 1)];
+    }
+
+    @Benchmark
+    public List<Train> indexed() {
+        String[] query = nextQuery();
+        List<Train> result = new ArrayList<>();
+        for (int ordinal : routeIndex.search(query[0], query[1])) {
+            result.add(trainList.get(ordinal));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<Train> linearScan() {
+        String[] query = nextQuery();
+        List<Train> result = new ArrayList<>();
+        for (Train train : trainList) {
+            List<String> stations = train.getStations();
+            int sourceIndex = stations.indexOf(query[0]);
+            int destinationIndex = stations.indexOf(query[1]);
+            if (sourceIndex != -1 && destinationIndex != -1 && sourceIndex < destinationIndex) {
+                result.add(train);
+            }
+        }
+        return result;
+    }
+}
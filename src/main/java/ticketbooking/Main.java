@@ -1,10 +1,19 @@
 package ticketbooking;
 
+import ticketbooking.entities.Itinerary;
 import ticketbooking.entities.Train;
 import ticketbooking.entities.User;
 import ticketbooking.entities.Ticket;
+import ticketbooking.server.BookingServer;
+import ticketbooking.server.ReplicationServer;
+import ticketbooking.services.BookingService;
+import ticketbooking.services.Cluster;
+import ticketbooking.services.ReplicationFollower;
 import ticketbooking.services.TrainService;
 import ticketbooking.services.UserBookingService;
+import ticketbooking.storage.ReplicationLog;
+import ticketbooking.storage.ReplicationRecord;
+import ticketbooking.util.BookingConfig;
 import ticketbooking.util.UserServiceUtil;
 
 import java.io.IOException;
@@ -26,6 +35,16 @@ public class Main {
             System.out.println("IO Error: " + e.getMessage());
             return;
         }
+        BookingService bookingService = new BookingService(trainService, userBookingService);
+
+        // `--server [port]` serves the HTTP API instead of the interactive menu; a cluster node
+        // listens on the ports given for it in ticketbooking.cluster.nodes
+        if (args.length > 0 && args[0].equals("--server")) {
+            Cluster cluster = Cluster.fromConfig();
+            int port = cluster.isClustered() ? cluster.self().httpPort() : args.length > 1 ? Integer.parseInt(args[1]) : 8080;
+            runServer(port, cluster, userBookingService, trainService, bookingService);
+            return;
+        }
 
         User loggedInUser = null;
         Train trainSelectedForBooking = null;
@@ -78,13 +97,10 @@ public class Main {
                     String username = readNonEmptyInput(scanner, "Enter username to login:");
                     String password = readNonEmptyInput(scanner, "Enter password:");
 
-                    User userToLogin = new User(username, password,
-                            UserServiceUtil.hashPassword(password),
-                            new ArrayList<>(), UUID.randomUUID().toString());
-
-                    userBookingService.setUser(userToLogin);
-                    if (userBookingService.login()) {
-                        loggedInUser = userToLogin;
+                    Optional<User> userToLogin = userBookingService.login(username, password);
+                    if (userToLogin.isPresent()) {
+                        userBookingService.setUser(userToLogin.get());
+                        loggedInUser = userToLogin.get();
                         System.out.println("Login successful!");
                     } else {
                         System.out.println("Login unsuccessful! Please try again.");
@@ -121,13 +137,28 @@ public class Main {
                     if (trains.isEmpty()) {
                         System.out.println("No trains found for this route.");
                         trainSelectedForBooking = null;
+                        List<Itinerary> journeys = trainService.findJourneys(selectedSource, selectedDestination, null, 3);
+                        if (!journeys.isEmpty()) {
+                            System.out.println("Journeys with a change of train:");
+                            for (Itinerary journey : journeys) {
+                                StringBuilder line = new StringBuilder();
+                                for (Itinerary.Leg leg : journey.legs()) {
+                                    if (line.length() > 0) line.append(" | ");
+                                    line.append(leg.trainId()).append(' ').append(leg.source()).append(' ')
+                                            .append(leg.departure()).append(" -> ").append(leg.destination())
+                                            .append(' ').append(leg.arrival());
+                                }
+                                System.out.println(line + " (" + journey.durationMinutes() + " min)");
+                            }
+                        }
                         break;
                     }
 
                     System.out.println("Available trains:");
                     for (int i = 0; i < trains.size(); i++) {
                         Train t = trains.get(i);
-                        System.out.println((i + 1) + ". Train ID: " + t.getTrainId());
+                        System.out.println((i + 1) + ". Train ID: " + t.getTrainId()
+                                + " | Seats left: " + trainService.seatsLeft(t, selectedSource, selectedDestination));
                     }
 
                     while (true) {
@@ -161,11 +192,10 @@ public class Main {
                     System.out.println("Selected Train: " + trainSelectedForBooking.getTrainId()
                             + " | Route: " + selectedSource + " -> " + selectedDestination);
 
-                    List<List<Integer>> seats = trainService.fetchSeats(trainSelectedForBooking);
                     System.out.println("Seat layout (0 = available, 1 = booked):");
-                    for (int r = 0; r < seats.size(); r++) {
-                        for (int c = 0; c < seats.get(r).size(); c++) {
-                            System.out.print(seats.get(r).get(c) + " ");
+                    for (List<Integer> row : trainService.seatMap(trainSelectedForBooking, selectedSource, selectedDestination)) {
+                        for (Integer seat : row) {
+                            System.out.print(seat + " ");
                         }
                         System.out.println();
                     }
@@ -173,10 +203,19 @@ public class Main {
                     int row = readIntInput(scanner, "Enter row:");
                     int col = readIntInput(scanner, "Enter column:");
 
-                    boolean booked = trainService.bookTicket(trainSelectedForBooking, row, col);
-                    if (booked) {
+                    Optional<Ticket> booked = bookingService.book(loggedInUser, trainSelectedForBooking.getTrainId(),
+                            row, col, selectedSource, selectedDestination);
+                    if (booked.isPresent()) {
                         System.out.println("Seat booked successfully!");
-                        userBookingService.addBooking(loggedInUser, trainSelectedForBooking, row, col, selectedSource, selectedDestination);
+                    } else if (trainService.seatsLeft(trainSelectedForBooking, selectedSource, selectedDestination) == 0) {
+                        System.out.println("The train is full between these stations. Join the waitlist? (y/n)");
+                        if (scanner.nextLine().trim().equalsIgnoreCase("y")) {
+                            bookingService.joinWaitlist(loggedInUser, trainSelectedForBooking.getTrainId(),
+                                            selectedSource, selectedDestination, 0)
+                                    .ifPresentOrElse(entry -> System.out.println("Added to the waitlist, entry " + entry.entryId()
+                                                    + ". You will get a ticket if a seat comes free."),
+                                            () -> System.out.println("Could not join the waitlist, a seat may have come free."));
+                        }
                     } else {
                         System.out.println("Seat already booked or invalid!");
                     }
@@ -209,17 +248,8 @@ public class Main {
                         int choice = Integer.parseInt(scanner.nextLine().trim()) - 1;
                         if (choice >= 0 && choice < bookings.size()) {
                             Ticket ticketToCancel = bookings.get(choice);
-                            boolean canceled = userBookingService.cancelBooking(ticketToCancel.getTicketId());
-                            if (canceled) {
-                                Optional<Train> trainToUpdate = trainService.getTrainById(ticketToCancel.getTrainId());
-                                if(trainToUpdate.isPresent()) {
-                                    List<List<Integer>> seats = trainService.fetchSeats(trainToUpdate.get());
-                                    String[] seat= ticketToCancel.getSeatNumber().split("-");
-                                    seats.get(Integer.parseInt(seat[0])).set(Integer.parseInt(seat[1]),0);
-                                    trainToUpdate.get().setSeats(seats);
-                                    trainService.updateTrain(trainToUpdate.get());
-                                    System.out.println("Booking canceled successfully!");
-                                }
+                            if (bookingService.cancel(loggedInUser, ticketToCancel.getTicketId())) {
+                                System.out.println("Booking canceled successfully!");
                             } else {
                                 System.out.println("Failed to cancel booking.");
                             }
@@ -235,6 +265,7 @@ public class Main {
                     if (loggedInUser != null) {
                         System.out.println("User " + loggedInUser.getName() + " logged out successfully!");
                         loggedInUser = null;
+                        userBookingService.setUser(null);
                         trainSelectedForBooking = null;
                         selectedSource = null;
                         selectedDestination = null;
@@ -245,6 +276,13 @@ public class Main {
 
                 case 8 -> {
                     System.out.println("Exiting the App...");
+                    bookingService.close();
+                    try {
+                        userBookingService.close();
+                        trainService.close();
+                    } catch (IOException e) {
+                        System.out.println("IO Error: " + e.getMessage());
+                    }
                     break;
                 }
 
@@ -254,6 +292,55 @@ public class Main {
         }
     }
 
+    private static void runServer(int port, Cluster cluster, UserBookingService userBookingService,
+                                  TrainService trainService, BookingService bookingService) {
+        try {
+            // a cluster node sends its own changes out through its log and follows the other nodes'
+            if (cluster.isClustered() && BookingConfig.clusterSecret().isEmpty()) {
+                System.out.println("A cluster node needs ticketbooking.cluster.secret set to serve and follow replication");
+                bookingService.close();
+                userBookingService.close();
+                trainService.close();
+                return;
+            }
+            ReplicationLog log = cluster.isClustered()
+                    ? new ReplicationLog(BookingConfig.dataDir().resolve("replication.log")) : null;
+            String bind = BookingConfig.replicationBind().isEmpty() ? cluster.self().host() : BookingConfig.replicationBind();
+            ReplicationServer replicationServer = log == null ? null
+                    : new ReplicationServer(bind, cluster.self().replicationPort(), log,
+                            cluster.peers().stream().map(Cluster.Node::id).toList(), sink -> {
+                                trainService.snapshotRows(cluster::leads, sink);
+                                userBookingService.snapshotUsers(ticket -> ticket.getTrainId() != null && cluster.leads(ticket.getTrainId()),
+                                        user -> sink.accept(ReplicationRecord.user(user)));
+                            });
+            ReplicationFollower follower = log == null ? null
+                    : new ReplicationFollower(cluster, BookingConfig.dataDir(), userBookingService, trainService);
+            if (log != null) {
+                userBookingService.onCommit(record -> log.append(ReplicationRecord.journal(record)));
+                trainService.onSeatChange(log::append);
+            }
+            BookingServer server = new BookingServer(port, cluster, follower, userBookingService, trainService, bookingService);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                server.stop();
+                if (follower != null) follower.close();
+                if (replicationServer != null) replicationServer.stop();
+                bookingService.close();
+                try {
+                    userBookingService.close();
+                    trainService.close();
+                    if (log != null) log.close();
+                } catch (IOException e) {
+                    System.out.println("IO Error: " + e.getMessage());
+                }
+            }));
+            if (replicationServer != null) replicationServer.start();
+            if (follower != null) follower.start();
+            server.start();
+        } catch (IOException e) {
+            System.out.println("IO Error: " + e.getMessage());
+        }
+    }
+
     private static String readNonEmptyInput(Scanner scanner, String prompt) {
         String input;
         while (true) {
@@ -0,0 +1,19 @@
+package ticketbooking.entities;
+
+import java.util.List;
+
+/**
+ * A journey made of one or more train rides, changing trains between them.
+ *
+ * Times are the "HH:mm:ss" strings of the trains' station times; {@code day} counts the days
+ * after the day of the search a ride leaves or arrives on.
+ */
+public record Itinerary(List<Leg> legs, int durationMinutes) {
+
+    public record Leg(String trainId, String source, String destination,
+                      String departure, int departureDay, String arrival, int arrivalDay, int seatsLeft) {}
+
+    public int changes() {
+        return legs.size() - 1;
+    }
+}
@@ -0,0 +1,11 @@
+package ticketbooking.entities;
+
+import java.util.List;
+
+/**
+ * Seats kept off sale for one user while they pay, until the hold is confirmed into tickets,
+ * released, or runs out at {@code expiresAt} (epoch millis).
+ */
+public record SeatHold(String holdId, String userId, String trainId, String source, String destination,
+                       List<SeatInventory.Seat> seats, long expiresAt) {
+}
@@ -0,0 +1,716 @@
+package ticketbooking.entities;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Seat map of a train kept as bitsets, a set bit meaning the seat is taken.
+ *
+ * Occupancy is tracked per segment, segment {@code i} being the leg between station {@code i}
+ * and station {@code i + 1}. Each segment has one bitset per coach (row), so a seat is free for
+ * the journey {@code [from, to)} when its bit is clear in every segment layer of that range, and
+ * 64 seats can be checked at once by OR-ing the words of those layers.
+ *
+ * In JSON it is still written as the list of 0/1 rows used by trains.json, where 1 means taken
+ * on at least one segment.
+ *
+ * Seats can also be held: a hold keeps the seat off sale like a booking does, but lives in its
+ * own layers that are never persisted, so holds that are not confirmed before a restart simply
+ * disappear. The held layers are only allocated once the train sees its first hold.
+ *
+ * The number of free seats on each segment is kept up to date by every change, and every change
+ * bumps {@link #version()}, so callers can cache anything derived from the seat map and tell
+ * when it has gone stale.
+ */
+public class SeatInventory {
+
+    public record Seat(int row, int seat) {
+        @Override
+        public String toString() {
+            return row + "-" + seat;
+        }
+
+        /**
+         * Reads a seat number in the "row-seat" form tickets carry. Empty if it is missing or
+         * malformed.
+         */
+        public static Optional<Seat> parse(String seatNumber) {
+            if (seatNumber == null) return Optional.empty();
+            int dash = seatNumber.indexOf('-');
+            try {
+                return dash < 0 ? Optional.empty() : Optional.of(new Seat(
+                        Integer.parseInt(seatNumber.substring(0, dash).trim()),
+                        Integer.parseInt(seatNumber.substring(dash + 1).trim())));
+            } catch (NumberFormatException e) {
+                return Optional.empty();
+            }
+        }
+    }
+
+    private final int[] widths;
+    private long[][][] occupied;
+    private long[][][] held;
+    private int layout;
+
+    // Seats neither booked nor held, per segment
+    private int[] freeSeats;
+    private volatile long version;
+
+    public SeatInventory(int[] widths) {
+        this(widths, 1);
+    }
+
+    public SeatInventory(int[] widths, int segments) {
+        this.widths = widths.clone();
+        this.occupied = newLayers(this.widths, Math.max(1, segments));
+        recount();
+    }
+
+    public static SeatInventory fromMatrix(List<List<Integer>> matrix) {
+        int[] widths = new int[matrix.size()];
+        for (int row = 0; row < widths.length; row++) {
+            widths[row] = matrix.get(row).size();
+        }
+        SeatInventory inventory = new SeatInventory(widths);
+        for (int row = 0; row < widths.length; row++) {
+            List<Integer> seats = matrix.get(row);
+            for (int seat = 0; seat < seats.size(); seat++) {
+                Integer value = seats.get(seat);
+                if (value != null && value != 0) {
+                    inventory.book(row, seat);
+                }
+            }
+        }
+        return inventory;
+    }
+
+    public List<List<Integer>> toMatrix() {
+        List<List<Integer>> matrix = new ArrayList<>(widths.length);
+        for (int row = 0; row < widths.length; row++) {
+            List<Integer> seats = new ArrayList<>(widths[row]);
+            for (int seat = 0; seat < widths[row]; seat++) {
+                seats.add(isBooked(row, seat) ? 1 : 0);
+            }
+            matrix.add(seats);
+        }
+        return matrix;
+    }
+
+    public int rows() {
+        return widths.length;
+    }
+
+    public int seatsInRow(int row) {
+        return widths[row];
+    }
+
+    public int segments() {
+        return occupied.length;
+    }
+
+    public int wordsInRow(int row) {
+        return occupied[0][row].length;
+    }
+
+    /**
+     * Raw occupancy bits of 64 seats of a row on one segment, as stored in binary snapshots.
+     */
+    public long word(int segment, int row, int index) {
+        return occupied[segment][row][index];
+    }
+
+    public void setWord(int segment, int row, int index, long bits) {
+        long before = takenOn(segment, row, index);
+        occupied[segment][row][index] = bits & validMask(row, index);
+        freeSeats[segment] -= Long.bitCount(takenOn(segment, row, index)) - Long.bitCount(before);
+        version++;
+    }
+
+    /**
+     * Bumped by every change to the seat map.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Puts the version back to the one saved with the seat map, so versions keep counting up
+     * across restarts and can be compared with versions journaled before the restart.
+     */
+    public void restoreVersion(long version) {
+        this.version = version;
+    }
+
+    /**
+     * Seats free on one segment, read from the running count rather than the bitsets.
+     */
+    public int freeSeats(int segment) {
+        return freeSeats[segment];
+    }
+
+    /**
+     * Seats free for the whole journey {@code [from, to)}. A single leg, or a journey with a
+     * sold-out leg, is answered from the per-segment counts; otherwise the segment layers are
+     * OR-ed a word at a time. Read without the seat lock it is a snapshot that bookings in
+     * flight may already have changed, which is good enough for search results.
+     */
+    public int availableSeats(int from, int to) {
+        if (!isValidSegment(from, to)) return 0;
+        if (to - from == 1) return freeSeats[from];
+        for (int s = from; s < to; s++) {
+            if (freeSeats[s] == 0) return 0;
+        }
+        return freeCount(from, to);
+    }
+
+    /**
+     * Changes the number of segments, e.g. once the station list of the train is known. A seat
+     * taken on any existing segment is taken on every new one, which is what a seat map loaded
+     * without segment information means. Holds are spread the same way, so held seats stay off
+     * sale; their legs no longer match the new segments though, so {@link #layout()} moves on
+     * and whoever made them should drop them with {@link #releaseHold(int, int)}.
+     */
+    public void resizeSegments(int segments) {
+        segments = Math.max(1, segments);
+        if (segments == occupied.length) return;
+        occupied = spread(occupied, segments);
+        if (held != null) {
+            held = spread(held, segments);
+        }
+        layout++;
+        recount();
+    }
+
+    // New layers with every bit set on any of the given layers set on all of them
+    private long[][][] spread(long[][][] layers, int segments) {
+        long[][][] resized = newLayers(widths, segments);
+        for (int row = 0; row < widths.length; row++) {
+            for (int w = 0; w < resized[0][row].length; w++) {
+                long any = 0;
+                for (long[][] layer : layers) {
+                    any |= layer[row][w];
+                }
+                for (long[][] layer : resized) {
+                    layer[row][w] = any;
+                }
+            }
+        }
+        return resized;
+    }
+
+    /**
+     * Bumped each time {@link #resizeSegments} redraws the segments. A hold made under an
+     * earlier layout covers the whole run and no longer matches the legs it was made for.
+     */
+    public int layout() {
+        return layout;
+    }
+
+    public boolean isValid(int row, int seat) {
+        return row >= 0 && row < widths.length && seat >= 0 && seat < widths[row];
+    }
+
+    public boolean isValidSegment(int from, int to) {
+        return from >= 0 && from < to && to <= occupied.length;
+    }
+
+    /**
+     * True if the seat is booked on at least one segment. Holds do not count.
+     */
+    public boolean isBooked(int row, int seat) {
+        return (bookedWord(row, seat >>> 6, 0, occupied.length) & (1L << seat)) != 0;
+    }
+
+    /**
+     * Free means neither booked nor held on any of the segments.
+     */
+
+    public boolean isFree(int row, int seat, int from, int to) {
+        return (takenWord(row, seat >>> 6, from, to) & (1L << seat)) == 0;
+    }
+
+    /**
+     * Marks a seat as taken for the whole run. Returns false if it is out of range or already
+     * taken on some segment.
+     */
+    public boolean book(int row, int seat) {
+        return book(row, seat, 0, occupied.length);
+    }
+
+    /**
+     * Marks a seat as taken for segments {@code [from, to)}. Returns false if the seat or the
+     * segment range is out of range, or the seat is taken on any of those segments.
+     */
+    public boolean book(int row, int seat, int from, int to) {
+        if (!isValid(row, seat) || !isValidSegment(from, to)) return false;
+        if (!isFree(row, seat, from, to)) return false;
+        long bit = 1L << seat;
+        for (int s = from; s < to; s++) {
+            occupied[s][row][seat >>> 6] |= bit;
+            freeSeats[s]--;
+        }
+        version++;
+        return true;
+    }
+
+    /**
+     * Holds a seat for segments {@code [from, to)}: nobody else can book or hold it until the
+     * hold is confirmed or released. Returns false if the seat is not free.
+     */
+    public boolean hold(int row, int seat, int from, int to) {
+        if (!isValid(row, seat) || !isValidSegment(from, to)) return false;
+        if (!isFree(row, seat, from, to)) return false;
+        long bit = 1L << seat;
+        long[][][] layers = heldLayers();
+        for (int s = from; s < to; s++) {
+            layers[s][row][seat >>> 6] |= bit;
+            freeSeats[s]--;
+        }
+        version++;
+        return true;
+    }
+
+    /**
+     * Turns a hold into a booking. Returns false if the seat was not held on all of those
+     * segments, e.g. because the hold was released in the meantime.
+     */
+    public boolean confirmHold(int row, int seat, int from, int to) {
+        if (!isHeld(row, seat, from, to)) return false;
+        long bit = 1L << seat;
+        for (int s = from; s < to; s++) {
+            held[s][row][seat >>> 6] &= ~bit;
+            occupied[s][row][seat >>> 6] |= bit;
+        }
+        version++;
+        return true;
+    }
+
+    /**
+     * Drops a hold, putting the seat back on sale. Returns false if it was not held.
+     */
+    public boolean releaseHold(int row, int seat, int from, int to) {
+        if (!isHeld(row, seat, from, to)) return false;
+        long bit = 1L << seat;
+        for (int s = from; s < to; s++) {
+            held[s][row][seat >>> 6] &= ~bit;
+            freeSeats[s]++;
+        }
+        version++;
+        return true;
+    }
+
+    /**
+     * Drops the seat's holds on every segment, for holds made before the segments were
+     * redrawn. Returns false if it was not held anywhere.
+     */
+    public boolean releaseHold(int row, int seat) {
+        if (held == null || !isValid(row, seat)) return false;
+        long bit = 1L << seat;
+        boolean released = false;
+        for (int s = 0; s < held.length; s++) {
+            if ((held[s][row][seat >>> 6] & bit) != 0) {
+                held[s][row][seat >>> 6] &= ~bit;
+                if ((occupied[s][row][seat >>> 6] & bit) == 0) freeSeats[s]++;
+                released = true;
+            }
+        }
+        if (released) version++;
+        return released;
+    }
+
+    /**
+     * Turns a booking on segments {@code [from, to)} into a hold, e.g. while its cancellation is
+     * journaled: holds are not saved, so the seat is no longer booked on disk, but nobody can
+     * take it until the hold is dropped. Returns false if it was booked on none of them.
+     */
+    public boolean holdBooked(int row, int seat, int from, int to) {
+        if (!isValid(row, seat) || !isValidSegment(from, to)) return false;
+        long bit = 1L << seat;
+        long[][][] layers = heldLayers();
+        boolean changed = false;
+        for (int s = from; s < to; s++) {
+            if ((occupied[s][row][seat >>> 6] & bit) != 0) {
+                occupied[s][row][seat >>> 6] &= ~bit;
+                layers[s][row][seat >>> 6] |= bit;
+                changed = true;
+            }
+        }
+        if (changed) version++;
+        return changed;
+    }
+
+    /**
+     * Books the seat again wherever it is held on segments {@code [from, to)}, undoing
+     * {@link #holdBooked}. Returns false if it was held on none of them.
+     */
+    public boolean bookHeld(int row, int seat, int from, int to) {
+        if (held == null || !isValid(row, seat) || !isValidSegment(from, to)) return false;
+        long bit = 1L << seat;
+        boolean changed = false;
+        for (int s = from; s < to; s++) {
+            if ((held[s][row][seat >>> 6] & bit) != 0) {
+                held[s][row][seat >>> 6] &= ~bit;
+                occupied[s][row][seat >>> 6] |= bit;
+                changed = true;
+            }
+        }
+        if (changed) version++;
+        return changed;
+    }
+
+    /**
+     * Drops whatever holds the seat has on segments {@code [from, to)}. Returns false if it was
+     * held on none of them.
+     */
+    public boolean releaseHolds(int row, int seat, int from, int to) {
+        if (held == null || !isValid(row, seat) || !isValidSegment(from, to)) return false;
+        long bit = 1L << seat;
+        boolean changed = false;
+        for (int s = from; s < to; s++) {
+            if ((held[s][row][seat >>> 6] & bit) != 0) {
+                held[s][row][seat >>> 6] &= ~bit;
+                freeSeats[s]++;
+                changed = true;
+            }
+        }
+        if (changed) version++;
+        return changed;
+    }
+
+    private boolean isHeld(int row, int seat, int from, int to) {
+        if (held == null || !isValid(row, seat) || !isValidSegment(from, to)) return false;
+        long bit = 1L << seat;
+        for (int s = from; s < to; s++) {
+            if ((held[s][row][seat >>> 6] & bit) == 0) return false;
+        }
+        return true;
+    }
+
+    private long[][][] heldLayers() {
+        if (held == null) held = newLayers(widths, occupied.length);
+        return held;
+    }
+
+    /**
+     * Frees a seat on every segment. Returns false if it is out of range or was not taken.
+     */
+    public boolean release(int row, int seat) {
+        return release(row, seat, 0, occupied.length);
+    }
+
+    /**
+     * Frees a seat on segments {@code [from, to)}. Returns false if nothing was released.
+     */
+    public boolean release(int row, int seat, int from, int to) {
+        if (!isValid(row, seat) || !isValidSegment(from, to)) return false;
+        long bit = 1L << seat;
+        boolean released = false;
+        for (int s = from; s < to; s++) {
+            long word = occupied[s][row][seat >>> 6];
+            if ((word & bit) != 0) {
+                occupied[s][row][seat >>> 6] = word & ~bit;
+                freeSeats[s]++;
+                released = true;
+            }
+        }
+        if (released) version++;
+        return released;
+    }
+
+    public int freeCount(int row) {
+        return freeCount(row, 0, occupied.length);
+    }
+
+    public int freeCount() {
+        return freeCount(0, occupied.length);
+    }
+
+    public int freeCount(int from, int to) {
+        int free = 0;
+        for (int row = 0; row < widths.length; row++) {
+            free += freeCount(row, from, to);
+        }
+        return free;
+    }
+
+    /**
+     * Number of seats in the row that are free for every segment in {@code [from, to)}.
+     */
+    public int freeCount(int row, int from, int to) {
+        int taken = 0;
+        for (int w = 0; w < occupied[0][row].length; w++) {
+            taken += Long.bitCount(takenWord(row, w, from, to));
+        }
+        return widths[row] - taken;
+    }
+
+    /**
+     * Returns up to {@code n} free seats in row-major order.
+     */
+    public List<Seat> firstFree(int n) {
+        return firstFree(n, 0, occupied.length);
+    }
+
+    /**
+     * Returns up to {@code n} seats free for segments {@code [from, to)}, in row-major order.
+     */
+    public List<Seat> firstFree(int n, int from, int to) {
+        List<Seat> result = new ArrayList<>(Math.max(0, Math.min(n, 64)));
+        for (int row = 0; row < widths.length && result.size() < n; row++) {
+            for (int w = 0; w < occupied[0][row].length && result.size() < n; w++) {
+                long free = freeWord(row, w, from, to);
+                while (free != 0 && result.size() < n) {
+                    result.add(new Seat(row, (w << 6) + Long.numberOfTrailingZeros(free)));
+                    free &= free - 1;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Start of the first run of {@code count} adjacent seats in the row that are all free for
+     * segments {@code [from, to)}, or -1 if there is none. Scans a word at a time: taken seats
+     * are skipped with a trailing-zero count and the length of a free run is read off the
+     * trailing ones, so a run may carry on across word boundaries.
+     */
+    public int findFreeRun(int row, int count, int from, int to) {
+        if (count <= 0 || count > widths[row]) return -1;
+        int width = widths[row];
+        int runStart = 0;
+        int runLength = 0;
+        int seat = 0;
+        while (seat < width) {
+            int bit = seat & 63;
+            long free = freeWord(row, seat >>> 6, from, to) >>> bit;
+            if (free == 0) {
+                // rest of the word is taken
+                runLength = 0;
+                seat += Math.min(64 - bit, width - seat);
+            } else if ((free & 1) == 0) {
+                runLength = 0;
+                seat += Long.numberOfTrailingZeros(free);
+            } else {
+                if (runLength == 0) runStart = seat;
+                int ones = Long.numberOfTrailingZeros(~free);
+                runLength += ones;
+                if (runLength >= count) return runStart;
+                seat += ones;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Claims {@code count} seats for segments {@code [from, to)} in one go. With
+     * {@code preferContiguous} the first row that has that many adjacent free seats is used;
+     * otherwise, or if no row has such a run, the first free seats in row-major order are taken.
+     * Either all seats are claimed or none are, in which case the list is empty.
+     */
+    public List<Seat> allocate(int count, int from, int to, boolean preferContiguous) {
+        List<Seat> seats = findSeats(count, from, to, preferContiguous);
+        for (Seat seat : seats) {
+            book(seat.row(), seat.seat(), from, to);
+        }
+        return seats;
+    }
+
+    /**
+     * Like {@link #allocate}, but holds the seats instead of booking them.
+     */
+    public List<Seat> hold(int count, int from, int to, boolean preferContiguous) {
+        List<Seat> seats = findSeats(count, from, to, preferContiguous);
+        for (Seat seat : seats) {
+            hold(seat.row(), seat.seat(), from, to);
+        }
+        return seats;
+    }
+
+    private List<Seat> findSeats(int count, int from, int to, boolean preferContiguous) {
+        if (count <= 0 || !isValidSegment(from, to)) return List.of();
+        List<Seat> seats = null;
+        if (preferContiguous) {
+            for (int row = 0; row < widths.length && seats == null; row++) {
+                int start = findFreeRun(row, count, from, to);
+                if (start < 0) continue;
+                seats = new ArrayList<>(count);
+                for (int seat = start; seat < start + count; seat++) {
+                    seats.add(new Seat(row, seat));
+                }
+            }
+        }
+        if (seats == null) {
+            seats = firstFree(count, from, to);
+            if (seats.size() < count) return List.of();
+        }
+        return seats;
+    }
+
+    /**
+     * Segments each partially taken seat is taken on, keyed by seat number. Seats that are free
+     * or taken for the whole run are left out since the 0/1 seat rows already describe them.
+     */
+    public Map<String, List<Integer>> partialSegments() {
+        Map<String, List<Integer>> partial = new LinkedHashMap<>();
+        if (occupied.length == 1) return partial;
+        for (int row = 0; row < widths.length; row++) {
+            for (int w = 0; w < occupied[0][row].length; w++) {
+                long any = bookedWord(row, w, 0, occupied.length);
+                long all = -1L;
+                for (long[][] layer : occupied) {
+                    all &= layer[row][w];
+                }
+                long partialBits = any & ~all;
+                while (partialBits != 0) {
+                    int seat = (w << 6) + Long.numberOfTrailingZeros(partialBits);
+                    List<Integer> segments = new ArrayList<>();
+                    for (int s = 0; s < occupied.length; s++) {
+                        if ((occupied[s][row][w] & (1L << seat)) != 0) segments.add(s);
+                    }
+                    partial.put(new Seat(row, seat).toString(), segments);
+                    partialBits &= partialBits - 1;
+                }
+            }
+        }
+        return partial;
+    }
+
+    /**
+     * Restores seats written by {@link #partialSegments()}: each listed seat is taken on exactly
+     * the given segments.
+     */
+    public void applyPartialSegments(Map<String, List<Integer>> partial) {
+        if (partial == null) return;
+        partial.forEach((seatNumber, segments) -> {
+            String[] parts = seatNumber.split("-");
+            int row = Integer.parseInt(parts[0]);
+            int seat = Integer.parseInt(parts[1]);
+            if (!isValid(row, seat)) return;
+            release(row, seat);
+            for (int s : segments) {
+                book(row, seat, s, s + 1);
+            }
+        });
+    }
+
+    private long takenWord(int row, int word, int from, int to) {
+        long taken = bookedWord(row, word, from, to);
+        if (held != null) {
+            for (int s = from; s < to; s++) {
+                taken |= held[s][row][word];
+            }
+        }
+        return taken;
+    }
+
+    private long takenOn(int segment, int row, int word) {
+        return occupied[segment][row][word] | (held != null ? held[segment][row][word] : 0);
+    }
+
+    /**
+     * Recomputes the per-segment free counts from the bitsets, after they were filled in bulk.
+     */
+    private void recount() {
+        freeSeats = new int[occupied.length];
+        for (int s = 0; s < occupied.length; s++) {
+            int free = 0;
+            for (int row = 0; row < widths.length; row++) {
+                free += widths[row];
+                for (int w = 0; w < occupied[s][row].length; w++) {
+                    free -= Long.bitCount(takenOn(s, row, w));
+                }
+            }
+            freeSeats[s] = free;
+        }
+        version++;
+    }
+
+    private long bookedWord(int row, int word, int from, int to) {
+        long taken = 0;
+        for (int s = from; s < to; s++) {
+            taken |= occupied[s][row][word];
+        }
+        return taken;
+    }
+
+    private long freeWord(int row, int word, int from, int to) {
+        return ~takenWord(row, word, from, to) & validMask(row, word);
+    }
+
+    private long validMask(int row, int word) {
+        int remaining = widths[row] - (word << 6);
+        return remaining >= 64 ? -1L : (1L << remaining) - 1;
+    }
+
+    private static long[][][] newLayers(int[] widths, int segments) {
+        long[][][] layers = new long[segments][widths.length][];
+        for (long[][] layer : layers) {
+            for (int row = 0; row < widths.length; row++) {
+                layer[row] = new long[(widths[row] + 63) >>> 6];
+            }
+        }
+        return layers;
+    }
+
+    public static class Serializer extends JsonSerializer<SeatInventory> {
+        @Override
+        public void serialize(SeatInventory inventory, JsonGenerator gen, SerializerProvider provider) throws IOException {
+            gen.writeStartArray();
+            for (int row = 0; row < inventory.rows(); row++) {
+                gen.writeStartArray();
+                for (int seat = 0; seat < inventory.seatsInRow(row); seat++) {
+                    gen.writeNumber(inventory.isBooked(row, seat) ? 1 : 0);
+                }
+                gen.writeEndArray();
+            }
+            gen.writeEndArray();
+        }
+    }
+
+    public static class Deserializer extends JsonDeserializer<SeatInventory> {
+        @Override
+        public SeatInventory deserialize(JsonParser parser, DeserializationContext context) throws IOException {
+            // read straight into bit words, without boxing every seat into an Integer
+            if (parser.currentToken() != JsonToken.START_ARRAY) {
+                return (SeatInventory) context.handleUnexpectedToken(SeatInventory.class, parser);
+            }
+            List<long[]> rows = new ArrayList<>();
+            List<Integer> widths = new ArrayList<>();
+            while (parser.nextToken() == JsonToken.START_ARRAY) {
+                long[] bits = new long[2];
+                int width = 0;
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    if ((width >>> 6) == bits.length) {
+                        bits = Arrays.copyOf(bits, bits.length * 2);
+                    }
+                    if (parser.currentToken() != JsonToken.VALUE_NULL && parser.getIntValue() != 0) {
+                        bits[width >>> 6] |= 1L << width;
+                    }
+                    width++;
+                }
+                rows.add(bits);
+                widths.add(width);
+            }
+            int[] rowWidths = widths.stream().mapToInt(Integer::intValue).toArray();
+            SeatInventory inventory = new SeatInventory(rowWidths);
+            for (int row = 0; row < rowWidths.length; row++) {
+                System.arraycopy(rows.get(row), 0, inventory.occupied[0][row], 0, inventory.occupied[0][row].length);
+            }
+            inventory.recount();
+            return inventory;
+        }
+    }
+}
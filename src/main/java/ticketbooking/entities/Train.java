@@ -1,9 +1,14 @@
 package ticketbooking.entities;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.PropertyNamingStrategy;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonNaming;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import lombok.AccessLevel;
 import lombok.Builder;
 import lombok.Getter;
 import lombok.Setter;
@@ -13,7 +18,6 @@ import java.util.*;
 @Setter
 @Getter
 @JsonIgnoreProperties(ignoreUnknown = true)
-@Builder
 public class Train {
 
     @JsonProperty("train_id")
@@ -21,20 +25,93 @@ public class Train {
     @JsonProperty("train_no")
     private String trainNo;
 
-    private List<List<Integer>> seats;
+    @JsonSerialize(using = SeatInventory.Serializer.class)
+    @JsonDeserialize(using = SeatInventory.Deserializer.class)
+    private SeatInventory seats;
     @JsonProperty("station_times")
     private Map<String, String> stationTimes;
 
     private List<String> stations;
 
+    // Segment occupancy read from JSON before both seats and stations were known
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Map<String, List<Integer>> pendingSeatSegments;
+
+    // Position of each stop by lower-cased name, rebuilt whenever the stations are set
+    @JsonIgnore
+    @Getter(AccessLevel.NONE)
+    @Setter(AccessLevel.NONE)
+    private Map<String, Integer> stationPositions = Map.of();
+
     public Train(){}
 
-    public Train(String trainId, String trainNo, List<List<Integer>> seats, Map<String, String> stationTimes, List<String> stations){
+    @Builder
+    public Train(String trainId, String trainNo, SeatInventory seats, Map<String, String> stationTimes, List<String> stations){
         this.trainId = trainId;
         this.trainNo = trainNo;
         this.seats = seats;
         this.stationTimes = stationTimes;
         this.stations = stations;
+        indexStations();
+        alignSegments();
+    }
+
+    public void setSeats(SeatInventory seats) {
+        this.seats = seats;
+        alignSegments();
+    }
+
+    public void setStations(List<String> stations) {
+        this.stations = stations;
+        indexStations();
+        alignSegments();
+    }
+
+    /**
+     * Seats booked for only part of the run, written alongside the 0/1 seat rows.
+     */
+    @JsonProperty("seat_segments")
+    @JsonInclude(JsonInclude.Include.NON_EMPTY)
+    public Map<String, List<Integer>> getSeatSegments() {
+        return seats == null ? null : seats.partialSegments();
+    }
+
+    @JsonProperty("seat_segments")
+    public void setSeatSegments(Map<String, List<Integer>> seatSegments) {
+        this.pendingSeatSegments = seatSegments;
+        alignSegments();
+    }
+
+    /**
+     * Position of the station in the run, ignoring case, or -1 if the train does not stop there.
+     */
+    public int stationIndex(String station) {
+        if (station == null) return -1;
+        Integer position = stationPositions.get(station.toLowerCase(Locale.ROOT));
+        return position == null ? -1 : position;
+    }
+
+    private void indexStations() {
+        Map<String, Integer> positions = new HashMap<>();
+        if (stations != null) {
+            for (int i = 0; i < stations.size(); i++) {
+                String station = stations.get(i);
+                // a stop listed twice is found at its first position, as indexOf did
+                if (station != null) positions.putIfAbsent(station.toLowerCase(Locale.ROOT), i);
+            }
+        }
+        stationPositions = positions;
+    }
+
+    private void alignSegments() {
+        if (seats == null || stations == null) return;
+        seats.resizeSegments(stations.size() - 1);
+        if (pendingSeatSegments != null) {
+            seats.applyPartialSegments(pendingSeatSegments);
+            pendingSeatSegments = null;
+        }
     }
 
     public String getTrainInfo(){
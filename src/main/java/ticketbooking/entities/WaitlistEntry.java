@@ -0,0 +1,9 @@
+package ticketbooking.entities;
+
+/**
+ * A user waiting for any seat on a train between two stations. Higher {@code priority} is
+ * served first, then earlier entries; {@code createdAt} is epoch millis.
+ */
+public record WaitlistEntry(long entryId, String userId, String trainId, String source, String destination,
+                            int priority, long createdAt) {
+}
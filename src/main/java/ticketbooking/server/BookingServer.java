@@ -0,0 +1,690 @@
+package ticketbooking.server;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import ticketbooking.entities.SeatHold;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.entities.WaitlistEntry;
+import ticketbooking.services.BookingService;
+import ticketbooking.services.Cluster;
+import ticketbooking.services.ReplicationFollower;
+import ticketbooking.services.TrainService;
+import ticketbooking.services.UserBookingService;
+import ticketbooking.util.BookingConfig;
+import ticketbooking.util.Metrics;
+import ticketbooking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * HTTP/JSON front end over the booking services, built on the JDK's built-in HTTP server.
+ *
+ * Every request runs on its own virtual thread when the JVM has them (Java 21+), otherwise on
+ * a cached thread pool. Endpoints:
+ * <pre>
+ *   POST   /signup                    {"username", "password"}
+ *   POST   /login                     {"username", "password"} -> {"token", "user_id"}
+ *   GET    /trains?source=&amp;destination=  -> trains with "seats_left" for that journey
+ *   GET    /trains/{id}/seats?source=&amp;destination=
+ *   GET    /journeys?source=&amp;destination=&amp;depart_after=HH:mm&amp;limit=  -> itineraries with up to two changes
+ *   GET    /bookings                  (auth)
+ *   POST   /bookings                  (auth) {"train_id", "row", "seat", "source", "destination"}
+ *                                      or {"train_id", "count", "source", "destination", "contiguous"}
+ *   DELETE /bookings/{ticketId}       (auth)
+ *   POST   /bookings/cancel           (auth) {"ticket_ids": [...]} -> the tickets cancelled
+ *   POST   /holds                     (auth) same body as POST /bookings -> the hold
+ *   POST   /holds/{holdId}/confirm    (auth) -> the tickets
+ *   DELETE /holds/{holdId}            (auth)
+ *   GET    /waitlist                  (auth) -> the user's entries still waiting
+ *   POST   /waitlist                  (auth) {"train_id", "source", "destination", "priority"} -> the entry
+ *   DELETE /waitlist/{entryId}        (auth)
+ *   GET    /metrics                   Prometheus-style text
+ *   GET    /cluster?train_id=         -> this node, how far it follows the others, the train's leader
+ * </pre>
+ * Authenticated calls send the login token as {@code Authorization: Bearer <token>}. A token
+ * names the user and when it expires, signed with the cluster secret, so any node of the
+ * cluster accepts it and nothing about sessions is kept in memory. A single node without a
+ * secret signs with a key of its own, and its tokens end with the process.
+ *
+ * In a {@link Cluster} any node answers searches, seat maps and a user's bookings from its own
+ * copy, which follows the other nodes a moment behind. Changes are passed on to the node that
+ * leads them: bookings, holds and waitlist entries to the train's leader, sign-ups to node 0.
+ * A passed-on call names the logged-in user in {@code X-Forwarded-User}, which the receiving
+ * node only believes together with the cluster secret.
+ */
+public class BookingServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ObjectMapper objectMapper;
+
+    private final UserBookingService userBookingService;
+    private final TrainService trainService;
+    private final BookingService bookingService;
+
+    private final Cluster cluster;
+    // Null on a single node
+    private final ReplicationFollower follower;
+    private final HttpClient httpClient;
+
+    private static final String FORWARDED_USER = "X-Forwarded-User";
+    private static final String CLUSTER_SECRET = "X-Cluster-Secret";
+    private static final Duration FORWARD_TIMEOUT = Duration.ofSeconds(10);
+
+    private static final String TOKEN_MAC = "HmacSHA256";
+    // Signs login tokens
+    private final SecretKeySpec tokenKey;
+
+    public BookingServer(int port, UserBookingService userBookingService, TrainService trainService,
+                         BookingService bookingService) throws IOException {
+        this(port, Cluster.standalone(), null, userBookingService, trainService, bookingService);
+    }
+
+    public BookingServer(int port, Cluster cluster, ReplicationFollower follower, UserBookingService userBookingService,
+                         TrainService trainService, BookingService bookingService) throws IOException {
+        this.userBookingService = userBookingService;
+        this.trainService = trainService;
+        this.bookingService = bookingService;
+        this.cluster = cluster;
+        this.follower = follower;
+        this.httpClient = HttpClient.newBuilder().connectTimeout(FORWARD_TIMEOUT).build();
+        this.objectMapper = new ObjectMapper();
+        this.objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        this.tokenKey = new SecretKeySpec(tokenKeyBytes(), TOKEN_MAC);
+
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = newRequestExecutor();
+        server.setExecutor(executor);
+        server.createContext("/signup", exchange -> handle(exchange, this::signUp));
+        server.createContext("/login", exchange -> handle(exchange, this::login));
+        server.createContext("/trains", exchange -> handle(exchange, this::trains));
+        server.createContext("/journeys", exchange -> handle(exchange, this::journeys));
+        server.createContext("/bookings", exchange -> handle(exchange, this::bookings));
+        server.createContext("/holds", exchange -> handle(exchange, this::holds));
+        server.createContext("/waitlist", exchange -> handle(exchange, this::waitlist));
+        server.createContext("/metrics", this::metrics);
+        server.createContext("/cluster", exchange -> handle(exchange, this::clusterStatus));
+    }
+
+    /**
+     * Virtual thread per request where available. Looked up reflectively so the code still
+     * builds and runs on Java 17.
+     */
+    private static ExecutorService newRequestExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    public void start() {
+        Metrics.registerJmx();
+        server.start();
+        System.out.println("Booking server listening on port " + server.getAddress().getPort());
+    }
+
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private Response signUp(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        JsonNode body = readBody(exchange);
+        String username = requireText(body, "username");
+        String password = requireText(body, "password");
+        if (!cluster.leadsUsers() && !isForwarded(exchange)) {
+            return forward(exchange, cluster.usersLeader(), null, body);
+        }
+
+        User newUser = new User(username, null, UserServiceUtil.hashPassword(password),
+                new ArrayList<>(), UUID.randomUUID().toString());
+        if (!userBookingService.signUp(newUser)) {
+            return Response.error(409, "Sign up failed");
+        }
+        return new Response(201, Map.of("user_id", newUser.getUserId()));
+    }
+
+    private Response login(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "POST");
+        JsonNode body = readBody(exchange);
+        Optional<User> user = userBookingService.login(requireText(body, "username"), requireText(body, "password"));
+        if (user.isEmpty()) {
+            return Response.error(401, "Invalid username or password");
+        }
+        String token = issueToken(user.get().getUserId(), System.currentTimeMillis() + BookingConfig.sessionTtlMillis());
+        return new Response(200, Map.of("token", token, "user_id", user.get().getUserId()));
+    }
+
+    private Response trains(HttpExchange exchange) throws IOException {
+        requireMethod(exchange, "GET");
+        Map<String, String> query = queryParams(exchange);
+        String[] path = pathSegments(exchange);
+
+        // /trains?source=&destination=
+        if (path.length == 1) {
+            String source = requireParam(query, "source");
+            String destination = requireParam(query, "destination");
+            List<Map<String, Object>> result = new ArrayList<>();
+            for (Train train : trainService.getTrains(source, destination)) {
+                Map<String, Object> item = new LinkedHashMap<>();
+                item.put("train_id", train.getTrainId());
+                item.put("train_no", train.getTrainNo());
+                item.put("stations", train.getStations());
+                item.put("station_times", train.getStationTimes());
+                item.put("seats_left", trainService.seatsLeft(train, source, destination));
+                result.add(item);
+            }
+            return new Response(200, result);
+        }
+
+        // /trains/{id}/seats?source=&destination=
+        if (path.length == 3 && path[2].equals("seats")) {
+            Optional<Train> train = trainService.getTrainById(path[1]);
+            if (train.isEmpty()) {
+                return Response.error(404, "No train with id " + path[1]);
+            }
+            List<List<Integer>> map = trainService.seatMap(train.get(), query.get("source"), query.get("destination"));
+            if (map.isEmpty()) {
+                return Response.error(400, "Train " + path[1] + " does not run between those stations");
+            }
+            return new Response(200, Map.of("train_id", train.get().getTrainId(), "seats", map));
+        }
+        return Response.error(404, "Not found");
+    }
+
+    private Response journeys(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        Map<String, String> query = queryParams(exchange);
+        int limit;
+        try {
+            limit = Integer.parseInt(query.getOrDefault("limit", "5"));
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Invalid query parameter limit");
+        }
+        if (limit <= 0 || limit > 50) {
+            throw new HttpError(400, "limit must be between 1 and 50");
+        }
+        return new Response(200, trainService.findJourneys(requireParam(query, "source"),
+                requireParam(query, "destination"), query.get("depart_after"), limit));
+    }
+
+    private Response bookings(HttpExchange exchange) throws IOException {
+        User user = authenticate(exchange);
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (path.length == 1 && method.equals("GET")) {
+            Map<String, String> query = queryParams(exchange);
+            if (!query.containsKey("offset") && !query.containsKey("limit")) {
+                return new Response(200, userBookingService.fetchBookings(user));
+            }
+            // /bookings?offset=&limit= for long booking histories
+            int offset = intParam(query, "offset", 0);
+            int limit = intParam(query, "limit", 50);
+            if (offset < 0 || limit <= 0 || limit > 500) {
+                throw new HttpError(400, "offset must be at least 0 and limit between 1 and 500");
+            }
+            Map<String, Object> page = new LinkedHashMap<>();
+            page.put("total", userBookingService.countBookings(user));
+            page.put("offset", offset);
+            page.put("limit", limit);
+            page.put("tickets", userBookingService.fetchBookings(user, offset, limit));
+            return new Response(200, page);
+        }
+        if (path.length == 1 && method.equals("POST")) {
+            JsonNode body = readBody(exchange);
+            Cluster.Node leader = remoteLeader(exchange, requireText(body, "train_id"));
+            if (leader != null) {
+                return forward(exchange, leader, user, body);
+            }
+            if (body.has("count")) {
+                // group booking: the server picks the seats
+                Optional<List<Ticket>> tickets = bookingService.allocate(user, requireText(body, "train_id"),
+                        requireText(body, "source"), requireText(body, "destination"),
+                        requireInt(body, "count"), body.path("contiguous").asBoolean(true));
+                return tickets.map(t -> new Response(201, t))
+                        .orElseGet(() -> Response.error(409, "Not enough free seats"));
+            }
+            Optional<Ticket> ticket = bookingService.book(user, requireText(body, "train_id"),
+                    requireInt(body, "row"), requireInt(body, "seat"),
+                    requireText(body, "source"), requireText(body, "destination"));
+            return ticket.map(t -> new Response(201, t))
+                    .orElseGet(() -> Response.error(409, "Seat already booked or invalid"));
+        }
+        if (path.length == 2 && path[1].equals("cancel") && method.equals("POST")) {
+            JsonNode ids = readBody(exchange).path("ticket_ids");
+            if (!ids.isArray() || ids.isEmpty()) {
+                throw new HttpError(400, "Missing field ticket_ids");
+            }
+            // each train's leader cancels the tickets on its trains; tickets this node has not
+            // heard of yet go to every other node, and only their leader takes them
+            List<String> ticketIds = new ArrayList<>();
+            List<String> unknown = new ArrayList<>();
+            Map<Cluster.Node, List<String>> remote = new LinkedHashMap<>();
+            ids.forEach(id -> {
+                Optional<Ticket> ticket = userBookingService.findTicket(id.asText());
+                String trainId = ticket.map(Ticket::getTrainId).orElse(null);
+                if (ticket.isPresent() && (trainId == null || cluster.leads(trainId))) {
+                    ticketIds.add(id.asText());
+                } else if (!isForwarded(exchange)) {
+                    if (ticket.isEmpty()) {
+                        unknown.add(id.asText());
+                    } else {
+                        remote.computeIfAbsent(cluster.leaderOf(trainId), node -> new ArrayList<>()).add(id.asText());
+                    }
+                }
+            });
+            if (!unknown.isEmpty()) {
+                cluster.peers().forEach(peer -> remote.computeIfAbsent(peer, node -> new ArrayList<>()).addAll(unknown));
+            }
+            List<Object> cancelled = new ArrayList<>(bookingService.cancelAll(user, ticketIds));
+            for (Map.Entry<Cluster.Node, List<String>> group : remote.entrySet()) {
+                JsonNode groupBody = objectMapper.createObjectNode().set("ticket_ids", objectMapper.valueToTree(group.getValue()));
+                Response response = forward(exchange, group.getKey(), user, groupBody);
+                if (response.status == 200 && response.body instanceof JsonNode tickets && tickets.isArray()) {
+                    tickets.forEach(cancelled::add);
+                }
+            }
+            return new Response(200, cancelled);
+        }
+        if (path.length == 2 && method.equals("DELETE")) {
+            Optional<Ticket> ticket = userBookingService.findTicket(path[1]);
+            if (ticket.isEmpty()) {
+                // maybe booked a moment ago on another node and not here yet
+                return askPeers(exchange, user).orElseGet(() -> Response.error(404, "No booking with id " + path[1]));
+            }
+            Cluster.Node leader = remoteLeader(exchange, ticket.get().getTrainId());
+            if (leader != null) {
+                return forward(exchange, leader, user, null);
+            }
+            if (!bookingService.cancel(user, path[1])) {
+                return Response.error(404, "No booking with id " + path[1]);
+            }
+            return new Response(200, Map.of("cancelled", path[1]));
+        }
+        throw new HttpError(405, "Method not allowed");
+    }
+
+    private void metrics(HttpExchange exchange) throws IOException {
+        byte[] bytes = Metrics.scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Response waitlist(HttpExchange exchange) throws IOException {
+        User user = authenticate(exchange);
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (path.length == 1 && method.equals("GET")) {
+            // each node has the entries for the trains it leads
+            List<Object> entries = new ArrayList<>(bookingService.waitlist(user));
+            if (!isForwarded(exchange)) {
+                for (Cluster.Node peer : cluster.peers()) {
+                    Response response = forward(exchange, peer, user, null);
+                    if (response.status == 200 && response.body instanceof JsonNode more && more.isArray()) {
+                        more.forEach(entries::add);
+                    }
+                }
+            }
+            return new Response(200, entries);
+        }
+        if (path.length == 1 && method.equals("POST")) {
+            JsonNode body = readBody(exchange);
+            Cluster.Node leader = remoteLeader(exchange, requireText(body, "train_id"));
+            if (leader != null) {
+                return forward(exchange, leader, user, body);
+            }
+            Optional<WaitlistEntry> entry = bookingService.joinWaitlist(user, requireText(body, "train_id"),
+                    requireText(body, "source"), requireText(body, "destination"), body.path("priority").asInt(0));
+            return entry.map(e -> new Response(201, e))
+                    .orElseGet(() -> Response.error(409, "Seats are still free on that journey, or it is invalid"));
+        }
+        if (path.length == 2 && method.equals("DELETE")) {
+            long entryId;
+            try {
+                entryId = Long.parseLong(path[1]);
+            } catch (NumberFormatException e) {
+                throw new HttpError(404, "No waitlist entry with id " + path[1]);
+            }
+            if (!bookingService.leaveWaitlist(user, entryId)) {
+                return askPeers(exchange, user).orElseGet(() -> Response.error(404, "No waitlist entry with id " + path[1]));
+            }
+            return new Response(200, Map.of("left", entryId));
+        }
+        throw new HttpError(405, "Method not allowed");
+    }
+
+    private Response holds(HttpExchange exchange) throws IOException {
+        User user = authenticate(exchange);
+        String[] path = pathSegments(exchange);
+        String method = exchange.getRequestMethod();
+
+        if (path.length == 1 && method.equals("POST")) {
+            JsonNode body = readBody(exchange);
+            String trainId = requireText(body, "train_id");
+            Cluster.Node leader = remoteLeader(exchange, trainId);
+            if (leader != null) {
+                return forward(exchange, leader, user, body);
+            }
+            String source = requireText(body, "source");
+            String destination = requireText(body, "destination");
+            Optional<SeatHold> hold = body.has("count")
+                    ? bookingService.hold(user, trainId, source, destination,
+                            requireInt(body, "count"), body.path("contiguous").asBoolean(true))
+                    : bookingService.hold(user, trainId, requireInt(body, "row"), requireInt(body, "seat"),
+                            source, destination);
+            return hold.map(h -> new Response(201, h))
+                    .orElseGet(() -> Response.error(409, "Seats already taken or invalid"));
+        }
+        if (path.length == 3 && path[2].equals("confirm") && method.equals("POST")) {
+            Optional<List<Ticket>> tickets = bookingService.confirm(user, path[1]);
+            if (tickets.isEmpty()) {
+                return askPeers(exchange, user)
+                        .orElseGet(() -> Response.error(409, "Hold " + path[1] + " is unknown or has expired"));
+            }
+            return new Response(201, tickets.get());
+        }
+        if (path.length == 2 && method.equals("DELETE")) {
+            if (!bookingService.release(user, path[1])) {
+                return askPeers(exchange, user).orElseGet(() -> Response.error(404, "No hold with id " + path[1]));
+            }
+            return new Response(200, Map.of("released", path[1]));
+        }
+        throw new HttpError(405, "Method not allowed");
+    }
+
+    private User authenticate(HttpExchange exchange) {
+        String forwardedUser = exchange.getRequestHeaders().getFirst(FORWARDED_USER);
+        if (forwardedUser != null) {
+            if (!isForwarded(exchange)) {
+                throw new HttpError(401, "Forwarded by an unknown node");
+            }
+            // the user may have signed up on another node a moment ago
+            return userBookingService.getUserById(forwardedUser)
+                    .orElseThrow(() -> new HttpError(503, "User has not reached this node yet, try again"));
+        }
+        String header = exchange.getRequestHeaders().getFirst("Authorization");
+        if (header == null || !header.startsWith("Bearer ")) {
+            throw new HttpError(401, "Missing bearer token");
+        }
+        String userId = verifyToken(header.substring("Bearer ".length()).trim());
+        if (userId == null) {
+            throw new HttpError(401, "Unknown or expired token");
+        }
+        return userBookingService.getUserById(userId).orElseThrow(() -> new HttpError(401, "Unknown user"));
+    }
+
+    private static byte[] tokenKeyBytes() {
+        String secret = BookingConfig.clusterSecret();
+        if (!secret.isEmpty()) return secret.getBytes(StandardCharsets.UTF_8);
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        return key;
+    }
+
+    // A token is <user id>.<expiry in epoch millis>.<signature of the two>
+    private String issueToken(String userId, long expiresAt) {
+        String payload = userId + "." + expiresAt;
+        return payload + "." + Base64.getUrlEncoder().withoutPadding().encodeToString(sign(payload));
+    }
+
+    /**
+     * The user id of a token signed here or by another node, or null if the token is forged,
+     * malformed or has expired.
+     */
+    private String verifyToken(String token) {
+        int mark = token.lastIndexOf('.');
+        int expiry = mark < 0 ? -1 : token.lastIndexOf('.', mark - 1);
+        if (expiry <= 0) return null;
+        String payload = token.substring(0, mark);
+        byte[] signature;
+        try {
+            signature = Base64.getUrlDecoder().decode(token.substring(mark + 1));
+            if (Long.parseLong(token.substring(expiry + 1, mark)) < System.currentTimeMillis()) return null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return MessageDigest.isEqual(sign(payload), signature) ? token.substring(0, expiry) : null;
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(TOKEN_MAC);
+            mac.init(tokenKey);
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(TOKEN_MAC + " is not available", e);
+        }
+    }
+
+    private Response clusterStatus(HttpExchange exchange) {
+        requireMethod(exchange, "GET");
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("node_id", cluster.self().id());
+        status.put("nodes", cluster.nodes().size());
+        status.put("applied", follower == null ? Map.of() : follower.appliedPositions());
+        String trainId = queryParams(exchange).get("train_id");
+        if (trainId != null) {
+            status.put("leader", cluster.leaderOf(trainId).id());
+        }
+        return new Response(200, status);
+    }
+
+    // Calls passed on by another node are handled here, never passed on again. A call that
+    // claims to be passed on but has the wrong secret is refused.
+    private static boolean isForwarded(HttpExchange exchange) {
+        String presented = exchange.getRequestHeaders().getFirst(CLUSTER_SECRET);
+        if (presented == null) return false;
+        if (!Cluster.isClusterSecret(presented)) {
+            throw new HttpError(401, "Forwarded by an unknown node");
+        }
+        return true;
+    }
+
+    /**
+     * The node to pass a change to the train on to, or null if this node handles it. Only the
+     * leader ever changes a train's seats, so a call passed on to the wrong node is refused.
+     */
+    private Cluster.Node remoteLeader(HttpExchange exchange, String trainId) {
+        if (trainId == null || cluster.leads(trainId)) return null;
+        if (isForwarded(exchange)) {
+            throw new HttpError(421, "Node " + cluster.self().id() + " does not lead train " + trainId);
+        }
+        return cluster.leaderOf(trainId);
+    }
+
+    /**
+     * Passes the call on to another node as it came in, with {@code body} in place of the one
+     * already read, and answers with that node's response.
+     */
+    private Response forward(HttpExchange exchange, Cluster.Node node, User user, JsonNode body) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        HttpRequest.Builder request = HttpRequest.newBuilder(
+                        node.uri(exchange.getRequestURI().getRawPath() + (query == null ? "" : "?" + query)))
+                .timeout(FORWARD_TIMEOUT)
+                .method(exchange.getRequestMethod(), body == null ? HttpRequest.BodyPublishers.noBody()
+                        : HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+                .header("Content-Type", "application/json")
+                .header(CLUSTER_SECRET, BookingConfig.clusterSecret());
+        if (user != null) {
+            request.header(FORWARDED_USER, user.getUserId());
+        }
+        try {
+            HttpResponse<byte[]> response = httpClient.send(request.build(), HttpResponse.BodyHandlers.ofByteArray());
+            return new Response(response.statusCode(), objectMapper.readTree(response.body()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new HttpError(503, "Node " + node.id() + " is unavailable");
+        } catch (IOException e) {
+            throw new HttpError(503, "Node " + node.id() + " is unavailable");
+        }
+    }
+
+    /**
+     * Tries the call on every other node, for holds and waitlist entries whose ids do not say
+     * which node has them. The first success is the answer.
+     */
+    private Optional<Response> askPeers(HttpExchange exchange, User user) throws IOException {
+        if (isForwarded(exchange)) return Optional.empty();
+        for (Cluster.Node peer : cluster.peers()) {
+            try {
+                Response response = forward(exchange, peer, user, null);
+                if (response.status / 100 == 2) return Optional.of(response);
+            } catch (HttpError e) {
+                // that node is down, so the hold or entry is not to be had there anyway
+            }
+        }
+        return Optional.empty();
+    }
+
+    private void handle(HttpExchange exchange, Handler handler) throws IOException {
+        Response response;
+        try {
+            response = handler.handle(exchange);
+        } catch (HttpError e) {
+            response = Response.error(e.status, e.getMessage());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            response = Response.error(500, "Internal error");
+        }
+        byte[] bytes = objectMapper.writeValueAsBytes(response.body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(response.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private JsonNode readBody(HttpExchange exchange) {
+        try (InputStream in = exchange.getRequestBody()) {
+            JsonNode body = objectMapper.readTree(in);
+            if (body == null || !body.isObject()) {
+                throw new HttpError(400, "Expected a JSON object");
+            }
+            return body;
+        } catch (IOException e) {
+            throw new HttpError(400, "Malformed JSON");
+        }
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new HttpError(405, "Method not allowed");
+        }
+    }
+
+    private static String requireText(JsonNode body, String field) {
+        JsonNode value = body.get(field);
+        if (value == null || !value.isValueNode() || value.asText().isBlank()) {
+            throw new HttpError(400, "Missing field " + field);
+        }
+        return value.asText();
+    }
+
+    private static int requireInt(JsonNode body, String field) {
+        JsonNode value = body.get(field);
+        if (value == null || !value.canConvertToInt()) {
+            throw new HttpError(400, "Missing or invalid field " + field);
+        }
+        return value.asInt();
+    }
+
+    private static String requireParam(Map<String, String> query, String name) {
+        String value = query.get(name);
+        if (value == null || value.isBlank()) {
+            throw new HttpError(400, "Missing query parameter " + name);
+        }
+        return value;
+    }
+
+    private static String[] pathSegments(HttpExchange exchange) {
+        String path = exchange.getRequestURI().getPath();
+        return Arrays.stream(path.split("/"))
+                .filter(segment -> !segment.isEmpty())
+                .map(segment -> URLDecoder.decode(segment, StandardCharsets.UTF_8))
+                .toArray(String[]::new);
+    }
+
+    private static int intParam(Map<String, String> query, String name, int defaultValue) {
+        try {
+            return query.containsKey(name) ? Integer.parseInt(query.get(name)) : defaultValue;
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "Invalid query parameter " + name);
+        }
+    }
+
+    private static Map<String, String> queryParams(HttpExchange exchange) {
+        Map<String, String> params = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return params;
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    @FunctionalInterface
+    private interface Handler {
+        Response handle(HttpExchange exchange) throws IOException;
+    }
+
+    private record Response(int status, Object body) {
+        static Response error(int status, String message) {
+            return new Response(status, Map.of("error", message));
+        }
+    }
+
+    private static class HttpError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
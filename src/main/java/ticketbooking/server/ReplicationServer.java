@@ -0,0 +1,200 @@
+package ticketbooking.server;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import ticketbooking.services.Cluster;
+import ticketbooking.storage.ReplicationLog;
+import ticketbooking.storage.ReplicationRecord;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Serves this node's {@link ReplicationLog} to followers over plain TCP. A follower connects,
+ * sends {@code AUTH <cluster secret>}, {@code NODE <its node id>} and {@code FROM <seq>} and
+ * gets every record from that position on, one JSON line each, followed by new records as they
+ * are appended, until either side hangs up. A connection without the right secret is closed
+ * unanswered.
+ *
+ * While reading, a follower sends {@code ACK <seq>} whenever everything up to that position is
+ * on its disk. Once every follower has acknowledged a segment of the log it is dropped.
+ *
+ * A follower asking for a position past the end of the log, e.g. because this node's data
+ * directory was replaced, is answered {@code AHEAD <last seq>} and disconnected. One asking for
+ * records already dropped gets a snapshot of this node's data instead, ended by a record
+ * carrying only the log position it covers, and then the log from there on.
+ */
+public class ReplicationServer {
+
+    // Time a connection gets to send its handshake
+    private static final int HANDSHAKE_TIMEOUT_MILLIS = 10_000;
+
+    private final ServerSocket serverSocket;
+    private final ReplicationLog log;
+    private final Snapshot snapshot;
+    // Node ids of every follower, and the position each has acknowledged
+    private final List<Integer> followers;
+    private final Map<Integer, Long> acknowledged = new ConcurrentHashMap<>();
+    private final Thread acceptor;
+    private final AtomicInteger connections = new AtomicInteger();
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private volatile boolean stopped;
+
+    /**
+     * Writes the state of everything this node leads as records without a position.
+     */
+    public interface Snapshot {
+        void write(Consumer<ReplicationRecord> sink) throws IOException;
+    }
+
+    public ReplicationServer(String host, int port, ReplicationLog log, List<Integer> followers,
+                             Snapshot snapshot) throws IOException {
+        this.log = log;
+        this.snapshot = snapshot;
+        this.objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        this.followers = List.copyOf(followers);
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.setReuseAddress(true);
+        this.serverSocket.bind(new InetSocketAddress(host, port));
+        this.acceptor = new Thread(this::acceptLoop, "replication-acceptor");
+        this.acceptor.setDaemon(true);
+    }
+
+    public void start() {
+        acceptor.start();
+        System.out.println("Replication log served on " + serverSocket.getLocalSocketAddress());
+    }
+
+    public void stop() {
+        stopped = true;
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            System.out.println("IO Error: " + e.getMessage());
+        }
+    }
+
+    private void acceptLoop() {
+        while (!stopped) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread follower = new Thread(() -> serve(socket), "replication-follower-" + connections.incrementAndGet());
+                follower.setDaemon(true);
+                follower.start();
+            } catch (IOException e) {
+                if (!stopped) System.out.println("Replication accept failed: " + e.getMessage());
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MILLIS);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            String auth = in.readLine();
+            if (auth == null || !auth.startsWith("AUTH ") || !Cluster.isClusterSecret(auth.substring("AUTH ".length()))) {
+                System.out.println("Refused replication to " + socket.getRemoteSocketAddress() + ": wrong cluster secret");
+                return;
+            }
+            String node = in.readLine();
+            String request = in.readLine();
+            if (node == null || !node.startsWith("NODE ") || request == null || !request.startsWith("FROM ")) {
+                System.out.println("Unexpected replication request: " + node + " / " + request);
+                return;
+            }
+            int follower = Integer.parseInt(node.substring("NODE ".length()).trim());
+            long from = Long.parseLong(request.substring("FROM ".length()).trim());
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), 64 * 1024);
+            long lastSeq = log.lastSeq();
+            if (from > lastSeq + 1) {
+                System.out.println("Refused replication to node " + follower + ": it asks for record " + from
+                        + " but the log ends at " + lastSeq);
+                out.write(("AHEAD " + lastSeq + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                return;
+            }
+            socket.setSoTimeout(0);
+            Thread acks = new Thread(() -> readAcks(follower, in), "replication-acks-" + follower);
+            acks.setDaemon(true);
+            acks.start();
+            if (from < log.firstSeq()) {
+                from = sendSnapshot(follower, out) + 1;
+            }
+            log.stream(from, out);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException | NumberFormatException e) {
+            // the follower went away; it reconnects from where it got to
+        }
+    }
+
+    /**
+     * Sends a snapshot and returns the log position it covers. The position is taken first:
+     * everything up to it is already applied when the state is read, and later records the
+     * snapshot may also contain are safe to apply again.
+     */
+    private long sendSnapshot(int follower, OutputStream out) throws IOException {
+        long at = log.lastSeq();
+        System.out.println("Sending node " + follower + " a snapshot at record " + at
+                + ", as the log now starts at " + log.firstSeq());
+        try {
+            snapshot.write(record -> {
+                try {
+                    writeLine(out, record);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        writeLine(out, ReplicationRecord.position(at));
+        out.flush();
+        return at;
+    }
+
+    private void writeLine(OutputStream out, ReplicationRecord record) throws IOException {
+        out.write(objectMapper.writeValueAsBytes(record));
+        out.write('\n');
+    }
+
+    // Runs until the connection closes
+    private void readAcks(int follower, BufferedReader in) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("ACK ")) {
+                    acknowledged.put(follower, Long.parseLong(line.substring("ACK ".length()).trim()));
+                    dropAcknowledged();
+                }
+            }
+        } catch (IOException | NumberFormatException e) {
+            // the connection is gone; serve() notices on its next write
+        }
+    }
+
+    // Drops the segments every follower has on disk; none until each has acknowledged once
+    private void dropAcknowledged() {
+        long applied = Long.MAX_VALUE;
+        for (int follower : followers) {
+            applied = Math.min(applied, acknowledged.getOrDefault(follower, 0L));
+        }
+        if (applied > 0 && applied < Long.MAX_VALUE) {
+            log.retainFrom(applied + 1);
+        }
+    }
+}
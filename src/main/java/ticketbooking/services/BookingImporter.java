@@ -0,0 +1,337 @@
+package ticketbooking.services;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.storage.AtomicFiles;
+import ticketbooking.util.BookingConfig;
+import ticketbooking.util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Imports a file of booking requests, e.g. an agency's bulk load, in one batch.
+ *
+ * The file is read a line at a time, as CSV with a header row or as JSON lines, with the fields
+ * {@code username, train_id, source, destination} and either {@code row, seat} for a given seat
+ * or {@code count} (and optionally {@code contiguous}) for a group. Requests are partitioned by
+ * train and the partitions booked in parallel on a ForkJoin pool; within a train they are booked
+ * in file order, so the outcome does not depend on scheduling. Seats are only held while the
+ * tickets are stored, with one journal write per user shard, and booked once the tickets are
+ * durable, so trains.bin never has a seat claimed by a ticket that was lost. trains.bin is
+ * written once at the end. In a cluster only the trains this node leads are imported.
+ *
+ * Every input line gets one row in the report, saying whether it was booked and why not.
+ *
+ * Run with {@code gradle importBookings --args="requests.csv [report.csv] [dataDir]"}.
+ */
+public class BookingImporter {
+
+    public enum Status { BOOKED, REJECTED, FAILED }
+
+    public record Result(int line, Status status, List<Ticket> tickets, String message) {}
+
+    private record Request(int line, String username, String trainId, String source, String destination,
+                           int row, int seat, int count, boolean contiguous) {}
+
+    private record Claim(Train train, List<SeatInventory.Seat> seats, String source, String destination) {}
+
+    // Lines whose tickets were stored but whose held seats could not be booked until a restart
+    private static final LongAdder UNCONFIRMED_HOLDS = Metrics.counter("import_holds_unconfirmed");
+
+    private final TrainService trainService;
+    private final UserBookingService userBookingService;
+    private final int parallelism;
+    private final Cluster cluster;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public BookingImporter(TrainService trainService, UserBookingService userBookingService, int parallelism) {
+        this(trainService, userBookingService, parallelism, Cluster.standalone());
+    }
+
+    public BookingImporter(TrainService trainService, UserBookingService userBookingService, int parallelism,
+                           Cluster cluster) {
+        this.trainService = trainService;
+        this.userBookingService = userBookingService;
+        this.parallelism = Math.max(1, parallelism);
+        this.cluster = cluster;
+        BookingService.linkSeats(trainService, userBookingService);
+    }
+
+    /**
+     * Books every request in the file and returns one result per request line, in file order.
+     */
+    public List<Result> run(Path input) throws IOException {
+        Map<Integer, Result> results = new HashMap<>();
+        Map<String, List<Request>> byTrain = new LinkedHashMap<>();
+        boolean csv = !input.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".jsonl");
+        try (BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8)) {
+            List<String> header = null;
+            String text;
+            int line = 0;
+            while ((text = reader.readLine()) != null) {
+                line++;
+                if (text.isBlank()) continue;
+                if (csv && header == null) {
+                    header = parseCsvLine(text).stream().map(h -> h.trim().toLowerCase(Locale.ROOT)).toList();
+                    continue;
+                }
+                try {
+                    Map<String, String> fields = csv ? csvFields(header, parseCsvLine(text)) : jsonFields(text);
+                    Request request = toRequest(line, fields);
+                    byTrain.computeIfAbsent(request.trainId().toLowerCase(Locale.ROOT), t -> new ArrayList<>()).add(request);
+                } catch (IllegalArgumentException e) {
+                    results.put(line, new Result(line, Status.REJECTED, List.of(), e.getMessage()));
+                }
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        Map<Integer, Claim> claims = new ConcurrentHashMap<>();
+        List<Result> booked;
+        try {
+            booked = pool.submit(() -> byTrain.values().parallelStream()
+                    .flatMap(requests -> bookTrain(requests, claims).stream())
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while importing " + input, e);
+        } catch (ExecutionException e) {
+            throw new IOException("Import of " + input + " failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+
+        // store every ticket in one go, then book the held seats of the ones stored and give
+        // back the rest
+        List<Ticket> tickets = new ArrayList<>();
+        booked.forEach(result -> tickets.addAll(result.tickets()));
+        Set<String> failed = userBookingService.importTickets(tickets);
+        for (Result result : booked) {
+            Claim claim = claims.get(result.line());
+            if (claim != null) {
+                if (result.tickets().stream().anyMatch(t -> failed.contains(t.getTicketId()))) {
+                    trainService.releaseHold(claim.train(), claim.seats(), claim.source(), claim.destination());
+                    result = new Result(result.line(), Status.FAILED, List.of(), "Tickets could not be stored");
+                } else if (!trainService.confirmHold(claim.train(), claim.seats(), claim.source(), claim.destination())) {
+                    // the tickets are stored, so their seats are claimed again on the next start
+                    UNCONFIRMED_HOLDS.increment();
+                }
+            }
+            results.put(result.line(), result);
+        }
+        trainService.flush();
+
+        List<Result> ordered = new ArrayList<>(results.values());
+        ordered.sort((a, b) -> Integer.compare(a.line(), b.line()));
+        return ordered;
+    }
+
+    /**
+     * Holds seats for the requests of one train, in order, and adds them to {@code claims} by
+     * line. Tickets are issued but not stored yet.
+     */
+    private List<Result> bookTrain(List<Request> requests, Map<Integer, Claim> claims) {
+        List<Result> results = new ArrayList<>(requests.size());
+        String trainId = requests.get(0).trainId();
+        Optional<Train> train = trainService.getTrainById(trainId);
+        String rejected = train.isEmpty() ? "Unknown train " + trainId
+                : !cluster.leads(trainId) ? "Train " + trainId + " is led by node " + cluster.leaderOf(trainId).id()
+                : null;
+        if (rejected != null) {
+            for (Request request : requests) {
+                results.add(new Result(request.line(), Status.REJECTED, List.of(), rejected));
+            }
+            return results;
+        }
+        List<Request> valid = new ArrayList<>();
+        List<String> userIds = new ArrayList<>();
+        for (Request request : requests) {
+            Optional<User> user = userBookingService.getUserByName(request.username());
+            if (user.isEmpty()) {
+                results.add(new Result(request.line(), Status.REJECTED, List.of(), "Unknown user " + request.username()));
+            } else {
+                valid.add(request);
+                userIds.add(user.get().getUserId());
+            }
+        }
+        List<TrainService.SeatRequest> seatRequests = valid.stream()
+                .map(r -> new TrainService.SeatRequest(r.source(), r.destination(), r.row(), r.seat(), r.count(), r.contiguous()))
+                .toList();
+        List<List<SeatInventory.Seat>> seats = trainService.holdAll(train.get(), seatRequests);
+        for (int i = 0; i < valid.size(); i++) {
+            Request request = valid.get(i);
+            if (seats.get(i).isEmpty()) {
+                String reason = request.count() > 0 ? "Not enough free seats" : "Seat already booked or invalid";
+                results.add(new Result(request.line(), Status.REJECTED, List.of(), reason));
+                continue;
+            }
+            List<Ticket> tickets = new ArrayList<>();
+            for (SeatInventory.Seat seat : seats.get(i)) {
+                Ticket ticket = UserBookingService.newTicket(train.get(), seat.row(), seat.seat(),
+                        request.source(), request.destination());
+                ticket.setUserId(userIds.get(i));
+                tickets.add(ticket);
+            }
+            claims.put(request.line(), new Claim(train.get(), seats.get(i), request.source(), request.destination()));
+            results.add(new Result(request.line(), Status.BOOKED, tickets, null));
+        }
+        return results;
+    }
+
+    private Map<String, String> jsonFields(String text) {
+        JsonNode node;
+        try {
+            node = objectMapper.readTree(text);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Malformed JSON");
+        }
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("Expected a JSON object");
+        }
+        Map<String, String> fields = new HashMap<>();
+        node.fields().forEachRemaining(field -> fields.put(field.getKey().toLowerCase(Locale.ROOT), field.getValue().asText()));
+        return fields;
+    }
+
+    private static Map<String, String> csvFields(List<String> header, List<String> values) {
+        Map<String, String> fields = new HashMap<>();
+        for (int i = 0; i < header.size() && i < values.size(); i++) {
+            fields.put(header.get(i), values.get(i).trim());
+        }
+        return fields;
+    }
+
+    private static Request toRequest(int line, Map<String, String> fields) {
+        String count = fields.get("count");
+        boolean group = count != null && !count.isBlank();
+        return new Request(line, required(fields, "username"), required(fields, "train_id"),
+                required(fields, "source"), required(fields, "destination"),
+                group ? 0 : number(fields, "row"), group ? 0 : number(fields, "seat"),
+                group ? positive(fields, "count") : 0,
+                !"false".equalsIgnoreCase(fields.getOrDefault("contiguous", "true").trim()));
+    }
+
+    private static String required(Map<String, String> fields, String name) {
+        String value = fields.get(name);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException("Missing field " + name);
+        }
+        return value.trim();
+    }
+
+    private static int number(Map<String, String> fields, String name) {
+        try {
+            return Integer.parseInt(required(fields, name));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid field " + name);
+        }
+    }
+
+    private static int positive(Map<String, String> fields, String name) {
+        int value = number(fields, name);
+        if (value <= 0) {
+            throw new IllegalArgumentException("Invalid field " + name);
+        }
+        return value;
+    }
+
+    /**
+     * Splits one CSV line, honouring double-quoted fields with embedded commas and "" escapes.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    /**
+     * Writes the results as CSV: line, status, seats, ticket ids and the reason for anything
+     * not booked.
+     */
+    public static void writeReport(List<Result> results, Path report) throws IOException {
+        AtomicFiles.write(report, out -> {
+            Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            writer.write("line,status,seats,ticket_ids,message\n");
+            for (Result result : results) {
+                String seats = result.tickets().stream().map(Ticket::getSeatNumber).collect(Collectors.joining(" "));
+                String ticketIds = result.tickets().stream().map(Ticket::getTicketId).collect(Collectors.joining(" "));
+                String message = result.message() == null ? "" : "\"" + result.message().replace("\"", "\"\"") + "\"";
+                writer.write(result.line() + "," + result.status() + "," + seats + "," + ticketIds + "," + message + "\n");
+            }
+            writer.flush();
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("Usage: BookingImporter <requests.csv|requests.jsonl> [report.csv] [dataDir]");
+            return;
+        }
+        Path input = Paths.get(args[0]);
+        Path report = args.length > 1 ? Paths.get(args[1]) : Paths.get(args[0] + ".report.csv");
+        Path dataDir = args.length > 2 ? Paths.get(args[2]) : BookingConfig.dataDir();
+
+        UserBookingService userBookingService = new UserBookingService(dataDir);
+        TrainService trainService = new TrainService(dataDir);
+        try {
+            BookingImporter importer = new BookingImporter(trainService, userBookingService,
+                    Runtime.getRuntime().availableProcessors(), Cluster.fromConfig());
+            long started = System.nanoTime();
+            List<Result> results = importer.run(input);
+            writeReport(results, report);
+            Map<Status, Long> counts = results.stream().collect(Collectors.groupingBy(Result::status, Collectors.counting()));
+            System.out.println("Imported " + results.size() + " requests in " + (System.nanoTime() - started) / 1_000_000
+                    + " ms: " + counts + "; report written to " + report);
+        } finally {
+            userBookingService.close();
+            trainService.close();
+        }
+    }
+}
@@ -0,0 +1,471 @@
+package ticketbooking.services;
+
+import ticketbooking.entities.SeatHold;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.entities.WaitlistEntry;
+
+import ticketbooking.util.BookingConfig;
+import ticketbooking.util.LatencyHistogram;
+import ticketbooking.util.Metrics;
+import ticketbooking.util.TimingWheel;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Books seats across both services: claims the seat in the train's seat map and issues the
+ * ticket, and gives the seat back if the ticket cannot be stored, so callers only ever see both
+ * or neither.
+ *
+ * Cancelling is the reverse, and just as atomic: the ticket is removed and its seat released in
+ * one journal record, which is the commit point. trains.bin is written a little later, so on
+ * startup any release it is missing is re-applied from the journal.
+ *
+ * Users can wait for a sold-out journey on the train's waitlist. A seat freed by a cancel, a
+ * released or expired hold or a failed booking is booked for the best waiting user under the
+ * same seat lock as the release, so it is never on sale in between; the user's ticket is then
+ * issued here. Waitlists, like holds, live only in memory.
+ *
+ * Seats can also be held first and confirmed later, e.g. while the user pays. Holds live only
+ * in memory; their expiries are tracked on one timing wheel rather than a task per hold, and an
+ * expired hold puts its seats back on sale.
+ */
+public class BookingService implements Closeable {
+
+    // Wheel resolution: expiries fire at most this late; one turn covers TICK_MILLIS * WHEEL_SIZE
+    private static final long TICK_MILLIS = 100;
+    private static final int WHEEL_SIZE = 512;
+
+    private static final LatencyHistogram BOOKING_LATENCY = Metrics.histogram("booking");
+    private static final LongAdder BOOKINGS = Metrics.counter("bookings");
+    private static final LongAdder FAILED_BOOKINGS = Metrics.counter("bookings_failed");
+    private static final LongAdder CANCELS = Metrics.counter("cancels");
+    private static final LongAdder HOLDS = Metrics.counter("holds");
+    private static final LongAdder EXPIRED_HOLDS = Metrics.counter("holds_expired");
+    private static final LongAdder WAITLISTED = Metrics.counter("waitlist_joins");
+    private static final LongAdder PROMOTIONS = Metrics.counter("waitlist_promotions");
+
+    private final TrainService trainService;
+    private final UserBookingService userBookingService;
+
+    private final long holdTtlMillis;
+    private final Map<String, PendingHold> holds = new ConcurrentHashMap<>();
+    private final TimingWheel<SeatHold> holdExpiry;
+
+    // Seats booked for waiting users whose tickets are still to be issued
+    private final Queue<TrainService.Promotion> promotions = new ConcurrentLinkedQueue<>();
+
+    public BookingService(TrainService trainService, UserBookingService userBookingService) {
+        this(trainService, userBookingService, BookingConfig.holdTtlMillis());
+    }
+
+    public BookingService(TrainService trainService, UserBookingService userBookingService, long holdTtlMillis) {
+        this.trainService = trainService;
+        this.userBookingService = userBookingService;
+        this.holdTtlMillis = holdTtlMillis;
+        this.holdExpiry = new TimingWheel<>("holds", TICK_MILLIS, WHEEL_SIZE, this::expire);
+        linkSeats(trainService, userBookingService);
+        trainService.onPromotion(promotions::add);
+    }
+
+    /**
+     * Ties the user journals to the seat maps: re-applies releases and seat claims trains.bin
+     * is missing and makes every snapshot of a user shard write trains.bin first, since a journal must not be
+     * emptied while trains.bin still lacks the releases it records. Called once by anything
+     * that opens both services to change bookings.
+     */
+    static void linkSeats(TrainService trainService, UserBookingService userBookingService) {
+        userBookingService.beforeCheckpoint(trainService::flush);
+        List<UserShard.ReleasedSeat> releases = userBookingService.drainReplayedReleases();
+        // per train, versions only make sense applied in the order they were taken
+        releases.sort(Comparator.comparingLong(UserShard.ReleasedSeat::seatVersion));
+        for (UserShard.ReleasedSeat release : releases) {
+            trainService.replayRelease(release.ticket(), release.seatVersion());
+        }
+        // after the releases, which may have freed a seat a later ticket booked again
+        for (Ticket ticket : userBookingService.drainReplayedBookings()) {
+            trainService.replayBooking(ticket);
+        }
+    }
+
+    /**
+     * Books a seat on the train's current record for the legs between source and destination.
+     * Safe to call from many threads at once; a seat is only ever sold to one of them.
+     */
+    public Optional<Ticket> book(User user, String trainId, int row, int seat, String source, String destination) {
+        long started = System.nanoTime();
+        Optional<Ticket> ticket = bookSeat(user, trainId, row, seat, source, destination);
+        BOOKING_LATENCY.recordSince(started);
+        (ticket.isPresent() ? BOOKINGS : FAILED_BOOKINGS).increment();
+        return ticket;
+    }
+
+    private Optional<Ticket> bookSeat(User user, String trainId, int row, int seat, String source, String destination) {
+        Optional<Train> train = trainService.getTrainById(trainId);
+        if (user == null || train.isEmpty()) {
+            return Optional.empty();
+        }
+        if (!trainService.bookTicket(train.get(), row, seat, source, destination)) {
+            return Optional.empty();
+        }
+        Optional<Ticket> ticket = userBookingService.createBooking(user, train.get(), row, seat, source, destination);
+        if (ticket.isEmpty()) {
+            // the ticket could not be stored, so the seat goes back on sale
+            trainService.releaseSeat(train.get(), row, seat, source, destination);
+            issuePromotions();
+        }
+        return ticket;
+    }
+
+    /**
+     * Books {@code count} seats on one train for a group travelling together, preferring seats
+     * next to each other. The seats are claimed in one step and their tickets stored in one
+     * journal write; if either part fails nothing is booked and the result is empty.
+     */
+    public Optional<List<Ticket>> allocate(User user, String trainId, String source, String destination,
+                                           int count, boolean preferContiguous) {
+        long started = System.nanoTime();
+        Optional<List<Ticket>> tickets = allocateSeats(user, trainId, source, destination, count, preferContiguous);
+        BOOKING_LATENCY.recordSince(started);
+        if (tickets.isPresent()) {
+            BOOKINGS.add(tickets.get().size());
+        } else {
+            FAILED_BOOKINGS.increment();
+        }
+        return tickets;
+    }
+
+    private Optional<List<Ticket>> allocateSeats(User user, String trainId, String source, String destination,
+                                                 int count, boolean preferContiguous) {
+        Optional<Train> train = trainService.getTrainById(trainId);
+        if (user == null || train.isEmpty() || count <= 0) {
+            return Optional.empty();
+        }
+        List<SeatInventory.Seat> seats = trainService.allocate(train.get(), source, destination, count, preferContiguous);
+        if (seats.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<List<Ticket>> tickets = userBookingService.createBookings(user, train.get(), seats, source, destination);
+        if (tickets.isEmpty()) {
+            trainService.releaseSeats(train.get(), seats, source, destination);
+            issuePromotions();
+        }
+        return tickets;
+    }
+
+    /**
+     * Holds one seat for the user. The hold lasts for the configured TTL unless it is confirmed
+     * or released first.
+     */
+    public Optional<SeatHold> hold(User user, String trainId, int row, int seat, String source, String destination) {
+        Optional<Train> train = trainService.getTrainById(trainId);
+        if (user == null || train.isEmpty()) {
+            return Optional.empty();
+        }
+        int layout = train.get().getSeats().layout();
+        if (!trainService.holdSeat(train.get(), row, seat, source, destination)) {
+            return Optional.empty();
+        }
+        return Optional.of(register(user, train.get(), layout, List.of(new SeatInventory.Seat(row, seat)), source, destination));
+    }
+
+    /**
+     * Holds {@code count} seats for a group, picked the same way {@link #allocate} picks them.
+     */
+    public Optional<SeatHold> hold(User user, String trainId, String source, String destination,
+                                   int count, boolean preferContiguous) {
+        Optional<Train> train = trainService.getTrainById(trainId);
+        if (user == null || train.isEmpty() || count <= 0) {
+            return Optional.empty();
+        }
+        int layout = train.get().getSeats().layout();
+        List<SeatInventory.Seat> seats = trainService.holdSeats(train.get(), source, destination, count, preferContiguous);
+        if (seats.isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(register(user, train.get(), layout, seats, source, destination));
+    }
+
+    // layout is the seat map's, read before the seats were held
+    private SeatHold register(User user, Train train, int layout, List<SeatInventory.Seat> seats,
+                              String source, String destination) {
+        SeatHold hold = new SeatHold(UUID.randomUUID().toString(), user.getUserId(), train.getTrainId(),
+                source, destination, List.copyOf(seats), System.currentTimeMillis() + holdTtlMillis);
+        PendingHold pending = new PendingHold(hold, train.getSeats(), layout);
+        // in the map before its expiry is scheduled, so an expiry can never miss it
+        holds.put(hold.holdId(), pending);
+        pending.expiry = holdExpiry.schedule(hold, holdTtlMillis);
+        HOLDS.increment();
+        return hold;
+    }
+
+    /**
+     * Turns the user's hold into tickets. Fails if the hold is unknown, belongs to someone
+     * else, has run out or was made before the train's timetable changed; such a hold is
+     * released.
+     */
+    public Optional<List<Ticket>> confirm(User user, String holdId) {
+        PendingHold pending = holds.get(holdId);
+        if (user == null || pending == null || !Objects.equals(user.getUserId(), pending.hold.userId())
+                || !holds.remove(holdId, pending)) {
+            return Optional.empty();
+        }
+        pending.cancelExpiry();
+        SeatHold hold = pending.hold;
+        Optional<Train> train = trainService.getTrainById(hold.trainId());
+        if (train.isEmpty()) {
+            return Optional.empty();
+        }
+        if (System.currentTimeMillis() > hold.expiresAt() || pending.isStale(train.get())) {
+            // a timetable change since the hold was made leaves its legs meaningless
+            releaseSeats(pending);
+            issuePromotions();
+            return Optional.empty();
+        }
+        if (!trainService.confirmHold(train.get(), hold.seats(), hold.source(), hold.destination())) {
+            // the hold is gone from the map and the wheel, so nothing else would free its seats
+            releaseSeats(pending);
+            issuePromotions();
+            return Optional.empty();
+        }
+        Optional<List<Ticket>> tickets = userBookingService.createBookings(user, train.get(), hold.seats(),
+                hold.source(), hold.destination());
+        if (tickets.isEmpty()) {
+            trainService.releaseSeats(train.get(), hold.seats(), hold.source(), hold.destination());
+            issuePromotions();
+        }
+        return tickets;
+    }
+
+    /**
+     * Gives up the user's hold, putting its seats back on sale.
+     */
+    public Boolean release(User user, String holdId) {
+        PendingHold pending = holds.get(holdId);
+        if (user == null || pending == null || !Objects.equals(user.getUserId(), pending.hold.userId())
+                || !holds.remove(holdId, pending)) {
+            return Boolean.FALSE;
+        }
+        pending.cancelExpiry();
+        releaseSeats(pending);
+        issuePromotions();
+        return Boolean.TRUE;
+    }
+
+    public int pendingHolds() {
+        return holds.size();
+    }
+
+    private void expire(SeatHold hold) {
+        PendingHold pending = holds.get(hold.holdId());
+        if (pending != null && pending.hold == hold && holds.remove(hold.holdId(), pending)) {
+            releaseSeats(pending);
+            EXPIRED_HOLDS.increment();
+            if (!promotions.isEmpty()) {
+                // issuing waits on journal writes, which the wheel thread must not do
+                ForkJoinPool.commonPool().execute(this::issuePromotions);
+            }
+        }
+    }
+
+    private void releaseSeats(PendingHold pending) {
+        SeatHold hold = pending.hold;
+        trainService.getTrainById(hold.trainId()).ifPresent(train -> {
+            if (train.getSeats() != pending.seats) {
+                // the train's seat map was replaced, and the new one never had these holds
+                return;
+            }
+            if (pending.isStale(train)) {
+                releaseStaleHolds(train, pending);
+            } else {
+                trainService.releaseHold(train, hold.seats(), hold.source(), hold.destination());
+            }
+        });
+    }
+
+    /**
+     * Drops the given hold and every other one on the train made before its segments were last
+     * redrawn. They all cover the whole run by now, so they go together, under the train's seat
+     * lock, before any seat they free can be held again and mistaken for theirs.
+     */
+    private void releaseStaleHolds(Train train, PendingHold pending) {
+        Lock lock = trainService.seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            List<SeatInventory.Seat> seats = new ArrayList<>(pending.hold.seats());
+            for (Map.Entry<String, PendingHold> entry : holds.entrySet()) {
+                PendingHold other = entry.getValue();
+                if (other.seats == train.getSeats() && other.isStale(train) && holds.remove(entry.getKey(), other)) {
+                    other.cancelExpiry();
+                    seats.addAll(other.hold.seats());
+                }
+            }
+            trainService.releaseStaleHold(train, seats);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stops expiring holds. Seats still held stay off sale until the process exits, since holds
+     * are never persisted.
+     */
+    @Override
+    public void close() {
+        holdExpiry.close();
+    }
+
+    // Cancelled tickets' seats stay off sale until the cancellation is journaled
+    private UserBookingService.SeatRelease seatRelease() {
+        return new UserBookingService.SeatRelease(trainService::withdrawTicket, trainService::releaseWithdrawn,
+                trainService::restoreWithdrawn);
+    }
+
+    /**
+     * Cancels one of the user's tickets and puts its seat back on sale, both in one journal
+     * record.
+     */
+    public Boolean cancel(User user, String ticketId) {
+        Optional<Ticket> ticket = userBookingService.findTicket(ticketId);
+        if (user == null || ticket.isEmpty() || !Objects.equals(user.getUserId(), ticket.get().getUserId())) {
+            return Boolean.FALSE;
+        }
+        if (!userBookingService.cancelBooking(user, ticketId, seatRelease())) {
+            return Boolean.FALSE;
+        }
+        CANCELS.increment();
+        issuePromotions();
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Cancels several of the user's tickets at once. Tickets that are not the user's are
+     * skipped. Returns the tickets cancelled.
+     */
+    public List<Ticket> cancelAll(User user, Collection<String> ticketIds) {
+        if (user == null || ticketIds.isEmpty()) {
+            return List.of();
+        }
+        Set<String> ids = new HashSet<>(ticketIds);
+        List<Ticket> cancelled = userBookingService.cancelAll(user.getUserId(),
+                ticket -> ids.contains(ticket.getTicketId()), seatRelease());
+        CANCELS.add(cancelled.size());
+        issuePromotions();
+        return cancelled;
+    }
+
+    /**
+     * Cancels every ticket on a train, e.g. when the train itself is cancelled, and empties its
+     * waitlist. Each user shard journals its share in one write. Returns the tickets cancelled.
+     */
+    public List<Ticket> cancelTrain(String trainId) {
+        Optional<Train> train = trainService.getTrainById(trainId);
+        if (train.isEmpty()) {
+            return List.of();
+        }
+        String id = train.get().getTrainId();
+        // nobody is promoted onto a train that is not running
+        trainService.clearWaitlist(train.get());
+        List<Ticket> cancelled = userBookingService.cancelAll(null,
+                ticket -> id.equalsIgnoreCase(ticket.getTrainId()), seatRelease());
+        CANCELS.add(cancelled.size());
+        issuePromotions();
+        return cancelled;
+    }
+
+    /**
+     * Puts the user on the waitlist for a journey on which every seat is taken. Empty if seats
+     * are still free, so the user should book one instead.
+     */
+    public Optional<WaitlistEntry> joinWaitlist(User user, String trainId, String source, String destination,
+                                                int priority) {
+        Optional<Train> train = trainService.getTrainById(trainId);
+        if (user == null || train.isEmpty()) {
+            return Optional.empty();
+        }
+        Optional<WaitlistEntry> entry = trainService.joinWaitlist(train.get(), user.getUserId(), source, destination, priority);
+        entry.ifPresent(e -> WAITLISTED.increment());
+        return entry;
+    }
+
+    public Boolean leaveWaitlist(User user, long entryId) {
+        return user != null && trainService.leaveWaitlist(user.getUserId(), entryId);
+    }
+
+    public List<WaitlistEntry> waitlist(User user) {
+        return user == null ? List.of() : trainService.waitlistEntries(user.getUserId());
+    }
+
+    /**
+     * Issues tickets for seats booked for waiting users. A seat whose ticket cannot be stored
+     * is released, which may promote the next user in line, and its user goes back to waiting.
+     */
+    private void issuePromotions() {
+        TrainService.Promotion promotion;
+        while ((promotion = promotions.poll()) != null) {
+            WaitlistEntry entry = promotion.entry();
+            SeatInventory.Seat seat = promotion.seat();
+            Optional<Train> train = trainService.getTrainById(entry.trainId());
+            Optional<User> user = userBookingService.getUserById(entry.userId());
+            if (train.isEmpty() || user.isEmpty()) {
+                // nobody left to give the seat to, so it goes back on sale
+                Train booked = train.orElse(promotion.train());
+                trainService.releaseSeat(booked, seat.row(), seat.seat(), entry.source(), entry.destination());
+                continue;
+            }
+            Optional<Ticket> ticket = userBookingService.createBooking(user.get(), train.get(),
+                    seat.row(), seat.seat(), entry.source(), entry.destination());
+            if (ticket.isPresent()) {
+                PROMOTIONS.increment();
+            } else {
+                // the ticket could not be stored; the user keeps waiting for the next seat
+                trainService.returnPromotion(train.get(), promotion);
+            }
+        }
+    }
+
+    private static final class PendingHold {
+        private final SeatHold hold;
+        // The seat map the seats were held on, and its layout then
+        private final SeatInventory seats;
+        private final int layout;
+        private volatile TimingWheel<SeatHold>.Timeout expiry;
+
+        PendingHold(SeatHold hold, SeatInventory seats, int layout) {
+            this.hold = hold;
+            this.seats = seats;
+            this.layout = layout;
+        }
+
+        /**
+         * True once the train's seat map was replaced or its segments redrawn, so the hold's
+         * source and destination no longer say which bits it holds.
+         */
+        boolean isStale(Train train) {
+            return train.getSeats() != seats || train.getSeats().layout() != layout;
+        }
+
+        void cancelExpiry() {
+            TimingWheel<SeatHold>.Timeout timeout = expiry;
+            if (timeout != null) timeout.cancel();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package ticketbooking.services;
+
+import ticketbooking.util.BookingConfig;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The nodes sharing the bookings and which of them leads what. Trains are partitioned by id
+ * over the nodes, each node leading the seat maps of its partition: only the leader books,
+ * holds or releases seats on a train, and every other node follows its changes. Sign-ups are
+ * led by node 0 so user names stay unique across the cluster.
+ *
+ * A single node, the default, leads everything.
+ */
+public class Cluster {
+
+    public record Node(int id, String host, int httpPort, int replicationPort) {
+        public URI uri(String pathAndQuery) {
+            return URI.create("http://" + host + ":" + httpPort + pathAndQuery);
+        }
+    }
+
+    private final List<Node> nodes;
+    private final Node self;
+
+    public Cluster(List<Node> nodes, int selfId) {
+        if (selfId < 0 || selfId >= nodes.size()) {
+            throw new IllegalArgumentException("Node id " + selfId + " is not one of the " + nodes.size() + " nodes");
+        }
+        this.nodes = List.copyOf(nodes);
+        this.self = nodes.get(selfId);
+    }
+
+    public static Cluster standalone() {
+        return new Cluster(List.of(new Node(0, "localhost", 0, 0)), 0);
+    }
+
+    /**
+     * The cluster set up with {@code ticketbooking.cluster.nodes} and {@code ticketbooking.node.id},
+     * or a single node if no nodes are listed.
+     */
+    public static Cluster fromConfig() {
+        List<String> entries = BookingConfig.clusterNodes();
+        if (entries.isEmpty()) return standalone();
+        List<Node> nodes = new ArrayList<>();
+        for (String entry : entries) {
+            String[] parts = entry.split(":");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Cluster node " + entry + " is not host:httpPort:replicationPort");
+            }
+            nodes.add(new Node(nodes.size(), parts[0], Integer.parseInt(parts[1]), Integer.parseInt(parts[2])));
+        }
+        return new Cluster(nodes, BookingConfig.nodeId());
+    }
+
+    public boolean isClustered() {
+        return nodes.size() > 1;
+    }
+
+    public Node self() {
+        return self;
+    }
+
+    public List<Node> nodes() {
+        return nodes;
+    }
+
+    public List<Node> peers() {
+        return nodes.stream().filter(node -> node != self).toList();
+    }
+
+    /**
+     * The node whose partition the train is in. String hash codes are fixed by the language,
+     * so every node works this out the same way.
+     */
+    public Node leaderOf(String trainId) {
+        return nodes.get(Math.floorMod(trainId.toLowerCase(Locale.ROOT).hashCode(), nodes.size()));
+    }
+
+    public boolean leads(String trainId) {
+        return leaderOf(trainId) == self;
+    }
+
+    public Node usersLeader() {
+        return nodes.get(0);
+    }
+
+    public boolean leadsUsers() {
+        return usersLeader() == self;
+    }
+
+    /**
+     * Whether {@code presented} is the cluster secret, compared in constant time. Never true
+     * when no secret is set.
+     */
+    public static boolean isClusterSecret(String presented) {
+        String secret = BookingConfig.clusterSecret();
+        return presented != null && !secret.isEmpty()
+                && MessageDigest.isEqual(secret.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+}
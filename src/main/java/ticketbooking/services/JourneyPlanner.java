@@ -0,0 +1,245 @@
+package ticketbooking.services;
+
+import ticketbooking.entities.Itinerary;
+import ticketbooking.entities.Train;
+
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+
+/**
+ * Finds journeys with changes of train, using the trains' station times.
+ *
+ * Built once from the train list into a timetable graph: every station knows the trains that
+ * stop there and at which position, and every train its stop times in minutes, unrolled over
+ * midnight. Searching is a time-dependent Dijkstra over (station, rides taken) states: a ride
+ * leaves on the next daily run of the train that is no earlier than the arrival at the station
+ * plus the change time. Each state may be settled up to K times, so the first K times the
+ * destination comes off the queue are the K earliest-arriving itineraries.
+ *
+ * Instances are immutable; the train service builds a new one when a train's stations or
+ * times change.
+ */
+class JourneyPlanner {
+
+    static final int MAX_RIDES = 3;
+    private static final int DAY = 24 * 60;
+    // budget is checked every this many queue pops
+    private static final int BUDGET_CHECK_EVERY = 256;
+
+    private final List<Train> trains;
+    private final Map<String, Integer> stationIds = new HashMap<>();
+
+    // per train: station ids in stop order and stop times in minutes from the first stop's day
+    private final int[][] trainStations;
+    private final int[][] trainMinutes;
+    // copies of what each train was planned from, to tell when it has changed
+    private final List<List<String>> plannedStations = new ArrayList<>();
+    private final List<Map<String, String>> plannedTimes = new ArrayList<>();
+
+    // per station: (train, stop position) of every stop there
+    private int[][] stopTrains = new int[0][];
+    private int[][] stopPositions = new int[0][];
+
+    JourneyPlanner(List<Train> trains) {
+        this.trains = List.copyOf(trains);
+        this.trainStations = new int[trains.size()][];
+        this.trainMinutes = new int[trains.size()][];
+        int[] stopCounts = new int[16];
+        for (int t = 0; t < trains.size(); t++) {
+            Train train = trains.get(t);
+            plannedStations.add(train.getStations() == null ? null : List.copyOf(train.getStations()));
+            plannedTimes.add(train.getStationTimes() == null ? null : Map.copyOf(train.getStationTimes()));
+            int[] minutes = unrolledMinutes(train);
+            // trains without a usable timetable cannot be planned with
+            if (minutes == null) continue;
+            int[] stations = new int[minutes.length];
+            for (int p = 0; p < stations.length; p++) {
+                stations[p] = stationIds.computeIfAbsent(train.getStations().get(p), s -> stationIds.size());
+                if (stations[p] >= stopCounts.length) stopCounts = Arrays.copyOf(stopCounts, stopCounts.length * 2);
+                stopCounts[stations[p]]++;
+            }
+            trainStations[t] = stations;
+            trainMinutes[t] = minutes;
+        }
+        stopTrains = new int[stationIds.size()][];
+        stopPositions = new int[stationIds.size()][];
+        for (int s = 0; s < stopTrains.length; s++) {
+            stopTrains[s] = new int[stopCounts[s]];
+            stopPositions[s] = new int[stopCounts[s]];
+        }
+        int[] filled = new int[stationIds.size()];
+        for (int t = 0; t < trainStations.length; t++) {
+            if (trainStations[t] == null) continue;
+            for (int p = 0; p < trainStations[t].length; p++) {
+                int s = trainStations[t][p];
+                stopTrains[s][filled[s]] = t;
+                stopPositions[s][filled[s]] = p;
+                filled[s]++;
+            }
+        }
+    }
+
+    /**
+     * True if the train at this position still has the stations and times it was planned with.
+     */
+    boolean isCurrent(int index, Train train) {
+        return index < plannedStations.size()
+                && Objects.equals(plannedStations.get(index), train.getStations())
+                && Objects.equals(plannedTimes.get(index), train.getStationTimes());
+    }
+
+    private static int[] unrolledMinutes(Train train) {
+        List<String> stations = train.getStations();
+        Map<String, String> times = train.getStationTimes();
+        if (stations == null || times == null || stations.size() < 2) return null;
+        int[] minutes = new int[stations.size()];
+        int day = 0;
+        for (int p = 0; p < minutes.length; p++) {
+            int minute = parseMinutes(times.get(stations.get(p)));
+            if (minute < 0) return null;
+            // a stop earlier in the day than the one before it is on the next day
+            if (p > 0 && minute + day * DAY < minutes[p - 1]) day++;
+            minutes[p] = minute + day * DAY;
+        }
+        return minutes;
+    }
+
+    /**
+     * Minutes after midnight of an "HH:mm" or "HH:mm:ss" time, or -1 if it cannot be read.
+     */
+    static int parseMinutes(String time) {
+        if (time == null) return -1;
+        try {
+            LocalTime parsed = LocalTime.parse(time.trim());
+            return parsed.getHour() * 60 + parsed.getMinute();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    private record Label(int minute, int station, int rides, int train, int board, int alight, Label previous) {}
+
+    /**
+     * Up to {@code k} itineraries from source to destination leaving no earlier than
+     * {@code departAfter} minutes into the day, earliest arrival first, with at most
+     * {@link #MAX_RIDES} rides. If the search runs past {@code budgetNanos} the itineraries
+     * found so far are returned.
+     */
+    List<Itinerary> search(String source, String destination, int departAfter, int k, int changeMinutes,
+                           long budgetNanos) {
+        Integer from = stationIds.get(source);
+        Integer to = stationIds.get(destination);
+        List<Itinerary> result = new ArrayList<>();
+        if (from == null || to == null || from.equals(to) || k <= 0) return result;
+
+        long deadline = System.nanoTime() + budgetNanos;
+        int[] settled = new int[stationIds.size() * (MAX_RIDES + 1)];
+        PriorityQueue<Label> queue = new PriorityQueue<>((a, b) ->
+                a.minute != b.minute ? Integer.compare(a.minute, b.minute) : Integer.compare(a.rides, b.rides));
+        queue.add(new Label(departAfter, from, 0, -1, -1, -1, null));
+        // arrival minutes of the k earliest destination labels queued so far, latest on top
+        PriorityQueue<Integer> bestArrivals = new PriorityQueue<>(Comparator.reverseOrder());
+        Search search = new Search(to, k, changeMinutes, settled, queue, bestArrivals);
+        int pops = 0;
+        while (!queue.isEmpty() && result.size() < k) {
+            if (++pops % BUDGET_CHECK_EVERY == 0 && System.nanoTime() > deadline) break;
+            Label label = queue.poll();
+            int state = label.station * (MAX_RIDES + 1) + label.rides;
+            if (settled[state] >= k) continue;
+            // an earlier arrival with fewer rides also beats later ones with more
+            for (int rides = label.rides; rides <= MAX_RIDES; rides++) {
+                settled[label.station * (MAX_RIDES + 1) + rides]++;
+            }
+            if (label.station == to) {
+                result.add(toItinerary(label));
+                continue;
+            }
+            if (label.rides < MAX_RIDES) expand(label, search);
+        }
+        return result;
+    }
+
+    private record Search(int destination, int k, int changeMinutes, int[] settled, PriorityQueue<Label> queue,
+                          PriorityQueue<Integer> bestArrivals) {
+
+        /**
+         * Queues a label unless its state is already settled k times.
+         */
+        void offer(Label label) {
+            if (settled[label.station * (MAX_RIDES + 1) + label.rides] >= k) return;
+            if (label.station == destination) {
+                bestArrivals.add(label.minute);
+                if (bestArrivals.size() > k) bestArrivals.poll();
+            }
+            queue.add(label);
+        }
+
+        /**
+         * True once k destination labels arriving earlier are queued. Times only grow along a
+         * journey, so nothing reached from such a label could make the top k.
+         */
+        boolean tooLate(int minute) {
+            return bestArrivals.size() == k && minute >= bestArrivals.peek();
+        }
+    }
+
+    private void expand(Label label, Search search) {
+        int destination = search.destination();
+        int readyAt = label.rides == 0 ? label.minute : label.minute + search.changeMinutes();
+        boolean lastRide = label.rides + 1 == MAX_RIDES;
+        int[] trainsHere = stopTrains[label.station];
+        int[] positionsHere = stopPositions[label.station];
+        for (int i = 0; i < trainsHere.length; i++) {
+            int t = trainsHere[i];
+            int p = positionsHere[i];
+            int[] stations = trainStations[t];
+            if (t == label.train || p == stations.length - 1) continue;
+            int[] minutes = trainMinutes[t];
+            // next daily run of the train leaving here at or after readyAt, which may be a run
+            // that started the day before
+            int departure = minutes[p] + Math.floorDiv(readyAt - minutes[p] + DAY - 1, DAY) * DAY;
+            for (int q = p + 1; q < stations.length; q++) {
+                int arrival = departure + minutes[q] - minutes[p];
+                // later stops of this run only arrive later still
+                if (search.tooLate(arrival)) break;
+                int station = stations[q];
+                if (lastRide && station != destination) continue;
+                if (visits(label, station)) continue;
+                search.offer(new Label(arrival, station, label.rides + 1, t, p, q, label));
+            }
+        }
+    }
+
+    private static boolean visits(Label label, int station) {
+        for (Label l = label; l != null; l = l.previous) {
+            if (l.station == station) return true;
+        }
+        return false;
+    }
+
+    private Itinerary toItinerary(Label last) {
+        List<Itinerary.Leg> legs = new ArrayList<>();
+        int departure = last.minute;
+        for (Label l = last; l.previous != null; l = l.previous) {
+            Train train = trains.get(l.train);
+            int[] minutes = trainMinutes[l.train];
+            int leaves = l.minute - (minutes[l.alight] - minutes[l.board]);
+            departure = leaves;
+            String boardAt = train.getStations().get(l.board);
+            String alightAt = train.getStations().get(l.alight);
+            legs.add(0, new Itinerary.Leg(train.getTrainId(), boardAt, alightAt,
+                    train.getStationTimes().get(boardAt), Math.floorDiv(leaves, DAY),
+                    train.getStationTimes().get(alightAt), Math.floorDiv(l.minute, DAY),
+                    train.getSeats() == null ? 0 : train.getSeats().availableSeats(l.board, l.alight)));
+        }
+        return new Itinerary(List.copyOf(legs), last.minute - departure);
+    }
+}
@@ -0,0 +1,277 @@
+package ticketbooking.services;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import ticketbooking.entities.User;
+import ticketbooking.storage.AtomicFiles;
+import ticketbooking.storage.JournalRecord;
+import ticketbooking.storage.ReplicationRecord;
+import ticketbooking.util.BookingConfig;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps this node's copy of the other nodes' data up to date: one thread per other node reads
+ * its {@link ticketbooking.storage.ReplicationLog} over TCP and applies each record, seat map
+ * rows to the trains and user changes to the user store, journaling them here as well.
+ *
+ * How far each node's log has been applied is kept in {@code replication.positions} in the data
+ * directory, written about once a second and only once everything applied up to there is on
+ * disk, so a restart carries on from there. Records are safe to apply twice, so a crash in
+ * between only means some are applied again.
+ *
+ * A change for a user whose sign-up has not arrived yet, because it comes from another node's
+ * log, waits until it has.
+ *
+ * A node whose log no longer has the records this node needs sends a snapshot instead: its seat
+ * rows and users, each user's tickets on its trains replacing this node's copy of them, then
+ * the position the log carries on from.
+ */
+public class ReplicationFollower implements Closeable {
+
+    private static final int CONNECT_TIMEOUT_MILLIS = 2000;
+
+    // Leaders send an empty line every second, so this much silence means the connection is gone
+    private static final int READ_TIMEOUT_MILLIS = 5000;
+    private static final long RECONNECT_MILLIS = 1000;
+    private static final long SAVE_EVERY_MILLIS = 1000;
+
+    private final Cluster cluster;
+    private final UserBookingService userBookingService;
+    private final TrainService trainService;
+    private final Path positionsPath;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Last record applied, and last one applied and on disk, per leader's node id
+    private final Map<Integer, Long> applied = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> saved = new ConcurrentHashMap<>();
+
+    // Changes waiting for their user's sign-up, by user id; guarded by this
+    private record Waiting(int leader, long seq, JournalRecord record) {}
+    private final Map<String, List<Waiting>> waiting = new HashMap<>();
+
+    private final List<Thread> threads = new ArrayList<>();
+    private final Map<Integer, Socket> sockets = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public ReplicationFollower(Cluster cluster, Path dataDir, UserBookingService userBookingService,
+                               TrainService trainService) throws IOException {
+        this.cluster = cluster;
+        this.userBookingService = userBookingService;
+        this.trainService = trainService;
+        this.positionsPath = dataDir.resolve("replication.positions");
+        this.objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        if (Files.exists(positionsPath)) {
+            Map<Integer, Long> positions = objectMapper.readValue(positionsPath.toFile(), new TypeReference<Map<Integer, Long>>() {});
+            applied.putAll(positions);
+            saved.putAll(positions);
+        }
+    }
+
+    public void start() {
+        for (Cluster.Node leader : cluster.peers()) {
+            Thread thread = new Thread(() -> follow(leader), "replication-from-node-" + leader.id());
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Position of the last record applied from each other node.
+     */
+    public Map<Integer, Long> appliedPositions() {
+        return new TreeMap<>(applied);
+    }
+
+    private void follow(Cluster.Node leader) {
+        boolean connected = false;
+        while (!closed) {
+            try (Socket socket = new Socket()) {
+                sockets.put(leader.id(), socket);
+                socket.connect(new InetSocketAddress(leader.host(), leader.replicationPort()), CONNECT_TIMEOUT_MILLIS);
+                socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+                socket.setTcpNoDelay(true);
+                OutputStream out = socket.getOutputStream();
+                out.write(("AUTH " + BookingConfig.clusterSecret() + "\n"
+                        + "NODE " + cluster.self().id() + "\n"
+                        + "FROM " + (applied.getOrDefault(leader.id(), 0L) + 1) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                if (!connected) System.out.println("Following node " + leader.id());
+                connected = true;
+                readRecords(leader.id(), new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8)), out);
+            } catch (IOException e) {
+                if (connected && !closed) System.out.println("Lost node " + leader.id() + ": " + e.getMessage());
+                connected = false;
+            } finally {
+                sockets.remove(leader.id());
+            }
+            try {
+                Thread.sleep(RECONNECT_MILLIS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    private void readRecords(int leader, BufferedReader in, OutputStream out) throws IOException {
+        List<CompletableFuture<Void>> unsaved = new ArrayList<>();
+        long lastSave = System.currentTimeMillis();
+        String line;
+        while (!closed && (line = in.readLine()) != null) {
+            if (line.startsWith("AHEAD ")) {
+                startOver(leader, line.substring("AHEAD ".length()));
+                return;
+            }
+            // empty lines are heartbeats
+            if (!line.isEmpty()) {
+                ReplicationRecord record = objectMapper.readValue(line, ReplicationRecord.class);
+                if (record.getJournal() != null) {
+                    applyJournal(leader, record.getSeq(), record.getJournal(), unsaved);
+                } else if (record.getUser() != null) {
+                    restoreUser(leader, record.getUser(), unsaved);
+                } else if (record.getTrainId() != null && !trainService.applySeatChange(record)) {
+                    System.out.println("Skipping seat change for train " + record.getTrainId() + " from node " + leader);
+                }
+                // snapshot records have no position of their own; the one ending it does
+                if (record.getSeq() > 0) applied.put(leader, record.getSeq());
+            }
+            if (System.currentTimeMillis() - lastSave >= SAVE_EVERY_MILLIS) {
+                savePosition(leader, unsaved);
+                unsaved.clear();
+                lastSave = System.currentTimeMillis();
+                // lets the leader drop what every follower has on disk
+                out.write(("ACK " + saved.getOrDefault(leader, 0L) + "\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+            }
+        }
+    }
+
+    /**
+     * The leader's log ends before what this node has applied from it, so it was started over,
+     * e.g. from an empty data directory. Its new log is followed from the start; records are
+     * safe to apply twice.
+     */
+    private void startOver(int leader, String leaderLastSeq) {
+        System.out.println("Node " + leader + "'s log ends at " + leaderLastSeq + " but this node has applied "
+                + applied.getOrDefault(leader, 0L) + " records of it; following its log again from the start");
+        synchronized (this) {
+            waiting.values().forEach(changes -> changes.removeIf(change -> change.leader() == leader));
+            waiting.values().removeIf(List::isEmpty);
+            applied.put(leader, 0L);
+            saved.put(leader, 0L);
+            try {
+                AtomicFiles.write(positionsPath, out -> objectMapper.writeValue(out, new TreeMap<>(saved)));
+            } catch (IOException e) {
+                System.out.println("Could not save replication positions: " + e.getMessage());
+            }
+        }
+    }
+
+    private synchronized void applyJournal(int leader, long seq, JournalRecord record, List<CompletableFuture<Void>> unsaved) {
+        // a user's changes stay in order: once one waits, the ones after it wait too
+        boolean inOrder = record.getType() == JournalRecord.Type.SIGN_UP || !waiting.containsKey(record.getUserId());
+        CompletableFuture<Void> written = inOrder ? userBookingService.applyReplicated(record) : null;
+        if (written == null) {
+            waiting.computeIfAbsent(record.getUserId(), userId -> new ArrayList<>()).add(new Waiting(leader, seq, record));
+            return;
+        }
+        unsaved.add(written);
+        if (record.getType() == JournalRecord.Type.SIGN_UP) {
+            applyWaiting(record.getUserId());
+        }
+    }
+
+    /**
+     * Replaces this node's copy of the user's tickets on the leader's trains with the one from
+     * the leader's snapshot, signing the user up first if needed. The leader's own changes still
+     * waiting for the user are older than the snapshot, so they are dropped.
+     */
+    private synchronized void restoreUser(int leader, User user, List<CompletableFuture<Void>> unsaved) {
+        List<Waiting> changes = waiting.get(user.getUserId());
+        if (changes != null) {
+            changes.removeIf(change -> change.leader() == leader);
+            if (changes.isEmpty()) waiting.remove(user.getUserId());
+        }
+        unsaved.add(userBookingService.restoreReplicated(user,
+                ticket -> ticket.getTrainId() != null && cluster.leaderOf(ticket.getTrainId()).id() == leader));
+        applyWaiting(user.getUserId());
+    }
+
+    // Must hold this
+    private void applyWaiting(String userId) {
+        List<Waiting> ready = waiting.remove(userId);
+        if (ready == null) return;
+        for (Waiting change : ready) {
+            // another leader's change, so it has to be on disk before that leader's position is saved
+            CompletableFuture<Void> caughtUp = userBookingService.applyReplicated(change.record());
+            if (caughtUp != null) caughtUp.join();
+        }
+    }
+
+    /**
+     * Records how far the leader's log is applied once everything applied from it is on disk,
+     * stopping short of any of its changes still waiting for a sign-up.
+     */
+    private void savePosition(int leader, List<CompletableFuture<Void>> unsaved) {
+        try {
+            CompletableFuture.allOf(unsaved.toArray(CompletableFuture[]::new)).join();
+            trainService.flush();
+        } catch (IOException | RuntimeException e) {
+            System.out.println("Could not save replicated changes: " + e.getMessage());
+            return;
+        }
+        long position = applied.getOrDefault(leader, 0L);
+        synchronized (this) {
+            for (List<Waiting> changes : waiting.values()) {
+                for (Waiting change : changes) {
+                    if (change.leader() == leader) position = Math.min(position, change.seq() - 1);
+                }
+            }
+            saved.put(leader, position);
+            try {
+                AtomicFiles.write(positionsPath, out -> objectMapper.writeValue(out, new TreeMap<>(saved)));
+            } catch (IOException e) {
+                System.out.println("Could not save replication positions: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        sockets.values().forEach(socket -> {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // closing anyway
+            }
+        });
+        for (Thread thread : threads) {
+            thread.interrupt();
+            try {
+                thread.join(READ_TIMEOUT_MILLIS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package ticketbooking.services;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Inverted index from station name to the trains stopping there.
+ *
+ * Trains are identified by their position in the train list. Every station has a posting list
+ * of (train, stop position) pairs kept sorted by train, so the trains running from A to B are
+ * found by walking the two posting lists side by side instead of scanning every train.
+ */
+public class RouteIndex {
+
+    private final Map<String, Postings> postingsByStation = new HashMap<>();
+
+    // Stations each train was indexed under, so an update knows which postings to drop
+    private final List<List<String>> indexedStations = new ArrayList<>();
+
+    public void add(int train, List<String> stations) {
+        while (indexedStations.size() <= train) {
+            indexedStations.add(null);
+        }
+        if (stations == null) return;
+        List<String> copy = List.copyOf(stations);
+        indexedStations.set(train, copy);
+        for (int position = 0; position < copy.size(); position++) {
+            String station = copy.get(position);
+            // Like List.indexOf, only the first stop at a station counts
+            if (copy.indexOf(station) != position) continue;
+            postingsByStation.computeIfAbsent(station, s -> new Postings()).insert(train, position);
+        }
+    }
+
+    public void update(int train, List<String> stations) {
+        List<String> previous = train < indexedStations.size() ? indexedStations.get(train) : null;
+        if (previous != null && previous.equals(stations)) return;
+        remove(train);
+        add(train, stations);
+    }
+
+    public void remove(int train) {
+        if (train >= indexedStations.size() || indexedStations.get(train) == null) return;
+        for (String station : indexedStations.get(train)) {
+            Postings postings = postingsByStation.get(station);
+            if (postings != null) {
+                postings.delete(train);
+                if (postings.size == 0) postingsByStation.remove(station);
+            }
+        }
+        indexedStations.set(train, null);
+    }
+
+    /**
+     * Positions in the train list of every train stopping at source before destination, in
+     * list order.
+     */
+    public List<Integer> search(String source, String destination) {
+        Postings from = postingsByStation.get(source);
+        Postings to = postingsByStation.get(destination);
+        if (from == null || to == null) return List.of();
+
+        List<Integer> result = new ArrayList<>();
+        int i = 0, j = 0;
+        while (i < from.size && j < to.size) {
+            int a = from.trains[i], b = to.trains[j];
+            if (a < b) {
+                i++;
+            } else if (a > b) {
+                j++;
+            } else {
+                if (from.positions[i] < to.positions[j]) result.add(a);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    public void clear() {
+        postingsByStation.clear();
+        indexedStations.clear();
+    }
+
+    private static final class Postings {
+        private int[] trains = new int[4];
+        private int[] positions = new int[4];
+        private int size;
+
+        private void insert(int train, int position) {
+            int at = Arrays.binarySearch(trains, 0, size, train);
+            if (at >= 0) {
+                positions[at] = position;
+                return;
+            }
+            at = -at - 1;
+            if (size == trains.length) {
+                trains = Arrays.copyOf(trains, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            System.arraycopy(trains, at, trains, at + 1, size - at);
+            System.arraycopy(positions, at, positions, at + 1, size - at);
+            trains[at] = train;
+            positions[at] = position;
+            size++;
+        }
+
+        private void delete(int train) {
+            int at = Arrays.binarySearch(trains, 0, size, train);
+            if (at < 0) return;
+            System.arraycopy(trains, at + 1, trains, at, size - at - 1);
+            System.arraycopy(positions, at + 1, positions, at, size - at - 1);
+            size--;
+        }
+    }
+}
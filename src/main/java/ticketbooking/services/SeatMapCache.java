@@ -0,0 +1,53 @@
+package ticketbooking.services;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Bounded LRU cache of rendered seat maps, one per train and journey. Entries are never
+ * invalidated explicitly: each one remembers the seat map version it was rendered from and is
+ * re-rendered once the train's seat map has moved past it.
+ */
+class SeatMapCache {
+
+    record Rendered(long version, List<List<Integer>> rows) {}
+
+    private record Key(String trainId, int from, int to) {}
+
+    private final Map<Key, Rendered> entries;
+
+    SeatMapCache(int capacity) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Rendered> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached map if it was rendered at {@code version}, otherwise renders and caches
+     * a new one.
+     */
+    List<List<Integer>> get(String trainId, int from, int to, long version, Supplier<Rendered> render) {
+        Key key = new Key(trainId, from, to);
+        Rendered cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+        if (cached != null && cached.version() == version) {
+            return cached.rows();
+        }
+        Rendered rendered = render.get();
+        synchronized (entries) {
+            Rendered current = entries.get(key);
+            // a slower render of an older version must not replace a newer one
+            if (current == null || current.version() < rendered.version()) {
+                entries.put(key, rendered);
+            }
+        }
+        return rendered.rows();
+    }
+}
@@ -1,109 +1,1154 @@
 package ticketbooking.services;
 
-import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import ticketbooking.entities.Itinerary;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Ticket;
 import ticketbooking.entities.Train;
+import ticketbooking.entities.WaitlistEntry;
+import ticketbooking.storage.CoalescingFlusher;
+import ticketbooking.storage.ReplicationRecord;
+import ticketbooking.storage.TrainRepository;
+import ticketbooking.util.BookingConfig;
+import ticketbooking.util.LatencyHistogram;
+import ticketbooking.util.Metrics;
+import ticketbooking.util.StringPool;
+import ticketbooking.util.StripedLocks;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.OptionalInt;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 
 
 public class TrainService {
     private List<Train> trainsList;
 
-    private static final String TRAINS_PATH = "/Users/ankushyamkar/IdeaProjects/ticket-booking/src/main/java/ticketbooking/localDB/trains.json";
+    // Default seed file in resources (read-only)
+    private static final String SEED_PATH = "localDB/trains.json";
+
+    // Where trains are saved, and reloaded from on restart
+    private final TrainRepository repository;
+
+    // JSON copy imported on first start when there is no binary snapshot yet
+    private final Path trainsJsonPath;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
+    private final RouteIndex routeIndex = new RouteIndex();
+
+    // Position in trainsList by lower-cased train id
+    private final Map<String, Integer> trainsById = new HashMap<>();
+
+    // Guards trainsList and both indexes; seat maps are guarded by seatLocks instead
+    private final ReadWriteLock listLock = new ReentrantReadWriteLock();
+
+    // Per-train locks for seat changes, so bookings on different trains never wait on each other
+    private final StripedLocks seatLocks = new StripedLocks(64);
+
+    // Collects bursts of seat changes into one rewrite of trains.bin
+    private final CoalescingFlusher trainsFlusher;
+
+    private static final LatencyHistogram SEARCH_LATENCY = Metrics.histogram("search");
+    private static final LatencyHistogram JOURNEY_SEARCH_LATENCY = Metrics.histogram("journey_search");
+    private static final LongAdder FAILED_CLAIMS = Metrics.counter("seat_claims_failed");
+    private static final LongAdder PARTIAL_CLAIMS = Metrics.counter("seat_claims_partial");
+    private static final LongAdder FAILED_PROMOTIONS = Metrics.counter("waitlist_promotions_failed");
+
+    // Timetable graph for journeys with changes; built on first use, dropped when a timetable changes
+    private volatile JourneyPlanner journeyPlanner;
+
+    // Rendered 0/1 seat maps, re-rendered once the train's seat map version moves on
+    private final SeatMapCache seatMapCache = new SeatMapCache(BookingConfig.seatMapCacheSize());
+
+    // Users waiting for a seat, per train by lower-cased id; each list is guarded by its train's seat lock
+    private final Map<String, Waitlist> waitlists = new ConcurrentHashMap<>();
+
+    // Train of every waiting entry, so an entry can be found by its id alone
+    private final Map<Long, String> waitlistedTrains = new ConcurrentHashMap<>();
+    private final AtomicLong waitlistIds = new AtomicLong();
+
+    // Told about every seat handed to a waiting user; null until someone issues their tickets
+    private volatile Consumer<Promotion> promotionListener;
+
+    // Told the new state of every seat map row this node books or releases on; null on a single node
+    private volatile Consumer<ReplicationRecord> seatChangeListener;
+    // Rows changed since the last trains flush, passed on once it has written them
+    private final Queue<ReplicationRecord> unflushedRows = new ConcurrentLinkedQueue<>();
+    // Rows taken for the flush in progress; only the flusher thread touches it
+    private final List<ReplicationRecord> flushingRows = new ArrayList<>();
+
    public TrainService() throws IOException {
-       trainsList = new ArrayList<>();
-       InputStream input = getClass().getClassLoader().getResourceAsStream("localDB/trains.json");
-       trainsList = objectMapper.readValue(input, new TypeReference<List<Train>>() {});
+       this(BookingConfig.dataDir());
    }
 
-   public void addTrain(Train train) {
-       Optional<Train> alreadyExists = trainsList.stream().filter(t -> t.getTrainId().equalsIgnoreCase(train.getTrainId())).findFirst();
+   public TrainService(Path dataDir) throws IOException {
+       this(dataDir, TrainRepository.forDataDir(dataDir));
+   }
 
-       if (alreadyExists.isPresent()) {
-           updateTrain(train);
-       }
-       else {
-           trainsList.add(train);
+   /**
+    * Runs on the given repository; {@code dataDir} is only read for a trains.json to import.
+    */
+   public TrainService(Path dataDir, TrainRepository repository) throws IOException {
+       this.repository = repository;
+       trainsJsonPath = dataDir.resolve("trains.json");
+       trainsFlusher = new CoalescingFlusher("trains.bin", BookingConfig.trainsFlushDelayMillis(), this::flushTrains);
+       trainsList = new ArrayList<>();
+       boolean saved = repository.load(this::addLoadedTrain);
+       if (!saved && Files.exists(trainsJsonPath)) {
+           // trains exported as JSON or left by an older version
+           try (InputStream input = Files.newInputStream(trainsJsonPath)) {
+               loadTrains(input);
+           }
+           saveTrainListToFile();
+       } else if (!saved) {
+           InputStream input = getClass().getClassLoader().getResourceAsStream(SEED_PATH);
+           if (input != null) {
+               try (input) {
+                   loadTrains(input);
+               }
+           }
+           // Save to runtime file for persistence
+           saveTrainListToFile();
        }
+       Metrics.gauge("train_free_seats", "train", () -> perTrain(seats -> (long) seats.availableSeats(0, seats.segments())));
+       Metrics.gauge("train_occupancy_permille", "train", () -> perTrain(TrainService::occupancyPermille));
+   }
+
+    private Map<String, Long> perTrain(Function<SeatInventory, Long> value) {
+        Map<String, Long> values = new LinkedHashMap<>();
+        listLock.readLock().lock();
+        try {
+            for (Train train : trainsList) {
+                if (train.getSeats() != null) values.put(train.getTrainId(), value.apply(train.getSeats()));
+            }
+        } finally {
+            listLock.readLock().unlock();
+        }
+        return values;
+    }
+
+    /**
+     * Share of seat-legs sold or held, in thousandths: every seat on every segment counts once.
+     */
+    private static long occupancyPermille(SeatInventory seats) {
+        long capacity = 0;
+        for (int row = 0; row < seats.rows(); row++) {
+            capacity += seats.seatsInRow(row);
+        }
+        capacity *= seats.segments();
+        long free = 0;
+        for (int segment = 0; segment < seats.segments(); segment++) {
+            free += seats.freeSeats(segment);
+        }
+        return capacity == 0 ? 0 : (capacity - free) * 1000 / capacity;
+    }
+
+    /**
+     * Reads the train array one train at a time, adding each to the list and indexes as soon as
+     * it is parsed instead of building the whole list first.
+     */
+    private void loadTrains(InputStream input) throws IOException {
+        try (JsonParser parser = objectMapper.getFactory().createParser(input)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("trains.json does not hold a list of trains");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Train train = objectMapper.readValue(parser, Train.class);
+                internStrings(train);
+                addLoadedTrain(train);
+            }
+        }
+    }
+
+    private void addLoadedTrain(Train train) {
+        trainsList.add(train);
+        routeIndex.add(trainsList.size() - 1, train.getStations());
+        trainsById.putIfAbsent(idKey(train.getTrainId()), trainsList.size() - 1);
+    }
+
+    private static void internStrings(Train train) {
+        train.setTrainId(StringPool.intern(train.getTrainId()));
+        if (train.getStations() != null) {
+            train.getStations().replaceAll(StringPool::intern);
+        }
+        if (train.getStationTimes() != null) {
+            Map<String, String> times = new LinkedHashMap<>();
+            train.getStationTimes().forEach((station, time) -> times.put(StringPool.intern(station), StringPool.intern(time)));
+            train.setStationTimes(times);
+        }
+    }
+
+    private static String idKey(String trainId) {
+        return trainId == null ? null : trainId.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Lock to hold while reading or changing the seat map of the given train.
+     */
+    public Lock seatLock(String trainId) {
+        return seatLocks.get(idKey(trainId));
+    }
+
+   public void addTrain(Train train) {
+       putTrain(train);
+       trainsFlusher.markDirty();
    }
 
     public void updateTrain(Train updatedTrain) {
-        // Find the index of the train with the same trainId
-        OptionalInt index = IntStream.range(0, trainsList.size())
-                .filter(i -> trainsList.get(i).getTrainId().equalsIgnoreCase(updatedTrain.getTrainId()))
-                .findFirst();
-
-        if (index.isPresent()) {
-            // If found, replace the existing train with the updated one
-            trainsList.set(index.getAsInt(), updatedTrain);
-            saveTrainListToFile();
-        } else {
-            // If not found, treat it as adding a new train
-            addTrain(updatedTrain);
+        // Replaces the train with the same trainId, or adds it if there is none
+        putTrain(updatedTrain);
+        trainsFlusher.markDirty();
+    }
+
+    private void putTrain(Train train) {
+        listLock.writeLock().lock();
+        try {
+            Integer index = trainsById.get(idKey(train.getTrainId()));
+            if (index != null) {
+                trainsList.set(index, train);
+                routeIndex.update(index, train.getStations());
+            } else {
+                trainsList.add(train);
+                trainsById.put(idKey(train.getTrainId()), trainsList.size() - 1);
+                routeIndex.add(trainsList.size() - 1, train.getStations());
+            }
+            JourneyPlanner planner = journeyPlanner;
+            if (planner != null && (index == null || !planner.isCurrent(index, train))) {
+                journeyPlanner = null;
+            }
+        } finally {
+            listLock.writeLock().unlock();
         }
     }
 
-    private void saveTrainListToFile() {
+    /**
+     * Saves the trains to the repository, e.g. rewrites trains.bin. Each train is written while
+     * holding its seat lock, so its seat map is never captured half-way through a booking.
+     */
+    private void saveTrainListToFile() throws IOException {
+        List<Train> snapshot;
+        listLock.readLock().lock();
         try {
-            Path path = Paths.get(TRAINS_PATH);
-            Files.createDirectories(path.getParent());
+            snapshot = new ArrayList<>(trainsList);
+        } finally {
+            listLock.readLock().unlock();
+        }
+        repository.save(snapshot, this::seatLock);
+    }
 
-            objectMapper.writerWithDefaultPrettyPrinter().writeValue(path.toFile(), trainsList);
-        } catch (IOException e) {
-            System.out.println("Error occurred while updating file"); // Handle the exception based on your application's requirements
+    /**
+     * Writes trains.bin, then passes on the rows changed before it was written. The rows are
+     * taken first, so every one of them is already in the file when it goes out. Runs on the
+     * flusher thread only; rows whose write failed go out with the next flush.
+     */
+    private void flushTrains() throws IOException {
+        for (ReplicationRecord row; (row = unflushedRows.poll()) != null; ) {
+            flushingRows.add(row);
         }
+        saveTrainListToFile();
+        Consumer<ReplicationRecord> listener = seatChangeListener;
+        if (listener != null) {
+            flushingRows.forEach(listener);
+        }
+        flushingRows.clear();
     }
 
-    private boolean validTrain(Train train, String source, String destination) {
-       List<String> stations= train.getStations();
-       int sourceIndex = stations.indexOf(source);
-       int destinationIndex = stations.indexOf(destination);
+    /**
+     * Writes any pending train changes now.
+     */
+    public void flush() throws IOException {
+        trainsFlusher.flushNow();
+    }
 
-       return sourceIndex >= 0 && destinationIndex >= 0 && sourceIndex < destinationIndex;
-   }
+    /**
+     * Writes any pending train changes and stops the background flusher.
+     */
+    public void close() throws IOException {
+        trainsFlusher.close();
+        repository.close();
+    }
 
     public List<Train> getTrains(String source, String destination){
-        return trainsList.stream().filter(train -> validTrain(train, source, destination)).collect(Collectors.toList());
+        long started = System.nanoTime();
+        listLock.readLock().lock();
+        try {
+            return routeIndex.search(source, destination).stream().map(trainsList::get).collect(Collectors.toList());
+        } finally {
+            listLock.readLock().unlock();
+            SEARCH_LATENCY.recordSince(started);
+        }
     }
 
-    public List<List<Integer>> fetchSeats(Train train){
-        System.out.println(train.getTrainId()+ "fetching seats");
+    /**
+     * Up to {@code limit} itineraries from source to destination with at most two changes,
+     * earliest arrival first, leaving no earlier than {@code departAfter} ("HH:mm", or the
+     * start of the day if null). Direct trains are included as itineraries with one leg. The
+     * search stops at the configured time budget and returns what it has found by then.
+     */
+    public List<Itinerary> findJourneys(String source, String destination, String departAfter, int limit){
+        int minute = departAfter == null ? 0 : JourneyPlanner.parseMinutes(departAfter);
+        if(minute < 0){
+            return List.of();
+        }
+        long started = System.nanoTime();
+        try {
+            return journeyPlanner().search(source, destination, minute, limit, BookingConfig.changeMinutes(),
+                    TimeUnit.MILLISECONDS.toNanos(BookingConfig.journeyBudgetMillis()));
+        } finally {
+            JOURNEY_SEARCH_LATENCY.recordSince(started);
+        }
+    }
+
+    private JourneyPlanner journeyPlanner(){
+        JourneyPlanner planner = journeyPlanner;
+        if (planner != null) return planner;
+        listLock.readLock().lock();
+        try {
+            // set while still holding the read lock, so no timetable change can slip in between
+            planner = new JourneyPlanner(trainsList);
+            journeyPlanner = planner;
+            return planner;
+        } finally {
+            listLock.readLock().unlock();
+        }
+    }
+
+    public SeatInventory fetchSeats(Train train){
         return train.getSeats();
     }
 
+    /**
+     * Seats free for the whole journey between source and destination, or 0 if the train does
+     * not run that way. Comes from the seat map's running counts, so it is cheap enough to show
+     * for every search result.
+     */
+    public int seatsLeft(Train train, String source, String destination){
+        return train.getSeats().availableSeats(train.stationIndex(source), train.stationIndex(destination));
+    }
+
+    /**
+     * The seat map as 0/1 rows, 1 meaning the seat cannot be sold for the journey between
+     * source and destination. With no stations given it covers the whole run. Served from a
+     * cache as long as nothing on the train has changed since it was rendered.
+     */
+    public List<List<Integer>> seatMap(Train train, String source, String destination){
+        SeatInventory seats = train.getSeats();
+        int from = source == null || destination == null ? 0 : train.stationIndex(source);
+        int to = source == null || destination == null ? seats.segments() : train.stationIndex(destination);
+        if(from < 0 || to <= from){
+            return List.of();
+        }
+        return seatMapCache.get(idKey(train.getTrainId()), from, to, seats.version(), () -> renderSeatMap(train, from, to));
+    }
+
+    private SeatMapCache.Rendered renderSeatMap(Train train, int from, int to){
+        SeatInventory seats = train.getSeats();
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            List<List<Integer>> rows = new ArrayList<>(seats.rows());
+            for (int r = 0; r < seats.rows(); r++) {
+                Integer[] row = new Integer[seats.seatsInRow(r)];
+                for (int c = 0; c < row.length; c++) {
+                    row[c] = seats.isFree(r, c, from, to) ? 0 : 1;
+                }
+                rows.add(List.of(row));
+            }
+            return new SeatMapCache.Rendered(seats.version(), List.copyOf(rows));
+        } finally {
+            lock.unlock();
+        }
+    }
+
     public Boolean bookTicket(Train train, int row, int seat){
-        List<List<Integer>> seats = train.getSeats();
-        if(row >=0 && row < seats.size() && seat >= 0 &&  seat < seats.get(row).size()){
-            if(seats.get(row).get(seat) == 1){
-                return Boolean.FALSE;
-            } else{
-                seats.get(row).set(seat,1);
-                train.setSeats(seats);
-                addTrain(train);
-                return Boolean.TRUE;
+        return bookTicket(train, row, seat, 0, train.getSeats().segments());
+    }
+
+    /**
+     * Books a seat only for the legs between source and destination, so the same seat can
+     * still be sold for the rest of the run.
+     */
+    public Boolean bookTicket(Train train, int row, int seat, String source, String destination){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(from < 0 || to <= from){
+            return Boolean.FALSE;
+        }
+        return bookTicket(train, row, seat, from, to);
+    }
+
+    /**
+     * Claims the seat for segments [from, to) under the train's seat lock, so two callers
+     * racing for the same seat can never both succeed.
+     */
+    private Boolean bookTicket(Train train, int row, int seat, int from, int to){
+        boolean booked;
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            booked = train.getSeats().book(row, seat, from, to);
+            if(booked){
+                publishRow(train, row);
             }
+        } finally {
+            lock.unlock();
+        }
+        if(booked){
+            // only the seat map changed, so the train list and route index stay as they are
+            trainsFlusher.markDirty();
+        } else {
+            FAILED_CLAIMS.increment();
+        }
+        return booked;
+    }
+
+    /**
+     * Claims {@code count} seats for the legs between source and destination under a single
+     * hold of the train's seat lock, preferring seats next to each other. Returns the seats, or
+     * an empty list if the train cannot seat the whole group; nothing is claimed in that case.
+     */
+    public List<SeatInventory.Seat> allocate(Train train, String source, String destination, int count,
+                                             boolean preferContiguous){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(from < 0 || to <= from){
+            return List.of();
+        }
+        List<SeatInventory.Seat> seats;
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            seats = train.getSeats().allocate(count, from, to, preferContiguous);
+            publishRows(train, seats);
+        } finally {
+            lock.unlock();
+        }
+        if(!seats.isEmpty()){
+            trainsFlusher.markDirty();
         } else {
+            FAILED_CLAIMS.increment();
+        }
+        return seats;
+    }
+
+    /**
+     * One seat request of a batch: a given seat when {@code count} is 0, otherwise that many
+     * seats picked as by {@link #allocate}.
+     */
+    public record SeatRequest(String source, String destination, int row, int seat, int count,
+                              boolean preferContiguous) {}
+
+    /**
+     * Holds a batch of requests on one train in order, under a single hold of its seat lock.
+     * Each request gets the seats it holds, or an empty list if it could not be met. Holds are
+     * not written to trains.bin, so the caller can store the tickets first and then book the
+     * seats with {@link #confirmHold}.
+     */
+    public List<List<SeatInventory.Seat>> holdAll(Train train, List<SeatRequest> requests){
+        SeatInventory inventory = train.getSeats();
+        List<List<SeatInventory.Seat>> results = new ArrayList<>(requests.size());
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            for (SeatRequest request : requests) {
+                int from = train.stationIndex(request.source());
+                int to = train.stationIndex(request.destination());
+                List<SeatInventory.Seat> seats = List.of();
+                if (from >= 0 && to > from) {
+                    if (request.count() > 0) {
+                        seats = inventory.hold(request.count(), from, to, request.preferContiguous());
+                    } else if (inventory.hold(request.row(), request.seat(), from, to)) {
+                        seats = List.of(new SeatInventory.Seat(request.row(), request.seat()));
+                    }
+                }
+                results.add(seats);
+            }
+        } finally {
+            lock.unlock();
+        }
+        return results;
+    }
+
+    /**
+     * Gives back seats claimed by {@link #allocate}, e.g. when their tickets could not be stored.
+     */
+    public void releaseSeats(Train train, List<SeatInventory.Seat> seats, String source, String destination){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(seats.isEmpty() || from < 0 || to <= from){
+            return;
+        }
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            for (SeatInventory.Seat seat : seats) {
+                if(train.getSeats().release(seat.row(), seat.seat(), from, to)){
+                    promoteWaiting(train, seat, from, to);
+                    publishRow(train, seat.row());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        trainsFlusher.markDirty();
+    }
+
+    /**
+     * Holds one seat for the legs between source and destination. Holds are not written to
+     * trains.bin, so nothing needs flushing until the hold is confirmed.
+     */
+    public Boolean holdSeat(Train train, int row, int seat, String source, String destination){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(from < 0 || to <= from){
             return Boolean.FALSE;
         }
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            return train.getSeats().hold(row, seat, from, to);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Holds {@code count} seats the way {@link #allocate} books them: all or none.
+     */
+    public List<SeatInventory.Seat> holdSeats(Train train, String source, String destination, int count,
+                                              boolean preferContiguous){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(from < 0 || to <= from){
+            return List.of();
+        }
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            return train.getSeats().hold(count, from, to, preferContiguous);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Books held seats. Either every seat of the hold is booked or, if any of them is no
+     * longer held, none is.
+     */
+    public Boolean confirmHold(Train train, List<SeatInventory.Seat> seats, String source, String destination){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(from < 0 || to <= from){
+            return Boolean.FALSE;
+        }
+        SeatInventory inventory = train.getSeats();
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            for (int i = 0; i < seats.size(); i++) {
+                SeatInventory.Seat seat = seats.get(i);
+                if (!inventory.confirmHold(seat.row(), seat.seat(), from, to)) {
+                    // undo the ones already booked, keeping them held
+                    for (SeatInventory.Seat done : seats.subList(0, i)) {
+                        inventory.release(done.row(), done.seat(), from, to);
+                        inventory.hold(done.row(), done.seat(), from, to);
+                    }
+                    return Boolean.FALSE;
+                }
+            }
+            publishRows(train, seats);
+        } finally {
+            lock.unlock();
+        }
+        trainsFlusher.markDirty();
+        return Boolean.TRUE;
+    }
+
+    /**
+     * Puts held seats back on sale.
+     */
+    public void releaseHold(Train train, List<SeatInventory.Seat> seats, String source, String destination){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(from < 0 || to <= from){
+            return;
+        }
+        boolean promoted = false;
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            for (SeatInventory.Seat seat : seats) {
+                if(train.getSeats().releaseHold(seat.row(), seat.seat(), from, to)
+                        && promoteWaiting(train, seat, from, to)){
+                    promoted = true;
+                    publishRow(train, seat.row());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(promoted){
+            trainsFlusher.markDirty();
+        }
+    }
+
+    /**
+     * Puts seats back on sale that were held before the train's segments were redrawn, see
+     * {@link SeatInventory#layout()}: those holds now cover the whole run.
+     */
+    public void releaseStaleHold(Train train, List<SeatInventory.Seat> seats){
+        boolean promoted = false;
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            for (SeatInventory.Seat seat : seats) {
+                if(train.getSeats().releaseHold(seat.row(), seat.seat())
+                        && promoteWaiting(train, seat, 0, train.getSeats().segments())){
+                    promoted = true;
+                    publishRow(train, seat.row());
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(promoted){
+            trainsFlusher.markDirty();
+        }
+    }
+
+    public Boolean isSeatFree(Train train, int row, int seat, String source, String destination){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        return from >= 0 && to > from && train.getSeats().isValid(row, seat) && train.getSeats().isFree(row, seat, from, to);
+    }
+
+    /**
+     * Frees a seat for the legs between source and destination. Falls back to the whole run
+     * when the stations are unknown, e.g. for tickets booked before seats were tracked per leg.
+     */
+    public Boolean releaseSeat(Train train, int row, int seat, String source, String destination){
+        SeatInventory seats = train.getSeats();
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        boolean released;
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            released = release(seats, new SeatInventory.Seat(row, seat), from, to);
+            if(released){
+                promoteWaiting(train, new SeatInventory.Seat(row, seat), from, to);
+                publishRow(train, row);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(released){
+            trainsFlusher.markDirty();
+        }
+        return released;
+    }
+
+    /**
+     * Takes the seat of a ticket being cancelled off sale: the booking becomes a hold, which is
+     * not saved, so the seat is free on disk but nobody can take it until the cancellation is
+     * journaled. Then {@link #releaseWithdrawn} puts it on sale, or {@link #restoreWithdrawn}
+     * books it again if the write failed. Returns the seat map version to journal with the
+     * cancellation, or 0 if the seat was not booked.
+     */
+    public long withdrawTicket(Ticket ticket){
+        return changeTicketSeat(ticket, (train, seats, seat, from, to) ->
+                seats.holdBooked(seat.row(), seat.seat(), from, to) ? seats.version() : 0);
+    }
+
+    /**
+     * Puts a seat taken off sale by {@link #withdrawTicket} back on sale, offering it to the
+     * train's waitlist first.
+     */
+    public void releaseWithdrawn(Ticket ticket){
+        changeTicketSeat(ticket, (train, seats, seat, from, to) ->
+                seats.releaseHolds(seat.row(), seat.seat(), from, to) && promoteWaiting(train, seat, from, to)
+                        ? seats.version() : 0);
+    }
+
+    /**
+     * Books a seat taken off sale by {@link #withdrawTicket} again, when its cancellation could
+     * not be journaled.
+     */
+    public void restoreWithdrawn(Ticket ticket){
+        changeTicketSeat(ticket, (train, seats, seat, from, to) ->
+                seats.bookHeld(seat.row(), seat.seat(), from, to) ? seats.version() : 0);
+    }
+
+    @FunctionalInterface
+    private interface SeatChange {
+        // Returns the seat map version after the change, or 0 if it changed nothing on disk
+        long apply(Train train, SeatInventory seats, SeatInventory.Seat seat, int from, int to);
+    }
+
+    // Runs a change to a ticket's seat under the seat lock, over the whole run if the ticket's
+    // stations are unknown, e.g. for tickets booked before seats were tracked per leg
+    private long changeTicketSeat(Ticket ticket, SeatChange change){
+        Optional<Train> train = getTrainById(ticket.getTrainId());
+        Optional<SeatInventory.Seat> seat = SeatInventory.Seat.parse(ticket.getSeatNumber());
+        if(train.isEmpty() || seat.isEmpty() || train.get().getSeats() == null){
+            return 0;
+        }
+        SeatInventory seats = train.get().getSeats();
+        int from = train.get().stationIndex(ticket.getSource());
+        int to = train.get().stationIndex(ticket.getDestination());
+        if(from < 0 || to <= from){
+            from = 0;
+            to = seats.segments();
+        }
+        long version;
+        Lock lock = seatLock(train.get().getTrainId());
+        lock.lock();
+        try {
+            version = change.apply(train.get(), seats, seat.get(), from, to);
+            if(version > 0){
+                publishRow(train.get(), seat.get().row());
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(version > 0){
+            trainsFlusher.markDirty();
+        }
+        return version;
+    }
+
+    /**
+     * Re-applies a release journaled with a cancellation, if the seat map does not have it
+     * yet: trains.bin is written a little after the journal, so a crash can lose the release.
+     * A seat map whose version is already past the release has it, and maybe later bookings
+     * of the same seat, and is left alone.
+     */
+    public void replayRelease(Ticket ticket, long seatVersion){
+        Optional<Train> train = getTrainById(ticket.getTrainId());
+        Optional<SeatInventory.Seat> seat = SeatInventory.Seat.parse(ticket.getSeatNumber());
+        if(train.isEmpty() || seat.isEmpty() || train.get().getSeats() == null){
+            return;
+        }
+        SeatInventory seats = train.get().getSeats();
+        int from = train.get().stationIndex(ticket.getSource());
+        int to = train.get().stationIndex(ticket.getDestination());
+        Lock lock = seatLock(train.get().getTrainId());
+        lock.lock();
+        try {
+            if(seats.version() >= seatVersion){
+                return;
+            }
+            release(seats, seat.get(), from, to);
+            // later releases journaled against this train compare against the version they saw
+            seats.restoreVersion(Math.max(seats.version(), seatVersion));
+            publishRow(train.get(), seat.get().row());
+        } finally {
+            lock.unlock();
+        }
+        trainsFlusher.markDirty();
+    }
+
+    /**
+     * Re-claims the seat of a ticket replayed from the journal, if the seat map does not have
+     * it: a ticket is journaled as soon as its seat is claimed, but trains.bin is written a
+     * little later, so a crash can lose the claim. Run after the replayed releases, for tickets
+     * still booked. Legs already taken are left alone; if only some are, another booking
+     * overlaps the ticket and that is reported.
+     */
+    public void replayBooking(Ticket ticket){
+        Optional<Train> train = getTrainById(ticket.getTrainId());
+        Optional<SeatInventory.Seat> seat = SeatInventory.Seat.parse(ticket.getSeatNumber());
+        if(train.isEmpty() || seat.isEmpty() || train.get().getSeats() == null){
+            return;
+        }
+        SeatInventory seats = train.get().getSeats();
+        int from = train.get().stationIndex(ticket.getSource());
+        int to = train.get().stationIndex(ticket.getDestination());
+        if(from < 0 || to <= from){
+            from = 0;
+            to = seats.segments();
+        }
+        int row = seat.get().row();
+        int col = seat.get().seat();
+        boolean claimed = false;
+        Lock lock = seatLock(train.get().getTrainId());
+        lock.lock();
+        try {
+            if(!seats.isValid(row, col)){
+                return;
+            }
+            if(seats.book(row, col, from, to)){
+                claimed = true;
+            } else {
+                for (int segment = from; segment < to; segment++) {
+                    if(seats.book(row, col, segment, segment + 1)){
+                        claimed = true;
+                    }
+                }
+                if(claimed){
+                    // some legs of the seat are taken by another booking
+                    PARTIAL_CLAIMS.increment();
+                }
+            }
+            if(claimed){
+                publishRow(train.get(), row);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(claimed){
+            trainsFlusher.markDirty();
+        }
+    }
+
+    // Tickets booked before seats were tracked per leg free the seat on the whole run
+    private static boolean release(SeatInventory seats, SeatInventory.Seat seat, int from, int to){
+        return (from >= 0 && to > from) ? seats.release(seat.row(), seat.seat(), from, to)
+                : seats.release(seat.row(), seat.seat());
+    }
+
+    /**
+     * Starts telling {@code listener} about seat changes, for other nodes to follow: each
+     * booking or release sends the whole row it touched. Rows are taken under the train's seat
+     * lock, so a train's changes arrive in the order they were made, and passed on once the
+     * trains flush has written them. Holds stay with this node and are not sent.
+     */
+    public void onSeatChange(Consumer<ReplicationRecord> listener){
+        seatChangeListener = listener;
+    }
+
+    // Must hold the train's seat lock
+    private void publishRow(Train train, int row){
+        if(seatChangeListener == null){
+            return;
+        }
+        unflushedRows.add(rowRecord(train, row));
+    }
+
+    // Must hold the train's seat lock
+    private static ReplicationRecord rowRecord(Train train, int row){
+        SeatInventory seats = train.getSeats();
+        int wordsInRow = seats.wordsInRow(row);
+        long[] words = new long[seats.segments() * wordsInRow];
+        for (int segment = 0; segment < seats.segments(); segment++) {
+            for (int w = 0; w < wordsInRow; w++) {
+                words[segment * wordsInRow + w] = seats.word(segment, row, w);
+            }
+        }
+        return ReplicationRecord.seats(train.getTrainId(), seats.version(), seats.segments(), row, words);
+    }
+
+    /**
+     * Hands {@code sink} every row of every train {@code leads} accepts, for a follower catching
+     * up from a snapshot. A train's rows are taken together under its seat lock and passed on
+     * after it is released.
+     */
+    public void snapshotRows(Predicate<String> leads, Consumer<ReplicationRecord> sink){
+        List<Train> snapshot;
+        listLock.readLock().lock();
+        try {
+            snapshot = new ArrayList<>(trainsList);
+        } finally {
+            listLock.readLock().unlock();
+        }
+        for (Train train : snapshot) {
+            if(train.getSeats() == null || !leads.test(train.getTrainId())){
+                continue;
+            }
+            List<ReplicationRecord> rows = new ArrayList<>();
+            Lock lock = seatLock(train.getTrainId());
+            lock.lock();
+            try {
+                for (int row = 0; row < train.getSeats().rows(); row++) {
+                    rows.add(rowRecord(train, row));
+                }
+            } finally {
+                lock.unlock();
+            }
+            rows.forEach(sink);
+        }
+    }
+
+    private void publishRows(Train train, List<SeatInventory.Seat> seats){
+        seats.stream().mapToInt(SeatInventory.Seat::row).distinct().forEach(row -> publishRow(train, row));
+    }
+
+    /**
+     * Applies a row sent by the train's leader, overwriting this node's copy of it. Rows are
+     * whole states rather than changes, so applying one again, or an older one followed by
+     * everything after it, ends in the same seat map. Returns false if the row does not fit
+     * this node's copy of the train, e.g. because its timetable differs.
+     */
+    boolean applySeatChange(ReplicationRecord change){
+        Optional<Train> train = change.getTrainId() == null ? Optional.empty() : getTrainById(change.getTrainId());
+        if(train.isEmpty() || train.get().getSeats() == null || change.getRow() == null || change.getWords() == null){
+            return false;
+        }
+        SeatInventory seats = train.get().getSeats();
+        int row = change.getRow();
+        Lock lock = seatLock(train.get().getTrainId());
+        lock.lock();
+        try {
+            if(row < 0 || row >= seats.rows() || !Objects.equals(change.getSegments(), seats.segments())
+                    || change.getWords().length != seats.segments() * seats.wordsInRow(row)){
+                return false;
+            }
+            int wordsInRow = seats.wordsInRow(row);
+            for (int segment = 0; segment < seats.segments(); segment++) {
+                for (int w = 0; w < wordsInRow; w++) {
+                    long bits = change.getWords()[segment * wordsInRow + w];
+                    if(seats.word(segment, row, w) != bits){
+                        seats.setWord(segment, row, w, bits);
+                    }
+                }
+            }
+            // always moves on, so cached seat maps of the train are re-rendered
+            seats.restoreVersion(Math.max(seats.version() + 1, change.getSeatVersion() == null ? 0 : change.getSeatVersion()));
+        } finally {
+            lock.unlock();
+        }
+        trainsFlusher.markDirty();
+        return true;
+    }
+
+    /**
+     * A seat that came free and was booked straight away for a waiting user, who still needs
+     * a ticket for it. {@code train} is the train record the seat was booked on.
+     */
+    public record Promotion(Train train, WaitlistEntry entry, SeatInventory.Seat seat) {}
+
+    /**
+     * Starts handing freed seats to waiting users. {@code listener} is called under the train's
+     * seat lock, so it should only queue the promotion; until one is set, seats are not handed
+     * out and nobody is promoted.
+     */
+    public void onPromotion(Consumer<Promotion> listener){
+        promotionListener = listener;
+    }
+
+    /**
+     * Undoes a promotion whose ticket could not be stored: the seat goes back on sale, offered
+     * to the others waiting first, and the entry rejoins the waitlist where it was.
+     */
+    public void returnPromotion(Train train, Promotion promotion){
+        WaitlistEntry entry = promotion.entry();
+        SeatInventory.Seat seat = promotion.seat();
+        int from = train.stationIndex(entry.source());
+        int to = train.stationIndex(entry.destination());
+        boolean released;
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            released = release(train.getSeats(), seat, from, to);
+            if(released){
+                promoteWaiting(train, seat, from, to);
+                publishRow(train, seat.row());
+            }
+            if(from >= 0 && to > from){
+                waitlist(train).putBack(new Waitlist.Match(entry, from, to));
+                waitlistedTrains.put(entry.entryId(), train.getTrainId());
+            }
+        } finally {
+            lock.unlock();
+        }
+        if(released){
+            trainsFlusher.markDirty();
+        }
+    }
+
+    /**
+     * Puts the user on the train's waitlist for the legs between source and destination. Only
+     * possible while every seat on those legs is taken, so a seat is never left free while
+     * someone waits for it.
+     */
+    public Optional<WaitlistEntry> joinWaitlist(Train train, String userId, String source, String destination,
+                                                int priority){
+        int from = train.stationIndex(source);
+        int to = train.stationIndex(destination);
+        if(userId == null || from < 0 || to <= from){
+            return Optional.empty();
+        }
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            if(train.getSeats().availableSeats(from, to) > 0){
+                return Optional.empty();
+            }
+            WaitlistEntry entry = new WaitlistEntry(waitlistIds.incrementAndGet(), userId, train.getTrainId(),
+                    StringPool.intern(source), StringPool.intern(destination),
+                    Math.max(0, Math.min(Waitlist.MAX_PRIORITY, priority)), System.currentTimeMillis());
+            waitlist(train).add(entry, from, to);
+            waitlistedTrains.put(entry.entryId(), train.getTrainId());
+            return Optional.of(entry);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Takes the user's entry off its waitlist. Returns false if it is not waiting any more.
+     */
+    public Boolean leaveWaitlist(String userId, long entryId){
+        String trainId = waitlistedTrains.get(entryId);
+        Optional<Train> train = trainId == null ? Optional.empty() : getTrainById(trainId);
+        if(train.isEmpty()){
+            return Boolean.FALSE;
+        }
+        Lock lock = seatLock(trainId);
+        lock.lock();
+        try {
+            Waitlist waitlist = waitlists.get(idKey(trainId));
+            boolean mine = waitlist != null && waitlist.entries().stream()
+                    .anyMatch(e -> e.entryId() == entryId && Objects.equals(e.userId(), userId));
+            if(!mine || !waitlist.remove(entryId)){
+                return Boolean.FALSE;
+            }
+            waitlistedTrains.remove(entryId);
+            return Boolean.TRUE;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drops everyone waiting for the train. Returns the entries dropped.
+     */
+    public List<WaitlistEntry> clearWaitlist(Train train){
+        Lock lock = seatLock(train.getTrainId());
+        lock.lock();
+        try {
+            Waitlist waitlist = waitlists.remove(idKey(train.getTrainId()));
+            List<WaitlistEntry> dropped = waitlist == null ? List.of() : waitlist.entries();
+            dropped.forEach(entry -> waitlistedTrains.remove(entry.entryId()));
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The user's entries still waiting, oldest first.
+     */
+    public List<WaitlistEntry> waitlistEntries(String userId){
+        List<WaitlistEntry> entries = new ArrayList<>();
+        waitlists.forEach((trainKey, waitlist) -> {
+            Lock lock = seatLocks.get(trainKey);
+            lock.lock();
+            try {
+                waitlist.entries().stream().filter(e -> Objects.equals(e.userId(), userId)).forEach(entries::add);
+            } finally {
+                lock.unlock();
+            }
+        });
+        entries.sort(Comparator.comparingLong(WaitlistEntry::entryId));
+        return entries;
+    }
+
+    // Must hold the train's seat lock. A timetable change rebuilds the list for the new legs.
+    private Waitlist waitlist(Train train){
+        int segments = train.getSeats().segments();
+        Waitlist waitlist = waitlists.get(idKey(train.getTrainId()));
+        if(waitlist != null && waitlist.segments() == segments){
+            return waitlist;
+        }
+        Waitlist rebuilt = new Waitlist(segments);
+        if(waitlist != null){
+            List<WaitlistEntry> entries = waitlist.entries();
+            entries.sort(Comparator.comparingLong(WaitlistEntry::entryId));
+            for (WaitlistEntry entry : entries) {
+                int from = train.stationIndex(entry.source());
+                int to = train.stationIndex(entry.destination());
+                if(from >= 0 && to > from){
+                    rebuilt.add(entry, from, to);
+                } else {
+                    waitlistedTrains.remove(entry.entryId());
+                }
+            }
+        }
+        waitlists.put(idKey(train.getTrainId()), rebuilt);
+        return rebuilt;
+    }
+
+    /**
+     * Hands a seat just released on segments {@code [from, to)} to waiting users: the best
+     * entry whose legs fit in the seat's free run gets it, then the runs left either side are
+     * offered again. Must hold the train's seat lock, so nobody else can take the seat first.
+     */
+    private boolean promoteWaiting(Train train, SeatInventory.Seat seat, int from, int to){
+        Consumer<Promotion> listener = promotionListener;
+        Waitlist existing = waitlists.get(idKey(train.getTrainId()));
+        if(listener == null || existing == null || existing.size() == 0){
+            return false;
+        }
+        Waitlist waitlist = waitlist(train);
+        SeatInventory seats = train.getSeats();
+        if(from < 0 || to <= from){
+            from = 0;
+            to = seats.segments();
+        }
+        boolean promoted = false;
+        int row = seat.row();
+        int col = seat.seat();
+        while (from > 0 && seats.isFree(row, col, from - 1, from)) from--;
+        while (to < seats.segments() && seats.isFree(row, col, to, to + 1)) to++;
+        Deque<int[]> runs = new ArrayDeque<>();
+        runs.push(new int[]{from, to});
+        while (!runs.isEmpty() && waitlist.size() > 0) {
+            int[] run = runs.pop();
+            Waitlist.Match match = waitlist.poll(run[0], run[1]);
+            if(match == null){
+                continue;
+            }
+            if(!seats.book(row, col, match.from(), match.to())){
+                // keep the entry waiting rather than dropping it
+                FAILED_PROMOTIONS.increment();
+                waitlist.putBack(match);
+                continue;
+            }
+            waitlistedTrains.remove(match.entry().entryId());
+            listener.accept(new Promotion(train, match.entry(), seat));
+            promoted = true;
+            if(run[0] < match.from()) runs.push(new int[]{run[0], match.from()});
+            if(match.to() < run[1]) runs.push(new int[]{match.to(), run[1]});
+        }
+        return promoted;
     }
 
     public Optional<Train> getTrainById(String trainId){
-       return trainsList.stream().filter(train -> train.getTrainId().equals(trainId)).findFirst();
+        listLock.readLock().lock();
+        try {
+            Integer index = trainsById.get(idKey(trainId));
+            return index == null ? Optional.empty() : Optional.of(trainsList.get(index));
+        } finally {
+            listLock.readLock().unlock();
+        }
     }
 
 }
@@ -1,177 +1,605 @@
 package ticketbooking.services;
 
-import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import lombok.Getter;
 import lombok.Setter;
+import ticketbooking.entities.SeatInventory;
 import ticketbooking.entities.Ticket;
 import ticketbooking.entities.Train;
 import ticketbooking.entities.User;
+import ticketbooking.storage.BookingRepository;
+import ticketbooking.storage.CoalescingFlusher;
+import ticketbooking.storage.JournalRecord;
+import ticketbooking.storage.UserShardLayout;
+import ticketbooking.storage.UserSnapshot;
+import ticketbooking.util.BookingConfig;
+import ticketbooking.util.LatencyHistogram;
+import ticketbooking.util.Metrics;
+import ticketbooking.util.PasswordVerifier;
+import ticketbooking.util.StringPool;
 import ticketbooking.util.UserServiceUtil;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.*;
-
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Users and their tickets, hash-partitioned by user id into {@link UserShard}s. Each shard has
+ * its own lock and its own shard of the {@link BookingRepository}, so bookings for users in
+ * different shards are applied and made durable in parallel.
+ */
 public class UserBookingService {
 
     @Setter
     private User user;
-    private List<User> userList;
 
-    // Writable file location for runtime storage
-    private static final String USERS_PATH = "data/user.json";
+    // Data directory, checked for a user.json to import on first start
+    private final Path dataDir;
+
+    private final BookingRepository repository;
 
     // Default seed file in resources (read-only)
     private static final String SEED_PATH = "localDB/user.json";
 
+    private static final LatencyHistogram LOGIN_LATENCY = Metrics.histogram("login");
+
+    // Checked against when the username is unknown, see login; hashed at the configured cost so
+    // it takes as long as checking a real user's password
+    private static final String DUMMY_HASH = UserServiceUtil.hashPassword(UUID.randomUUID().toString());
+
     private final ObjectMapper objectMapper;
 
+    private final boolean lazyTickets;
+
+    private UserShard[] shards;
+
+    // Normalized name -> user across all shards; claimed with putIfAbsent so names stay unique
+    private final Map<String, User> usersByName = new ConcurrentHashMap<>();
+
+    @Getter
+    private final PasswordVerifier passwordVerifier = new PasswordVerifier();
+
     public UserBookingService(User user) throws IOException {
-        this.objectMapper = new ObjectMapper();
-        this.objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        this(BookingConfig.dataDir());
         this.user = user;
-        loadUsersFromFile();
     }
 
     public UserBookingService() throws IOException {
+        this(BookingConfig.dataDir());
+    }
+
+    public UserBookingService(Path dataDir) throws IOException {
+        this(dataDir, BookingConfig.userShards());
+    }
+
+    public UserBookingService(Path dataDir, int shardCount) throws IOException {
+        this(dataDir, shardCount, BookingRepository.forDataDir(dataDir));
+    }
+
+    /**
+     * Runs on the given repository; {@code dataDir} is only read for a user.json to import.
+     */
+    public UserBookingService(Path dataDir, int shardCount, BookingRepository repository) throws IOException {
         this.objectMapper = new ObjectMapper();
         this.objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
-        loadUsersFromFile();
+        this.dataDir = dataDir;
+        this.repository = repository;
+        this.lazyTickets = BookingConfig.lazyTickets();
+        loadUsersFromFile(Math.max(1, shardCount));
+        Metrics.gauge("ticket_store_bytes", "shard", this::offHeapBytes);
+    }
+
+    private Map<String, Long> offHeapBytes() {
+        Map<String, Long> bytes = new LinkedHashMap<>();
+        UserShard[] current = shards;
+        for (int i = 0; i < current.length; i++) {
+            bytes.put(Integer.toString(i), current[i].offHeapBytes());
+        }
+        return bytes;
+    }
+
+    private UserShard[] newShards(int count, boolean lazy, Map<String, User> nameIndex) {
+        UserShard[] created = new UserShard[count];
+        for (int i = 0; i < count; i++) {
+            created[i] = new UserShard(repository.shard(i, count), lazy, nameIndex);
+        }
+        return created;
     }
 
-    private void loadUsersFromFile() throws IOException {
-        Path runtimePath = Paths.get(USERS_PATH);
+    private void loadUsersFromFile(int shardCount) throws IOException {
+        shards = newShards(shardCount, lazyTickets, usersByName);
+        OptionalInt existing = repository.shardCount();
 
-        if (Files.exists(runtimePath)) {
-            // ✅ Load existing users from writable file
-            userList = objectMapper.readValue(runtimePath.toFile(), new TypeReference<List<User>>() {});
+        if (existing.isPresent() && existing.getAsInt() == shardCount) {
+            // ✅ Load existing users shard by shard, replaying each shard's journal
+            for (UserShard shard : shards) {
+                shard.loadSnapshot();
+                shard.openJournal();
+            }
+            return;
+        }
+
+        // Everything else builds a fresh set of shard files from what the directory holds
+        List<User> users = new ArrayList<>();
+        List<UserShard> previous = new ArrayList<>();
+        List<BookingRepository.Shard> legacy = repository.legacy();
+        if (existing.isPresent()) {
+            // ✅ Re-shard a layout written with a different shard count
+            previous.addAll(Arrays.asList(newShards(existing.getAsInt(), false, new HashMap<>())));
+        } else if (!legacy.isEmpty()) {
+            // ✅ Split up the single users.bin of older versions, or import the shard files
+            for (BookingRepository.Shard shard : legacy) {
+                previous.add(new UserShard(shard, false, new HashMap<>()));
+            }
+        } else if (Files.exists(dataDir.resolve("user.json"))) {
+            // ✅ Import users exported as JSON or left by an older version
+            try (InputStream input = Files.newInputStream(dataDir.resolve("user.json"))) {
+                UserSnapshot.read(objectMapper, input, users::add);
+            }
         } else {
             // ✅ Load seed file from resources
             InputStream input = getClass().getClassLoader().getResourceAsStream(SEED_PATH);
-            if (input == null) {
-                userList = new ArrayList<>();
-            } else {
-                userList = objectMapper.readValue(input, new TypeReference<List<User>>() {});
+            if (input != null) {
+                try (input) {
+                    UserSnapshot.read(objectMapper, input, users::add);
+                }
             }
-            // Save to runtime file for persistence
-            saveUserListToFile();
         }
+        for (UserShard old : previous) {
+            old.loadSnapshot();
+            old.openJournal();
+            users.addAll(old.users());
+            old.closeJournal();
+        }
+
+        for (User u : users) {
+            shardFor(u.getUserId()).addLoaded(u);
+        }
+        for (UserShard shard : shards) {
+            shard.deleteFiles();
+            shard.writeSnapshot();
+        }
+        // the new layout takes over once the manifest names it; only then drop the old files
+        repository.useShardCount(shardCount);
+        if (existing.isPresent()) {
+            repository.deleteLayout(existing.getAsInt());
+        }
+        for (UserShard old : previous) {
+            old.deleteFiles();
+        }
+        for (UserShard shard : shards) {
+            shard.openJournal();
+        }
+    }
+
+    private UserShard shardFor(String userId) {
+        return shards[UserShardLayout.shardOf(userId, shards.length)];
+    }
+
+    private Optional<User> findUserByName(String name) {
+        return Optional.ofNullable(usersByName.get(UserShard.normalizeName(name)));
     }
 
-    private Optional<User> findUser(User userToFind) {
-        return userList.stream().filter(u -> {
-            boolean match = userToFind.getName().equals(u.getName());
-            boolean pass = UserServiceUtil.checkPassword(userToFind.getPassword(), u.getHashedPassword());
-            return match && pass;
-        }).findFirst();
+    public Optional<User> getUserByName(String name) {
+        return findUserByName(name);
+    }
+
+    /**
+     * Looks the user up by name and runs a single bcrypt check against that user's hash.
+     */
+    public Optional<User> login(String username, String password) {
+        long started = System.nanoTime();
+        try {
+            return checkLogin(username, password);
+        } finally {
+            LOGIN_LATENCY.recordSince(started);
+        }
     }
 
+    private Optional<User> checkLogin(String username, String password) {
+        Optional<User> candidate = findUserByName(username);
+        if (candidate.isEmpty()) {
+            // burn the same time as a real check so unknown names cannot be told apart
+            passwordVerifier.verify(password, DUMMY_HASH);
+            return Optional.empty();
+        }
+        if (!passwordVerifier.verify(password, candidate.get().getHashedPassword())) {
+            return Optional.empty();
+        }
+        return shardFor(candidate.get().getUserId()).findWithTickets(candidate.get().getUserId());
+    }
+
+    public Optional<User> getUserById(String userId) {
+        return shardFor(userId).findById(userId);
+    }
+
+    public Optional<Ticket> findTicket(String ticketId) {
+        for (UserShard shard : shards) {
+            Optional<Ticket> ticket = shard.findTicket(ticketId);
+            if (ticket.isPresent()) return ticket;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Logs in the current user. On success the current user is replaced by the stored record,
+     * so later calls need no further password checks.
+     */
     public Boolean login() {
-        Optional<User> userToFind = findUser(user);
+        Optional<User> userToFind = login(user.getName(), user.getPassword());
+        userToFind.ifPresent(u -> user = u);
         return userToFind.isPresent();
     }
 
     public Boolean signUp(User user1) {
+        String name = UserShard.normalizeName(user1.getName());
+        if (name == null || usersByName.putIfAbsent(name, user1) != null) {
+            System.out.println("Username already taken");
+            return Boolean.FALSE;
+        }
+        CompletableFuture<Void> written = shardFor(user1.getUserId()).signUp(user1);
+        if (written == null) {
+            usersByName.remove(name, user1);
+            System.out.println("Username already taken");
+            return Boolean.FALSE;
+        }
+        return awaitDurable(written);
+    }
+
+    private Boolean awaitDurable(CompletableFuture<Void> written) {
         try {
-            userList.add(user1);
-            saveUserListToFile();
+            written.get();
             return Boolean.TRUE;
-        } catch (IOException ex) {
-            ex.printStackTrace();
+        } catch (ExecutionException e) {
+            e.getCause().printStackTrace();
+            return Boolean.FALSE;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
             return Boolean.FALSE;
         }
     }
 
-    private void saveUserListToFile() throws IOException {
-        Path path = Paths.get(USERS_PATH);
-        Files.createDirectories(path.getParent());
+    /**
+     * Writes a fresh snapshot of every shard right away and empties their journals.
+     */
+    public void checkpoint() throws IOException {
+        List<CompletableFuture<Void>> resets = new ArrayList<>();
+        for (UserShard shard : shards) {
+            resets.add(shard.checkpoint());
+        }
+        for (CompletableFuture<Void> reset : resets) {
+            if (!awaitDurable(reset)) {
+                throw new IOException("Could not empty the journal after a snapshot");
+            }
+        }
+    }
 
-        objectMapper.writerWithDefaultPrettyPrinter().writeValue(path.toFile(), userList);
+    /**
+     * Writes a final snapshot and stops the journals.
+     */
+    public void close() throws IOException {
+        checkpoint();
+        for (UserShard shard : shards) {
+            shard.closeJournal();
+        }
+        repository.close();
+        passwordVerifier.shutdown();
     }
 
     public List<Ticket> fetchBookings() {
-        Optional<User> foundUser = findUser(user);
-        if (foundUser.isPresent()) {
-        return foundUser.get().getTicketsBooked();
+        return fetchBookings(user);
+    }
 
+    public List<Ticket> fetchBookings(User owner) {
+        Optional<List<Ticket>> tickets = owner == null ? Optional.empty() : shardFor(owner.getUserId()).tickets(owner.getUserId());
+        if (tickets.isPresent()) {
+            return tickets.get();
         }
-        else {
-            System.out.println("No user found");
-            return Collections.emptyList();
+        System.out.println("No user found");
+        return Collections.emptyList();
+    }
+
+    /**
+     * One page of the user's bookings, oldest first; only the tickets on the page are decoded.
+     */
+    public List<Ticket> fetchBookings(User owner, int offset, int limit) {
+        Optional<List<Ticket>> tickets = owner == null ? Optional.empty()
+                : shardFor(owner.getUserId()).tickets(owner.getUserId(), offset, limit);
+        if (tickets.isPresent()) {
+            return tickets.get();
         }
+        System.out.println("No user found");
+        return Collections.emptyList();
+    }
+
+    public int countBookings(User owner) {
+        return owner == null ? 0 : shardFor(owner.getUserId()).ticketCount(owner.getUserId()).orElse(0);
     }
 
     public Boolean cancelBooking(String ticketId) {
+        return cancelBooking(user, ticketId);
+    }
+
+    /**
+     * How a cancellation gives back a ticket's seat. {@code withdraw} takes the seat off sale
+     * and returns the seat map version it did so at, to journal with the cancellation. Once the
+     * cancellation is durable the seat goes back on sale with {@code release}; if it could not
+     * be written, {@code restore} books it again.
+     */
+    record SeatRelease(ToLongFunction<Ticket> withdraw, Consumer<Ticket> release, Consumer<Ticket> restore) {
+        static final SeatRelease NONE = new SeatRelease(ticket -> 0, ticket -> {}, ticket -> {});
+    }
+
+    /**
+     * Cancels the ticket without touching the train's seat map; {@link BookingService#cancel}
+     * also puts the seat back on sale.
+     */
+    public Boolean cancelBooking(User owner, String ticketId) {
+        return cancelBooking(owner, ticketId, SeatRelease.NONE);
+    }
+
+    /**
+     * Cancels the ticket and withdraws its seat, journaled together as one record in the
+     * owner's shard. The seat only goes back on sale once the record is durable; if it cannot
+     * be written the ticket and its seat are restored.
+     */
+    Boolean cancelBooking(User owner, String ticketId, SeatRelease seat) {
+        if (owner == null) {
+            System.out.println("User not found");
+            return Boolean.FALSE;
+        }
         if (ticketId == null || ticketId.isEmpty()) {
             System.out.println("Ticket Id is empty or null");
             return Boolean.FALSE;
         }
 
-        // Find the full user object from userList
-        Optional<User> existingUserOpt = userList.stream()
-                .filter(u -> u.getName().equals(user.getName()))
-                .findFirst();
-
-        if (existingUserOpt.isEmpty()) {
+        // Find the full user object, then remove and journal the ticket in that user's shard
+        Optional<User> existingUser = findUserByName(owner.getName());
+        if (existingUser.isEmpty()) {
             System.out.println("User not found");
             return Boolean.FALSE;
         }
+        String userId = existingUser.get().getUserId();
+        UserShard shard = shardFor(userId);
+        List<Ticket> cancelled = new ArrayList<>(1);
+        CompletableFuture<Void> written = shard.cancel(userId, ticketId, seat.withdraw(), cancelled);
+        if (written == null) {
+            System.out.println("No ticket found with id: " + ticketId);
+            return Boolean.FALSE;
+        }
 
-        User existingUser = existingUserOpt.get();
+        if (!awaitDurable(written)) {
+            shard.uncancel(userId, cancelled);
+            cancelled.forEach(seat.restore());
+            return Boolean.FALSE;
+        }
+        cancelled.forEach(seat.release());
+        return Boolean.TRUE;
+    }
 
-        // Remove ticket
-        boolean removed = existingUser.getTicketsBooked().removeIf(ticket -> ticket.getTicketId().equals(ticketId));
 
-        if (removed) {
-            // Persist changes
-            try {
-                saveUserListToFile();
-            } catch (IOException e) {
-                e.printStackTrace();
-                return Boolean.FALSE;
+    /**
+     * Cancels every ticket matching {@code match}, of one user or, with a null id, of all users,
+     * e.g. when a train is cancelled. Each shard journals its part in one write and the writes
+     * are awaited together; seats go back on sale, or tickets and seats are restored, as in
+     * {@link #cancelBooking}. Returns the tickets that were cancelled durably.
+     */
+    List<Ticket> cancelAll(String userId, Predicate<Ticket> match, SeatRelease seat) {
+        List<UserShard> targets = userId == null ? Arrays.asList(shards) : List.of(shardFor(userId));
+        Map<UserShard, Map<String, List<Ticket>>> cancelled = new LinkedHashMap<>();
+        Map<UserShard, CompletableFuture<Void>> writes = new LinkedHashMap<>();
+        for (UserShard shard : targets) {
+            Map<String, List<Ticket>> tickets = new LinkedHashMap<>();
+            CompletableFuture<Void> written = shard.cancelAll(userId, match, seat.withdraw(), tickets);
+            if (written != null) {
+                cancelled.put(shard, tickets);
+                writes.put(shard, written);
+            }
+        }
+        List<Ticket> done = new ArrayList<>();
+        writes.forEach((shard, written) -> {
+            Map<String, List<Ticket>> byUser = cancelled.get(shard);
+            if (awaitDurable(written)) {
+                byUser.values().forEach(tickets -> {
+                    tickets.forEach(seat.release());
+                    done.addAll(tickets);
+                });
+            } else {
+                byUser.forEach((owner, tickets) -> {
+                    shard.uncancel(owner, tickets);
+                    tickets.forEach(seat.restore());
+                });
             }
+        });
+        return done;
+    }
 
-            System.out.println("Booking has been cancelled with id: " + ticketId);
-            return Boolean.TRUE;
-        } else {
-            System.out.println("No ticket found with id: " + ticketId);
-            return Boolean.FALSE;
+    /**
+     * Runs {@code step} before any shard writes a snapshot and empties its journal.
+     */
+    void beforeCheckpoint(CoalescingFlusher.Flush step) {
+        for (UserShard shard : shards) {
+            shard.setBeforeSnapshot(step);
+        }
+    }
+
+    /**
+     * Tells {@code listener} about every change made to users and tickets on this node, for
+     * other nodes to follow. Called once the change is in the journal, on the thread that wrote
+     * it, so it should only queue the record.
+     */
+    public void onCommit(Consumer<JournalRecord> listener) {
+        for (UserShard shard : shards) {
+            shard.setCommitListener(listener);
         }
     }
 
+    /**
+     * Applies and journals a change made on another node, without passing it on. Returns null
+     * if it is about a user this node has not heard of yet, e.g. because their sign-up is
+     * still on its way from the node that leads sign-ups.
+     */
+    CompletableFuture<Void> applyReplicated(JournalRecord record) {
+        return shardFor(record.getUserId()).applyReplicated(record);
+    }
+
+    /**
+     * Brings a user in line with a copy another node sent in a snapshot of its data, for the
+     * tickets {@code covered} accepts, and journals the difference without passing it on.
+     */
+    CompletableFuture<Void> restoreReplicated(User copy, Predicate<Ticket> covered) {
+        return shardFor(copy.getUserId()).restoreReplicated(copy, covered);
+    }
+
+    /**
+     * Hands {@code sink} every user with the tickets {@code covered} accepts, for another node
+     * catching up from a snapshot of this one.
+     */
+    public void snapshotUsers(Predicate<Ticket> covered, Consumer<User> sink) throws IOException {
+        for (UserShard shard : shards) {
+            shard.snapshotUsers(covered, sink);
+        }
+    }
+
+    /**
+     * Seat releases of the cancellations replayed from the journals at startup. Only returned
+     * by the first call.
+     */
+    List<UserShard.ReleasedSeat> drainReplayedReleases() {
+        List<UserShard.ReleasedSeat> releases = new ArrayList<>();
+        for (UserShard shard : shards) {
+            releases.addAll(shard.drainReplayedReleases());
+        }
+        return releases;
+    }
+
+    /**
+     * Tickets booked by records replayed from the journals at startup and not cancelled since.
+     * Only returned by the first call.
+     */
+    List<Ticket> drainReplayedBookings() {
+        List<Ticket> tickets = new ArrayList<>();
+        for (UserShard shard : shards) {
+            tickets.addAll(shard.drainReplayedBookings());
+        }
+        return tickets;
+    }
 
     public Boolean addBooking(User user, Train train, int row, int col, String source, String dest) {
-        if (user == null || train == null) return Boolean.FALSE;
+        return createBooking(user, train, row, col, source, dest).isPresent();
+    }
+
+    /**
+     * Issues a ticket for a seat that has already been claimed and waits until it is durable.
+     * If it cannot be persisted the ticket is taken back out and nothing is returned.
+     */
+    public Optional<Ticket> createBooking(User user, Train train, int row, int col, String source, String dest) {
+        if (user == null || train == null) return Optional.empty();
 
         // Create a Ticket object
-        Ticket ticket = new Ticket();
-        ticket.setTicketId(UUID.randomUUID().toString());
-        ticket.setTrainId(train.getTrainId());
-        ticket.setSeatNumber(String.valueOf(row) + "-"+ String.valueOf(col));
-        ticket.setSource(source);  // or actual source
-        ticket.setDestination(dest); // or actual dest
-        ticket.setUserId(user.getUserId());
+        Ticket ticket = newTicket(train, row, col, source, dest);
 
-        user.getTicketsBooked().add(ticket);
+        // Attach the ticket to the stored user and persist it in that user's shard
+        Optional<User> existingUser = findUserByName(user.getName());
+        if (existingUser.isEmpty()) {
+            System.out.println("User not found");
+            return Optional.empty();
+        }
+        ticket.setUserId(existingUser.get().getUserId());
+        UserShard shard = shardFor(ticket.getUserId());
+        CompletableFuture<Void> written = shard.book(ticket.getUserId(), ticket);
+        if (written == null) {
+            System.out.println("User not found");
+            return Optional.empty();
+        }
+        if (!awaitDurable(written)) {
+            shard.unbook(ticket.getUserId(), ticket.getTicketId());
+            return Optional.empty();
+        }
+        return Optional.of(ticket);
+    }
 
-        // Update user list and persist
-        Optional<User> existingUser = userList.stream()
-                .filter(u -> u.getName().equals(user.getName()))
-                .findFirst();
+    /**
+     * Issues one ticket per seat of a group booking and stores them together: they are journaled
+     * as one record, so after a crash either every ticket of the group is there or none is.
+     */
+    public Optional<List<Ticket>> createBookings(User user, Train train, List<SeatInventory.Seat> seats,
+                                                 String source, String dest) {
+        if (user == null || train == null || seats.isEmpty()) return Optional.empty();
 
-        existingUser.ifPresent(u -> u.setTicketsBooked(user.getTicketsBooked()));
+        Optional<User> existingUser = findUserByName(user.getName());
+        if (existingUser.isEmpty()) {
+            System.out.println("User not found");
+            return Optional.empty();
+        }
+        String userId = existingUser.get().getUserId();
+        List<Ticket> tickets = new ArrayList<>(seats.size());
+        for (SeatInventory.Seat seat : seats) {
+            Ticket ticket = newTicket(train, seat.row(), seat.seat(), source, dest);
+            ticket.setUserId(userId);
+            tickets.add(ticket);
+        }
+        UserShard shard = shardFor(userId);
+        CompletableFuture<Void> written = shard.bookAll(userId, tickets);
+        if (written == null) {
+            System.out.println("User not found");
+            return Optional.empty();
+        }
+        if (!awaitDurable(written)) {
+            shard.unbookAll(userId, tickets);
+            return Optional.empty();
+        }
+        return Optional.of(tickets);
+    }
 
-        try {
-            saveUserListToFile();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return Boolean.FALSE;
+    /**
+     * Stores tickets issued by a batch import: one journal write per shard, all awaited
+     * together. Returns the ids of tickets that could not be stored, because their user does
+     * not exist or their shard's write failed; those tickets are not kept.
+     */
+    public Set<String> importTickets(List<Ticket> tickets) {
+        Map<UserShard, Map<String, List<Ticket>>> byShard = new LinkedHashMap<>();
+        for (Ticket ticket : tickets) {
+            byShard.computeIfAbsent(shardFor(ticket.getUserId()), shard -> new LinkedHashMap<>())
+                    .computeIfAbsent(ticket.getUserId(), userId -> new ArrayList<>())
+                    .add(ticket);
         }
-        return Boolean.TRUE;
+        Set<String> failed = new HashSet<>();
+        Map<UserShard, CompletableFuture<Void>> writes = new LinkedHashMap<>();
+        byShard.forEach((shard, ticketsByUser) -> {
+            Set<String> missing = new HashSet<>();
+            CompletableFuture<Void> written = shard.bookBatch(ticketsByUser, missing);
+            missing.forEach(userId -> ticketsByUser.remove(userId).forEach(t -> failed.add(t.getTicketId())));
+            if (written != null) writes.put(shard, written);
+        });
+        writes.forEach((shard, written) -> {
+            if (!awaitDurable(written)) {
+                byShard.get(shard).forEach((userId, userTickets) -> {
+                    shard.unbookAll(userId, userTickets);
+                    userTickets.forEach(t -> failed.add(t.getTicketId()));
+                });
+            }
+        });
+        return failed;
+    }
+
+    static Ticket newTicket(Train train, int row, int col, String source, String dest) {
+        Ticket ticket = new Ticket();
+        ticket.setTicketId(UUID.randomUUID().toString());
+        ticket.setTrainId(StringPool.intern(train.getTrainId()));
+        ticket.setSeatNumber(StringPool.intern(String.valueOf(row) + "-"+ String.valueOf(col)));
+        ticket.setSource(StringPool.intern(source));  // or actual source
+        ticket.setDestination(StringPool.intern(dest)); // or actual dest
+        return ticket;
     }
 
 }
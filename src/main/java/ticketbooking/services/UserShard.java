@@ -0,0 +1,682 @@
+package ticketbooking.services;
+
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+import ticketbooking.storage.BookingRepository;
+import ticketbooking.storage.CoalescingFlusher;
+import ticketbooking.storage.JournalRecord;
+import ticketbooking.storage.TicketList;
+import ticketbooking.storage.TicketStore;
+import ticketbooking.util.Metrics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * One partition of the user store: the users whose id hashes to it, with their own lock and
+ * their own shard of the {@link BookingRepository}. Changes to users in different shards never
+ * wait on each other, and a change only ever journals and snapshots its own shard.
+ */
+class UserShard {
+
+    // Journal records written before the snapshot is rewritten and the journal emptied
+    private static final int SNAPSHOT_EVERY = 1000;
+
+    // Users copied per hold of the lock when sending a snapshot to a follower
+    private static final int SNAPSHOT_BATCH = 1000;
+
+    private static final LongAdder SNAPSHOT_ERRORS = Metrics.counter("user_snapshot_errors");
+
+    private final Object lock = new Object();
+
+    private final BookingRepository.Shard repository;
+    private final boolean lazyTickets;
+
+    // Name index shared by all shards, so names stay unique across the whole store
+    private final Map<String, User> usersByName;
+
+    private final List<User> userList = new ArrayList<>();
+    private final Map<String, User> usersById = new HashMap<>();
+    // Every ticket of the shard, off heap and indexed by id; users' ticket lists are views onto it
+    private final TicketStore ticketStore = new TicketStore();
+
+    // Lazy mode: users whose tickets are still in the repository, and how to read them
+    private final Map<String, BookingRepository.DeferredTickets> unloadedTickets = new HashMap<>();
+
+    private int recordsSinceSnapshot;
+    // Every journal write since the last snapshot; a snapshot waits for them to be durable
+    private CompletableFuture<Void> writesSinceSnapshot = CompletableFuture.completedFuture(null);
+    private boolean snapshotScheduled;
+    private boolean closed;
+
+    // Seats released by cancellations found while replaying the journal, in journal order
+    private final List<ReleasedSeat> replayedReleases = new ArrayList<>();
+
+    // Tickets booked by records found while replaying the journal, whose seats trains.bin may lack
+    private final List<Ticket> replayedBookings = new ArrayList<>();
+
+    // Run before each snapshot, which empties the journal; see setBeforeSnapshot
+    private volatile CoalescingFlusher.Flush beforeSnapshot;
+
+    // Told about every change made on this node, see setCommitListener
+    private volatile Consumer<JournalRecord> commitListener;
+
+    /**
+     * The ticket of a cancellation and the seat map version its seat was released at, 0 if it
+     * released nothing.
+     */
+    record ReleasedSeat(Ticket ticket, long seatVersion) {}
+
+    UserShard(BookingRepository.Shard repository, boolean lazyTickets, Map<String, User> usersByName) {
+        this.repository = repository;
+        this.lazyTickets = lazyTickets;
+        this.usersByName = usersByName;
+    }
+
+    static String normalizeName(String name) {
+        return name == null ? null : name.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Loads the shard's users from the repository. Called once, before {@link #openJournal}.
+     */
+    void loadSnapshot() throws IOException {
+        try {
+            repository.load(lazyTickets, this::loadUser);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Adds a user read from elsewhere, e.g. while importing JSON or re-sharding.
+     */
+    void addLoaded(User u) {
+        loadUser(u, null);
+    }
+
+    /**
+     * Re-applies everything journaled after the snapshot was taken and starts journaling.
+     */
+    void openJournal() throws IOException {
+        try {
+            repository.open(record -> {
+                applyRecord(record, true);
+                recordsSinceSnapshot++;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Every user with all tickets in memory; only meant for shards loaded without lazy mode.
+     */
+    List<User> users() {
+        synchronized (lock) {
+            return new ArrayList<>(userList);
+        }
+    }
+
+    void deleteFiles() throws IOException {
+        repository.delete();
+    }
+
+    private void loadUser(User u, BookingRepository.DeferredTickets tickets) {
+        userList.add(u);
+        indexUser(u);
+        if (tickets == null) return;
+        if (u.getUserId() != null && usersById.get(u.getUserId()) == u) {
+            unloadedTickets.put(u.getUserId(), tickets);
+        } else {
+            // no usable id to page the tickets in by later, so read them now
+            try {
+                u.getTicketsBooked().addAll(tickets.read());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Applies a journal record to the in-memory user list. Records are idempotent so that
+     * replaying a journal which was not emptied after its snapshot gives the same result.
+     */
+    private void applyRecord(JournalRecord record, boolean replay) {
+        switch (record.getType()) {
+            case SIGN_UP -> {
+                if (!usersById.containsKey(record.getUserId())) {
+                    userList.add(record.getUser());
+                    indexUser(record.getUser());
+                }
+            }
+            case BOOK -> pagedInForReplay(record.getUserId()).ifPresent(u -> {
+                List<Ticket> tickets = record.getTickets() != null ? record.getTickets() : List.of(record.getTicket());
+                for (Ticket ticket : tickets) {
+                    if (ticketStore.find(ticket.getTicketId()) < 0) {
+                        addTicket(u, ticket);
+                    }
+                    if (replay) replayedBookings.add(ticket);
+                }
+            });
+            case CANCEL -> pagedInForReplay(record.getUserId()).ifPresent(u -> {
+                if (record.getTickets() == null) {
+                    removeTicket(u, record.getTicketId());
+                    return;
+                }
+                for (int i = 0; i < record.getTickets().size(); i++) {
+                    Ticket ticket = record.getTickets().get(i);
+                    removeTicket(u, ticket.getTicketId());
+                    long seatVersion = record.getSeatVersions() == null ? 0 : record.getSeatVersions().get(i);
+                    if (replay && seatVersion > 0) replayedReleases.add(new ReleasedSeat(ticket, seatVersion));
+                }
+            });
+        }
+    }
+
+    /**
+     * Hands over, once, the seat releases replayed from the journal so the caller can apply
+     * any that trains.bin is missing.
+     */
+    List<ReleasedSeat> drainReplayedReleases() {
+        synchronized (lock) {
+            List<ReleasedSeat> releases = new ArrayList<>(replayedReleases);
+            replayedReleases.clear();
+            return releases;
+        }
+    }
+
+    /**
+     * Hands over, once, the tickets booked by replayed journal records that are still booked,
+     * so the caller can claim any of their seats that trains.bin is missing.
+     */
+    List<Ticket> drainReplayedBookings() {
+        synchronized (lock) {
+            List<Ticket> live = new ArrayList<>();
+            for (Ticket ticket : replayedBookings) {
+                if (ticketStore.find(ticket.getTicketId()) >= 0) live.add(ticket);
+            }
+            replayedBookings.clear();
+            return live;
+        }
+    }
+
+    /**
+     * Sets a step to run before every snapshot. Cancellations release seats in the same
+     * journal record, so the seat maps must be on disk before the journal is emptied.
+     */
+    void setBeforeSnapshot(CoalescingFlusher.Flush step) {
+        beforeSnapshot = step;
+    }
+
+    /**
+     * Sets a listener told about every change this shard makes once it is in the journal. The
+     * journal completes writes in the order they were queued, so a user's changes arrive in
+     * order. Changes applied with {@link #applyReplicated} are not passed on.
+     */
+    void setCommitListener(Consumer<JournalRecord> listener) {
+        commitListener = listener;
+    }
+
+    /**
+     * Applies and journals a change another node made. Seats are left alone: the other node
+     * sends its seat map changes separately. Returns null if the record is about a user this
+     * shard does not have (yet).
+     */
+    CompletableFuture<Void> applyReplicated(JournalRecord record) {
+        synchronized (lock) {
+            if (record.getType() != JournalRecord.Type.SIGN_UP && !usersById.containsKey(record.getUserId())) {
+                return null;
+            }
+            applyRecord(record, false);
+            return store(List.of(record));
+        }
+    }
+
+    /**
+     * Brings a user in line with a copy another node sent in a snapshot, for the tickets
+     * {@code covered} accepts, i.e. those on trains that node leads: tickets missing here are
+     * booked and ones the copy lacks are cancelled, journaled as ordinary records. Seats are
+     * left alone, as the snapshot carries the seat maps too.
+     */
+    CompletableFuture<Void> restoreReplicated(User copy, Predicate<Ticket> covered) {
+        synchronized (lock) {
+            List<JournalRecord> records = new ArrayList<>();
+            if (!usersById.containsKey(copy.getUserId())) {
+                records.add(JournalRecord.signUp(new User(copy.getName(), copy.getPassword(), copy.getHashedPassword(),
+                        new ArrayList<>(), copy.getUserId())));
+            }
+            List<Ticket> tickets = copy.getTicketsBooked() == null ? List.of() : copy.getTicketsBooked();
+            Optional<User> user = records.isEmpty() ? pagedIn(copy.getUserId()) : Optional.empty();
+            if (user.isPresent()) {
+                Set<String> kept = new HashSet<>();
+                tickets.forEach(ticket -> kept.add(ticket.getTicketId()));
+                List<Ticket> stale = new ArrayList<>();
+                for (Ticket ticket : ticketList(user.get())) {
+                    if (covered.test(ticket) && !kept.contains(ticket.getTicketId())) stale.add(ticket);
+                }
+                if (!stale.isEmpty()) {
+                    records.add(JournalRecord.cancelAll(copy.getUserId(), stale, Collections.nCopies(stale.size(), 0L)));
+                }
+            } else if (records.isEmpty()) {
+                return CompletableFuture.failedFuture(new IOException("Could not load the tickets of " + copy.getUserId()));
+            }
+            List<Ticket> missing = new ArrayList<>();
+            for (Ticket ticket : tickets) {
+                if (ticketStore.find(ticket.getTicketId()) < 0) missing.add(ticket);
+            }
+            if (!missing.isEmpty()) {
+                records.add(JournalRecord.bookAll(copy.getUserId(), missing));
+            }
+            if (records.isEmpty()) return CompletableFuture.completedFuture(null);
+            records.forEach(record -> applyRecord(record, false));
+            return store(records);
+        }
+    }
+
+    /**
+     * Hands {@code sink} a copy of every user of the shard with the tickets {@code covered}
+     * accepts, for a follower catching up from a snapshot. Users are copied a batch at a time
+     * under the lock, so changes only ever wait for one batch.
+     */
+    void snapshotUsers(Predicate<Ticket> covered, Consumer<User> sink) throws IOException {
+        int next = 0;
+        while (true) {
+            List<User> batch = new ArrayList<>();
+            synchronized (lock) {
+                int end = Math.min(userList.size(), next + SNAPSHOT_BATCH);
+                for (; next < end; next++) {
+                    User u = userList.get(next);
+                    List<Ticket> tickets = new ArrayList<>();
+                    BookingRepository.DeferredTickets deferred = unloadedTickets.get(u.getUserId());
+                    if (deferred != null) tickets.addAll(deferred.read());
+                    tickets.addAll(ticketList(u));
+                    tickets.removeIf(ticket -> !covered.test(ticket));
+                    batch.add(new User(u.getName(), u.getPassword(), u.getHashedPassword(), tickets, u.getUserId()));
+                }
+            }
+            if (batch.isEmpty()) return;
+            batch.forEach(sink);
+        }
+    }
+
+    private Optional<User> pagedInForReplay(String userId) {
+        User u = usersById.get(userId);
+        if (u == null) return Optional.empty();
+        try {
+            pageIn(u);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return Optional.of(u);
+    }
+
+    /**
+     * Reads the user's tickets in from the repository if lazy loading left them there. Must be
+     * called while holding {@code lock}.
+     */
+    private void pageIn(User u) throws IOException {
+        BookingRepository.DeferredTickets deferred = unloadedTickets.get(u.getUserId());
+        if (deferred == null || usersById.get(u.getUserId()) != u) return;
+        List<Ticket> tickets = deferred.read();
+        // anything journaled before the page-in stays after the tickets from the snapshot
+        ticketList(u).addAll(0, tickets);
+        unloadedTickets.remove(u.getUserId());
+    }
+
+    private Optional<User> pagedIn(String userId) {
+        User u = usersById.get(userId);
+        if (u == null) return Optional.empty();
+        try {
+            pageIn(u);
+        } catch (IOException e) {
+            System.out.println("Error occurred while loading tickets: " + e.getMessage());
+            return Optional.empty();
+        }
+        return Optional.of(u);
+    }
+
+    /**
+     * Indexes the user and moves their tickets into this shard's store, unless they are there
+     * already.
+     */
+    private void indexUser(User u) {
+        if (!(u.getTicketsBooked() instanceof TicketList list && list.isBackedBy(ticketStore))) {
+            TicketList stored = new TicketList(ticketStore);
+            if (u.getTicketsBooked() != null) stored.addAll(u.getTicketsBooked());
+            u.setTicketsBooked(stored);
+        }
+        if (u.getUserId() != null) usersById.putIfAbsent(u.getUserId(), u);
+        if (u.getName() != null) usersByName.putIfAbsent(normalizeName(u.getName()), u);
+    }
+
+    private static TicketList ticketList(User u) {
+        return (TicketList) u.getTicketsBooked();
+    }
+
+    private void addTicket(User u, Ticket ticket) {
+        ticketList(u).add(ticket);
+    }
+
+    private boolean removeTicket(User u, String ticketId) {
+        // matched by id within the user's own tickets, as seed data may reuse ids across users
+        return ticketId != null && ticketList(u).removeById(ticketId);
+    }
+
+    Optional<User> findById(String userId) {
+        synchronized (lock) {
+            return Optional.ofNullable(usersById.get(userId));
+        }
+    }
+
+    /**
+     * Looks the user up and makes sure their tickets are in memory.
+     */
+    Optional<User> findWithTickets(String userId) {
+        synchronized (lock) {
+            return pagedIn(userId);
+        }
+    }
+
+    Optional<Ticket> findTicket(String ticketId) {
+        synchronized (lock) {
+            int slot = ticketStore.find(ticketId);
+            return slot < 0 ? Optional.empty() : Optional.of(ticketStore.get(slot));
+        }
+    }
+
+    Optional<List<Ticket>> tickets(String userId) {
+        synchronized (lock) {
+            return pagedIn(userId).map(u -> new ArrayList<>(u.getTicketsBooked()));
+        }
+    }
+
+    /**
+     * Decodes one page of the user's tickets, oldest first.
+     */
+    Optional<List<Ticket>> tickets(String userId, int offset, int limit) {
+        synchronized (lock) {
+            return pagedIn(userId).map(u -> ticketList(u).page(offset, limit));
+        }
+    }
+
+    Optional<Integer> ticketCount(String userId) {
+        synchronized (lock) {
+            return pagedIn(userId).map(u -> u.getTicketsBooked().size());
+        }
+    }
+
+    long offHeapBytes() {
+        synchronized (lock) {
+            return ticketStore.offHeapBytes();
+        }
+    }
+
+    /**
+     * Adds a new user whose name has already been claimed in the name index. Returns null if
+     * the id is taken.
+     */
+    CompletableFuture<Void> signUp(User u) {
+        synchronized (lock) {
+            if (u.getUserId() != null && usersById.containsKey(u.getUserId())) {
+                return null;
+            }
+            userList.add(u);
+            indexUser(u);
+            return record(JournalRecord.signUp(u));
+        }
+    }
+
+    /**
+     * Attaches a ticket to the stored user. Returns null if there is no such user.
+     */
+    CompletableFuture<Void> book(String userId, Ticket ticket) {
+        synchronized (lock) {
+            Optional<User> owner = pagedIn(userId);
+            if (owner.isEmpty()) return null;
+            addTicket(owner.get(), ticket);
+            return record(JournalRecord.book(userId, ticket));
+        }
+    }
+
+    /**
+     * Attaches a group of tickets to the stored user as a single journal record. Returns null
+     * if there is no such user.
+     */
+    CompletableFuture<Void> bookAll(String userId, List<Ticket> tickets) {
+        synchronized (lock) {
+            Optional<User> owner = pagedIn(userId);
+            if (owner.isEmpty()) return null;
+            for (Ticket ticket : tickets) {
+                addTicket(owner.get(), ticket);
+            }
+            return record(JournalRecord.bookAll(userId, tickets));
+        }
+    }
+
+    /**
+     * Attaches tickets to many users at once, e.g. from a batch import, as a single journal
+     * write. Users that do not exist are added to {@code missing} and skipped. Returns null if
+     * nothing was attached.
+     */
+    CompletableFuture<Void> bookBatch(Map<String, List<Ticket>> ticketsByUser, Set<String> missing) {
+        synchronized (lock) {
+            List<JournalRecord> records = new ArrayList<>();
+            ticketsByUser.forEach((userId, tickets) -> {
+                Optional<User> owner = pagedIn(userId);
+                if (owner.isEmpty()) {
+                    missing.add(userId);
+                    return;
+                }
+                for (Ticket ticket : tickets) {
+                    addTicket(owner.get(), ticket);
+                }
+                records.add(JournalRecord.bookAll(userId, tickets));
+            });
+            return records.isEmpty() ? null : record(records);
+        }
+    }
+
+    /**
+     * Takes back a ticket whose booking could not be made durable.
+     */
+    void unbook(String userId, String ticketId) {
+        synchronized (lock) {
+            Optional.ofNullable(usersById.get(userId)).ifPresent(u -> removeTicket(u, ticketId));
+        }
+    }
+
+    void unbookAll(String userId, List<Ticket> tickets) {
+        synchronized (lock) {
+            Optional.ofNullable(usersById.get(userId))
+                    .ifPresent(u -> tickets.forEach(ticket -> removeTicket(u, ticket.getTicketId())));
+        }
+    }
+
+    /**
+     * Removes one of the user's tickets and takes its seat off sale with {@code withdrawSeat},
+     * which returns the seat map version it did so at. Both go in one journal record, and the
+     * seat is withdrawn under the shard lock so no snapshot can fall between the two. The
+     * ticket is added to {@code cancelled}; returns null if the user has no such ticket.
+     */
+    CompletableFuture<Void> cancel(String userId, String ticketId, ToLongFunction<Ticket> withdrawSeat,
+                                   List<Ticket> cancelled) {
+        synchronized (lock) {
+            Optional<User> owner = pagedIn(userId);
+            if (owner.isEmpty()) return null;
+            int index = ticketId == null ? -1 : ticketList(owner.get()).indexOfId(ticketId);
+            if (index < 0) return null;
+            Ticket ticket = ticketList(owner.get()).remove(index);
+            long seatVersion = withdrawSeat.applyAsLong(ticket);
+            cancelled.add(ticket);
+            return record(JournalRecord.cancelAll(userId, List.of(ticket), List.of(seatVersion)));
+        }
+    }
+
+    /**
+     * Gives tickets back to their user after their cancellation could not be journaled.
+     */
+    void uncancel(String userId, List<Ticket> tickets) {
+        synchronized (lock) {
+            pagedIn(userId).ifPresent(u -> tickets.forEach(ticket -> addTicket(u, ticket)));
+        }
+    }
+
+    /**
+     * Cancels every ticket matching {@code match}, of one user or, with a null id, of every
+     * user in the shard, withdrawing seats as {@link #cancel} does. All of it is journaled in one
+     * write, one record per user. Cancelled tickets are added to {@code cancelled} by user id;
+     * returns null if there were none. Scanning every user pages in all of the shard's tickets.
+     */
+    CompletableFuture<Void> cancelAll(String userId, Predicate<Ticket> match, ToLongFunction<Ticket> withdrawSeat,
+                                      Map<String, List<Ticket>> cancelled) {
+        synchronized (lock) {
+            List<User> owners = new ArrayList<>();
+            if (userId != null) {
+                pagedIn(userId).ifPresent(owners::add);
+            } else {
+                for (User u : userList) {
+                    if (u.getUserId() != null && usersById.get(u.getUserId()) == u) {
+                        pagedIn(u.getUserId()).ifPresent(owners::add);
+                    }
+                }
+            }
+            List<JournalRecord> records = new ArrayList<>();
+            for (User u : owners) {
+                List<Ticket> tickets = new ArrayList<>();
+                List<Long> seatVersions = new ArrayList<>();
+                for (Ticket ticket : new ArrayList<>(u.getTicketsBooked())) {
+                    if (match.test(ticket) && removeTicket(u, ticket.getTicketId())) {
+                        tickets.add(ticket);
+                        seatVersions.add(withdrawSeat.applyAsLong(ticket));
+                    }
+                }
+                if (!tickets.isEmpty()) {
+                    records.add(JournalRecord.cancelAll(u.getUserId(), tickets, seatVersions));
+                    cancelled.put(u.getUserId(), tickets);
+                }
+            }
+            return records.isEmpty() ? null : record(records);
+        }
+    }
+
+    /**
+     * Compacts the shard's repository, e.g. writes a new snapshot. Tickets that were never
+     * paged in are kept as they are. Must be called while holding {@code lock}.
+     */
+    private void saveSnapshot() throws IOException {
+        CoalescingFlusher.Flush step = beforeSnapshot;
+        if (step != null) step.run();
+        unloadedTickets.putAll(repository.compact(userList, u -> unloadedTickets.get(u.getUserId())));
+    }
+
+    /**
+     * Stores the shard's users in place of whatever its repository held. Used for a shard
+     * filled with {@link #addLoaded}, whose tickets are all in memory.
+     */
+    void writeSnapshot() throws IOException {
+        synchronized (lock) {
+            repository.replace(userList);
+        }
+    }
+
+    /**
+     * Journals a change that has already been applied. Must be called while holding
+     * {@code lock} so that journal order matches the order changes were applied in.
+     */
+    private CompletableFuture<Void> record(JournalRecord record) {
+        return record(List.of(record));
+    }
+
+    private CompletableFuture<Void> record(List<JournalRecord> records) {
+        CompletableFuture<Void> written = store(records);
+        Consumer<JournalRecord> listener = commitListener;
+        if (listener != null) {
+            // a write that failed is undone here, so it is never passed on
+            written.thenRun(() -> records.forEach(listener));
+        }
+        return written;
+    }
+
+    private CompletableFuture<Void> store(List<JournalRecord> records) {
+        CompletableFuture<Void> written = repository.append(records);
+        recordsSinceSnapshot += records.size();
+        writesSinceSnapshot = CompletableFuture.allOf(writesSinceSnapshot, written);
+        if (recordsSinceSnapshot >= SNAPSHOT_EVERY && !snapshotScheduled) {
+            // not now: the change just applied is not durable yet and is undone if its write fails
+            snapshotScheduled = true;
+            written.whenCompleteAsync((ignored, failure) -> snapshotDurable());
+        }
+        return written;
+    }
+
+    /**
+     * Snapshots the shard once a journal write has completed. Holding the lock stops new
+     * changes, so after waiting for the writes still in flight every change in memory is
+     * durable, unless a write failed and its change may not be undone yet; then the snapshot
+     * is left to a later record.
+     */
+    private void snapshotDurable() {
+        synchronized (lock) {
+            snapshotScheduled = false;
+            if (closed) return;
+            CompletableFuture<Void> pending = writesSinceSnapshot;
+            writesSinceSnapshot = CompletableFuture.completedFuture(null);
+            try {
+                pending.join();
+            } catch (RuntimeException e) {
+                return;
+            }
+            try {
+                saveSnapshot();
+                repository.truncate().whenComplete((ignored, failure) -> {
+                    if (failure != null) SNAPSHOT_ERRORS.increment();
+                });
+                recordsSinceSnapshot = 0;
+            } catch (IOException e) {
+                // keep journaling; the next record will retry the snapshot
+                SNAPSHOT_ERRORS.increment();
+            }
+        }
+    }
+
+    /**
+     * Writes a fresh snapshot and empties the journal, once the journal writes in flight are
+     * durable. The future completes once the journal is empty on disk.
+     */
+    CompletableFuture<Void> checkpoint() throws IOException {
+        synchronized (lock) {
+            try {
+                writesSinceSnapshot.join();
+            } catch (RuntimeException e) {
+                writesSinceSnapshot = CompletableFuture.completedFuture(null);
+                throw new IOException("A journal write failed, so the shard may hold a change not yet undone", e);
+            }
+            saveSnapshot();
+            recordsSinceSnapshot = 0;
+            writesSinceSnapshot = CompletableFuture.completedFuture(null);
+            return repository.truncate();
+        }
+    }
+
+    void closeJournal() throws IOException {
+        synchronized (lock) {
+            closed = true;
+            repository.close();
+        }
+    }
+}
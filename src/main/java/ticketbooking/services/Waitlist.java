@@ -0,0 +1,178 @@
+package ticketbooking.services;
+
+import ticketbooking.entities.WaitlistEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The waitlist of one train: one queue per journey, i.e. per pair of first and last segment.
+ * Each queue is a binary heap of plain longs packing the entry's priority and its number, so a
+ * waiting entry costs one long in its heap plus its record, and the best entry of a journey is
+ * found in O(1) and taken in O(log n).
+ *
+ * When a seat comes free on some run of segments, every journey inside that run is a
+ * candidate; the best entry among them wins. That is at most one heap peek per journey the
+ * train has, however long the queues are. Entries that leave the list are only dropped from
+ * their heap when they reach the top.
+ *
+ * Not thread-safe: callers hold the train's seat lock, so matching is atomic with the release.
+ */
+class Waitlist {
+
+    static final int MAX_PRIORITY = 255;
+
+    // Entry numbers take the low bits of a key, inverted priority the bits above them
+    private static final int SEQ_BITS = 48;
+    private static final long SEQ_MASK = (1L << SEQ_BITS) - 1;
+
+    private final int segments;
+    private final LongHeap[] queues;
+    private final BitSet nonEmpty;
+    private final Map<Long, Waiting> waiting = new HashMap<>();
+
+    private record Waiting(WaitlistEntry entry, int from, int to) {}
+
+    /**
+     * An entry that was taken off the list, with the segments it waited for.
+     */
+    record Match(WaitlistEntry entry, int from, int to) {}
+
+    Waitlist(int segments) {
+        this.segments = segments;
+        this.queues = new LongHeap[segments * segments];
+        this.nonEmpty = new BitSet(queues.length);
+    }
+
+    int segments() {
+        return segments;
+    }
+
+    int size() {
+        return waiting.size();
+    }
+
+    // Journeys [from, to) with 0 <= from < to <= segments, numbered so the first segment is the high part
+    private int queueIndex(int from, int to) {
+        return from * segments + (to - 1);
+    }
+
+    /**
+     * Adds an entry waiting for segments {@code [from, to)}. Entry ids must increase.
+     */
+    void add(WaitlistEntry entry, int from, int to) {
+        int index = queueIndex(from, to);
+        if (queues[index] == null) queues[index] = new LongHeap();
+        int priority = Math.max(0, Math.min(MAX_PRIORITY, entry.priority()));
+        queues[index].push(((long) (MAX_PRIORITY - priority) << SEQ_BITS) | (entry.entryId() & SEQ_MASK));
+        nonEmpty.set(index);
+        waiting.put(entry.entryId() & SEQ_MASK, new Waiting(entry, from, to));
+    }
+
+    /**
+     * Puts back an entry taken by {@link #poll} whose seat could not be booked after all. It
+     * keeps its id, so it goes back to where it was in its queue.
+     */
+    void putBack(Match match) {
+        add(match.entry(), match.from(), match.to());
+    }
+
+    /**
+     * Takes an entry off the list, e.g. because its user left. Returns false if it was not on it.
+     */
+    boolean remove(long entryId) {
+        return waiting.remove(entryId & SEQ_MASK) != null;
+    }
+
+    List<WaitlistEntry> entries() {
+        List<WaitlistEntry> entries = new ArrayList<>(waiting.size());
+        waiting.values().forEach(w -> entries.add(w.entry()));
+        return entries;
+    }
+
+    /**
+     * Takes the best entry whose journey lies within segments {@code [from, to)}, or returns
+     * null if none does.
+     */
+    Match poll(int from, int to) {
+        int bestIndex = -1;
+        long bestKey = Long.MAX_VALUE;
+        for (int first = from; first < to; first++) {
+            int lastIndex = queueIndex(first, to);
+            for (int index = nonEmpty.nextSetBit(queueIndex(first, first + 1));
+                 index >= 0 && index <= lastIndex; index = nonEmpty.nextSetBit(index + 1)) {
+                long key = head(index);
+                if (key >= 0 && key < bestKey) {
+                    bestKey = key;
+                    bestIndex = index;
+                }
+            }
+        }
+        if (bestIndex < 0) return null;
+        queues[bestIndex].pop();
+        if (queues[bestIndex].isEmpty()) nonEmpty.clear(bestIndex);
+        Waiting won = waiting.remove(bestKey & SEQ_MASK);
+        return new Match(won.entry(), won.from(), won.to());
+    }
+
+    // Best live key of a queue, dropping entries that have left; -1 once the queue is empty
+    private long head(int index) {
+        LongHeap queue = queues[index];
+        while (!queue.isEmpty()) {
+            long key = queue.peek();
+            if (waiting.containsKey(key & SEQ_MASK)) return key;
+            queue.pop();
+        }
+        nonEmpty.clear(index);
+        return -1;
+    }
+
+    /**
+     * Min-heap of longs in a growable array.
+     */
+    private static final class LongHeap {
+        private long[] keys = new long[4];
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        long peek() {
+            return keys[0];
+        }
+
+        void push(long key) {
+            if (size == keys.length) keys = Arrays.copyOf(keys, size * 2);
+            int i = size++;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (keys[parent] <= key) break;
+                keys[i] = keys[parent];
+                i = parent;
+            }
+            keys[i] = key;
+        }
+
+        long pop() {
+            long top = keys[0];
+            long last = keys[--size];
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) break;
+                if (child + 1 < size && keys[child + 1] < keys[child]) child++;
+                if (keys[child] >= last) break;
+                keys[i] = keys[child];
+                i = child;
+            }
+            keys[i] = last;
+            if (size < keys.length / 4 && keys.length > 4) keys = Arrays.copyOf(keys, keys.length / 2);
+            return top;
+        }
+    }
+}
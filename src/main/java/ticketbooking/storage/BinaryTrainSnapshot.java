@@ -0,0 +1,129 @@
+package ticketbooking.storage;
+
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Train;
+import ticketbooking.util.StringPool;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Binary snapshot of all trains and their seat state (trains.bin), read through a memory map.
+ *
+ * Layout, all integers big-endian:
+ * <pre>
+ *   int magic "TBTR", int version, int trainCount
+ *   per train: string trainId, string trainNo,
+ *              int stationCount, strings stations,
+ *              int timeCount, pairs of strings station and time,
+ *              int rows, int seats per row..., int segments,
+ *              long occupancy words, segment by segment, row by row,
+ *              long seat map version (from version 2)
+ * </pre>
+ * Unlike the 0/1 rows of trains.json the seat words are stored exactly as held in memory, so
+ * segment bookings need no separate encoding. The seat map version tells which journaled seat
+ * changes the snapshot already contains, see {@link SeatInventory#restoreVersion}.
+ */
+public final class BinaryTrainSnapshot {
+
+    private static final int MAGIC = 0x54425452; // "TBTR"
+    public static final int VERSION = 2;
+
+    private BinaryTrainSnapshot() {}
+
+    public static void read(Path file, Consumer<Train> sink) throws IOException {
+        SnapshotReader in = SnapshotReader.map(file);
+        int version = in.expectHeader(MAGIC, 1, VERSION, file);
+        int trains = in.getInt();
+        for (int i = 0; i < trains; i++) {
+            String trainId = StringPool.intern(in.getString());
+            String trainNo = in.getString();
+            int stationCount = in.getInt();
+            List<String> stations = new ArrayList<>(stationCount);
+            for (int s = 0; s < stationCount; s++) {
+                stations.add(StringPool.intern(in.getString()));
+            }
+            int timeCount = in.getInt();
+            Map<String, String> stationTimes = new LinkedHashMap<>();
+            for (int t = 0; t < timeCount; t++) {
+                stationTimes.put(StringPool.intern(in.getString()), StringPool.intern(in.getString()));
+            }
+            int[] widths = new int[in.getInt()];
+            for (int row = 0; row < widths.length; row++) {
+                widths[row] = in.getInt();
+            }
+            SeatInventory seats = new SeatInventory(widths, in.getInt());
+            for (int segment = 0; segment < seats.segments(); segment++) {
+                for (int row = 0; row < widths.length; row++) {
+                    for (int w = 0; w < seats.wordsInRow(row); w++) {
+                        seats.setWord(segment, row, w, in.getLong());
+                    }
+                }
+            }
+            if (version >= 2) {
+                seats.restoreVersion(in.getLong());
+            }
+            sink.accept(new Train(trainId, trainNo, seats, stationTimes, stations));
+        }
+    }
+
+    /**
+     * Replaces {@code file} with a snapshot of the trains. Each train is written while holding
+     * the lock {@code seatLock} gives for its id, so its seat map is captured consistently.
+     */
+    public static void write(Path file, List<Train> trains, Function<String, Lock> seatLock) throws IOException {
+        AtomicFiles.writeChannel(file, channel -> {
+            SnapshotWriter out = new SnapshotWriter(channel);
+            out.putInt(MAGIC);
+            out.putInt(VERSION);
+            out.putInt(trains.size());
+            for (Train train : trains) {
+                Lock lock = seatLock.apply(train.getTrainId());
+                lock.lock();
+                try {
+                    writeTrain(out, train);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            out.flush();
+        });
+    }
+
+    private static void writeTrain(SnapshotWriter out, Train train) throws IOException {
+        out.putString(train.getTrainId());
+        out.putString(train.getTrainNo());
+        List<String> stations = train.getStations() == null ? List.of() : train.getStations();
+        out.putInt(stations.size());
+        for (String station : stations) {
+            out.putString(station);
+        }
+        Map<String, String> stationTimes = train.getStationTimes() == null ? Map.of() : train.getStationTimes();
+        out.putInt(stationTimes.size());
+        for (Map.Entry<String, String> entry : stationTimes.entrySet()) {
+            out.putString(entry.getKey());
+            out.putString(entry.getValue());
+        }
+        SeatInventory seats = train.getSeats() == null ? new SeatInventory(new int[0]) : train.getSeats();
+        out.putInt(seats.rows());
+        for (int row = 0; row < seats.rows(); row++) {
+            out.putInt(seats.seatsInRow(row));
+        }
+        out.putInt(seats.segments());
+        for (int segment = 0; segment < seats.segments(); segment++) {
+            for (int row = 0; row < seats.rows(); row++) {
+                for (int w = 0; w < seats.wordsInRow(row); w++) {
+                    out.putLong(seats.word(segment, row, w));
+                }
+            }
+        }
+        out.putLong(seats.version());
+    }
+}
@@ -0,0 +1,168 @@
+package ticketbooking.storage;
+
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+import ticketbooking.util.StringPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Binary snapshot of all users and their tickets (users.bin), read through a memory map.
+ *
+ * Layout, all integers big-endian:
+ * <pre>
+ *   int magic "TBUS", int version, int userCount
+ *   per user:   string userId, string name, string password, string hashedPassword,
+ *               int ticketBlockLength, ticket block
+ *   ticket block: int ticketCount, then per ticket the strings ticketId, userId, source,
+ *               destination, dateOfTravel, trainId, seatNumber
+ * </pre>
+ * Strings are an int UTF-8 length (-1 for null) followed by the bytes. Because each user's
+ * tickets sit in one length-prefixed block, a lazy load can skip them and note their
+ * {@link TicketSpan}, and a later snapshot can copy a block that was never loaded as is.
+ */
+public final class BinaryUserSnapshot {
+
+    /**
+     * Byte range of one user's ticket block within users.bin.
+     */
+    public record TicketSpan(long offset, int length) {}
+
+    private static final int MAGIC = 0x54425553; // "TBUS"
+    public static final int VERSION = 1;
+
+    private BinaryUserSnapshot() {}
+
+    /**
+     * Hands every user to {@code sink} as it is decoded. With {@code lazy} set the tickets are
+     * skipped: the user's ticket list is left empty and the span says where they are.
+     */
+    public static void read(Path file, boolean lazy, BiConsumer<User, TicketSpan> sink) throws IOException {
+        SnapshotReader in = SnapshotReader.map(file);
+        in.expectHeader(MAGIC, VERSION, file);
+        int users = in.getInt();
+        for (int i = 0; i < users; i++) {
+            User user = new User();
+            user.setUserId(in.getString());
+            user.setName(in.getString());
+            user.setPassword(in.getString());
+            user.setHashedPassword(in.getString());
+            int blockLength = in.getInt();
+            TicketSpan span = null;
+            if (lazy) {
+                span = new TicketSpan(in.position(), blockLength);
+                in.skip(blockLength);
+                user.setTicketsBooked(new ArrayList<>());
+            } else {
+                user.setTicketsBooked(readTicketBlock(in, user.getUserId()));
+            }
+            sink.accept(user, span);
+        }
+    }
+
+    /**
+     * Decodes the ticket block a lazy {@link #read} skipped.
+     */
+    public static List<Ticket> readTickets(Path file, TicketSpan span) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readTicketBlock(new SnapshotReader(ByteBuffer.wrap(readSpan(channel, span))), null);
+        }
+    }
+
+    private static List<Ticket> readTicketBlock(SnapshotReader in, String ownerId) {
+        int count = in.getInt();
+        List<Ticket> tickets = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Ticket ticket = new Ticket();
+            ticket.setTicketId(in.getString());
+            String userId = in.getString();
+            // share the owner's id string rather than keep a copy per ticket
+            ticket.setUserId(userId != null && userId.equals(ownerId) ? ownerId : userId);
+            ticket.setSource(StringPool.intern(in.getString()));
+            ticket.setDestination(StringPool.intern(in.getString()));
+            ticket.setDateOfTravel(in.getString());
+            ticket.setTrainId(StringPool.intern(in.getString()));
+            ticket.setSeatNumber(StringPool.intern(in.getString()));
+            tickets.add(ticket);
+        }
+        return tickets;
+    }
+
+    /**
+     * Replaces {@code file} with a snapshot of the users. Users for which {@code unloaded}
+     * returns a span have their ticket block copied from the current file.
+     *
+     * @return where each copied ticket block sits in the new file, by user id
+     */
+    public static Map<String, TicketSpan> write(Path file, List<User> users,
+                                                Function<User, TicketSpan> unloaded) throws IOException {
+        Map<String, TicketSpan> moved = new HashMap<>();
+        AtomicFiles.writeChannel(file, channel -> {
+            FileChannel previous = null;
+            try {
+                SnapshotWriter out = new SnapshotWriter(channel);
+                out.putInt(MAGIC);
+                out.putInt(VERSION);
+                out.putInt(users.size());
+                for (User user : users) {
+                    out.putString(user.getUserId());
+                    out.putString(user.getName());
+                    out.putString(user.getPassword());
+                    out.putString(user.getHashedPassword());
+                    TicketSpan span = unloaded.apply(user);
+                    if (span != null) {
+                        if (previous == null) previous = FileChannel.open(file, StandardOpenOption.READ);
+                        out.putInt(span.length());
+                        moved.put(user.getUserId(), new TicketSpan(out.position(), span.length()));
+                        out.putBytes(readSpan(previous, span));
+                    } else {
+                        writeTicketBlock(out, user.getTicketsBooked());
+                    }
+                }
+                out.flush();
+            } finally {
+                if (previous != null) previous.close();
+            }
+        });
+        return moved;
+    }
+
+    private static void writeTicketBlock(SnapshotWriter out, List<Ticket> tickets) throws IOException {
+        long lengthAt = out.position();
+        out.putInt(0);
+        long start = out.position();
+        out.putInt(tickets == null ? 0 : tickets.size());
+        if (tickets != null) {
+            for (Ticket ticket : tickets) {
+                out.putString(ticket.getTicketId());
+                out.putString(ticket.getUserId());
+                out.putString(ticket.getSource());
+                out.putString(ticket.getDestination());
+                out.putString(ticket.getDateOfTravel());
+                out.putString(ticket.getTrainId());
+                out.putString(ticket.getSeatNumber());
+            }
+        }
+        out.patchInt(lengthAt, (int) (out.position() - start));
+    }
+
+    private static byte[] readSpan(FileChannel channel, TicketSpan span) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(span.length());
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, span.offset() + buffer.position()) < 0) {
+                throw new IOException("users.bin is shorter than expected");
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,258 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ticketbooking.util.LatencyHistogram;
+import ticketbooking.util.Metrics;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of booking events, one JSON record per line.
+ *
+ * Appends are handed to a single flusher thread which writes everything queued so far and
+ * then does one fsync for the whole group, so concurrent writers share the cost of a sync.
+ */
+public class BookingJournal implements Closeable {
+
+    private static final int MAX_GROUP_SIZE = 512;
+
+    // Time to write and fsync one group, shared by every journal in the process
+    private static final LatencyHistogram GROUP_COMMIT_LATENCY = Metrics.histogram("journal_commit");
+
+    private final Path path;
+    private final ObjectMapper objectMapper;
+    private final FileChannel channel;
+    private final BlockingQueue<PendingWrite> queue = new LinkedBlockingQueue<>();
+    private final Thread flusher;
+
+    private long nextSeq = 1;
+    private boolean closed;
+
+    // Length of the file as of the last successful sync; only the flusher touches it
+    private long syncedLength;
+
+    // Set once a failed group could not be cut back off the file; nothing more is written then
+    private volatile IOException broken;
+
+    public BookingJournal(Path path, ObjectMapper objectMapper) throws IOException {
+        this(path, objectMapper, openChannel(path));
+    }
+
+    // Lets tests wrap the file to make writes fail
+    BookingJournal(Path path, ObjectMapper objectMapper, FileChannel channel) {
+        this.path = path;
+        this.objectMapper = objectMapper;
+        this.channel = channel;
+        this.flusher = new Thread(this::flushLoop, "booking-journal-flusher");
+        this.flusher.setDaemon(true);
+    }
+
+    private static FileChannel openChannel(Path path) throws IOException {
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Replays every complete record in the journal and starts the flusher. A torn record left
+     * behind by a crash mid-write can only be the last one, and is cut off so new appends start
+     * on a clean line; a bad record with good ones after it means the file is corrupt, and
+     * opening fails rather than silently dropping everything past it.
+     */
+    public void open(Consumer<JournalRecord> replay) throws IOException {
+        long validLength = 0;
+        channel.position(0);
+        BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            JournalRecord record;
+            try {
+                record = objectMapper.readValue(line, JournalRecord.class);
+            } catch (IOException e) {
+                if (reader.readLine() != null) {
+                    throw new IOException("Corrupt journal record at byte " + validLength + " of " + path
+                            + " with more records after it", e);
+                }
+                System.out.println("Ignoring torn journal record in " + path);
+                break;
+            }
+            replay.accept(record);
+            nextSeq = Math.max(nextSeq, record.getSeq() + 1);
+            validLength += line.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+        if (validLength > channel.size()) {
+            // last record is complete but lost its line terminator
+            channel.write(ByteBuffer.wrap(new byte[]{'\n'}), channel.size());
+        }
+        channel.truncate(validLength);
+        channel.position(validLength);
+        syncedLength = validLength;
+        flusher.start();
+    }
+
+    /**
+     * Queues records for writing. The returned future completes once they are on disk.
+     */
+    public synchronized CompletableFuture<Void> append(List<JournalRecord> records) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IOException("Journal is closed"));
+        }
+        if (broken != null) {
+            return CompletableFuture.failedFuture(broken);
+        }
+        StringBuilder lines = new StringBuilder();
+        try {
+            for (JournalRecord record : records) {
+                record.setSeq(nextSeq++);
+                lines.append(objectMapper.writeValueAsString(record)).append('\n');
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        PendingWrite write = new PendingWrite(PendingWrite.Kind.WRITE, lines.toString().getBytes(StandardCharsets.UTF_8));
+        queue.add(write);
+        return write.done;
+    }
+
+    public CompletableFuture<Void> append(JournalRecord record) {
+        return append(List.of(record));
+    }
+
+    /**
+     * Empties the journal once everything queued before this call has been written. Used after
+     * a snapshot has made the existing records redundant.
+     */
+    public synchronized CompletableFuture<Void> reset() {
+        PendingWrite write = new PendingWrite(PendingWrite.Kind.TRUNCATE, null);
+        queue.add(write);
+        return write.done;
+    }
+
+    private void flushLoop() {
+        List<PendingWrite> group = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                group.add(queue.take());
+            } catch (InterruptedException e) {
+                continue;
+            }
+            queue.drainTo(group, MAX_GROUP_SIZE - 1);
+            commitGroup(group);
+            running = group.stream().noneMatch(write -> write.kind == PendingWrite.Kind.CLOSE);
+            group.clear();
+        }
+    }
+
+    /**
+     * Writes and syncs a group, completing each write's future. When a write or sync fails, the
+     * file is cut back to its last synced length before the futures of the writes not synced
+     * yet fail, so a change its caller was told failed never comes back on replay.
+     */
+    private void commitGroup(List<PendingWrite> group) {
+        if (broken != null) {
+            group.forEach(write -> write.done.completeExceptionally(broken));
+            return;
+        }
+        long started = System.nanoTime();
+        // writes before this index are on disk, or emptied by a reset
+        int synced = 0;
+        try {
+            boolean dirty = false;
+            for (int i = 0; i < group.size(); i++) {
+                PendingWrite write = group.get(i);
+                if (write.kind == PendingWrite.Kind.CLOSE) {
+                    break;
+                }
+                if (write.kind == PendingWrite.Kind.TRUNCATE) {
+                    if (dirty) channel.force(false);
+                    channel.truncate(0);
+                    channel.position(0);
+                    syncedLength = 0;
+                    synced = i + 1;
+                    dirty = true;
+                    continue;
+                }
+                ByteBuffer buffer = ByteBuffer.wrap(write.bytes);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                dirty = true;
+            }
+            if (dirty) channel.force(false);
+            syncedLength = channel.position();
+            GROUP_COMMIT_LATENCY.recordSince(started);
+            group.forEach(write -> write.done.complete(null));
+        } catch (IOException e) {
+            rollBack();
+            for (int i = 0; i < group.size(); i++) {
+                if (i < synced) {
+                    group.get(i).done.complete(null);
+                } else {
+                    group.get(i).done.completeExceptionally(e);
+                }
+            }
+        }
+    }
+
+    private void rollBack() {
+        try {
+            channel.truncate(syncedLength);
+            channel.position(syncedLength);
+            channel.force(false);
+        } catch (IOException e) {
+            broken = new IOException("Journal " + path + " could not be rolled back after a failed write", e);
+            System.out.println(broken.getMessage() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes out everything already queued, then stops the flusher and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            if (flusher.isAlive()) {
+                queue.add(new PendingWrite(PendingWrite.Kind.CLOSE, null));
+            }
+        }
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private static final class PendingWrite {
+        private enum Kind { WRITE, TRUNCATE, CLOSE }
+
+        private final Kind kind;
+        private final byte[] bytes;
+        private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private PendingWrite(Kind kind, byte[] bytes) {
+            this.kind = kind;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ticketbooking.storage;
+
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+import ticketbooking.util.BookingConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Where users and their tickets are kept. The store is split into the same shards as the
+ * users in memory, each written only by its own user shard; a shard's changes arrive as
+ * {@link JournalRecord}s and are durable once the future returned for them completes.
+ *
+ * {@link FileBookingRepository} keeps each shard as a binary snapshot plus a journal;
+ * {@link JdbcBookingRepository} keeps everything in an embedded database.
+ */
+public interface BookingRepository extends Closeable {
+
+    /**
+     * Tickets left in the store by a lazy load, read in when their user is first needed.
+     */
+    @FunctionalInterface
+    interface DeferredTickets {
+        List<Ticket> read() throws IOException;
+    }
+
+    /**
+     * One shard of the store. Only used under its user shard's lock, so implementations need
+     * not be thread-safe beyond completing futures from their own threads.
+     */
+    interface Shard extends Closeable {
+
+        /**
+         * Hands every stored user to {@code sink}. With {@code lazy} set the store may leave a
+         * user's tickets behind, passing how to read them instead of null.
+         */
+        void load(boolean lazy, BiConsumer<User, DeferredTickets> sink) throws IOException;
+
+        /**
+         * Replays changes which the loaded users do not contain yet, then starts taking
+         * appends. A cancellation is replayed as long as its seats may still need releasing.
+         */
+        void open(Consumer<JournalRecord> replay) throws IOException;
+
+        /**
+         * Stores changes, in order. The future completes once they are durable.
+         */
+        CompletableFuture<Void> append(List<JournalRecord> records);
+
+        /**
+         * Folds everything appended so far into a compact copy of {@code users}, whose deferred
+         * tickets are kept as they are. Returns where those tickets are to be read from now.
+         */
+        Map<String, DeferredTickets> compact(List<User> users, Function<User, DeferredTickets> deferred)
+                throws IOException;
+
+        /**
+         * Drops the changes a {@link #compact} made redundant, once everything appended before
+         * this call is durable.
+         */
+        CompletableFuture<Void> truncate();
+
+        /**
+         * Stores exactly these users, all of their tickets in memory, in place of the shard's
+         * contents. Used while building a new shard layout.
+         */
+        void replace(List<User> users) throws IOException;
+
+        /**
+         * Removes the shard from the store. It must not be open.
+         */
+        void delete() throws IOException;
+    }
+
+    /**
+     * The shard count the store was last written with, if it holds any users.
+     */
+    OptionalInt shardCount() throws IOException;
+
+    Shard shard(int shard, int shards);
+
+    /**
+     * Records that the layout with {@code shards} shards is complete and now in use.
+     */
+    void useShardCount(int shards) throws IOException;
+
+    /**
+     * Removes every shard of a layout that is no longer in use.
+     */
+    void deleteLayout(int shards) throws IOException;
+
+    /**
+     * Users stored some other way, by an older version or with the other kind of storage, to
+     * be imported on the first start. Empty if there are none.
+     */
+    List<Shard> legacy() throws IOException;
+
+    /**
+     * The store configured with {@code ticketbooking.storage} for this data directory.
+     */
+    static BookingRepository forDataDir(Path dataDir) throws IOException {
+        return switch (BookingConfig.storage()) {
+            case "file" -> new FileBookingRepository(dataDir);
+            case "h2" -> new JdbcBookingRepository(EmbeddedDatabase.open(dataDir), new FileBookingRepository(dataDir));
+            default -> throw new IOException("Unknown storage " + BookingConfig.storage());
+        };
+    }
+}
@@ -0,0 +1,116 @@
+package ticketbooking.storage;
+
+import ticketbooking.util.LatencyHistogram;
+import ticketbooking.util.Metrics;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Batches "something changed" signals into one write. The first change schedules a flush a
+ * short delay later; changes arriving before it runs ride along with it, so a burst of
+ * bookings costs a single rewrite. Flushes run one at a time on a background thread.
+ */
+public class CoalescingFlusher implements Closeable {
+
+    @FunctionalInterface
+    public interface Flush {
+        void run() throws IOException;
+    }
+
+    private final Flush flush;
+    private final long delayMillis;
+    private final String name;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final LatencyHistogram flushLatency;
+    private final LongAdder flushErrors;
+
+    public CoalescingFlusher(String name, long delayMillis, Flush flush) {
+        this.name = name;
+        this.delayMillis = delayMillis;
+        this.flush = flush;
+        String metric = name.replaceAll("[^A-Za-z0-9]+", "_");
+        this.flushLatency = Metrics.histogram(metric + "_flush");
+        this.flushErrors = Metrics.counter(metric + "_flush_errors");
+        this.scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, name + "-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // a flush still waiting out its delay is done by close() instead, not after it
+        this.scheduler.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    public void markDirty() {
+        if (scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::runFlush, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Writes immediately and waits for it, e.g. before shutting down.
+     */
+    public void flushNow() throws IOException {
+        try {
+            scheduler.submit(() -> {
+                scheduled.set(false);
+                timedFlush();
+                return null;
+            }).get();
+        } catch (RejectedExecutionException e) {
+            throw new IOException(name + " is already closed", e);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing " + name, e);
+        }
+    }
+
+    private void runFlush() {
+        // cleared first so a change made while writing schedules another flush
+        scheduled.set(false);
+        try {
+            timedFlush();
+        } catch (IOException e) {
+            // retried after the delay; the change is still in memory
+            flushErrors.increment();
+            markDirty();
+        }
+    }
+
+    private void timedFlush() throws IOException {
+        long started = System.nanoTime();
+        flush.run();
+        flushLatency.recordSince(started);
+    }
+
+    /**
+     * Writes any pending change and stops the background thread. Nothing is written after
+     * this returns.
+     */
+    @Override
+    public void close() throws IOException {
+        flushNow();
+        scheduler.shutdown();
+        try {
+            if (!scheduler.awaitTermination(1, TimeUnit.MINUTES)) {
+                throw new IOException("Timed out waiting for " + name + " to finish writing");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while closing " + name, e);
+        }
+        // changes made since flushNow, whose delayed flush was dropped by the shutdown
+        if (scheduled.getAndSet(false)) {
+            timedFlush();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package ticketbooking.storage;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * The embedded H2 database behind the JDBC repositories, in {@code bookings.mv.db} in the data
+ * directory. Each repository gets its own small connection pool; all pools of one process
+ * share the one open database.
+ *
+ * Commits are written out straight away ({@code WRITE_DELAY=0}), so a committed change
+ * survives the process being killed. The database stays open through JVM shutdown
+ * ({@code DB_CLOSE_ON_EXIT=FALSE}) so the server's own shutdown hook can still write its final
+ * snapshot; it closes once the last pool lets go of it.
+ */
+final class EmbeddedDatabase {
+
+    private static final int MAX_CONNECTIONS = 16;
+
+    private static final String[] SCHEMA = {
+            "CREATE TABLE IF NOT EXISTS meta (name VARCHAR PRIMARY KEY, val VARCHAR)",
+            // layout is the shard count a row was written for, so a new layout can be built
+            // next to the old one and take over at once, as with the shard files
+            "CREATE TABLE IF NOT EXISTS users (layout INT NOT NULL, shard INT NOT NULL, pos INT NOT NULL,"
+                    + " user_id VARCHAR, name VARCHAR, password VARCHAR, hashed_password VARCHAR,"
+                    + " PRIMARY KEY (layout, shard, pos))",
+            "CREATE TABLE IF NOT EXISTS tickets (seq BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                    + " layout INT NOT NULL, shard INT NOT NULL, user_pos INT NOT NULL, ticket_id VARCHAR,"
+                    + " user_id VARCHAR, source VARCHAR, destination VARCHAR, date_of_travel VARCHAR,"
+                    + " train_id VARCHAR, seat_number VARCHAR)",
+            "CREATE INDEX IF NOT EXISTS tickets_by_user ON tickets (layout, shard, user_pos, seq)",
+            "CREATE INDEX IF NOT EXISTS tickets_by_id ON tickets (layout, shard, user_pos, ticket_id)",
+            // cancellations whose seats trains may not have been saved with yet
+            "CREATE TABLE IF NOT EXISTS released_seats (seq BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,"
+                    + " layout INT NOT NULL, shard INT NOT NULL, seat_version BIGINT NOT NULL, ticket_id VARCHAR,"
+                    + " user_id VARCHAR, source VARCHAR, destination VARCHAR, date_of_travel VARCHAR,"
+                    + " train_id VARCHAR, seat_number VARCHAR)",
+            "CREATE INDEX IF NOT EXISTS released_by_shard ON released_seats (layout, shard, seq)",
+            "CREATE TABLE IF NOT EXISTS trains (pos INT PRIMARY KEY, train_id VARCHAR, train_no VARCHAR,"
+                    + " stations VARCHAR, station_times VARCHAR, seats VARBINARY)",
+    };
+
+    private EmbeddedDatabase() {}
+
+    /**
+     * Opens a connection pool on the data directory's database, creating the tables if needed.
+     */
+    static JdbcConnectionPool open(Path dataDir) throws IOException {
+        Files.createDirectories(dataDir);
+        String url = "jdbc:h2:file:" + dataDir.toAbsolutePath().resolve("bookings") + ";WRITE_DELAY=0;DB_CLOSE_ON_EXIT=FALSE";
+        JdbcConnectionPool pool = JdbcConnectionPool.create(url, "sa", "");
+        pool.setMaxConnections(MAX_CONNECTIONS);
+        try (Connection connection = pool.getConnection(); Statement statement = connection.createStatement()) {
+            for (String ddl : SCHEMA) {
+                statement.execute(ddl);
+            }
+        } catch (SQLException e) {
+            pool.dispose();
+            throw new IOException("Could not open the database in " + dataDir, e);
+        }
+        return pool;
+    }
+}
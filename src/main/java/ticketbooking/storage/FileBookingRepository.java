@@ -0,0 +1,157 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The user store as files in the data directory, laid out by {@link UserShardLayout}: per
+ * shard a binary snapshot ({@link BinaryUserSnapshot}) and a journal of the changes made since
+ * ({@link BookingJournal}). Compacting rewrites the snapshot; truncating empties the journal.
+ */
+public class FileBookingRepository implements BookingRepository {
+
+    private final Path dataDir;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    public FileBookingRepository(Path dataDir) {
+        this.dataDir = dataDir;
+        this.objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+    }
+
+    @Override
+    public OptionalInt shardCount() throws IOException {
+        return UserShardLayout.readShardCount(dataDir);
+    }
+
+    @Override
+    public Shard shard(int shard, int shards) {
+        return new FileShard(UserShardLayout.snapshotPath(dataDir, shard, shards),
+                UserShardLayout.journalPath(dataDir, shard, shards), false);
+    }
+
+    @Override
+    public void useShardCount(int shards) throws IOException {
+        UserShardLayout.writeShardCount(dataDir, shards);
+    }
+
+    @Override
+    public void deleteLayout(int shards) throws IOException {
+        UserShardLayout.deleteLayout(dataDir, shards);
+    }
+
+    @Override
+    public List<Shard> legacy() {
+        // the single users.bin of versions before sharding
+        Path legacySnapshot = dataDir.resolve("users.bin");
+        if (!Files.exists(legacySnapshot)) return List.of();
+        return List.of(new FileShard(legacySnapshot, dataDir.resolve("user.journal"), false));
+    }
+
+    /**
+     * The users in this directory for another kind of storage to start from: the shards in
+     * use, else the legacy users.bin. Importing them leaves the shard files in place.
+     */
+    List<Shard> shardsToImport() throws IOException {
+        OptionalInt shards = shardCount();
+        if (shards.isEmpty()) return legacy();
+        List<Shard> existing = new ArrayList<>();
+        for (int i = 0; i < shards.getAsInt(); i++) {
+            existing.add(new FileShard(UserShardLayout.snapshotPath(dataDir, i, shards.getAsInt()),
+                    UserShardLayout.journalPath(dataDir, i, shards.getAsInt()), true));
+        }
+        return existing;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    // Where a lazily loaded user's ticket block sits in a snapshot
+    private record SnapshotTickets(Path snapshot, BinaryUserSnapshot.TicketSpan span) implements DeferredTickets {
+        @Override
+        public List<Ticket> read() throws IOException {
+            return BinaryUserSnapshot.readTickets(snapshot, span);
+        }
+    }
+
+    private final class FileShard implements Shard {
+
+        private final Path snapshotPath;
+        private final Path journalPath;
+        private final boolean keepFiles;
+        private BookingJournal journal;
+
+        private FileShard(Path snapshotPath, Path journalPath, boolean keepFiles) {
+            this.snapshotPath = snapshotPath;
+            this.journalPath = journalPath;
+            this.keepFiles = keepFiles;
+        }
+
+        @Override
+        public void load(boolean lazy, BiConsumer<User, DeferredTickets> sink) throws IOException {
+            if (!Files.exists(snapshotPath)) return;
+            BinaryUserSnapshot.read(snapshotPath, lazy,
+                    (user, span) -> sink.accept(user, span == null ? null : new SnapshotTickets(snapshotPath, span)));
+        }
+
+        @Override
+        public void open(Consumer<JournalRecord> replay) throws IOException {
+            journal = new BookingJournal(journalPath, objectMapper);
+            journal.open(replay);
+        }
+
+        @Override
+        public CompletableFuture<Void> append(List<JournalRecord> records) {
+            return journal.append(records);
+        }
+
+        @Override
+        public Map<String, DeferredTickets> compact(List<User> users, Function<User, DeferredTickets> deferred)
+                throws IOException {
+            // only this shard hands out deferred tickets, so they all point into its snapshot
+            Map<String, BinaryUserSnapshot.TicketSpan> moved = BinaryUserSnapshot.write(snapshotPath, users,
+                    u -> deferred.apply(u) instanceof SnapshotTickets tickets ? tickets.span() : null);
+            Map<String, DeferredTickets> tickets = new HashMap<>();
+            moved.forEach((userId, span) -> tickets.put(userId, new SnapshotTickets(snapshotPath, span)));
+            return tickets;
+        }
+
+        @Override
+        public CompletableFuture<Void> truncate() {
+            return journal.reset();
+        }
+
+        @Override
+        public void replace(List<User> users) throws IOException {
+            Files.deleteIfExists(journalPath);
+            BinaryUserSnapshot.write(snapshotPath, users, u -> null);
+        }
+
+        @Override
+        public void delete() throws IOException {
+            if (keepFiles) return;
+            Files.deleteIfExists(snapshotPath);
+            Files.deleteIfExists(journalPath);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (journal != null) journal.close();
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ticketbooking.storage;
+
+import ticketbooking.entities.Train;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Trains kept in one binary snapshot file, rewritten whole on every save, see
+ * {@link BinaryTrainSnapshot}.
+ */
+public class FileTrainRepository implements TrainRepository {
+
+    private final Path trainsPath;
+
+    public FileTrainRepository(Path trainsPath) {
+        this.trainsPath = trainsPath;
+    }
+
+    @Override
+    public boolean load(Consumer<Train> sink) throws IOException {
+        if (!Files.exists(trainsPath)) return false;
+        BinaryTrainSnapshot.read(trainsPath, sink);
+        return true;
+    }
+
+    @Override
+    public void save(List<Train> trains, Function<String, Lock> seatLock) throws IOException {
+        BinaryTrainSnapshot.write(trainsPath, trains, seatLock);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,465 @@
+package ticketbooking.storage;
+
+import org.h2.jdbcx.JdbcConnectionPool;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+import ticketbooking.util.LatencyHistogram;
+import ticketbooking.util.Metrics;
+import ticketbooking.util.StringPool;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * The user store in an embedded database ({@link EmbeddedDatabase}). Users and tickets are
+ * rows, so every change is applied where it belongs and there is no log to replay or compact:
+ * each append is one transaction of batched prepared statements, run in order on the shard's
+ * writer thread. Lazily loaded tickets are read back by an indexed query on their user.
+ *
+ * The one thing kept like a journal is the seats released by cancellations, until the next
+ * compaction, by when trains have been saved with them.
+ */
+public class JdbcBookingRepository implements BookingRepository {
+
+    private static final String TICKET_COLUMNS =
+            "ticket_id, user_id, source, destination, date_of_travel, train_id, seat_number";
+
+    // Time to apply and commit one append, shared by every shard
+    private static final LatencyHistogram COMMIT_LATENCY = Metrics.histogram("db_commit");
+
+    private final JdbcConnectionPool pool;
+
+    // Shard files to take the users from if the database has none yet
+    private final FileBookingRepository files;
+
+    public JdbcBookingRepository(JdbcConnectionPool pool, FileBookingRepository files) {
+        this.pool = pool;
+        this.files = files;
+    }
+
+    @FunctionalInterface
+    private interface Work<T> {
+        T run(Connection connection) throws SQLException;
+    }
+
+    /**
+     * Runs {@code work} in one transaction on a pooled connection.
+     */
+    private <T> T transaction(Work<T> work) throws IOException {
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                T result = work.run(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Database error: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public OptionalInt shardCount() throws IOException {
+        return transaction(connection -> {
+            try (PreparedStatement select = connection.prepareStatement("SELECT val FROM meta WHERE name = 'user_shards'");
+                 ResultSet rs = select.executeQuery()) {
+                return rs.next() ? OptionalInt.of(Integer.parseInt(rs.getString(1))) : OptionalInt.empty();
+            }
+        });
+    }
+
+    @Override
+    public Shard shard(int shard, int shards) {
+        return new JdbcShard(shard, shards);
+    }
+
+    @Override
+    public void useShardCount(int shards) throws IOException {
+        transaction(connection -> {
+            try (PreparedStatement merge = connection.prepareStatement("MERGE INTO meta KEY (name) VALUES ('user_shards', ?)")) {
+                merge.setString(1, Integer.toString(shards));
+                return merge.executeUpdate();
+            }
+        });
+    }
+
+    @Override
+    public void deleteLayout(int shards) throws IOException {
+        transaction(connection -> {
+            for (String table : new String[] {"users", "tickets", "released_seats"}) {
+                try (PreparedStatement delete = connection.prepareStatement("DELETE FROM " + table + " WHERE layout = ?")) {
+                    delete.setInt(1, shards);
+                    delete.executeUpdate();
+                }
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public List<Shard> legacy() throws IOException {
+        return files.shardsToImport();
+    }
+
+    @Override
+    public void close() {
+        pool.dispose();
+    }
+
+    private static void setTicket(PreparedStatement statement, int first, Ticket ticket) throws SQLException {
+        statement.setString(first, ticket.getTicketId());
+        statement.setString(first + 1, ticket.getUserId());
+        statement.setString(first + 2, ticket.getSource());
+        statement.setString(first + 3, ticket.getDestination());
+        statement.setString(first + 4, ticket.getDateOfTravel());
+        statement.setString(first + 5, ticket.getTrainId());
+        statement.setString(first + 6, ticket.getSeatNumber());
+    }
+
+    private static Ticket readTicket(ResultSet rs, int first) throws SQLException {
+        Ticket ticket = new Ticket();
+        ticket.setTicketId(rs.getString(first));
+        ticket.setUserId(rs.getString(first + 1));
+        ticket.setSource(StringPool.intern(rs.getString(first + 2)));
+        ticket.setDestination(StringPool.intern(rs.getString(first + 3)));
+        ticket.setDateOfTravel(rs.getString(first + 4));
+        ticket.setTrainId(StringPool.intern(rs.getString(first + 5)));
+        ticket.setSeatNumber(StringPool.intern(rs.getString(first + 6)));
+        return ticket;
+    }
+
+    private final class JdbcShard implements Shard {
+
+        private final int shard;
+        private final int layout;
+
+        // Position of the first user stored with each id, which is the one changes apply to
+        private final Map<String, Integer> positions = new HashMap<>();
+        private int nextPosition;
+
+        private ExecutorService writer;
+
+        private JdbcShard(int shard, int layout) {
+            this.shard = shard;
+            this.layout = layout;
+        }
+
+        private PreparedStatement prepare(Connection connection, String sql) throws SQLException {
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setInt(1, layout);
+            statement.setInt(2, shard);
+            return statement;
+        }
+
+        private void addPosition(User user, int position) {
+            if (user.getUserId() != null) positions.putIfAbsent(user.getUserId(), position);
+            nextPosition = Math.max(nextPosition, position + 1);
+        }
+
+        @Override
+        public void load(boolean lazy, BiConsumer<User, DeferredTickets> sink) throws IOException {
+            List<User> users = new ArrayList<>();
+            List<Integer> userPositions = new ArrayList<>();
+            transaction(connection -> {
+                try (PreparedStatement select = prepare(connection,
+                        "SELECT pos, user_id, name, password, hashed_password FROM users"
+                                + " WHERE layout = ? AND shard = ? ORDER BY pos");
+                     ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        User user = new User();
+                        user.setUserId(rs.getString(2));
+                        user.setName(rs.getString(3));
+                        user.setPassword(rs.getString(4));
+                        user.setHashedPassword(rs.getString(5));
+                        user.setTicketsBooked(new ArrayList<>());
+                        addPosition(user, rs.getInt(1));
+                        users.add(user);
+                        userPositions.add(rs.getInt(1));
+                    }
+                }
+                if (lazy) return null;
+                Map<Integer, User> byPosition = new HashMap<>();
+                for (int i = 0; i < users.size(); i++) {
+                    byPosition.put(userPositions.get(i), users.get(i));
+                }
+                try (PreparedStatement select = prepare(connection,
+                        "SELECT user_pos, " + TICKET_COLUMNS + " FROM tickets"
+                                + " WHERE layout = ? AND shard = ? ORDER BY user_pos, seq");
+                     ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        User owner = byPosition.get(rs.getInt(1));
+                        if (owner != null) owner.getTicketsBooked().add(readTicket(rs, 2));
+                    }
+                }
+                return null;
+            });
+            for (int i = 0; i < users.size(); i++) {
+                int userPosition = userPositions.get(i);
+                sink.accept(users.get(i), lazy ? () -> readTickets(userPosition) : null);
+            }
+        }
+
+        private List<Ticket> readTickets(int userPosition) throws IOException {
+            return transaction(connection -> {
+                List<Ticket> tickets = new ArrayList<>();
+                try (PreparedStatement select = prepare(connection,
+                        "SELECT " + TICKET_COLUMNS + " FROM tickets"
+                                + " WHERE layout = ? AND shard = ? AND user_pos = ? ORDER BY seq")) {
+                    select.setInt(3, userPosition);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) tickets.add(readTicket(rs, 1));
+                    }
+                }
+                return tickets;
+            });
+        }
+
+        @Override
+        public void open(Consumer<JournalRecord> replay) throws IOException {
+            List<JournalRecord> releases = transaction(connection -> {
+                List<JournalRecord> records = new ArrayList<>();
+                try (PreparedStatement select = prepare(connection,
+                        "SELECT seat_version, " + TICKET_COLUMNS + " FROM released_seats"
+                                + " WHERE layout = ? AND shard = ? ORDER BY seq");
+                     ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        Ticket ticket = readTicket(rs, 2);
+                        records.add(JournalRecord.cancelAll(ticket.getUserId(), List.of(ticket), List.of(rs.getLong(1))));
+                    }
+                }
+                return records;
+            });
+            releases.forEach(replay);
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "booking-db-writer-" + shard);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        /**
+         * Runs {@code work} as one transaction on the writer thread, after everything submitted
+         * before it.
+         */
+        private CompletableFuture<Void> submit(Work<?> work) {
+            CompletableFuture<Void> done = new CompletableFuture<>();
+            try {
+                writer.execute(() -> {
+                    long started = System.nanoTime();
+                    try {
+                        transaction(work);
+                        COMMIT_LATENCY.recordSince(started);
+                        done.complete(null);
+                    } catch (IOException e) {
+                        done.completeExceptionally(e);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                done.completeExceptionally(new IOException("Database writer is closed"));
+            }
+            return done;
+        }
+
+        @Override
+        public CompletableFuture<Void> append(List<JournalRecord> records) {
+            // positions are handed out here, in the order changes were applied in memory
+            List<User> signUps = new ArrayList<>();
+            List<Integer> signUpPositions = new ArrayList<>();
+            List<Ticket> booked = new ArrayList<>();
+            List<Integer> bookedPositions = new ArrayList<>();
+            List<Ticket> cancelled = new ArrayList<>();
+            List<Integer> cancelledPositions = new ArrayList<>();
+            List<Long> seatVersions = new ArrayList<>();
+            for (JournalRecord record : records) {
+                switch (record.getType()) {
+                    case SIGN_UP -> {
+                        int position = nextPosition;
+                        addPosition(record.getUser(), position);
+                        signUps.add(record.getUser());
+                        signUpPositions.add(position);
+                        if (record.getUser().getTicketsBooked() != null) {
+                            for (Ticket ticket : record.getUser().getTicketsBooked()) {
+                                booked.add(ticket);
+                                bookedPositions.add(position);
+                            }
+                        }
+                    }
+                    case BOOK -> {
+                        Integer position = positions.get(record.getUserId());
+                        if (position == null) continue;
+                        for (Ticket ticket : record.getTickets() != null ? record.getTickets() : List.of(record.getTicket())) {
+                            booked.add(ticket);
+                            bookedPositions.add(position);
+                        }
+                    }
+                    case CANCEL -> {
+                        Integer position = positions.get(record.getUserId());
+                        if (position == null || record.getTickets() == null) continue;
+                        for (int i = 0; i < record.getTickets().size(); i++) {
+                            cancelled.add(record.getTickets().get(i));
+                            cancelledPositions.add(position);
+                            seatVersions.add(record.getSeatVersions() == null ? 0 : record.getSeatVersions().get(i));
+                        }
+                    }
+                }
+            }
+            return submit(connection -> {
+                insertUsers(connection, signUps, signUpPositions);
+                insertTickets(connection, booked, bookedPositions);
+                deleteTickets(connection, cancelled, cancelledPositions, seatVersions);
+                return null;
+            });
+        }
+
+        private void insertUsers(Connection connection, List<User> users, List<Integer> userPositions) throws SQLException {
+            if (users.isEmpty()) return;
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO users (layout, shard, pos, user_id, name, password, hashed_password) VALUES (?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < users.size(); i++) {
+                    User user = users.get(i);
+                    insert.setInt(1, layout);
+                    insert.setInt(2, shard);
+                    insert.setInt(3, userPositions.get(i));
+                    insert.setString(4, user.getUserId());
+                    insert.setString(5, user.getName());
+                    insert.setString(6, user.getPassword());
+                    insert.setString(7, user.getHashedPassword());
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        private void insertTickets(Connection connection, List<Ticket> tickets, List<Integer> userPositions) throws SQLException {
+            if (tickets.isEmpty()) return;
+            try (PreparedStatement insert = connection.prepareStatement(
+                    "INSERT INTO tickets (layout, shard, user_pos, " + TICKET_COLUMNS + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < tickets.size(); i++) {
+                    insert.setInt(1, layout);
+                    insert.setInt(2, shard);
+                    insert.setInt(3, userPositions.get(i));
+                    setTicket(insert, 4, tickets.get(i));
+                    insert.addBatch();
+                }
+                insert.executeBatch();
+            }
+        }
+
+        private void deleteTickets(Connection connection, List<Ticket> tickets, List<Integer> userPositions,
+                                   List<Long> seatVersions) throws SQLException {
+            if (tickets.isEmpty()) return;
+            // one row per cancelled ticket, as seed data may repeat an id within a user
+            try (PreparedStatement delete = connection.prepareStatement(
+                    "DELETE FROM tickets WHERE seq = (SELECT MIN(seq) FROM tickets"
+                            + " WHERE layout = ? AND shard = ? AND user_pos = ? AND ticket_id = ?)");
+                 PreparedStatement release = connection.prepareStatement(
+                         "INSERT INTO released_seats (layout, shard, seat_version, " + TICKET_COLUMNS
+                                 + ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                boolean released = false;
+                for (int i = 0; i < tickets.size(); i++) {
+                    delete.setInt(1, layout);
+                    delete.setInt(2, shard);
+                    delete.setInt(3, userPositions.get(i));
+                    delete.setString(4, tickets.get(i).getTicketId());
+                    delete.addBatch();
+                    if (seatVersions.get(i) > 0) {
+                        release.setInt(1, layout);
+                        release.setInt(2, shard);
+                        release.setLong(3, seatVersions.get(i));
+                        setTicket(release, 4, tickets.get(i));
+                        release.addBatch();
+                        released = true;
+                    }
+                }
+                delete.executeBatch();
+                if (released) release.executeBatch();
+            }
+        }
+
+        @Override
+        public Map<String, DeferredTickets> compact(List<User> users, Function<User, DeferredTickets> deferred) {
+            // every change is already in place, and deferred tickets stay where they are
+            return Map.of();
+        }
+
+        @Override
+        public CompletableFuture<Void> truncate() {
+            return submit(connection -> {
+                try (PreparedStatement delete = prepare(connection, "DELETE FROM released_seats WHERE layout = ? AND shard = ?")) {
+                    return delete.executeUpdate();
+                }
+            });
+        }
+
+        @Override
+        public void replace(List<User> users) throws IOException {
+            positions.clear();
+            nextPosition = 0;
+            List<Integer> userPositions = new ArrayList<>();
+            List<Ticket> tickets = new ArrayList<>();
+            List<Integer> ticketPositions = new ArrayList<>();
+            for (User user : users) {
+                int position = nextPosition;
+                addPosition(user, position);
+                userPositions.add(position);
+                if (user.getTicketsBooked() == null) continue;
+                for (Ticket ticket : user.getTicketsBooked()) {
+                    tickets.add(ticket);
+                    ticketPositions.add(position);
+                }
+            }
+            transaction(connection -> {
+                deleteRows(connection);
+                insertUsers(connection, users, userPositions);
+                insertTickets(connection, tickets, ticketPositions);
+                return null;
+            });
+        }
+
+        @Override
+        public void delete() throws IOException {
+            transaction(connection -> {
+                deleteRows(connection);
+                return null;
+            });
+        }
+
+        private void deleteRows(Connection connection) throws SQLException {
+            for (String table : new String[] {"users", "tickets", "released_seats"}) {
+                try (PreparedStatement delete = prepare(connection, "DELETE FROM " + table + " WHERE layout = ? AND shard = ?")) {
+                    delete.executeUpdate();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            if (writer == null) return;
+            writer.shutdown();
+            try {
+                writer.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
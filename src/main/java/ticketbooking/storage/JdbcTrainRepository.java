@@ -0,0 +1,181 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.jdbcx.JdbcConnectionPool;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Train;
+import ticketbooking.util.StringPool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Trains in the embedded database ({@link EmbeddedDatabase}), one row per train keyed by its
+ * position in the train list. A save only writes the trains that changed since the last one,
+ * i.e. whose train object, seat map or seat map version is not the one saved, as one batch in
+ * one transaction.
+ */
+public class JdbcTrainRepository implements TrainRepository {
+
+    private static final TypeReference<List<String>> STATIONS = new TypeReference<>() {};
+    private static final TypeReference<LinkedHashMap<String, String>> STATION_TIMES = new TypeReference<>() {};
+
+    private final JdbcConnectionPool pool;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    // Trains to start from while the table is still empty, e.g. trains.bin
+    private final TrainRepository importFrom;
+
+    // What each row was last saved from
+    private record Saved(Train train, SeatInventory seats, long version) {}
+    private final List<Saved> saved = new ArrayList<>();
+
+    public JdbcTrainRepository(JdbcConnectionPool pool, TrainRepository importFrom) {
+        this.pool = pool;
+        this.importFrom = importFrom;
+    }
+
+    @Override
+    public synchronized boolean load(Consumer<Train> sink) throws IOException {
+        List<Train> trains = new ArrayList<>();
+        try (Connection connection = pool.getConnection();
+             PreparedStatement select = connection.prepareStatement(
+                     "SELECT train_id, train_no, stations, station_times, seats FROM trains ORDER BY pos");
+             ResultSet rs = select.executeQuery()) {
+            while (rs.next()) {
+                List<String> stations = objectMapper.readValue(rs.getString(3), STATIONS);
+                stations.replaceAll(StringPool::intern);
+                Map<String, String> stationTimes = new LinkedHashMap<>();
+                objectMapper.readValue(rs.getString(4), STATION_TIMES)
+                        .forEach((station, time) -> stationTimes.put(StringPool.intern(station), StringPool.intern(time)));
+                trains.add(new Train(StringPool.intern(rs.getString(1)), rs.getString(2), decodeSeats(rs.getBytes(5)),
+                        stationTimes, stations));
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not read trains: " + e.getMessage(), e);
+        }
+        saved.clear();
+        if (trains.isEmpty() && importFrom.load(trains::add)) {
+            // nothing else can touch the seat maps yet, so any lock will do
+            save(trains, trainId -> new ReentrantLock());
+            trains.forEach(sink);
+            return true;
+        }
+        for (Train train : trains) {
+            saved.add(new Saved(train, train.getSeats(), train.getSeats().version()));
+            sink.accept(train);
+        }
+        return !trains.isEmpty();
+    }
+
+    @Override
+    public synchronized void save(List<Train> trains, Function<String, Lock> seatLock) throws IOException {
+        List<Saved> changed = new ArrayList<>();
+        try (Connection connection = pool.getConnection()) {
+            connection.setAutoCommit(false);
+            try (PreparedStatement merge = connection.prepareStatement(
+                    "MERGE INTO trains KEY (pos) VALUES (?, ?, ?, ?, ?, ?)")) {
+                for (int pos = 0; pos < trains.size(); pos++) {
+                    Train train = trains.get(pos);
+                    SeatInventory seats = train.getSeats() == null ? new SeatInventory(new int[0]) : train.getSeats();
+                    byte[] encoded;
+                    Lock lock = seatLock.apply(train.getTrainId());
+                    lock.lock();
+                    try {
+                        Saved last = pos < saved.size() ? saved.get(pos) : null;
+                        if (last != null && last.train() == train && last.seats() == seats && last.version() == seats.version()) {
+                            changed.add(last);
+                            continue;
+                        }
+                        changed.add(new Saved(train, seats, seats.version()));
+                        encoded = encodeSeats(seats);
+                    } finally {
+                        lock.unlock();
+                    }
+                    merge.setInt(1, pos);
+                    merge.setString(2, train.getTrainId());
+                    merge.setString(3, train.getTrainNo());
+                    merge.setString(4, objectMapper.writeValueAsString(train.getStations() == null ? List.of() : train.getStations()));
+                    merge.setString(5, objectMapper.writeValueAsString(train.getStationTimes() == null ? Map.of() : train.getStationTimes()));
+                    merge.setBytes(6, encoded);
+                    merge.addBatch();
+                }
+                merge.executeBatch();
+                try (PreparedStatement delete = connection.prepareStatement("DELETE FROM trains WHERE pos >= ?")) {
+                    delete.setInt(1, trains.size());
+                    delete.executeUpdate();
+                }
+                connection.commit();
+            } catch (SQLException | IOException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            throw new IOException("Could not save trains: " + e.getMessage(), e);
+        }
+        saved.clear();
+        saved.addAll(changed);
+    }
+
+    /**
+     * Seat map as big-endian ints and longs: rows, seats per row, segments, the occupancy
+     * words segment by segment and row by row, and the version; as in trains.bin.
+     */
+    private static byte[] encodeSeats(SeatInventory seats) {
+        int words = 0;
+        for (int row = 0; row < seats.rows(); row++) {
+            words += seats.wordsInRow(row);
+        }
+        ByteBuffer out = ByteBuffer.allocate(Integer.BYTES * (seats.rows() + 2) + Long.BYTES * (words * seats.segments() + 1));
+        out.putInt(seats.rows());
+        for (int row = 0; row < seats.rows(); row++) {
+            out.putInt(seats.seatsInRow(row));
+        }
+        out.putInt(seats.segments());
+        for (int segment = 0; segment < seats.segments(); segment++) {
+            for (int row = 0; row < seats.rows(); row++) {
+                for (int w = 0; w < seats.wordsInRow(row); w++) {
+                    out.putLong(seats.word(segment, row, w));
+                }
+            }
+        }
+        out.putLong(seats.version());
+        return out.array();
+    }
+
+    private static SeatInventory decodeSeats(byte[] bytes) {
+        ByteBuffer in = ByteBuffer.wrap(bytes);
+        int[] widths = new int[in.getInt()];
+        for (int row = 0; row < widths.length; row++) {
+            widths[row] = in.getInt();
+        }
+        SeatInventory seats = new SeatInventory(widths, in.getInt());
+        for (int segment = 0; segment < seats.segments(); segment++) {
+            for (int row = 0; row < widths.length; row++) {
+                for (int w = 0; w < seats.wordsInRow(row); w++) {
+                    seats.setWord(segment, row, w, in.getLong());
+                }
+            }
+        }
+        seats.restoreVersion(in.getLong());
+        return seats;
+    }
+
+    @Override
+    public void close() {
+        pool.dispose();
+    }
+}
@@ -0,0 +1,78 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import lombok.Getter;
+import lombok.Setter;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+
+import java.util.List;
+
+/**
+ * One entry of the booking journal. Each mutation of the user list is written as a single
+ * record instead of rewriting the whole snapshot.
+ */
+@Setter
+@Getter
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JournalRecord {
+
+    public enum Type { SIGN_UP, BOOK, CANCEL }
+
+    private long seq;
+
+    private Type type;
+
+    private String userId;
+
+    private User user;
+
+    private Ticket ticket;
+
+    // A group booking: all of its tickets go in one record so replay applies all or none
+    private List<Ticket> tickets;
+
+    // Cancellations journaled before seat releases were, which name only the ticket
+    private String ticketId;
+
+    // Cancellations: the seat map version each ticket's seat was released at, 0 if none was
+    private List<Long> seatVersions;
+
+    public JournalRecord() {}
+
+    private JournalRecord(Type type, String userId) {
+        this.type = type;
+        this.userId = userId;
+    }
+
+    public static JournalRecord signUp(User user) {
+        JournalRecord record = new JournalRecord(Type.SIGN_UP, user.getUserId());
+        record.user = user;
+        return record;
+    }
+
+    public static JournalRecord book(String userId, Ticket ticket) {
+        JournalRecord record = new JournalRecord(Type.BOOK, userId);
+        record.ticket = ticket;
+        return record;
+    }
+
+    public static JournalRecord bookAll(String userId, List<Ticket> tickets) {
+        JournalRecord record = new JournalRecord(Type.BOOK, userId);
+        record.tickets = tickets;
+        return record;
+    }
+
+    /**
+     * Cancels tickets and, in the same record, releases their seats: the whole tickets are kept
+     * so replay can put the seats back on sale if trains.bin was not written after the cancel.
+     */
+    public static JournalRecord cancelAll(String userId, List<Ticket> tickets, List<Long> seatVersions) {
+        JournalRecord record = new JournalRecord(Type.CANCEL, userId);
+        record.tickets = tickets;
+        record.seatVersions = seatVersions;
+        return record;
+    }
+}
@@ -0,0 +1,449 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import ticketbooking.util.BookingConfig;
+import ticketbooking.util.Metrics;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * The changes this node made as leader, one {@link ReplicationRecord} per line in the order
+ * they were made, for followers to read from any position.
+ *
+ * The log is split into segment files named after the position of their first record, e.g.
+ * {@code replication.log.00000000000000000001}; a record that would grow the active segment
+ * past the configured size starts a new one. Segments whose records every follower has applied
+ * are dropped with {@link #retainFrom}. Each segment keeps a sparse index of positions to file
+ * offsets in memory, so a reader starts close to its position instead of at the beginning.
+ *
+ * Each record is written with a single write, so a record is either in the file whole or,
+ * after a crash mid-write, left as a torn last line that is cut off on the next start. A
+ * syncer thread fsyncs whatever has been appended since its last sync, so records appended
+ * together share one sync, and followers are only sent records that are on disk. A record
+ * lost in a crash has therefore never been seen by a follower, and its position can be
+ * handed out again.
+ */
+public class ReplicationLog implements Closeable {
+
+    // How long a reader waits for new records before sending an empty line instead
+    private static final long HEARTBEAT_MILLIS = 1000;
+
+    // A segment's index has an entry for every this many records
+    private static final int INDEX_EVERY = 1024;
+
+    private static final byte[] SEQ_PREFIX = "{\"seq\":".getBytes(StandardCharsets.UTF_8);
+
+    private static final LongAdder DROPPED_SEGMENTS = Metrics.counter("replication_segments_dropped");
+
+    private final Path directory;
+    private final String name;
+    private final long segmentBytes;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Thread syncer;
+
+    // Every segment kept, by the position of its first record
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private Segment active;
+    private FileChannel channel;
+
+    private long lastSeq;
+    // End of the last complete record of the active segment
+    private long length;
+    // End of the active segment's records known to be on disk; readers never go past it
+    private long synced;
+    private boolean closed;
+
+    /**
+     * One file of the log. Sealed once a later segment is started, after which it never
+     * changes; {@code end} and {@code nextSeq} are only set then.
+     */
+    private static final class Segment {
+        private final long firstSeq;
+        private final Path file;
+        private volatile long end = -1;
+        private volatile long nextSeq = -1;
+
+        // Sparse index, guarded by the segment; a sealed segment read at startup builds it on first use
+        private long[] seqs = new long[16];
+        private long[] offsets = new long[16];
+        private int indexed;
+        private boolean indexBuilt;
+
+        Segment(long firstSeq, Path file) {
+            this.firstSeq = firstSeq;
+            this.file = file;
+        }
+
+        boolean isSealed() {
+            return nextSeq >= 0;
+        }
+
+        synchronized void index(long seq, long offset) {
+            if ((seq - firstSeq) % INDEX_EVERY != 0) return;
+            if (indexed == seqs.length) {
+                seqs = Arrays.copyOf(seqs, indexed * 2);
+                offsets = Arrays.copyOf(offsets, indexed * 2);
+            }
+            seqs[indexed] = seq;
+            offsets[indexed] = offset;
+            indexed++;
+        }
+
+        /**
+         * Offset of a record at or before {@code seq}, from which a reader scans forward.
+         */
+        synchronized long offsetBefore(long seq) throws IOException {
+            if (!indexBuilt) {
+                try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                    scan(in, 0, end, (recordSeq, offset, line) -> index(recordSeq, offset));
+                }
+                indexBuilt = true;
+            }
+            int found = Arrays.binarySearch(seqs, 0, indexed, seq);
+            if (found >= 0) return offsets[found];
+            int before = -found - 2;
+            return before < 0 ? 0 : offsets[before];
+        }
+    }
+
+    public ReplicationLog(Path path) throws IOException {
+        this(path, BookingConfig.replicationSegmentBytes());
+    }
+
+    public ReplicationLog(Path path, long segmentBytes) throws IOException {
+        this.directory = path.toAbsolutePath().getParent();
+        this.name = path.getFileName().toString();
+        this.segmentBytes = Math.max(1, segmentBytes);
+        this.objectMapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        Files.createDirectories(directory);
+        adoptUnsegmentedLog(path);
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                long firstSeq = firstSeqOf(file.getFileName().toString());
+                if (firstSeq > 0) segments.put(firstSeq, new Segment(firstSeq, file));
+            });
+        }
+        if (segments.isEmpty()) {
+            segments.put(1L, new Segment(1, segmentPath(1)));
+        }
+        Segment next = null;
+        for (Segment segment : segments.descendingMap().values()) {
+            if (next != null) {
+                segment.end = Files.size(segment.file);
+                segment.nextSeq = next.firstSeq;
+            }
+            next = segment;
+        }
+        active = segments.lastEntry().getValue();
+        active.indexBuilt = true;
+        channel = FileChannel.open(active.file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        lastSeq = active.firstSeq - 1;
+        length = scan(channel, 0, channel.size(), (seq, offset, line) -> {
+            lastSeq = seq;
+            active.index(seq, offset);
+        });
+        if (length < channel.size()) {
+            System.out.println("Cutting off a torn record at the end of " + active.file);
+            channel.truncate(length);
+        }
+        channel.force(false);
+        channel.position(length);
+        synced = length;
+        this.syncer = new Thread(this::syncLoop, "replication-log-syncer");
+        this.syncer.setDaemon(true);
+        this.syncer.start();
+    }
+
+    // A log written before segments becomes the first segment, named after its first record
+    private void adoptUnsegmentedLog(Path path) throws IOException {
+        if (!Files.isRegularFile(path)) return;
+        long[] first = {1};
+        try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+            scan(in, 0, in.size(), (seq, offset, line) -> {
+                if (offset == 0) first[0] = seq;
+            });
+        }
+        Files.move(path, segmentPath(first[0]));
+    }
+
+    private Path segmentPath(long firstSeq) {
+        return directory.resolve(String.format("%s.%020d", name, firstSeq));
+    }
+
+    // Position of the first record of a segment file of this log, or 0 for any other file
+    private long firstSeqOf(String fileName) {
+        if (fileName.length() != name.length() + 21 || !fileName.startsWith(name + ".")) return 0;
+        try {
+            return Long.parseLong(fileName.substring(name.length() + 1));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Appends a record, numbering it. Callers append a change only once it is durable locally,
+     * and in the order the changes were made, so the log keeps every train's and every user's
+     * changes in order. Returns the record's position, or 0 if it could not be written.
+     */
+    public synchronized long append(ReplicationRecord record) {
+        if (closed) return 0;
+        record.setSeq(lastSeq + 1);
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(record);
+            if (length > 0 && length + json.length + 1 > segmentBytes) {
+                startSegment();
+            }
+            ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+            while (line.hasRemaining()) {
+                channel.write(line);
+            }
+            active.index(record.getSeq(), length);
+            length += line.limit();
+        } catch (IOException e) {
+            System.out.println("Could not write to the replication log: " + e.getMessage());
+            return 0;
+        }
+        lastSeq = record.getSeq();
+        notifyAll();
+        return lastSeq;
+    }
+
+    // Seals the active segment, whole on disk so readers can read it to its end, and starts the next
+    private void startSegment() throws IOException {
+        Segment next = new Segment(lastSeq + 1, segmentPath(lastSeq + 1));
+        next.indexBuilt = true;
+        FileChannel nextChannel = FileChannel.open(next.file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            nextChannel.close();
+            Files.deleteIfExists(next.file);
+            throw e;
+        }
+        active.end = length;
+        active.nextSeq = next.firstSeq;
+        channel.close();
+        segments.put(next.firstSeq, next);
+        active = next;
+        channel = nextChannel;
+        length = 0;
+        synced = 0;
+    }
+
+    public synchronized long lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Position of the oldest record still kept. Every position from there to {@link #lastSeq()}
+     * can be read.
+     */
+    public synchronized long firstSeq() {
+        return segments.firstKey();
+    }
+
+    /**
+     * Drops the segments whose records all come before {@code seq}, e.g. once every follower
+     * has applied them. The active segment is always kept. Readers already in a dropped
+     * segment finish reading it.
+     */
+    public synchronized void retainFrom(long seq) {
+        while (segments.size() > 1) {
+            Segment oldest = segments.firstEntry().getValue();
+            if (oldest.nextSeq > seq) return;
+            segments.pollFirstEntry();
+            try {
+                Files.deleteIfExists(oldest.file);
+            } catch (IOException e) {
+                // gone from the log either way; the file is left for the operator
+            }
+            DROPPED_SEGMENTS.increment();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            FileChannel target;
+            Segment segment;
+            long end;
+            synchronized (this) {
+                while (!closed && synced == length) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (closed) return;
+                target = channel;
+                segment = active;
+                end = length;
+            }
+            // outside the lock, so appends carry on and go out with the next sync
+            try {
+                target.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    if (closed) return;
+                    // the segment was sealed meanwhile, which synced it
+                    if (segment != active) continue;
+                }
+                System.out.println("Could not sync the replication log, retrying: " + e.getMessage());
+                try {
+                    Thread.sleep(HEARTBEAT_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            synchronized (this) {
+                if (segment == active) synced = Math.max(synced, end);
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Writes every record from position {@code from} on to {@code out}, one per line, then
+     * keeps following the log as records are appended. While there is nothing new an empty
+     * line goes out every second, so a follower can tell a quiet leader from a dead one.
+     * Returns once the log is closed; a failed write to {@code out}, or records from
+     * {@code from} on having been dropped, end it with an exception.
+     */
+    public void stream(long from, OutputStream out) throws IOException, InterruptedException {
+        Segment segment;
+        synchronized (this) {
+            if (closed) return;
+            Map.Entry<Long, Segment> holding = segments.floorEntry(Math.max(1, from));
+            if (holding == null) {
+                throw new IOException("Record " + from + " was dropped from the replication log");
+            }
+            segment = holding.getValue();
+        }
+        long position = segment.offsetBefore(from);
+        FileChannel reader = FileChannel.open(segment.file, StandardOpenOption.READ);
+        try {
+            while (true) {
+                long end = awaitPast(segment, position);
+                if (end < 0) return;
+                if (end > position) {
+                    position = scan(reader, position, end, (seq, offset, line) -> {
+                        if (seq >= from) out.write(line);
+                    });
+                } else if (segment.isSealed()) {
+                    segment = following(segment);
+                    reader.close();
+                    reader = FileChannel.open(segment.file, StandardOpenOption.READ);
+                    position = 0;
+                    continue;
+                } else {
+                    out.write('\n');
+                }
+                out.flush();
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    // The segment after a sealed one
+    private synchronized Segment following(Segment sealed) throws IOException {
+        Segment next = segments.get(sealed.nextSeq);
+        if (next == null) {
+            throw new IOException("Record " + sealed.nextSeq + " was dropped from the replication log");
+        }
+        return next;
+    }
+
+    /**
+     * Where a reader at {@code position} in the segment may read up to: the end of a sealed
+     * segment, or for the active one the synced end once it is past position or a heartbeat
+     * is due. -1 once closed.
+     */
+    private synchronized long awaitPast(Segment segment, long position) throws InterruptedException {
+        if (closed) return -1;
+        if (segment.isSealed()) return segment.end;
+        long deadline = System.currentTimeMillis() + HEARTBEAT_MILLIS;
+        while (!closed && segment == active && synced <= position) {
+            long left = deadline - System.currentTimeMillis();
+            if (left <= 0) break;
+            wait(left);
+        }
+        if (closed) return -1;
+        return segment.isSealed() ? segment.end : synced;
+    }
+
+    @FunctionalInterface
+    private interface LineSink {
+        // offset is where the line starts in the file; line includes its terminating newline
+        void accept(long seq, long offset, byte[] line) throws IOException;
+    }
+
+    /**
+     * Hands every complete line in {@code [start, end)} to {@code sink}, with its record's
+     * position. Returns where the first incomplete line starts, or {@code end}.
+     */
+    private static long scan(FileChannel in, long start, long end, LineSink sink) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        long position = start;
+        long lineStart = start;
+        while (position < end) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+            int read = in.read(buffer, position);
+            if (read <= 0) break;
+            position += read;
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                line.write(b);
+                if (b == '\n') {
+                    byte[] bytes = line.toByteArray();
+                    line.reset();
+                    long seq = seqOf(bytes);
+                    if (seq > 0) sink.accept(seq, lineStart, bytes);
+                    lineStart += bytes.length;
+                }
+            }
+        }
+        return lineStart;
+    }
+
+    // The seq field always comes first, see ReplicationRecord
+    private static long seqOf(byte[] line) {
+        if (line.length <= SEQ_PREFIX.length) return 0;
+        for (int i = 0; i < SEQ_PREFIX.length; i++) {
+            if (line[i] != SEQ_PREFIX[i]) return 0;
+        }
+        long seq = 0;
+        for (int i = SEQ_PREFIX.length; i < line.length && line[i] >= '0' && line[i] <= '9'; i++) {
+            seq = seq * 10 + (line[i] - '0');
+        }
+        return seq;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        notifyAll();
+        channel.force(false);
+        channel.close();
+    }
+}
@@ -0,0 +1,74 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import lombok.Getter;
+import lombok.Setter;
+import ticketbooking.entities.User;
+
+/**
+ * One entry of a node's {@link ReplicationLog}: either a change to the user store, exactly as
+ * the node journaled it, or the new state of one row of a train's seat map.
+ *
+ * A follower too far behind for the log gets a snapshot instead: rows and whole users without
+ * a position, then a record carrying only the position the snapshot was taken at.
+ */
+@Setter
+@Getter
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonPropertyOrder({"seq"})
+public class ReplicationRecord {
+
+    // Position in the log, counting from 1; written first so it can be read without parsing the rest
+    private long seq;
+
+    private JournalRecord journal;
+
+    private String trainId;
+
+    // Seat map version right after the change
+    private Long seatVersion;
+
+    private Integer segments;
+
+    private Integer row;
+
+    // The row's occupancy words, segment by segment, as in trains.bin
+    private long[] words;
+
+    // A user and their tickets on the sending node's trains, in a snapshot
+    private User user;
+
+    public ReplicationRecord() {}
+
+    public static ReplicationRecord journal(JournalRecord journal) {
+        ReplicationRecord record = new ReplicationRecord();
+        record.journal = journal;
+        return record;
+    }
+
+    public static ReplicationRecord seats(String trainId, long seatVersion, int segments, int row, long[] words) {
+        ReplicationRecord record = new ReplicationRecord();
+        record.trainId = trainId;
+        record.seatVersion = seatVersion;
+        record.segments = segments;
+        record.row = row;
+        record.words = words;
+        return record;
+    }
+
+    public static ReplicationRecord user(User user) {
+        ReplicationRecord record = new ReplicationRecord();
+        record.user = user;
+        return record;
+    }
+
+    // Ends a snapshot: the log carries on after this position
+    public static ReplicationRecord position(long seq) {
+        ReplicationRecord record = new ReplicationRecord();
+        record.seq = seq;
+        return record;
+    }
+}
@@ -0,0 +1,137 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.util.BookingConfig;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalInt;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Converts a data directory between the JSON files (user.json, trains.json) and the binary
+ * snapshots the services run on (the user shards and trains.bin).
+ *
+ * Usage: {@code SnapshotConverter import|export [dataDir]}. Run it while the app is stopped;
+ * a clean shutdown folds the journals into the snapshots, so export sees every change.
+ */
+public class SnapshotConverter {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || !(args[0].equals("import") || args[0].equals("export"))) {
+            System.out.println("Usage: SnapshotConverter import|export [dataDir]");
+            System.exit(2);
+        }
+        Path dataDir = args.length > 1 ? Paths.get(args[1]) : BookingConfig.dataDir();
+        if (args[0].equals("import")) {
+            importJson(dataDir);
+        } else {
+            exportJson(dataDir);
+        }
+    }
+
+    /**
+     * Writes the user shards and trains.bin from whichever of user.json and trains.json exist,
+     * replacing any users already in the directory.
+     */
+    public static void importJson(Path dataDir) throws IOException {
+        Path usersJson = dataDir.resolve("user.json");
+        if (Files.exists(usersJson)) {
+            int shards = Math.max(1, BookingConfig.userShards());
+            List<List<User>> partitions = new ArrayList<>();
+            for (int i = 0; i < shards; i++) partitions.add(new ArrayList<>());
+            int[] count = new int[1];
+            try (InputStream input = Files.newInputStream(usersJson)) {
+                UserSnapshot.read(userMapper(), input, u -> {
+                    partitions.get(UserShardLayout.shardOf(u.getUserId(), shards)).add(u);
+                    count[0]++;
+                });
+            }
+            OptionalInt previous = UserShardLayout.readShardCount(dataDir);
+            for (int i = 0; i < shards; i++) {
+                Files.deleteIfExists(UserShardLayout.journalPath(dataDir, i, shards));
+                BinaryUserSnapshot.write(UserShardLayout.snapshotPath(dataDir, i, shards), partitions.get(i), u -> null);
+            }
+            UserShardLayout.writeShardCount(dataDir, shards);
+            if (previous.isPresent() && previous.getAsInt() != shards) {
+                UserShardLayout.deleteLayout(dataDir, previous.getAsInt());
+            }
+            Files.deleteIfExists(dataDir.resolve("users.bin"));
+            Files.deleteIfExists(dataDir.resolve("user.journal"));
+            System.out.println("Imported " + count[0] + " users into " + shards + " shards");
+        }
+        Path trainsJson = dataDir.resolve("trains.json");
+        if (Files.exists(trainsJson)) {
+            List<Train> trains = new ArrayList<>();
+            ObjectMapper mapper = new ObjectMapper();
+            try (JsonParser parser = mapper.getFactory().createParser(trainsJson.toFile())) {
+                if (parser.nextToken() != JsonToken.START_ARRAY) {
+                    throw new IOException("trains.json does not hold a list of trains");
+                }
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    trains.add(mapper.readValue(parser, Train.class));
+                }
+            }
+            ReentrantLock noLock = new ReentrantLock();
+            BinaryTrainSnapshot.write(dataDir.resolve("trains.bin"), trains, trainId -> noLock);
+            System.out.println("Imported " + trains.size() + " trains into trains.bin");
+        }
+    }
+
+    /**
+     * Writes user.json and trains.json from the user shards and trains.bin, where they exist.
+     */
+    public static void exportJson(Path dataDir) throws IOException {
+        List<Path> snapshots = new ArrayList<>();
+        List<Path> journals = new ArrayList<>();
+        OptionalInt shards = UserShardLayout.readShardCount(dataDir);
+        if (shards.isPresent()) {
+            for (int i = 0; i < shards.getAsInt(); i++) {
+                snapshots.add(UserShardLayout.snapshotPath(dataDir, i, shards.getAsInt()));
+                journals.add(UserShardLayout.journalPath(dataDir, i, shards.getAsInt()));
+            }
+        } else {
+            snapshots.add(dataDir.resolve("users.bin"));
+            journals.add(dataDir.resolve("user.journal"));
+        }
+        for (Path journal : journals) {
+            if (Files.exists(journal) && Files.size(journal) > 0) {
+                System.out.println("Warning: " + journal.getFileName() + " is not empty, its changes are not in the snapshot yet");
+            }
+        }
+        if (snapshots.stream().anyMatch(Files::exists)) {
+            List<User> users = new ArrayList<>();
+            for (Path snapshot : snapshots) {
+                if (Files.exists(snapshot)) {
+                    BinaryUserSnapshot.read(snapshot, false, (user, span) -> users.add(user));
+                }
+            }
+            AtomicFiles.write(dataDir.resolve("user.json"), out -> UserSnapshot.write(userMapper(), out, users));
+            System.out.println("Exported " + users.size() + " users to user.json");
+        }
+        Path trainsBin = dataDir.resolve("trains.bin");
+        if (Files.exists(trainsBin)) {
+            List<Train> trains = new ArrayList<>();
+            BinaryTrainSnapshot.read(trainsBin, trains::add);
+            AtomicFiles.write(dataDir.resolve("trains.json"),
+                    out -> new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(out, trains));
+            System.out.println("Exported " + trains.size() + " trains to trains.json");
+        }
+    }
+
+    private static ObjectMapper userMapper() {
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+        return mapper;
+    }
+}
@@ -0,0 +1,87 @@
+package ticketbooking.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads values written by {@link SnapshotWriter} from a memory-mapped snapshot file, so loading
+ * goes straight from the page cache into objects without a read buffer or a parser in between.
+ */
+class SnapshotReader {
+
+    private final ByteBuffer buffer;
+    private byte[] scratch = new byte[256];
+
+    SnapshotReader(ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    static SnapshotReader map(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map (" + size + " bytes)");
+            }
+            // the mapping stays valid after the channel is closed
+            return new SnapshotReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Checks the magic number and version at the start of the file.
+     */
+    void expectHeader(int magic, int version, Path file) throws IOException {
+        if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != magic) {
+            throw new IOException(file + " is not a snapshot of the expected kind");
+        }
+        int found = buffer.getInt();
+        if (found != version) {
+            throw new IOException(file + " has snapshot version " + found + ", expected " + version);
+        }
+    }
+
+    /**
+     * Like {@link #expectHeader(int, int, Path)} but accepts any version from {@code oldest} to
+     * {@code newest}, and returns the one found.
+     */
+    int expectHeader(int magic, int oldest, int newest, Path file) throws IOException {
+        if (buffer.remaining() < 2 * Integer.BYTES || buffer.getInt() != magic) {
+            throw new IOException(file + " is not a snapshot of the expected kind");
+        }
+        int found = buffer.getInt();
+        if (found < oldest || found > newest) {
+            throw new IOException(file + " has snapshot version " + found + ", expected " + oldest + " to " + newest);
+        }
+        return found;
+    }
+
+    int position() {
+        return buffer.position();
+    }
+
+    void skip(int bytes) {
+        buffer.position(buffer.position() + bytes);
+    }
+
+    int getInt() {
+        return buffer.getInt();
+    }
+
+    long getLong() {
+        return buffer.getLong();
+    }
+
+    String getString() {
+        int length = buffer.getInt();
+        if (length < 0) return null;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        buffer.get(scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,85 @@
+package ticketbooking.storage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered big-endian writer for the binary snapshot files. Strings are written as their UTF-8
+ * length followed by the bytes, with -1 standing for null.
+ */
+class SnapshotWriter {
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16);
+    private long flushed;
+
+    SnapshotWriter(FileChannel channel) throws IOException {
+        this.channel = channel;
+        this.flushed = channel.position();
+    }
+
+    /**
+     * Offset in the file the next value will be written at.
+     */
+    long position() {
+        return flushed + buffer.position();
+    }
+
+    void putInt(int value) throws IOException {
+        ensure(Integer.BYTES);
+        buffer.putInt(value);
+    }
+
+    void putLong(long value) throws IOException {
+        ensure(Long.BYTES);
+        buffer.putLong(value);
+    }
+
+    void putString(String value) throws IOException {
+        if (value == null) {
+            putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        putInt(bytes.length);
+        putBytes(bytes);
+    }
+
+    void putBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int chunk = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+        }
+    }
+
+    /**
+     * Overwrites an int written earlier, e.g. a length that was only known afterwards.
+     */
+    void patchInt(long position, int value) throws IOException {
+        if (position >= flushed) {
+            buffer.putInt((int) (position - flushed), value);
+            return;
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(Integer.BYTES).putInt(value).flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes, position + bytes.position());
+        }
+    }
+
+    void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void ensure(int bytes) throws IOException {
+        if (buffer.remaining() < bytes) flush();
+    }
+}
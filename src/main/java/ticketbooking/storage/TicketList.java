@@ -0,0 +1,148 @@
+package ticketbooking.storage;
+
+import ticketbooking.entities.Ticket;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * One user's tickets as a list view over a {@link TicketStore}: the list itself only holds the
+ * slots, and each ticket is decoded when it is read. Adding stores the ticket, removing frees
+ * its slot. Tickets are equal here when their ids are, since each read decodes a new object.
+ *
+ * Shares the store's lack of thread safety.
+ */
+public final class TicketList extends AbstractList<Ticket> implements RandomAccess {
+
+    private static final int[] EMPTY = new int[0];
+
+    private final TicketStore store;
+    private int[] slots = EMPTY;
+    private int size;
+
+    public TicketList(TicketStore store) {
+        this.store = store;
+    }
+
+    public boolean isBackedBy(TicketStore other) {
+        return store == other;
+    }
+
+    @Override
+    public Ticket get(int index) {
+        return store.get(slots[checkIndex(index)]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void add(int index, Ticket ticket) {
+        addAll(index, List.of(ticket));
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Ticket> tickets) {
+        if (index < 0 || index > size) throw new IndexOutOfBoundsException(index);
+        if (tickets.isEmpty()) return false;
+        int count = tickets.size();
+        if (size + count > slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(size + count, Math.max(4, slots.length * 2)));
+        }
+        System.arraycopy(slots, index, slots, index + count, size - index);
+        int at = index;
+        for (Ticket ticket : tickets) {
+            slots[at++] = store.add(ticket);
+        }
+        size += count;
+        modCount++;
+        return true;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Ticket> tickets) {
+        return addAll(size, tickets);
+    }
+
+    @Override
+    public Ticket remove(int index) {
+        Ticket removed = get(index);
+        store.remove(slots[index]);
+        System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+        size--;
+        modCount++;
+        return removed;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return o instanceof Ticket ticket && removeById(ticket.getTicketId());
+    }
+
+    /**
+     * Removes the ticket with this id. Returns false if the list has none.
+     */
+    public boolean removeById(String ticketId) {
+        int index = indexOfId(ticketId);
+        if (index < 0) return false;
+        store.remove(slots[index]);
+        System.arraycopy(slots, index + 1, slots, index, size - index - 1);
+        size--;
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Position of the ticket with this id, or -1. Found through the store's index, falling
+     * back to comparing ids when the index points at another user's ticket with the same id.
+     */
+    public int indexOfId(String ticketId) {
+        if (ticketId == null) return -1;
+        int slot = store.find(ticketId);
+        for (int i = 0; slot >= 0 && i < size; i++) {
+            if (slots[i] == slot) return i;
+        }
+        for (int i = 0; i < size; i++) {
+            if (ticketId.equals(store.ticketId(slots[i]))) return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOf(Object o) {
+        return o instanceof Ticket ticket ? indexOfId(ticket.getTicketId()) : -1;
+    }
+
+    @Override
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            store.remove(slots[i]);
+        }
+        size = 0;
+        modCount++;
+    }
+
+    /**
+     * Decodes only the tickets from {@code offset}, at most {@code limit} of them.
+     */
+    public List<Ticket> page(int offset, int limit) {
+        int from = Math.max(0, Math.min(offset, size));
+        int to = (int) Math.min(size, (long) from + Math.max(0, limit));
+        List<Ticket> page = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            page.add(store.get(slots[i]));
+        }
+        return page;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) throw new IndexOutOfBoundsException(index);
+        return index;
+    }
+}
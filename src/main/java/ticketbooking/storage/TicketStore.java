@@ -0,0 +1,312 @@
+package ticketbooking.storage;
+
+import ticketbooking.entities.Ticket;
+import ticketbooking.util.StringPool;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Tickets kept off the Java heap as fixed 48-byte records in direct buffers, so a user with a
+ * long booking history costs the garbage collector an int per ticket rather than a ticket
+ * object and its strings. A {@link Ticket} is only decoded when it is read.
+ *
+ * Record layout, big-endian:
+ * <pre>
+ *   long ticket id high bits, long ticket id low bits   a UUID, or a dictionary code
+ *   long date of travel                                 epoch nanoseconds, or a dictionary code
+ *   int user id, int train id, int source, int destination   dictionary codes
+ *   int seat                                            row &lt;&lt; 16 | seat, or a dictionary code
+ *   int flags                                           which fields are dictionary codes
+ * </pre>
+ * Stations, train and user ids go through a dictionary, so each distinct value is held once.
+ * Values that do not fit the compact forms, e.g. seed tickets with made-up ids, are kept in
+ * the dictionary as they are, so every ticket reads back exactly as it was stored.
+ *
+ * Tickets are also indexed by id in an open-addressing table of primitive arrays. Not
+ * thread-safe: each user shard keeps its own store and uses it under its lock.
+ */
+public final class TicketStore {
+
+    private static final int RECORD_BYTES = 48;
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_RECORDS = 1 << CHUNK_SHIFT;
+
+    private static final int ID_HIGH = 0;
+    private static final int ID_LOW = 8;
+    private static final int DATE = 16;
+    private static final int USER = 24;
+    private static final int TRAIN = 28;
+    private static final int SOURCE = 32;
+    private static final int DESTINATION = 36;
+    private static final int SEAT = 40;
+    private static final int FLAGS = 44;
+
+    private static final int ID_TEXT = 1;
+    private static final int DATE_TEXT = 2;
+    private static final int SEAT_TEXT = 4;
+
+    private final List<ByteBuffer> chunks = new ArrayList<>();
+    private int used;
+    private int[] freeSlots = new int[16];
+    private int freeCount;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    // UUID ticket id -> slot, linear probing; slotPlusOne 0 marks an empty bucket
+    private long[] keyHigh = new long[64];
+    private long[] keyLow = new long[64];
+    private int[] slotPlusOne = new int[64];
+    private int indexed;
+
+    // Ticket ids that are not UUIDs
+    private final Map<String, Integer> textIds = new HashMap<>();
+
+    /**
+     * Stores the ticket and returns its slot. The id index keeps the first ticket stored under
+     * an id, as seed data may repeat ids.
+     */
+    public int add(Ticket ticket) {
+        int slot = freeCount > 0 ? freeSlots[--freeCount] : used++;
+        if ((slot >>> CHUNK_SHIFT) == chunks.size()) {
+            chunks.add(ByteBuffer.allocateDirect(CHUNK_RECORDS * RECORD_BYTES));
+        }
+        ByteBuffer chunk = chunk(slot);
+        int at = offset(slot);
+        int flags = 0;
+
+        UUID id = uuid(ticket.getTicketId());
+        if (id != null) {
+            chunk.putLong(at + ID_HIGH, id.getMostSignificantBits());
+            chunk.putLong(at + ID_LOW, id.getLeastSignificantBits());
+            if (find(id.getMostSignificantBits(), id.getLeastSignificantBits()) < 0) {
+                index(id.getMostSignificantBits(), id.getLeastSignificantBits(), slot);
+            }
+        } else {
+            flags |= ID_TEXT;
+            chunk.putLong(at + ID_HIGH, 0);
+            chunk.putLong(at + ID_LOW, code(ticket.getTicketId()));
+            if (ticket.getTicketId() != null) textIds.putIfAbsent(ticket.getTicketId(), slot);
+        }
+
+        Long epochNanos = epochNanos(ticket.getDateOfTravel());
+        if (epochNanos != null) {
+            chunk.putLong(at + DATE, epochNanos);
+        } else {
+            flags |= DATE_TEXT;
+            chunk.putLong(at + DATE, code(ticket.getDateOfTravel()));
+        }
+
+        chunk.putInt(at + USER, code(ticket.getUserId()));
+        chunk.putInt(at + TRAIN, code(ticket.getTrainId()));
+        chunk.putInt(at + SOURCE, code(ticket.getSource()));
+        chunk.putInt(at + DESTINATION, code(ticket.getDestination()));
+
+        int seat = packSeat(ticket.getSeatNumber());
+        if (seat < 0) {
+            flags |= SEAT_TEXT;
+            seat = code(ticket.getSeatNumber());
+        }
+        chunk.putInt(at + SEAT, seat);
+        chunk.putInt(at + FLAGS, flags);
+        return slot;
+    }
+
+    /**
+     * Decodes the ticket in a slot into a new object.
+     */
+    public Ticket get(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int at = offset(slot);
+        int flags = chunk.getInt(at + FLAGS);
+        Ticket ticket = new Ticket();
+        ticket.setTicketId(ticketId(slot));
+        long date = chunk.getLong(at + DATE);
+        ticket.setDateOfTravel((flags & DATE_TEXT) != 0 ? value((int) date)
+                : Instant.ofEpochSecond(0, date).toString());
+        ticket.setUserId(value(chunk.getInt(at + USER)));
+        ticket.setTrainId(value(chunk.getInt(at + TRAIN)));
+        ticket.setSource(value(chunk.getInt(at + SOURCE)));
+        ticket.setDestination(value(chunk.getInt(at + DESTINATION)));
+        int seat = chunk.getInt(at + SEAT);
+        ticket.setSeatNumber((flags & SEAT_TEXT) != 0 ? value(seat)
+                : StringPool.intern((seat >>> 16) + "-" + (seat & 0xFFFF)));
+        return ticket;
+    }
+
+    public String ticketId(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int at = offset(slot);
+        if ((chunk.getInt(at + FLAGS) & ID_TEXT) != 0) {
+            return value((int) chunk.getLong(at + ID_LOW));
+        }
+        return new UUID(chunk.getLong(at + ID_HIGH), chunk.getLong(at + ID_LOW)).toString();
+    }
+
+    /**
+     * Slot of the ticket with this id, or -1.
+     */
+    public int find(String ticketId) {
+        UUID id = uuid(ticketId);
+        if (id != null) {
+            return find(id.getMostSignificantBits(), id.getLeastSignificantBits());
+        }
+        Integer slot = ticketId == null ? null : textIds.get(ticketId);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * Frees a slot for reuse and drops it from the id index.
+     */
+    public void remove(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int at = offset(slot);
+        if ((chunk.getInt(at + FLAGS) & ID_TEXT) != 0) {
+            textIds.remove(value((int) chunk.getLong(at + ID_LOW)), slot);
+        } else {
+            unindex(chunk.getLong(at + ID_HIGH), chunk.getLong(at + ID_LOW), slot);
+        }
+        if (freeCount == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+        freeSlots[freeCount++] = slot;
+    }
+
+    /**
+     * Tickets currently stored.
+     */
+    public int size() {
+        return used - freeCount;
+    }
+
+    public long offHeapBytes() {
+        return (long) chunks.size() * CHUNK_RECORDS * RECORD_BYTES;
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks.get(slot >>> CHUNK_SHIFT);
+    }
+
+    private static int offset(int slot) {
+        return (slot & (CHUNK_RECORDS - 1)) * RECORD_BYTES;
+    }
+
+    // Dictionary code of a string, -1 for null
+    private int code(String value) {
+        if (value == null) return -1;
+        Integer code = codes.get(value);
+        if (code == null) {
+            code = values.size();
+            String pooled = StringPool.intern(value);
+            values.add(pooled);
+            codes.put(pooled, code);
+        }
+        return code;
+    }
+
+    private String value(int code) {
+        return code < 0 ? null : values.get(code);
+    }
+
+    // Only ids that print back exactly the same are stored as a UUID
+    private static UUID uuid(String ticketId) {
+        if (ticketId == null || ticketId.length() != 36) return null;
+        try {
+            UUID id = UUID.fromString(ticketId);
+            return id.toString().equals(ticketId) ? id : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Only dates that print back exactly the same, fractions included, within +-292 years of 1970
+    private static Long epochNanos(String date) {
+        if (date == null) return null;
+        try {
+            Instant instant = Instant.parse(date);
+            if (!instant.toString().equals(date)) return null;
+            return Math.addExact(Math.multiplyExact(instant.getEpochSecond(), 1_000_000_000L), instant.getNano());
+        } catch (DateTimeParseException | ArithmeticException e) {
+            return null;
+        }
+    }
+
+    // "row-seat" packed into an int, or -1 if it would not read back the same
+    private static int packSeat(String seatNumber) {
+        if (seatNumber == null) return -1;
+        int dash = seatNumber.indexOf('-');
+        if (dash <= 0) return -1;
+        try {
+            int row = Integer.parseInt(seatNumber.substring(0, dash));
+            int seat = Integer.parseInt(seatNumber.substring(dash + 1));
+            if (row < 0 || row > Short.MAX_VALUE || seat < 0 || seat > 0xFFFF
+                    || !seatNumber.equals(row + "-" + seat)) {
+                return -1;
+            }
+            return row << 16 | seat;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private int bucket(long high, long low) {
+        long h = (high ^ low) * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 32) & (slotPlusOne.length - 1);
+    }
+
+    private int find(long high, long low) {
+        for (int b = bucket(high, low); slotPlusOne[b] != 0; b = (b + 1) & (slotPlusOne.length - 1)) {
+            if (keyHigh[b] == high && keyLow[b] == low) return slotPlusOne[b] - 1;
+        }
+        return -1;
+    }
+
+    private void index(long high, long low, int slot) {
+        if (2 * (indexed + 1) > slotPlusOne.length) grow();
+        int b = bucket(high, low);
+        while (slotPlusOne[b] != 0) b = (b + 1) & (slotPlusOne.length - 1);
+        keyHigh[b] = high;
+        keyLow[b] = low;
+        slotPlusOne[b] = slot + 1;
+        indexed++;
+    }
+
+    private void unindex(long high, long low, int slot) {
+        int mask = slotPlusOne.length - 1;
+        int b = bucket(high, low);
+        while (slotPlusOne[b] != 0 && !(keyHigh[b] == high && keyLow[b] == low)) b = (b + 1) & mask;
+        if (slotPlusOne[b] != slot + 1) return;
+        // backward-shift deletion keeps every probe run unbroken without tombstones
+        int hole = b;
+        for (int next = (hole + 1) & mask; slotPlusOne[next] != 0; next = (next + 1) & mask) {
+            int home = bucket(keyHigh[next], keyLow[next]);
+            if (((next - home) & mask) >= ((next - hole) & mask)) {
+                keyHigh[hole] = keyHigh[next];
+                keyLow[hole] = keyLow[next];
+                slotPlusOne[hole] = slotPlusOne[next];
+                hole = next;
+            }
+        }
+        slotPlusOne[hole] = 0;
+        indexed--;
+    }
+
+    private void grow() {
+        long[] oldHigh = keyHigh;
+        long[] oldLow = keyLow;
+        int[] oldSlots = slotPlusOne;
+        keyHigh = new long[oldSlots.length * 2];
+        keyLow = new long[oldSlots.length * 2];
+        slotPlusOne = new int[oldSlots.length * 2];
+        indexed = 0;
+        for (int b = 0; b < oldSlots.length; b++) {
+            if (oldSlots[b] != 0) index(oldHigh[b], oldLow[b], oldSlots[b] - 1);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package ticketbooking.storage;
+
+import ticketbooking.entities.Train;
+import ticketbooking.util.BookingConfig;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Where trains and their seat maps are kept between runs. {@link FileTrainRepository} writes
+ * them to trains.bin; {@link JdbcTrainRepository} to the embedded database.
+ */
+public interface TrainRepository extends Closeable {
+
+    /**
+     * Hands every stored train to {@code sink}, in the order they were saved. Returns false if
+     * nothing has been saved yet.
+     */
+    boolean load(Consumer<Train> sink) throws IOException;
+
+    /**
+     * Saves the trains. Each train's seat map is read while holding the lock {@code seatLock}
+     * gives for its id, so it is never captured half-way through a booking.
+     */
+    void save(List<Train> trains, Function<String, Lock> seatLock) throws IOException;
+
+    /**
+     * The store configured with {@code ticketbooking.storage} for this data directory.
+     */
+    static TrainRepository forDataDir(Path dataDir) throws IOException {
+        return switch (BookingConfig.storage()) {
+            case "file" -> new FileTrainRepository(dataDir.resolve("trains.bin"));
+            case "h2" -> new JdbcTrainRepository(EmbeddedDatabase.open(dataDir),
+                    new FileTrainRepository(dataDir.resolve("trains.bin")));
+            default -> throw new IOException("Unknown storage " + BookingConfig.storage());
+        };
+    }
+}
@@ -0,0 +1,63 @@
+package ticketbooking.storage;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.OptionalInt;
+
+/**
+ * File layout of the sharded user store. Users are spread over N shards by a hash of their id;
+ * shard {@code i} keeps its snapshot in {@code users-i-of-N.bin} and its journal in
+ * {@code users-i-of-N.journal}. The shard count in use is recorded in {@code users.shards},
+ * which is only replaced once every file of a new layout is on disk, so a crash while
+ * re-sharding leaves the old layout in charge.
+ */
+public final class UserShardLayout {
+
+    private static final String MANIFEST = "users.shards";
+
+    private UserShardLayout() {}
+
+    public static int shardOf(String userId, int shards) {
+        if (userId == null) return 0;
+        int h = userId.hashCode();
+        h ^= h >>> 16;
+        return Math.floorMod(h, shards);
+    }
+
+    public static Path snapshotPath(Path dataDir, int shard, int shards) {
+        return dataDir.resolve("users-" + shard + "-of-" + shards + ".bin");
+    }
+
+    public static Path journalPath(Path dataDir, int shard, int shards) {
+        return dataDir.resolve("users-" + shard + "-of-" + shards + ".journal");
+    }
+
+    /**
+     * The shard count the data directory was last written with, if any.
+     */
+    public static OptionalInt readShardCount(Path dataDir) throws IOException {
+        Path manifest = dataDir.resolve(MANIFEST);
+        if (!Files.exists(manifest)) return OptionalInt.empty();
+        try {
+            return OptionalInt.of(Integer.parseInt(Files.readString(manifest, StandardCharsets.UTF_8).trim()));
+        } catch (NumberFormatException e) {
+            throw new IOException(manifest + " does not hold a shard count", e);
+        }
+    }
+
+    public static void writeShardCount(Path dataDir, int shards) throws IOException {
+        AtomicFiles.write(dataDir.resolve(MANIFEST), out -> out.write((shards + "\n").getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Removes the snapshot and journal files of a layout that is no longer in use.
+     */
+    public static void deleteLayout(Path dataDir, int shards) throws IOException {
+        for (int i = 0; i < shards; i++) {
+            Files.deleteIfExists(snapshotPath(dataDir, i, shards));
+            Files.deleteIfExists(journalPath(dataDir, i, shards));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+import ticketbooking.util.StringPool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streaming reader and writer for user.json, used to import and export users; the running
+ * service keeps them in the binary users.bin.
+ *
+ * Users are handed over one at a time as they are parsed, so the file is never held as a whole
+ * object graph, and repeated strings (stations, train ids, seat numbers) are pooled. Tickets
+ * that embed a full copy of their train, as the seed data does, keep only its id.
+ */
+public final class UserSnapshot {
+
+    private UserSnapshot() {}
+
+    /**
+     * Parses the user array, calling {@code sink} with every user as soon as it is complete.
+     */
+    public static void read(ObjectMapper mapper, InputStream in, Consumer<User> sink) throws IOException {
+        try (JsonParser parser = mapper.getFactory().createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("user.json does not hold a list of users");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                User user = new User();
+                user.setTicketsBooked(new ArrayList<>());
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.currentName();
+                    JsonToken value = parser.nextToken();
+                    switch (field) {
+                        case "name" -> user.setName(parser.getValueAsString());
+                        case "password" -> user.setPassword(parser.getValueAsString());
+                        case "hashed_password" -> user.setHashedPassword(parser.getValueAsString());
+                        case "user_id" -> user.setUserId(parser.getValueAsString());
+                        case "tickets_booked" -> {
+                            if (value == JsonToken.START_ARRAY) {
+                                readTicketArray(parser, user.getTicketsBooked());
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                        default -> parser.skipChildren();
+                    }
+                }
+                // share the owner's id string rather than keep a copy per ticket
+                for (Ticket ticket : user.getTicketsBooked()) {
+                    if (user.getUserId() != null && user.getUserId().equals(ticket.getUserId())) {
+                        ticket.setUserId(user.getUserId());
+                    }
+                }
+                sink.accept(user);
+            }
+        }
+    }
+
+    private static void readTicketArray(JsonParser parser, List<Ticket> tickets) throws IOException {
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            tickets.add(readTicket(parser));
+        }
+    }
+
+    private static Ticket readTicket(JsonParser parser) throws IOException {
+        Ticket ticket = new Ticket();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            JsonToken value = parser.nextToken();
+            switch (field) {
+                case "ticket_id" -> ticket.setTicketId(parser.getValueAsString());
+                case "user_id" -> ticket.setUserId(parser.getValueAsString());
+                case "source" -> ticket.setSource(StringPool.intern(parser.getValueAsString()));
+                case "destination" -> ticket.setDestination(StringPool.intern(parser.getValueAsString()));
+                case "date_of_travel" -> ticket.setDateOfTravel(parser.getValueAsString());
+                case "train_id" -> ticket.setTrainId(StringPool.intern(parser.getValueAsString()));
+                case "seat_number" -> ticket.setSeatNumber(StringPool.intern(parser.getValueAsString()));
+                case "train" -> {
+                    // old layout: a full copy of the train, of which only the id is kept
+                    String trainId = value == JsonToken.START_OBJECT ? readTrainId(parser) : null;
+                    if (ticket.getTrainId() == null) ticket.setTrainId(StringPool.intern(trainId));
+                }
+                default -> parser.skipChildren();
+            }
+        }
+        return ticket;
+    }
+
+    private static String readTrainId(JsonParser parser) throws IOException {
+        String trainId = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if (field.equals("train_id")) {
+                trainId = parser.getValueAsString();
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return trainId;
+    }
+
+    /**
+     * Writes the users as a pretty-printed user.json.
+     */
+    public static void write(ObjectMapper mapper, OutputStream out, List<User> users) throws IOException {
+        try (JsonGenerator gen = mapper.writerWithDefaultPrettyPrinter().createGenerator(out)) {
+            gen.writeStartArray();
+            for (User user : users) {
+                gen.writeObject(user);
+            }
+            gen.writeEndArray();
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package ticketbooking.util;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Runtime settings read from system properties, falling back to environment variables.
+ */
+public final class BookingConfig {
+
+    private BookingConfig() {}
+
+    /**
+     * Writable directory holding the user shards, trains.bin and the journals. Set with
+     * {@code -Dticketbooking.data.dir} or {@code TICKETBOOKING_DATA_DIR}; defaults to ./data.
+     */
+    public static Path dataDir() {
+        return Paths.get(get("ticketbooking.data.dir", "TICKETBOOKING_DATA_DIR", "data"));
+    }
+
+    /**
+     * bcrypt work factor for new password hashes, 2^cost rounds. Set with
+     * {@code -Dticketbooking.bcrypt.cost} or {@code TICKETBOOKING_BCRYPT_COST}; defaults to 10.
+     */
+    public static int bcryptCost() {
+        return Integer.parseInt(get("ticketbooking.bcrypt.cost", "TICKETBOOKING_BCRYPT_COST", "10"));
+    }
+
+    /**
+     * Where users, tickets and trains are kept: {@code file} for the shard snapshots, journals
+     * and trains.bin in the data directory, or {@code h2} for an embedded database in the same
+     * directory, which starts from the files' users and trains the first time it is used. Set
+     * with {@code -Dticketbooking.storage} or {@code TICKETBOOKING_STORAGE}; defaults to file.
+     */
+    public static String storage() {
+        return get("ticketbooking.storage", "TICKETBOOKING_STORAGE", "file").trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * How long train changes are collected before trains.bin is rewritten.
+     */
+    public static long trainsFlushDelayMillis() {
+        return Long.parseLong(get("ticketbooking.trains.flush.ms", "TICKETBOOKING_TRAINS_FLUSH_MS", "200"));
+    }
+
+    /**
+     * When set, users' tickets stay in the user snapshots until the user logs in or their bookings are
+     * touched, which keeps startup fast and the heap small for large user bases. Set with
+     * {@code -Dticketbooking.users.lazy=true} or {@code TICKETBOOKING_USERS_LAZY}.
+     */
+    public static boolean lazyTickets() {
+        return Boolean.parseBoolean(get("ticketbooking.users.lazy", "TICKETBOOKING_USERS_LAZY", "false"));
+    }
+
+    /**
+     * Number of shards users are spread over, each with its own lock, journal and snapshot.
+     * Changing it re-shards the data directory on the next start. Set with
+     * {@code -Dticketbooking.user.shards} or {@code TICKETBOOKING_USER_SHARDS}; defaults to 8.
+     */
+    public static int userShards() {
+        return Integer.parseInt(get("ticketbooking.user.shards", "TICKETBOOKING_USER_SHARDS", "8"));
+    }
+
+    /**
+     * How long a seat hold lasts before its seats go back on sale. Set with
+     * {@code -Dticketbooking.hold.ttl.ms} or {@code TICKETBOOKING_HOLD_TTL_MS}; defaults to 10 minutes.
+     */
+    public static long holdTtlMillis() {
+        return Long.parseLong(get("ticketbooking.hold.ttl.ms", "TICKETBOOKING_HOLD_TTL_MS", "600000"));
+    }
+
+    /**
+     * How long a login token is accepted for. Set with {@code -Dticketbooking.session.ttl.ms} or
+     * {@code TICKETBOOKING_SESSION_TTL_MS}; defaults to 12 hours.
+     */
+    public static long sessionTtlMillis() {
+        return Long.parseLong(get("ticketbooking.session.ttl.ms", "TICKETBOOKING_SESSION_TTL_MS", "43200000"));
+    }
+
+    /**
+     * Number of rendered seat maps kept in memory. Set with {@code -Dticketbooking.seatmap.cache}
+     * or {@code TICKETBOOKING_SEATMAP_CACHE}; defaults to 1024.
+     */
+    public static int seatMapCacheSize() {
+        return Integer.parseInt(get("ticketbooking.seatmap.cache", "TICKETBOOKING_SEATMAP_CACHE", "1024"));
+    }
+
+    /**
+     * Time a journey search may spend before returning the itineraries it has found so far.
+     * Set with {@code -Dticketbooking.journey.budget.ms} or {@code TICKETBOOKING_JOURNEY_BUDGET_MS};
+     * defaults to 50.
+     */
+    public static long journeyBudgetMillis() {
+        return Long.parseLong(get("ticketbooking.journey.budget.ms", "TICKETBOOKING_JOURNEY_BUDGET_MS", "50"));
+    }
+
+    /**
+     * Shortest time allowed between arriving on one train and leaving on the next. Set with
+     * {@code -Dticketbooking.journey.change.minutes} or {@code TICKETBOOKING_JOURNEY_CHANGE_MINUTES};
+     * defaults to 15.
+     */
+    public static int changeMinutes() {
+        return Integer.parseInt(get("ticketbooking.journey.change.minutes", "TICKETBOOKING_JOURNEY_CHANGE_MINUTES", "15"));
+    }
+
+    /**
+     * The nodes of a cluster, as comma-separated {@code host:httpPort:replicationPort} entries
+     * in node id order, e.g. {@code localhost:8081:9081,localhost:8082:9082}. Every node is
+     * given the same list. Set with {@code -Dticketbooking.cluster.nodes} or
+     * {@code TICKETBOOKING_CLUSTER_NODES}; empty, the default, runs a single node.
+     */
+    public static List<String> clusterNodes() {
+        return Arrays.stream(get("ticketbooking.cluster.nodes", "TICKETBOOKING_CLUSTER_NODES", "").split(","))
+                .map(String::trim)
+                .filter(node -> !node.isEmpty())
+                .toList();
+    }
+
+    /**
+     * Which entry of {@link #clusterNodes()} this process is, counting from 0. Set with
+     * {@code -Dticketbooking.node.id} or {@code TICKETBOOKING_NODE_ID}; defaults to 0.
+     */
+    public static int nodeId() {
+        return Integer.parseInt(get("ticketbooking.node.id", "TICKETBOOKING_NODE_ID", "0"));
+    }
+
+    /**
+     * Shared by the nodes of a cluster so that a node only trusts calls and replication streams
+     * that really come from another node. Set with {@code -Dticketbooking.cluster.secret} or
+     * {@code TICKETBOOKING_CLUSTER_SECRET}; a cluster node will not start without one.
+     */
+    public static String clusterSecret() {
+        return get("ticketbooking.cluster.secret", "TICKETBOOKING_CLUSTER_SECRET", "");
+    }
+
+    /**
+     * Address the replication log is served on. Set with {@code -Dticketbooking.replication.bind}
+     * or {@code TICKETBOOKING_REPLICATION_BIND}, e.g. {@code 0.0.0.0} for every interface;
+     * defaults to the host given for this node in {@link #clusterNodes()}.
+     */
+    public static String replicationBind() {
+        return get("ticketbooking.replication.bind", "TICKETBOOKING_REPLICATION_BIND", "");
+    }
+
+    /**
+     * Size in bytes at which the replication log starts a new segment file; only whole
+     * segments are ever dropped. Set with {@code -Dticketbooking.replication.segment.bytes} or
+     * {@code TICKETBOOKING_REPLICATION_SEGMENT_BYTES}; defaults to 64 MB.
+     */
+    public static long replicationSegmentBytes() {
+        return Long.parseLong(get("ticketbooking.replication.segment.bytes", "TICKETBOOKING_REPLICATION_SEGMENT_BYTES",
+                String.valueOf(64L * 1024 * 1024)));
+    }
+
+    private static String get(String property, String env, String defaultValue) {
+        String value = System.getProperty(property);
+        if (value == null) value = System.getenv(env);
+        return value == null || value.isBlank() ? defaultValue : value;
+    }
+}
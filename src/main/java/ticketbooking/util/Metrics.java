@@ -0,0 +1,167 @@
+package ticketbooking.util;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide metrics: counters, latency histograms and gauges, registered by name on first
+ * use. Counters are {@link LongAdder}s and histograms {@link LatencyHistogram}s, so recording
+ * never blocks; gauges are only evaluated when read.
+ *
+ * Everything can be read as Prometheus-style text via {@link #scrape()} (served on
+ * {@code GET /metrics}) and over JMX as the attributes of {@code ticketbooking:type=Metrics}.
+ */
+public final class Metrics {
+
+    private static final ConcurrentMap<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, LatencyHistogram> histograms = new ConcurrentHashMap<>();
+    // each gauge reports one value per label value, e.g. per train
+    private static final ConcurrentMap<String, Gauge> gauges = new ConcurrentHashMap<>();
+
+    private record Gauge(String label, Supplier<Map<String, Long>> values) {}
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private Metrics() {}
+
+    public static LongAdder counter(String name) {
+        return counters.computeIfAbsent(name, n -> new LongAdder());
+    }
+
+    public static LatencyHistogram histogram(String name) {
+        return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+    }
+
+    /**
+     * Registers a gauge whose values, keyed by the value of {@code label}, are computed each
+     * time it is read. Registering the same name again replaces the previous gauge.
+     */
+    public static void gauge(String name, String label, Supplier<Map<String, Long>> values) {
+        gauges.put(name, new Gauge(label, values));
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format, times in seconds.
+     */
+    public static String scrape() {
+        StringBuilder out = new StringBuilder();
+        new TreeMap<>(counters).forEach((name, counter) -> {
+            out.append("# TYPE ticketbooking_").append(name).append(" counter\n");
+            out.append("ticketbooking_").append(name).append(' ').append(counter.sum()).append('\n');
+        });
+        new TreeMap<>(histograms).forEach((name, histogram) -> {
+            String metric = "ticketbooking_" + name + "_seconds";
+            out.append("# TYPE ").append(metric).append(" summary\n");
+            for (double q : QUANTILES) {
+                out.append(metric).append("{quantile=\"").append(q).append("\"} ")
+                        .append(seconds(histogram.percentile(q))).append('\n');
+            }
+            out.append(metric).append("_max ").append(seconds(histogram.maxNanos())).append('\n');
+            out.append(metric).append("_sum ").append(seconds(histogram.sumNanos())).append('\n');
+            out.append(metric).append("_count ").append(histogram.count()).append('\n');
+        });
+        new TreeMap<>(gauges).forEach((name, gauge) -> {
+            out.append("# TYPE ticketbooking_").append(name).append(" gauge\n");
+            gauge.values().get().forEach((labelValue, value) -> out.append("ticketbooking_").append(name)
+                    .append('{').append(gauge.label()).append("=\"").append(labelValue.replace("\"", "\\\""))
+                    .append("\"} ").append(value).append('\n'));
+        });
+        return out.toString();
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    /**
+     * Flat name -> value view used for JMX: counters as they are, histogram quantiles in
+     * microseconds, and one entry per gauge label.
+     */
+    static Map<String, Long> values() {
+        Map<String, Long> values = new LinkedHashMap<>();
+        counters.forEach((name, counter) -> values.put(name, counter.sum()));
+        histograms.forEach((name, histogram) -> {
+            values.put(name + "_count", histogram.count());
+            values.put(name + "_p50_us", histogram.percentile(0.5) / 1000);
+            values.put(name + "_p99_us", histogram.percentile(0.99) / 1000);
+            values.put(name + "_p999_us", histogram.percentile(0.999) / 1000);
+            values.put(name + "_max_us", histogram.maxNanos() / 1000);
+        });
+        gauges.forEach((name, gauge) -> gauge.values().get().forEach((label, value) -> values.put(name + "." + label, value)));
+        return values;
+    }
+
+    /**
+     * Publishes the metrics on the platform MBean server. Safe to call more than once.
+     */
+    public static void registerJmx() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("ticketbooking:type=Metrics");
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new MetricsMBean(), name);
+            }
+        } catch (JMException e) {
+            System.out.println("Could not register metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    private static final class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Long value = values().get(attribute);
+            if (value == null) throw new AttributeNotFoundException(attribute);
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("Metrics are read-only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Long> values = values();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                Long value = values.get(attribute);
+                if (value != null) list.add(new Attribute(attribute, value));
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException("No operations");
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            MBeanAttributeInfo[] attributes = values().keySet().stream()
+                    .map(name -> new MBeanAttributeInfo(name, "long", name, true, false, false))
+                    .toArray(MBeanAttributeInfo[]::new);
+            return new MBeanInfo(Metrics.class.getName(), "Ticket booking metrics", attributes, null, null, null);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package ticketbooking.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs bcrypt checks on a small fixed pool with a bounded queue, so a burst of logins cannot
+ * take every CPU or pile up unbounded work. Also keeps login latency figures.
+ *
+ * Pool size and queue length come from {@code ticketbooking.login.threads} and
+ * {@code ticketbooking.login.queue}.
+ */
+public class PasswordVerifier {
+
+    private final ThreadPoolExecutor executor;
+
+    private final LongAdder attempts = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    public PasswordVerifier(int threads, int queueCapacity) {
+        AtomicInteger counter = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), runnable -> {
+                    Thread thread = new Thread(runnable, "password-verifier-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public PasswordVerifier() {
+        this(Integer.getInteger("ticketbooking.login.threads", Runtime.getRuntime().availableProcessors()),
+                Integer.getInteger("ticketbooking.login.queue", 1024));
+    }
+
+    /**
+     * Checks a password against a bcrypt hash. Returns false when the hash is missing or
+     * malformed, or when the verification queue is full.
+     */
+    public boolean verify(String plainPassword, String hashedPassword) {
+        long start = System.nanoTime();
+        attempts.increment();
+        boolean ok = false;
+        try {
+            if (plainPassword != null && hashedPassword != null) {
+                Future<Boolean> result = executor.submit(() -> UserServiceUtil.checkPassword(plainPassword, hashedPassword));
+                ok = result.get();
+            }
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+        } catch (ExecutionException e) {
+            // malformed stored hash
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            long elapsed = System.nanoTime() - start;
+            totalNanos.add(elapsed);
+            maxNanos.accumulateAndGet(elapsed, Math::max);
+            if (!ok) failures.increment();
+        }
+        return ok;
+    }
+
+    public long getAttempts() {
+        return attempts.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public double getMeanLatencyMillis() {
+        long count = attempts.sum();
+        return count == 0 ? 0 : totalNanos.sum() / 1_000_000.0 / count;
+    }
+
+    public double getMaxLatencyMillis() {
+        return maxNanos.get() / 1_000_000.0;
+    }
+
+    public String describe() {
+        return String.format("logins=%d failed=%d rejected=%d meanMs=%.2f maxMs=%.2f cost=%d",
+                getAttempts(), getFailures(), getRejected(), getMeanLatencyMillis(), getMaxLatencyMillis(),
+                UserServiceUtil.getCostFactor());
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,21 @@
+package ticketbooking.util;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares one instance of strings that repeat across the data set, such as station names, train
+ * ids and seat numbers, so a million tickets from Delhi hold one "Delhi" between them.
+ */
+public final class StringPool {
+
+    private static final ConcurrentMap<String, String> POOL = new ConcurrentHashMap<>();
+
+    private StringPool() {}
+
+    public static String intern(String value) {
+        if (value == null) return null;
+        String pooled = POOL.putIfAbsent(value, value);
+        return pooled == null ? value : pooled;
+    }
+}
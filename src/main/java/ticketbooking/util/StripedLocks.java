@@ -0,0 +1,34 @@
+package ticketbooking.util;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Fixed set of locks shared out by key hash. Keys that land on different stripes can be worked
+ * on in parallel while the number of lock objects stays constant.
+ */
+public class StripedLocks {
+
+    private final ReentrantLock[] locks;
+
+    public StripedLocks(int stripes) {
+        // round up to a power of two so a stripe is picked with a mask
+        int size = Math.max(1, stripes);
+        if (Integer.bitCount(size) != 1) {
+            size = Integer.highestOneBit(size) << 1;
+        }
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    public ReentrantLock get(Object key) {
+        int h = key == null ? 0 : key.hashCode();
+        h ^= h >>> 16;
+        return locks[h & (locks.length - 1)];
+    }
+
+    public int size() {
+        return locks.length;
+    }
+}
@@ -0,0 +1,184 @@
+package ticketbooking.util;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Hashed timing wheel: a ring of buckets that a single thread steps through once per tick,
+ * expiring whatever is due in the current bucket. Scheduling and cancelling are O(1) and a
+ * pending timeout costs one small node, so hundreds of thousands of them are cheap, unlike one
+ * scheduled task each. Timeouts further away than one turn of the wheel wait out the extra
+ * turns in their bucket.
+ *
+ * Expiry is only as precise as the tick; a timeout fires between its deadline and one tick
+ * later. {@code onExpiry} runs on the wheel's thread, so it should be short.
+ */
+public class TimingWheel<T> implements Closeable {
+
+    public final class Timeout {
+        private final T payload;
+        private final long deadlineTick;
+        private long rounds;
+        private Timeout prev;
+        private Timeout next;
+        private Bucket<T> bucket;
+        private volatile boolean cancelled;
+
+        private Timeout(T payload, long deadlineTick) {
+            this.payload = payload;
+            this.deadlineTick = deadlineTick;
+        }
+
+        /**
+         * Stops the timeout from firing. Has no effect once it has fired.
+         */
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                cancelledTimeouts.add(this);
+            }
+        }
+    }
+
+    // Only touched by the wheel thread
+    private static final class Bucket<T> {
+        private TimingWheel<T>.Timeout head;
+        private TimingWheel<T>.Timeout tail;
+
+        void add(TimingWheel<T>.Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) head = timeout; else tail.next = timeout;
+            tail = timeout;
+        }
+
+        void remove(TimingWheel<T>.Timeout timeout) {
+            if (timeout.prev == null) head = timeout.next; else timeout.prev.next = timeout.next;
+            if (timeout.next == null) tail = timeout.prev; else timeout.next.prev = timeout.prev;
+            timeout.prev = timeout.next = null;
+            timeout.bucket = null;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket<T>[] wheel;
+    private final int mask;
+    private final Consumer<T> onExpiry;
+    private final LongAdder expiryErrors;
+    private final Thread worker;
+    private final long startNanos;
+
+    // Handed over to the wheel thread, which owns the buckets
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelledTimeouts = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean running = true;
+    private long tick;
+
+    /**
+     * @param wheelSize number of buckets, rounded up to a power of two
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheel(String name, long tickMillis, int wheelSize, Consumer<T> onExpiry) {
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMillis));
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.wheel = (Bucket<T>[]) new Bucket<?>[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket<>();
+        }
+        this.mask = size - 1;
+        this.onExpiry = onExpiry;
+        this.expiryErrors = Metrics.counter(name.replaceAll("[^A-Za-z0-9]+", "_") + "_expiry_errors");
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, name + "-wheel");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Calls {@code onExpiry} with the payload once {@code delayMillis} have passed, unless the
+     * returned timeout is cancelled first.
+     */
+    public Timeout schedule(T payload, long delayMillis) {
+        long elapsed = System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMillis));
+        // round up so nothing fires before its deadline
+        Timeout timeout = new Timeout(payload, (elapsed + tickNanos - 1) / tickNanos);
+        newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (running) {
+            long sleepNanos = startNanos + (tick + 1) * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    if (!running) return;
+                }
+                continue;
+            }
+            tick++;
+            removeCancelled();
+            addNew();
+            expire(wheel[(int) (tick & mask)]);
+        }
+    }
+
+    private void addNew() {
+        Timeout timeout;
+        while ((timeout = newTimeouts.poll()) != null) {
+            if (timeout.cancelled) continue;
+            long due = Math.max(timeout.deadlineTick, tick);
+            timeout.rounds = (due - tick) / wheel.length;
+            wheel[(int) (due & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelledTimeouts.poll()) != null) {
+            // not yet in a bucket if it was cancelled right after being scheduled
+            if (timeout.bucket != null) timeout.bucket.remove(timeout);
+        }
+    }
+
+    private void expire(Bucket<T> bucket) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            Timeout next = timeout.next;
+            if (timeout.cancelled) {
+                bucket.remove(timeout);
+            } else if (timeout.rounds <= 0) {
+                bucket.remove(timeout);
+                try {
+                    onExpiry.accept(timeout.payload);
+                } catch (RuntimeException e) {
+                    // one bad payload must not stop the wheel
+                    expiryErrors.increment();
+                }
+            } else {
+                timeout.rounds--;
+            }
+            timeout = next;
+        }
+    }
+
+    /**
+     * Stops the wheel thread. Pending timeouts never fire.
+     */
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -4,12 +4,19 @@ import org.mindrot.jbcrypt.BCrypt;
 
 public class UserServiceUtil {
 
+    // bcrypt work factor for new hashes, 2^cost rounds; existing hashes keep their own cost
+    private static final int COST_FACTOR = BookingConfig.bcryptCost();
+
     public static String hashPassword(String plainPassword) {
-        return BCrypt.hashpw(plainPassword, BCrypt.gensalt());
+        return BCrypt.hashpw(plainPassword, BCrypt.gensalt(COST_FACTOR));
     }
 
     public static Boolean checkPassword(String plainPassword, String hashedPassword) {
         return BCrypt.checkpw(plainPassword, hashedPassword);
 
     }
+
+    public static int getCostFactor() {
+        return COST_FACTOR;
+    }
 }
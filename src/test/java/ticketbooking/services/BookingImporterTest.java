@@ -0,0 +1,145 @@
+package ticketbooking.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Every line of an import must get its own result, booked or saying why not, without one bad
+ * line affecting the others, and seats must only stay taken for tickets that were stored.
+ */
+class BookingImporterTest {
+
+    private static final List<String> STATIONS = List.of("pune", "lonavala", "karjat", "dadar");
+
+    @TempDir
+    Path dataDir;
+
+    private TrainService trainService;
+    private UserBookingService userBookingService;
+    private boolean usersClosed;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        trainService = new TrainService(dataDir);
+        userBookingService = new UserBookingService(dataDir, 4);
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < STATIONS.size(); i++) {
+            times.put(STATIONS.get(i), String.format("%02d:00:00", 7 + i));
+        }
+        trainService.addTrain(Train.builder()
+                .trainId("DECCAN1")
+                .trainNo("12123")
+                .seats(new SeatInventory(new int[]{4, 4}, STATIONS.size() - 1))
+                .stationTimes(times)
+                .stations(new ArrayList<>(STATIONS))
+                .build());
+        String hash = UserServiceUtil.hashPassword("password");
+        for (String name : List.of("alice", "bob")) {
+            assertTrue(userBookingService.signUp(new User(name, null, hash, new ArrayList<>(), UUID.randomUUID().toString())));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        if (!usersClosed) userBookingService.close();
+        trainService.close();
+    }
+
+    @Test
+    void everyLineIsReportedOnItsOwn() throws IOException {
+        Path input = dataDir.resolve("requests.csv");
+        Files.write(input, List.of(
+                "username,train_id,source,destination,row,seat,count",
+                "alice,DECCAN1,pune,dadar,0,0,",
+                "bob,DECCAN1,lonavala,karjat,0,0,",
+                "carol,DECCAN1,pune,dadar,0,1,",
+                "alice,NOSUCH9,pune,dadar,0,1,",
+                "bob,DECCAN1,,dadar,0,1,",
+                "",
+                "bob,DECCAN1,pune,karjat,,,3",
+                "bob,DECCAN1,pune,dadar,,,0",
+                "alice,deccan1,\"karjat\",dadar,1,3,"));
+
+        List<BookingImporter.Result> results = new BookingImporter(trainService, userBookingService, 2).run(input);
+
+        assertEquals(List.of(2, 3, 4, 5, 6, 8, 9, 10), results.stream().map(BookingImporter.Result::line).toList());
+        assertResult(results.get(0), BookingImporter.Status.BOOKED, 1, null);
+        assertResult(results.get(1), BookingImporter.Status.REJECTED, 0, "Seat already booked or invalid");
+        assertResult(results.get(2), BookingImporter.Status.REJECTED, 0, "Unknown user carol");
+        assertResult(results.get(3), BookingImporter.Status.REJECTED, 0, "Unknown train NOSUCH9");
+        assertResult(results.get(4), BookingImporter.Status.REJECTED, 0, "Missing field source");
+        assertResult(results.get(5), BookingImporter.Status.BOOKED, 3, null);
+        assertResult(results.get(6), BookingImporter.Status.REJECTED, 0, "Invalid field count");
+        assertResult(results.get(7), BookingImporter.Status.BOOKED, 1, null);
+
+        User alice = userBookingService.getUserByName("alice").orElseThrow();
+        User bob = userBookingService.getUserByName("bob").orElseThrow();
+        assertEquals(2, userBookingService.fetchBookings(alice).size());
+        assertEquals(3, userBookingService.fetchBookings(bob).size());
+        SeatInventory seats = trainService.getTrainById("DECCAN1").orElseThrow().getSeats();
+        for (BookingImporter.Result result : results) {
+            for (Ticket ticket : result.tickets()) {
+                String[] seat = ticket.getSeatNumber().split("-");
+                int from = STATIONS.indexOf(ticket.getSource());
+                int to = STATIONS.indexOf(ticket.getDestination());
+                assertFalse(seats.isFree(Integer.parseInt(seat[0]), Integer.parseInt(seat[1]), from, to),
+                        ticket.getSeatNumber() + " is booked but still on sale");
+            }
+        }
+
+        Path report = dataDir.resolve("report.csv");
+        BookingImporter.writeReport(results, report);
+        List<String> lines = Files.readAllLines(report);
+        assertEquals(results.size() + 1, lines.size());
+        assertEquals("line,status,seats,ticket_ids,message", lines.get(0));
+        assertTrue(lines.get(2).startsWith("3,REJECTED,,,\"Seat already booked"), lines.get(2));
+    }
+
+    @Test
+    void ticketsThatCannotBeStoredFailAndGiveTheirSeatsBack() throws IOException {
+        Path input = dataDir.resolve("requests.jsonl");
+        Files.write(input, List.of(
+                "{\"username\":\"alice\",\"train_id\":\"DECCAN1\",\"source\":\"pune\",\"destination\":\"dadar\",\"row\":0,\"seat\":2}",
+                "not json",
+                "{\"username\":\"bob\",\"train_id\":\"DECCAN1\",\"source\":\"pune\",\"destination\":\"karjat\",\"count\":2}"));
+        // the journals are closed, so nothing can be stored
+        userBookingService.close();
+        usersClosed = true;
+
+        List<BookingImporter.Result> results = new BookingImporter(trainService, userBookingService, 2).run(input);
+
+        assertResult(results.get(0), BookingImporter.Status.FAILED, 0, "Tickets could not be stored");
+        assertResult(results.get(1), BookingImporter.Status.REJECTED, 0, "Malformed JSON");
+        assertResult(results.get(2), BookingImporter.Status.FAILED, 0, "Tickets could not be stored");
+        SeatInventory seats = trainService.getTrainById("DECCAN1").orElseThrow().getSeats();
+        assertEquals(seats.rows() * 4, seats.availableSeats(0, STATIONS.size() - 1));
+    }
+
+    private static void assertResult(BookingImporter.Result result, BookingImporter.Status status, int tickets,
+                                     String message) {
+        String line = "line " + result.line();
+        assertEquals(status, result.status(), line);
+        assertEquals(tickets, result.tickets().size(), line);
+        assertEquals(message, result.message(), line);
+    }
+}
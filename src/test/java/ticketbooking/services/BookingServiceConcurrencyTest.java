@@ -0,0 +1,138 @@
+package ticketbooking.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.Train;
+import ticketbooking.entities.User;
+import ticketbooking.util.UserServiceUtil;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Many users booking the same train through {@link BookingService} must end up with one stored
+ * ticket for every seat taken off sale, and no stored ticket whose seat is still on sale.
+ */
+class BookingServiceConcurrencyTest {
+
+    private static final int USERS = 64;
+    private static final int ROWS = 3;
+    private static final int SEATS_PER_ROW = 24;
+    private static final List<String> STATIONS = List.of("pune", "lonavala", "karjat", "kalyan", "dadar");
+
+    @TempDir
+    Path dataDir;
+
+    private TrainService trainService;
+    private UserBookingService userBookingService;
+    private BookingService bookingService;
+    private final List<User> users = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        trainService = new TrainService(dataDir);
+        userBookingService = new UserBookingService(dataDir, 4);
+        bookingService = new BookingService(trainService, userBookingService);
+        int[] widths = new int[ROWS];
+        Arrays.fill(widths, SEATS_PER_ROW);
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < STATIONS.size(); i++) {
+            times.put(STATIONS.get(i), String.format("%02d:30:00", 7 + i));
+        }
+        trainService.addTrain(Train.builder()
+                .trainId("DECCAN1")
+                .trainNo("12123")
+                .seats(new SeatInventory(widths, STATIONS.size() - 1))
+                .stationTimes(times)
+                .stations(new ArrayList<>(STATIONS))
+                .build());
+        String hash = UserServiceUtil.hashPassword("password");
+        for (int i = 0; i < USERS; i++) {
+            User user = new User("rider" + i, null, hash, new ArrayList<>(), UUID.randomUUID().toString());
+            assertTrue(userBookingService.signUp(user));
+            users.add(user);
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        bookingService.close();
+        userBookingService.close();
+        trainService.close();
+    }
+
+    @Test
+    void everyClaimedSeatHasExactlyOneStoredTicket() throws InterruptedException {
+        ConcurrentLinkedQueue<Ticket> issued = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < USERS; i++) {
+            // each user wants one leg of every seat, shared with a quarter of the others
+            User user = users.get(i);
+            int from = i % (STATIONS.size() - 1);
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    for (int index = 0; index < ROWS * SEATS_PER_ROW; index++) {
+                        bookingService.book(user, "DECCAN1", index / SEATS_PER_ROW, index % SEATS_PER_ROW,
+                                STATIONS.get(from), STATIONS.get(from + 1)).ifPresent(issued::add);
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty(), () -> "worker failed: " + failures.peek());
+
+        int segments = STATIONS.size() - 1;
+        int[] holders = new int[ROWS * SEATS_PER_ROW * segments];
+        int stored = 0;
+        for (User user : users) {
+            for (Ticket ticket : userBookingService.fetchBookings(user)) {
+                String[] seat = ticket.getSeatNumber().split("-");
+                int index = Integer.parseInt(seat[0]) * SEATS_PER_ROW + Integer.parseInt(seat[1]);
+                holders[index * segments + STATIONS.indexOf(ticket.getSource())]++;
+                stored++;
+            }
+        }
+        assertEquals(issued.size(), stored);
+
+        Train train = trainService.getTrainById("DECCAN1").orElseThrow();
+        SeatInventory seats = train.getSeats();
+        int claimed = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int seat = 0; seat < SEATS_PER_ROW; seat++) {
+                for (int segment = 0; segment < segments; segment++) {
+                    int count = holders[(row * SEATS_PER_ROW + seat) * segments + segment];
+                    boolean taken = !seats.isFree(row, seat, segment, segment + 1);
+                    String where = "seat " + row + "-" + seat + " segment " + segment;
+                    assertEquals(taken ? 1 : 0, count, where + " has " + count + " tickets");
+                    claimed += count;
+                }
+            }
+        }
+        // every leg of every seat was wanted by someone, so nothing is left on sale
+        assertEquals(ROWS * SEATS_PER_ROW * segments, claimed);
+    }
+}
@@ -0,0 +1,105 @@
+package ticketbooking.services;
+
+import org.junit.jupiter.api.Test;
+import ticketbooking.entities.Itinerary;
+import ticketbooking.entities.Train;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The planner must return the K earliest-arriving itineraries in order, only make changes that
+ * leave at least the change time, and roll over to the next day's runs.
+ */
+class JourneyPlannerTest {
+
+    private static final long BUDGET = TimeUnit.SECONDS.toNanos(5);
+
+    // pune -> lonavala -> karjat, then on from lonavala or karjat to dadar, or direct
+    private final JourneyPlanner planner = new JourneyPlanner(List.of(
+            train("DECCAN1", "pune", "08:00:00", "lonavala", "09:00:00", "karjat", "10:00:00"),
+            train("QUICK2", "lonavala", "09:05:00", "dadar", "10:00:00"),
+            train("LOCAL3", "karjat", "10:20:00", "dadar", "11:00:00"),
+            train("DIRECT4", "pune", "07:00:00", "dadar", "12:00:00"),
+            train("LATER5", "lonavala", "09:30:00", "dadar", "10:30:00")));
+
+    @Test
+    void earliestArrivalsComeFirst() {
+        List<Itinerary> journeys = planner.search("pune", "dadar", JourneyPlanner.parseMinutes("06:00"), 3, 0, BUDGET);
+
+        assertEquals(List.of(List.of("DECCAN1", "QUICK2"), List.of("DECCAN1", "LATER5"), List.of("DECCAN1", "LOCAL3")),
+                journeys.stream().map(JourneyPlannerTest::trainIds).toList());
+        Itinerary first = journeys.get(0);
+        assertEquals(120, first.durationMinutes());
+        assertEquals(1, first.changes());
+        assertEquals(new Itinerary.Leg("DECCAN1", "pune", "lonavala", "08:00:00", 0, "09:00:00", 0, 0),
+                first.legs().get(0));
+        assertEquals(new Itinerary.Leg("QUICK2", "lonavala", "dadar", "09:05:00", 0, "10:00:00", 0, 0),
+                first.legs().get(1));
+    }
+
+    @Test
+    void changesTooTightForTheChangeTimeAreSkipped() {
+        List<Itinerary> journeys = planner.search("pune", "dadar", JourneyPlanner.parseMinutes("06:00"), 3, 10, BUDGET);
+
+        // five minutes at lonavala is too short to catch QUICK2 today
+        assertEquals(List.of(List.of("DECCAN1", "LATER5"), List.of("DECCAN1", "LOCAL3"), List.of("DIRECT4")),
+                journeys.stream().map(JourneyPlannerTest::trainIds).toList());
+        for (Itinerary journey : journeys) {
+            for (int i = 1; i < journey.legs().size(); i++) {
+                Itinerary.Leg in = journey.legs().get(i - 1);
+                Itinerary.Leg out = journey.legs().get(i);
+                int change = minuteOfSearch(out.departure(), out.departureDay())
+                        - minuteOfSearch(in.arrival(), in.arrivalDay());
+                assertTrue(change >= 10, journey + " changes in " + change + " minutes");
+            }
+        }
+        assertEquals(300, journeys.get(2).durationMinutes());
+    }
+
+    @Test
+    void searchLateInTheDayUsesTomorrowsRuns() {
+        List<Itinerary> journeys = planner.search("pune", "dadar", JourneyPlanner.parseMinutes("23:00"), 1, 10, BUDGET);
+
+        assertEquals(1, journeys.size());
+        Itinerary journey = journeys.get(0);
+        assertEquals(List.of("DECCAN1", "LATER5"), trainIds(journey));
+        assertEquals(1, journey.legs().get(0).departureDay());
+        assertEquals(1, journey.legs().get(1).arrivalDay());
+    }
+
+    @Test
+    void unknownStationsGiveNoJourneys() {
+        assertTrue(planner.search("pune", "nowhere", 0, 3, 0, BUDGET).isEmpty());
+        assertTrue(planner.search("dadar", "dadar", 0, 3, 0, BUDGET).isEmpty());
+    }
+
+    private static List<String> trainIds(Itinerary journey) {
+        return journey.legs().stream().map(Itinerary.Leg::trainId).toList();
+    }
+
+    private static int minuteOfSearch(String time, int day) {
+        return day * 24 * 60 + JourneyPlanner.parseMinutes(time);
+    }
+
+    private static Train train(String trainId, String... stopsAndTimes) {
+        List<String> stations = new ArrayList<>();
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < stopsAndTimes.length; i += 2) {
+            stations.add(stopsAndTimes[i]);
+            times.put(stopsAndTimes[i], stopsAndTimes[i + 1]);
+        }
+        return Train.builder()
+                .trainId(trainId)
+                .trainNo(trainId)
+                .stationTimes(times)
+                .stations(stations)
+                .build();
+    }
+}
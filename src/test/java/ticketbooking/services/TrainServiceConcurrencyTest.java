@@ -0,0 +1,152 @@
+package ticketbooking.services;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ticketbooking.entities.SeatInventory;
+import ticketbooking.entities.Train;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Hundreds of threads booking the same train at once must never sell a seat twice.
+ */
+class TrainServiceConcurrencyTest {
+
+    private static final int THREADS = 400;
+    private static final int ROWS = 4;
+    private static final int SEATS_PER_ROW = 72;
+    private static final List<String> STATIONS = List.of("delhi", "agra", "jhansi", "bhopal", "nagpur", "hyderabad");
+
+    @TempDir
+    Path dataDir;
+
+    private TrainService trainService;
+    private Train train;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        trainService = new TrainService(dataDir);
+        int[] widths = new int[ROWS];
+        Arrays.fill(widths, SEATS_PER_ROW);
+        Map<String, String> times = new LinkedHashMap<>();
+        for (int i = 0; i < STATIONS.size(); i++) {
+            times.put(STATIONS.get(i), String.format("%02d:00:00", 6 + i * 2));
+        }
+        trainService.addTrain(Train.builder()
+                .trainId("RUSH1")
+                .trainNo("12001")
+                .seats(new SeatInventory(widths, STATIONS.size() - 1))
+                .stationTimes(times)
+                .stations(new ArrayList<>(STATIONS))
+                .build());
+        train = trainService.getTrainById("RUSH1").orElseThrow();
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        trainService.close();
+    }
+
+    @Test
+    void everySeatIsSoldExactlyOnce() throws InterruptedException {
+        AtomicIntegerArray sold = new AtomicIntegerArray(ROWS * SEATS_PER_ROW);
+        String source = STATIONS.get(0);
+        String destination = STATIONS.get(STATIONS.size() - 1);
+        // every thread walks the seats in the same order, so they all fight over each seat
+        runAtOnce(thread -> {
+            for (int index = 0; index < sold.length(); index++) {
+                if (trainService.bookTicket(train, index / SEATS_PER_ROW, index % SEATS_PER_ROW, source, destination)) {
+                    sold.incrementAndGet(index);
+                }
+            }
+        });
+
+        for (int i = 0; i < sold.length(); i++) {
+            assertEquals(1, sold.get(i), "seat " + (i / SEATS_PER_ROW) + "-" + (i % SEATS_PER_ROW));
+        }
+        assertEquals(0, trainService.seatsLeft(train, source, destination));
+    }
+
+    private record Leg(int row, int seat, int from, int to) {}
+
+    @Test
+    void noLegOfASeatIsSoldTwice() throws InterruptedException {
+        ConcurrentLinkedQueue<Leg> sold = new ConcurrentLinkedQueue<>();
+        runAtOnce(thread -> {
+            Random random = new Random(thread);
+            for (int i = 0; i < 500; i++) {
+                int row = random.nextInt(ROWS);
+                int seat = random.nextInt(SEATS_PER_ROW);
+                int from = random.nextInt(STATIONS.size() - 1);
+                int to = from + 1 + random.nextInt(STATIONS.size() - 1 - from);
+                if (trainService.bookTicket(train, row, seat, STATIONS.get(from), STATIONS.get(to))) {
+                    sold.add(new Leg(row, seat, from, to));
+                }
+            }
+        });
+
+        int segments = STATIONS.size() - 1;
+        int[] holders = new int[ROWS * SEATS_PER_ROW * segments];
+        for (Leg leg : sold) {
+            for (int segment = leg.from(); segment < leg.to(); segment++) {
+                holders[(leg.row() * SEATS_PER_ROW + leg.seat()) * segments + segment]++;
+            }
+        }
+        SeatInventory seats = train.getSeats();
+        for (int row = 0; row < ROWS; row++) {
+            for (int seat = 0; seat < SEATS_PER_ROW; seat++) {
+                for (int segment = 0; segment < segments; segment++) {
+                    int count = holders[(row * SEATS_PER_ROW + seat) * segments + segment];
+                    String where = "seat " + row + "-" + seat + " segment " + segment;
+                    assertTrue(count <= 1, where + " sold " + count + " times");
+                    assertEquals(count == 0, seats.isFree(row, seat, segment, segment + 1), where);
+                }
+            }
+        }
+        assertFalse(sold.isEmpty());
+    }
+
+    private interface Worker {
+        void run(int thread);
+    }
+
+    // Starts every thread at the same moment and waits for all of them
+    private static void runAtOnce(Worker worker) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            int thread = i;
+            threads.add(new Thread(() -> {
+                try {
+                    start.await();
+                    worker.run(thread);
+                } catch (Throwable e) {
+                    failures.add(e);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(failures.isEmpty(), () -> "worker failed: " + failures.peek());
+    }
+}
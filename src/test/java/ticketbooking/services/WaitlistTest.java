@@ -0,0 +1,88 @@
+package ticketbooking.services;
+
+import org.junit.jupiter.api.Test;
+import ticketbooking.entities.WaitlistEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A freed run of segments must go to the highest-priority entry whose journey fits inside it,
+ * the earliest among equals, and an entry put back must keep its place.
+ */
+class WaitlistTest {
+
+    @Test
+    void higherPriorityThenEarlierEntryIsServedFirst() {
+        Waitlist waitlist = new Waitlist(4);
+        waitlist.add(entry(1, 0), 0, 2);
+        waitlist.add(entry(2, 5), 1, 3);
+        waitlist.add(entry(3, 5), 0, 1);
+        waitlist.add(entry(4, 9), 2, 4);
+        waitlist.add(entry(5, 0), 3, 4);
+        // out of range priorities are clamped rather than wrapping into other bits
+        waitlist.add(entry(6, Waitlist.MAX_PRIORITY + 10), 0, 4);
+
+        assertEquals(List.of(6L, 4L, 2L, 3L, 1L, 5L), drain(waitlist, 0, 4));
+        assertEquals(0, waitlist.size());
+    }
+
+    @Test
+    void onlyJourneysInsideTheFreedRunMatch() {
+        Waitlist waitlist = new Waitlist(4);
+        waitlist.add(entry(1, 9), 0, 3);
+        waitlist.add(entry(2, 0), 1, 2);
+        waitlist.add(entry(3, 5), 2, 4);
+
+        assertEquals(List.of(2L), drain(waitlist, 1, 3));
+        assertNull(waitlist.poll(0, 2));
+        assertEquals(3L, waitlist.poll(1, 4).entry().entryId());
+        assertEquals(1L, waitlist.poll(0, 4).entry().entryId());
+    }
+
+    @Test
+    void putBackEntryKeepsItsPlace() {
+        Waitlist waitlist = new Waitlist(3);
+        waitlist.add(entry(1, 3), 0, 2);
+        waitlist.add(entry(2, 3), 0, 2);
+        waitlist.add(entry(3, 3), 1, 2);
+
+        Waitlist.Match first = waitlist.poll(0, 3);
+        assertEquals(1L, first.entry().entryId());
+        assertEquals(0, first.from());
+        assertEquals(2, first.to());
+        waitlist.putBack(first);
+
+        assertEquals(3, waitlist.size());
+        assertEquals(List.of(1L, 2L, 3L), drain(waitlist, 0, 3));
+    }
+
+    @Test
+    void removedEntriesAreSkipped() {
+        Waitlist waitlist = new Waitlist(2);
+        waitlist.add(entry(1, 7), 0, 2);
+        waitlist.add(entry(2, 1), 0, 1);
+        waitlist.add(entry(3, 1), 0, 1);
+
+        assertTrue(waitlist.remove(1));
+        assertTrue(waitlist.remove(3));
+        assertEquals(List.of(2L), drain(waitlist, 0, 2));
+        assertEquals(0, waitlist.entries().size());
+    }
+
+    private static List<Long> drain(Waitlist waitlist, int from, int to) {
+        List<Long> served = new ArrayList<>();
+        for (Waitlist.Match match; (match = waitlist.poll(from, to)) != null; ) {
+            served.add(match.entry().entryId());
+        }
+        return served;
+    }
+
+    private static WaitlistEntry entry(long entryId, int priority) {
+        return new WaitlistEntry(entryId, "user-" + entryId, "DECCAN1", "pune", "dadar", priority, entryId);
+    }
+}
@@ -0,0 +1,209 @@
+package ticketbooking.storage;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ticketbooking.entities.Ticket;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A journal must never replay a change its caller was told failed, must cut off a record torn
+ * by a crash, and must refuse to open when a bad record has good ones after it.
+ */
+class BookingJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private final ObjectMapper objectMapper = new ObjectMapper()
+            .setPropertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE);
+
+    @Test
+    void failedWriteIsRolledBackAndNeverReplayed() throws IOException {
+        Path path = dir.resolve("user.journal");
+        FailingChannel channel = new FailingChannel(FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE));
+        try (BookingJournal journal = new BookingJournal(path, objectMapper, channel)) {
+            journal.open(record -> {});
+            journal.append(booking("kept-1")).join();
+            channel.failingSyncs.set(1);
+            CompletionException failure = assertThrows(CompletionException.class,
+                    () -> journal.append(booking("failed")).join());
+            assertTrue(failure.getCause() instanceof IOException, failure.toString());
+            journal.append(booking("kept-2")).join();
+        }
+
+        assertEquals(List.of("kept-1", "kept-2"), replayedTickets(path));
+    }
+
+    @Test
+    void tornLastRecordIsCutOff() throws IOException {
+        Path path = dir.resolve("user.journal");
+        try (BookingJournal journal = new BookingJournal(path, objectMapper)) {
+            journal.open(record -> {});
+            journal.append(booking("first")).join();
+            journal.append(booking("second")).join();
+        }
+        Files.write(path, "{\"seq\":3,\"type\":\"BO".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+
+        try (BookingJournal journal = new BookingJournal(path, objectMapper)) {
+            List<String> replayed = new ArrayList<>();
+            journal.open(record -> replayed.add(record.getTicket().getTicketId()));
+            assertEquals(List.of("first", "second"), replayed);
+            journal.append(booking("third")).join();
+        }
+        assertEquals(List.of("first", "second", "third"), replayedTickets(path));
+    }
+
+    @Test
+    void corruptRecordWithRecordsAfterItRefusesToOpen() throws IOException {
+        Path path = dir.resolve("user.journal");
+        try (BookingJournal journal = new BookingJournal(path, objectMapper)) {
+            journal.open(record -> {});
+            journal.append(booking("first")).join();
+        }
+        String good = Files.readString(path);
+        Files.writeString(path, "not a record\n" + good, StandardOpenOption.APPEND);
+        long length = Files.size(path);
+
+        try (BookingJournal journal = new BookingJournal(path, objectMapper)) {
+            assertThrows(IOException.class, () -> journal.open(record -> {}));
+        }
+        assertEquals(length, Files.size(path), "nothing may be cut off a journal that failed to open");
+    }
+
+    private List<String> replayedTickets(Path path) throws IOException {
+        List<String> replayed = new ArrayList<>();
+        try (BookingJournal journal = new BookingJournal(path, objectMapper)) {
+            journal.open(record -> replayed.add(record.getTicket().getTicketId()));
+        }
+        return replayed;
+    }
+
+    private static JournalRecord booking(String ticketId) {
+        return JournalRecord.book("user-1", new Ticket(ticketId, "user-1", "pune", "dadar", "2024-01-01", "DECCAN1"));
+    }
+
+    /**
+     * Passes everything through to a real file, except that the next {@code failingSyncs}
+     * syncs fail as a full or failing disk would.
+     */
+    private static final class FailingChannel extends FileChannel {
+        private final FileChannel file;
+        private final AtomicInteger failingSyncs = new AtomicInteger();
+
+        FailingChannel(FileChannel file) {
+            this.file = file;
+        }
+
+        @Override
+        public void force(boolean metaData) throws IOException {
+            if (failingSyncs.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                throw new IOException("No space left on device");
+            }
+            file.force(metaData);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return file.read(dst);
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) throws IOException {
+            return file.read(dsts, offset, length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            return file.write(src);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) throws IOException {
+            return file.write(srcs, offset, length);
+        }
+
+        @Override
+        public long position() throws IOException {
+            return file.position();
+        }
+
+        @Override
+        public FileChannel position(long newPosition) throws IOException {
+            file.position(newPosition);
+            return this;
+        }
+
+        @Override
+        public long size() throws IOException {
+            return file.size();
+        }
+
+        @Override
+        public FileChannel truncate(long size) throws IOException {
+            file.truncate(size);
+            return this;
+        }
+
+        @Override
+        public long transferTo(long position, long count, WritableByteChannel target) throws IOException {
+            return file.transferTo(position, count, target);
+        }
+
+        @Override
+        public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException {
+            return file.transferFrom(src, position, count);
+        }
+
+        @Override
+        public int read(ByteBuffer dst, long position) throws IOException {
+            return file.read(dst, position);
+        }
+
+        @Override
+        public int write(ByteBuffer src, long position) throws IOException {
+            return file.write(src, position);
+        }
+
+        @Override
+        public MappedByteBuffer map(MapMode mode, long position, long size) throws IOException {
+            return file.map(mode, position, size);
+        }
+
+        @Override
+        public FileLock lock(long position, long size, boolean shared) throws IOException {
+            return file.lock(position, size, shared);
+        }
+
+        @Override
+        public FileLock tryLock(long position, long size, boolean shared) throws IOException {
+            return file.tryLock(position, size, shared);
+        }
+
+        @Override
+        protected void implCloseChannel() throws IOException {
+            file.close();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package ticketbooking.storage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ticketbooking.entities.Ticket;
+import ticketbooking.entities.User;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Changes appended to a database shard must load back after a restart, eagerly or lazily, and
+ * cancellations must be replayed until the shard is truncated.
+ */
+class JdbcBookingRepositoryTest {
+
+    @TempDir
+    Path dataDir;
+
+    @Test
+    void appendedChangesLoadBackAfterReopening() throws IOException {
+        try (BookingRepository repository = open()) {
+            assertEquals(OptionalInt.empty(), repository.shardCount());
+            BookingRepository.Shard shard = repository.shard(0, 1);
+            shard.load(false, (user, tickets) -> {
+                throw new AssertionError("new shard has user " + user.getName());
+            });
+            shard.open(record -> {
+                throw new AssertionError("new shard replays " + record.getType());
+            });
+            List<JournalRecord> records = List.of(
+                    JournalRecord.signUp(user("alice", "alice-1", ticket("t1", "alice-1"))),
+                    JournalRecord.signUp(user("bob", "bob-1")),
+                    // seed data may repeat a ticket id within a user
+                    JournalRecord.bookAll("bob-1", List.of(ticket("t2", "bob-1"), ticket("t3", "bob-1"), ticket("t2", "bob-1"))),
+                    JournalRecord.cancelAll("alice-1", List.of(ticket("t1", "alice-1")), List.of(7L)),
+                    JournalRecord.cancelAll("bob-1", List.of(ticket("t2", "bob-1")), List.of(0L)),
+                    JournalRecord.book("nobody", ticket("t4", "nobody")));
+            shard.append(records.subList(0, 3)).join();
+            shard.append(records.subList(3, records.size())).join();
+            shard.close();
+            repository.useShardCount(1);
+        }
+
+        try (BookingRepository repository = open()) {
+            assertEquals(OptionalInt.of(1), repository.shardCount());
+            BookingRepository.Shard shard = repository.shard(0, 1);
+            Map<String, List<String>> loaded = new LinkedHashMap<>();
+            shard.load(false, (user, tickets) -> {
+                assertNull(tickets);
+                loaded.put(user.getName(), ticketIds(user.getTicketsBooked()));
+            });
+            assertEquals(Map.of("alice", List.of(), "bob", List.of("t3", "t2")), loaded);
+
+            Map<String, List<String>> lazy = new LinkedHashMap<>();
+            shard.load(true, (user, tickets) -> {
+                assertNotNull(tickets);
+                assertTrue(user.getTicketsBooked().isEmpty());
+                try {
+                    lazy.put(user.getName(), ticketIds(tickets.read()));
+                } catch (IOException e) {
+                    throw new AssertionError(e);
+                }
+            });
+            assertEquals(loaded, lazy);
+
+            // only the cancellation that released a seat is replayed
+            List<JournalRecord> replayed = new ArrayList<>();
+            shard.open(replayed::add);
+            assertEquals(1, replayed.size());
+            assertEquals("alice-1", replayed.get(0).getUserId());
+            assertEquals(List.of("t1"), ticketIds(replayed.get(0).getTickets()));
+            assertEquals(List.of(7L), replayed.get(0).getSeatVersions());
+            shard.truncate().join();
+            shard.close();
+        }
+
+        try (BookingRepository repository = open()) {
+            BookingRepository.Shard shard = repository.shard(0, 1);
+            shard.load(false, (user, tickets) -> {});
+            shard.open(record -> {
+                throw new AssertionError("truncated shard replays " + record.getType());
+            });
+            shard.close();
+        }
+    }
+
+    @Test
+    void replacedLayoutTakesOverAndOldOneIsDeleted() throws IOException {
+        try (BookingRepository repository = open()) {
+            BookingRepository.Shard old = repository.shard(0, 1);
+            old.replace(List.of(user("alice", "alice-1", ticket("t1", "alice-1"))));
+            repository.useShardCount(1);
+
+            repository.shard(0, 2).replace(List.of(user("alice", "alice-1", ticket("t1", "alice-1"))));
+            repository.shard(1, 2).replace(List.of(user("bob", "bob-1", ticket("t2", "bob-1"))));
+            repository.useShardCount(2);
+            repository.deleteLayout(1);
+
+            assertEquals(OptionalInt.of(2), repository.shardCount());
+            assertEquals(List.of(), names(repository.shard(0, 1)));
+            assertEquals(List.of("alice"), names(repository.shard(0, 2)));
+            assertEquals(List.of("bob"), names(repository.shard(1, 2)));
+        }
+    }
+
+    private BookingRepository open() throws IOException {
+        return new JdbcBookingRepository(EmbeddedDatabase.open(dataDir), new FileBookingRepository(dataDir));
+    }
+
+    private static List<String> names(BookingRepository.Shard shard) throws IOException {
+        List<String> names = new ArrayList<>();
+        shard.load(false, (user, tickets) -> names.add(user.getName()));
+        return names;
+    }
+
+    private static List<String> ticketIds(List<Ticket> tickets) {
+        return tickets.stream().map(Ticket::getTicketId).toList();
+    }
+
+    private static User user(String name, String userId, Ticket... tickets) {
+        return new User(name, null, "hash-" + name, new ArrayList<>(List.of(tickets)), userId);
+    }
+
+    private static Ticket ticket(String ticketId, String userId) {
+        Ticket ticket = new Ticket(ticketId, userId, "pune", "dadar", "2024-01-01", "DECCAN1");
+        ticket.setSeatNumber("0-1");
+        return ticket;
+    }
+}
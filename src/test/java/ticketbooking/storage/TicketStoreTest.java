@@ -0,0 +1,75 @@
+package ticketbooking.storage;
+
+import org.junit.jupiter.api.Test;
+import ticketbooking.entities.Ticket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Every ticket must read back from its off-heap record exactly as it was stored, whether its
+ * fields fit the compact forms or go through the dictionary.
+ */
+class TicketStoreTest {
+
+    @Test
+    void ticketsReadBackExactlyAsStored() {
+        List<String> dates = List.of("2023-12-08T18:30:00Z", "2023-12-08T18:30:00.123Z",
+                "2023-12-08T18:30:00.123456Z", "2023-12-08T18:30:00.123456789Z", "1969-07-20T20:17:40.5Z",
+                "2023-12-08", "2023-12-08T18:30:00.120Z", "+999999-01-01T00:00:00Z");
+        List<String> ids = List.of(UUID.randomUUID().toString(), "seed-ticket-1",
+                UUID.randomUUID().toString().toUpperCase());
+        List<String> seats = List.of("3-14", "0-0", "A1", "03-14", "40000-1");
+
+        TicketStore store = new TicketStore();
+        List<Ticket> stored = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        for (int i = 0; i < dates.size() * seats.size(); i++) {
+            Ticket ticket = ticket(i < ids.size() ? ids.get(i) : UUID.randomUUID().toString(),
+                    dates.get(i % dates.size()), seats.get(i % seats.size()));
+            stored.add(ticket);
+            slots.add(store.add(ticket));
+        }
+        stored.add(ticket(UUID.randomUUID().toString(), null, null));
+        slots.add(store.add(stored.get(stored.size() - 1)));
+
+        for (int i = 0; i < stored.size(); i++) {
+            assertSameTicket(stored.get(i), store.get(slots.get(i)));
+            assertEquals(slots.get(i), store.find(stored.get(i).getTicketId()));
+        }
+        assertEquals(stored.size(), store.size());
+    }
+
+    @Test
+    void freedSlotIsReusedWithoutLeakingTheOldTicket() {
+        TicketStore store = new TicketStore();
+        Ticket first = ticket(UUID.randomUUID().toString(), "2024-01-01T00:00:00.5Z", "1-2");
+        int slot = store.add(first);
+        store.remove(slot);
+        assertEquals(-1, store.find(first.getTicketId()));
+
+        Ticket second = ticket("seed-ticket-2", "2024-01-02", "B7");
+        assertEquals(slot, store.add(second));
+        assertSameTicket(second, store.get(slot));
+        assertEquals(1, store.size());
+    }
+
+    private static Ticket ticket(String ticketId, String date, String seat) {
+        Ticket ticket = new Ticket(ticketId, "user-1", "pune", "dadar", date, "DECCAN1");
+        ticket.setSeatNumber(seat);
+        return ticket;
+    }
+
+    private static void assertSameTicket(Ticket expected, Ticket actual) {
+        assertEquals(expected.getTicketId(), actual.getTicketId());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getSource(), actual.getSource());
+        assertEquals(expected.getDestination(), actual.getDestination());
+        assertEquals(expected.getDateOfTravel(), actual.getDateOfTravel(), expected.getTicketId());
+        assertEquals(expected.getTrainId(), actual.getTrainId());
+        assertEquals(expected.getSeatNumber(), actual.getSeatNumber());
+    }
+}
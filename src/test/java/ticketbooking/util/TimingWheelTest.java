@@ -0,0 +1,78 @@
+package ticketbooking.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Timeouts several turns of the wheel away must wait out those turns, never firing before
+ * their deadline, and cancelled ones must never fire.
+ */
+class TimingWheelTest {
+
+    private static final long TICK_MILLIS = 5;
+    // four buckets, so one turn of the wheel is 20 ms
+    private static final int WHEEL_SIZE = 4;
+
+    @Test
+    void timeoutsSeveralTurnsAwayFireAfterTheirDeadline() throws InterruptedException {
+        long[] delays = {0, 3, 20, 27, 55, 100, 163};
+        Map<Long, Long> firedAfter = new ConcurrentHashMap<>();
+        Map<Long, Long> scheduledAt = new ConcurrentHashMap<>();
+        CountDownLatch fired = new CountDownLatch(delays.length);
+        try (TimingWheel<Long> wheel = new TimingWheel<>("test", TICK_MILLIS, WHEEL_SIZE, delay -> {
+            firedAfter.put(delay, System.nanoTime() - scheduledAt.get(delay));
+            fired.countDown();
+        })) {
+            for (long delay : delays) {
+                scheduledAt.put(delay, System.nanoTime());
+                wheel.schedule(delay, delay);
+            }
+            assertTrue(fired.await(10, TimeUnit.SECONDS), "fired only " + firedAfter.keySet());
+        }
+        for (long delay : delays) {
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(firedAfter.get(delay));
+            assertTrue(elapsedMillis >= delay, delay + " ms timeout fired after " + elapsedMillis + " ms");
+        }
+    }
+
+    @Test
+    void cancelledTimeoutNeverFires() throws InterruptedException {
+        Map<String, Boolean> fired = new ConcurrentHashMap<>();
+        CountDownLatch last = new CountDownLatch(1);
+        try (TimingWheel<String> wheel = new TimingWheel<>("test", TICK_MILLIS, WHEEL_SIZE, payload -> {
+            fired.put(payload, true);
+            if (payload.equals("last")) last.countDown();
+        })) {
+            // one due in this turn, one a few turns out, both in the same bucket as others that fire
+            wheel.schedule("cancelled-soon", 10).cancel();
+            TimingWheel<String>.Timeout later = wheel.schedule("cancelled-later", 90);
+            wheel.schedule("kept", 10);
+            Thread.sleep(30);
+            later.cancel();
+            wheel.schedule("last", 120);
+            assertTrue(last.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(Map.of("kept", true, "last", true), fired);
+    }
+
+    @Test
+    void failingExpiryDoesNotStopTheWheel() throws InterruptedException {
+        CountDownLatch after = new CountDownLatch(1);
+        try (TimingWheel<String> wheel = new TimingWheel<>("test-failing", TICK_MILLIS, WHEEL_SIZE, payload -> {
+            if (payload.equals("bad")) throw new IllegalStateException("bad payload");
+            after.countDown();
+        })) {
+            wheel.schedule("bad", 5);
+            wheel.schedule("good", 45);
+            assertTrue(after.await(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, Metrics.counter("test_failing_expiry_errors").sum());
+    }
+}